@@ -0,0 +1,146 @@
+/**
+ * Copyright 2018-2021 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.sdkdemo;
+
+import android.content.Context;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static androidx.test.platform.app.InstrumentationRegistry.getInstrumentation;
+import static org.junit.Assert.assertEquals;
+
+@RunWith(AndroidJUnit4.class)
+public class SpeedTestHistoryTest {
+    private SpeedTestHistory mHistory;
+    private long mBaseMs;
+
+    @Before
+    public void setUp() {
+        Context context = getInstrumentation().getTargetContext();
+        // In-memory, so the app's own history is untouched.
+        mHistory = new SpeedTestHistory(context, null);
+        // Recent enough that the compaction on open doesn't delete them.
+        mBaseMs = System.currentTimeMillis() - 60000;
+    }
+
+    @After
+    public void tearDown() {
+        mHistory.close();
+    }
+
+    @Test
+    public void queryFiltersByCloudletTypeAndRange() {
+        mHistory.insert(entry("cloudlet1", SpeedTestHistory.TYPE_LATENCY, mBaseMs + 3000, 30));
+        mHistory.insert(entry("cloudlet1", SpeedTestHistory.TYPE_LATENCY, mBaseMs + 1000, 10));
+        mHistory.insert(entry("cloudlet1", SpeedTestHistory.TYPE_DOWNLOAD, mBaseMs + 2000, 50));
+        mHistory.insert(entry("cloudlet2", SpeedTestHistory.TYPE_LATENCY, mBaseMs + 2000, 20));
+
+        List<SpeedTestHistory.Entry> entries = mHistory.query("cloudlet1",
+                SpeedTestHistory.TYPE_LATENCY, mBaseMs, Long.MAX_VALUE);
+        assertEquals(2, entries.size());
+        assertEquals(mBaseMs + 1000, entries.get(0).timeMs);
+        assertEquals(mBaseMs + 3000, entries.get(1).timeMs);
+
+        assertEquals(1, mHistory.query("cloudlet1", SpeedTestHistory.TYPE_LATENCY, mBaseMs + 1000, mBaseMs + 3000).size());
+        assertEquals(3, mHistory.query(null, SpeedTestHistory.TYPE_LATENCY, mBaseMs, Long.MAX_VALUE).size());
+        assertEquals(3, mHistory.query("cloudlet1", null, mBaseMs, Long.MAX_VALUE).size());
+    }
+
+    @Test
+    public void entryRoundTrips() {
+        SpeedTestHistory.Entry entry = entry("cloudlet1", SpeedTestHistory.TYPE_LATENCY, mBaseMs + 1000, 12.5);
+        entry.hostName = "host1";
+        entry.latitude = 37.33;
+        entry.longitude = -121.88;
+        entry.networkType = "wifi";
+        entry.min = 10;
+        entry.max = 15;
+        entry.stddev = 1.5;
+        entry.p95 = 14;
+        entry.lossPercent = 20;
+        mHistory.insert(entry);
+
+        SpeedTestHistory.Entry read = mHistory.query(null, null, mBaseMs, Long.MAX_VALUE).get(0);
+        assertEquals("host1", read.hostName);
+        assertEquals(37.33, read.latitude, 0);
+        assertEquals(-121.88, read.longitude, 0);
+        assertEquals("wifi", read.networkType);
+        assertEquals(12.5, read.value, 0);
+        assertEquals(10, read.min, 0);
+        assertEquals(15, read.max, 0);
+        assertEquals(1.5, read.stddev, 0);
+        assertEquals(14, read.p95, 0);
+        assertEquals(20, read.lossPercent, 0);
+    }
+
+    @Test
+    public void medianValue() {
+        assertEquals(-1, mHistory.getMedianValue("cloudlet1", SpeedTestHistory.TYPE_LATENCY, mBaseMs), 0);
+        mHistory.insert(entry("cloudlet1", SpeedTestHistory.TYPE_LATENCY, mBaseMs + 1000, 30));
+        mHistory.insert(entry("cloudlet1", SpeedTestHistory.TYPE_LATENCY, mBaseMs + 2000, 10));
+        mHistory.insert(entry("cloudlet1", SpeedTestHistory.TYPE_LATENCY, mBaseMs + 3000, 20));
+        assertEquals(20, mHistory.getMedianValue("cloudlet1", SpeedTestHistory.TYPE_LATENCY, mBaseMs), 0);
+        // Only the results since the given time.
+        assertEquals(20, mHistory.getMedianValue("cloudlet1", SpeedTestHistory.TYPE_LATENCY, mBaseMs + 2000), 0);
+        assertEquals(-1, SpeedTestHistory.getMedianValue(new ArrayList<SpeedTestHistory.Entry>()), 0);
+    }
+
+    @Test
+    public void compactDeletesOldResults() {
+        long now = System.currentTimeMillis();
+        mHistory.insert(entry("cloudlet1", SpeedTestHistory.TYPE_LATENCY, now - SpeedTestHistory.MAX_AGE_MS - 1000, 10));
+        mHistory.insert(entry("cloudlet1", SpeedTestHistory.TYPE_LATENCY, now - 1000, 20));
+
+        // The compaction on open may already have deleted the old result, so only check what's left.
+        mHistory.compact(SpeedTestHistory.MAX_AGE_MS, SpeedTestHistory.MAX_ROWS);
+        List<SpeedTestHistory.Entry> entries = mHistory.query(null, null, 0, Long.MAX_VALUE);
+        assertEquals(1, entries.size());
+        assertEquals(20, entries.get(0).value, 0);
+    }
+
+    @Test
+    public void compactKeepsNewestRows() {
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 5; i++) {
+            mHistory.insert(entry("cloudlet1", SpeedTestHistory.TYPE_LATENCY, now - 5000 + i * 1000, i));
+        }
+
+        assertEquals(2, mHistory.compact(SpeedTestHistory.MAX_AGE_MS, 3));
+        List<SpeedTestHistory.Entry> entries = mHistory.query(null, null, 0, Long.MAX_VALUE);
+        assertEquals(3, entries.size());
+        assertEquals(2, entries.get(0).value, 0);
+        assertEquals(4, entries.get(2).value, 0);
+    }
+
+    private static SpeedTestHistory.Entry entry(String cloudletName, String type, long timeMs, double value) {
+        SpeedTestHistory.Entry entry = new SpeedTestHistory.Entry();
+        entry.cloudletName = cloudletName;
+        entry.type = type;
+        entry.timeMs = timeMs;
+        entry.value = value;
+        return entry;
+    }
+}
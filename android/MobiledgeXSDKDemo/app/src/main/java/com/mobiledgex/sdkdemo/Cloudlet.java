@@ -25,20 +25,26 @@ import android.util.Log;
 
 import com.google.android.gms.maps.model.LatLng;
 import com.google.android.gms.maps.model.Marker;
+import com.mobiledgex.computervision.IcmpNotPermittedException;
+import com.mobiledgex.computervision.LatencyProbe;
+import com.mobiledgex.computervision.LatencyStats;
 import com.mobiledgex.matchingengine.performancemetrics.NetTest;
 import com.mobiledgex.matchingengine.performancemetrics.Site;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.Serializable;
 import java.math.BigDecimal;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import fr.bmartel.speedtest.SpeedTestReport;
 import fr.bmartel.speedtest.SpeedTestSocket;
@@ -52,6 +58,24 @@ public class Cloudlet implements Serializable {
 
     // For data transfer measurements, we use base 10. "Mbits/sec" for displayed units.
     public static final int BITS_TO_MBITS = 1000*1000;
+    // A bandwidth test that takes longer than this is stopped, so it doesn't block the queue.
+    private static final long SPEED_TEST_TIMEOUT_MS = 120000;
+    // Stops an upload whose write is blocked past the timeout. HttpURLConnection has no write timeout.
+    private static final ScheduledExecutorService sSpeedTestWatchdog =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "SpeedTestWatchdog");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    // Multi-stream throughput tests are time-bounded rather than byte-bounded.
+    private static final long THROUGHPUT_WARMUP_MS = 2000;
+    private static final long THROUGHPUT_DURATION_MS = 10000;
+    // The loaded latency test uses several download streams, to be sure the link is saturated.
+    private static final int LOADED_LATENCY_STREAMS = 4;
+    private static final long LOADED_LATENCY_IDLE_MS = 3000;
 
     private String mCloudletName;
     private String mAppName;
@@ -61,20 +85,22 @@ public class Cloudlet implements Serializable {
     private double mDistance;
     private boolean mBestMatch;
     private transient Marker mMarker;
+    private transient ThroughputTest.Result mDownloadThroughput;
+    private transient ThroughputTest.Result mUploadThroughput;
+    private transient LoadedLatencyTest.Result mLoadedLatency;
 
     private double latencyMin=9999;
     private double latencyAvg=0;
     private double latencyMax=0;
     private double latencyStddev=0;
-    private double latencyTotal=0;
     private BigDecimal downloadMbps = BigDecimal.valueOf(0);
     private BigDecimal uploadMbps = BigDecimal.valueOf(0);
     private int latencyTestProgress = 0;
     private int mSpeedTestDownloadProgress = 0;
     private int mSpeedTestUploadProgress = 0;
-    private long startTime;
-    private double timeDifference;
     private int mNumPackets = 4;
+    private long mLatencyIntervalMs = CloudletListHolder.DEFAULT_LATENCY_INTERVAL_MS;
+    private transient volatile LatencyStats mLatencyStats = new LatencyStats();
     private int mNumBytes = 1048576;
     private boolean runningOnEmulator = false;
     private boolean pingFailed = false;
@@ -87,6 +113,8 @@ public class Cloudlet implements Serializable {
     private boolean latencyTestTaskRunning = false;
     private boolean speedTestDownloadTaskRunning = false;
     private boolean speedTestUploadTaskRunning = false;
+    private boolean loadedLatencyTestRunning = false;
+    private String mLoadedLatencyStatus = "";
     private String speedTestDownloadErrorMessage = "";
     private String speedTestUploadErrorMessage = "";
     private String mFqdnPrefix;
@@ -111,7 +139,8 @@ public class Cloudlet implements Serializable {
         setUri(fqdnPrefix, fqdn, tls, port);
 
         if(CloudletListHolder.getLatencyTestAutoStart()) {
-            //All AsyncTask instances are run on the same thread, so this queues up the tasks.
+            // Runs concurrently with the latency tests of other cloudlets, up to the
+            // SpeedTestScheduler's parallelism limit.
             startLatencyTest();
         } else {
             Log.i(TAG, "LatencyTestAutoStart is disabled");
@@ -189,7 +218,8 @@ public class Cloudlet implements Serializable {
         latencyAvg=0;
         latencyMax=0;
         latencyStddev=0;
-        latencyTotal=0;
+        mLatencyStats = new LatencyStats();
+        mLatencyIntervalMs = CloudletListHolder.getLatencyIntervalMs();
 
         //ping can't run on an emulator, so detect that case.
         Log.i(TAG, "PRODUCT="+ Build.PRODUCT);
@@ -214,33 +244,219 @@ public class Cloudlet implements Serializable {
             mLatencyTestMethodForced = true;
         }
 
+        // Set here rather than in the task, so a second request made while this one is queued
+        // is ignored.
+        latencyTestTaskRunning = true;
+        Executor executor = CloudletListHolder.getSpeedTestScheduler().getLatencyExecutor();
         if (mLatencyTestMethod == CloudletListHolder.LatencyTestMethod.socket) {
-            new LatencyTestTaskSocket().execute();
+            new LatencyTestTaskSocket().executeOnExecutor(executor);
         } else if (mLatencyTestMethod == CloudletListHolder.LatencyTestMethod.ping) {
-            new LatencyTestTaskPing().execute();
+            new LatencyTestTaskPing().executeOnExecutor(executor);
         } else if (mLatencyTestMethod == CloudletListHolder.LatencyTestMethod.NetTest) {
-            new LatencyTestTaskNetTest().execute();
+            new LatencyTestTaskNetTest().executeOnExecutor(executor);
         } else {
+            latencyTestTaskRunning = false;
             Log.e(TAG, "Unknown mLatencyTestMethod: " + mLatencyTestMethod);
         }
     }
 
+    /**
+     * Queues a download test for this cloudlet, ahead of tests queued for other cloudlets.
+     */
     public void startSpeedTestDownload() {
+        startSpeedTestDownload(SpeedTestScheduler.PRIORITY_SELECTED);
+    }
+
+    /**
+     * Queues a download test. Bandwidth tests run one at a time.
+     * @param priority  One of the SpeedTestScheduler PRIORITY_ values.
+     */
+    public void startSpeedTestDownload(int priority) {
         Log.d(TAG, "downloadUri=" + getDownloadUri() + " speedTestDownloadTaskRunning="+ speedTestDownloadTaskRunning);
         if(speedTestDownloadTaskRunning) {
             Log.d(TAG, "Download SpeedTest already running");
             return;
         }
-        new SpeedTestDownloadTask().execute();
+        speedTestDownloadTaskRunning = true;
+        CloudletListHolder.getSpeedTestScheduler().queueBandwidthTest(mCloudletName+" download",
+                priority, new SpeedTestDownloadTask());
     }
 
+    /**
+     * Queues an upload test for this cloudlet, ahead of tests queued for other cloudlets.
+     */
     public void startSpeedTestUpload() {
+        startSpeedTestUpload(SpeedTestScheduler.PRIORITY_SELECTED);
+    }
+
+    /**
+     * Queues an upload test. Bandwidth tests run one at a time.
+     * @param priority  One of the SpeedTestScheduler PRIORITY_ values.
+     */
+    public void startSpeedTestUpload(int priority) {
         Log.d(TAG, "uploadUri=" + getUploadUri() + " speedTestUploadTaskRunning="+ speedTestUploadTaskRunning);
         if(speedTestUploadTaskRunning) {
             Log.d(TAG, "Upload SpeedTest already running");
             return;
         }
-        new SpeedTestUploadTask().execute();
+        speedTestUploadTaskRunning = true;
+        CloudletListHolder.getSpeedTestScheduler().queueBandwidthTest(mCloudletName+" upload",
+                priority, new SpeedTestUploadTask());
+    }
+
+    /**
+     * Queues a test that measures latency while idle, and again while a download saturates
+     * the link. It is queued with the bandwidth tests, so it never competes with another one.
+     */
+    public void startLoadedLatencyTest() {
+        Log.d(TAG, "downloadUri=" + getDownloadUri() + " loadedLatencyTestRunning="+ loadedLatencyTestRunning);
+        if(loadedLatencyTestRunning) {
+            Log.d(TAG, "Loaded latency test already running");
+            return;
+        }
+        loadedLatencyTestRunning = true;
+        mLoadedLatency = null;
+        mLoadedLatencyStatus = "Queued";
+        notifyLoadedLatencyProgress();
+        CloudletListHolder.getSpeedTestScheduler().queueBandwidthTest(mCloudletName+" loaded latency",
+                SpeedTestScheduler.PRIORITY_SELECTED, new LoadedLatencyTask());
+    }
+
+    public class LoadedLatencyTask implements Runnable {
+        private int mIdleSamples;
+        private int mLoadedSamples;
+
+        @Override
+        public void run() {
+            ThroughputTest load = new ThroughputTest.Builder()
+                    .setUrl(getDownloadUri())
+                    .setDirection(ThroughputTest.Direction.DOWNLOAD)
+                    .setStreams(LOADED_LATENCY_STREAMS)
+                    .setWarmupMs(THROUGHPUT_WARMUP_MS)
+                    .setDurationMs(THROUGHPUT_DURATION_MS)
+                    .build();
+            LoadedLatencyTest test = new LoadedLatencyTest.Builder()
+                    .setHost(mHostName)
+                    .setPort(mOpenPort)
+                    .setIdleMs(LOADED_LATENCY_IDLE_MS)
+                    .setProbeTimeoutMs(socketTimeout)
+                    .setThroughputTest(load)
+                    .setProgressListener(new LoadedLatencyTest.ProgressListener() {
+                        @Override
+                        public void onSample(boolean loaded, double rttMs) {
+                            if (loaded) {
+                                mLoadedSamples++;
+                            } else {
+                                mIdleSamples++;
+                            }
+                            mLoadedLatencyStatus = (loaded ? "Under load: " : "Idle: ")
+                                    + (rttMs < 0 ? "timeout" : String.format("%.1f ms", rttMs))
+                                    + " (" + mIdleSamples + "/" + mLoadedSamples + " samples)";
+                            notifyLoadedLatencyProgress();
+                        }
+                    })
+                    .build();
+            try {
+                mLoadedLatency = test.run();
+                Log.i(TAG, "Loaded latency for "+mHostName+": "+mLoadedLatency);
+                mLoadedLatencyStatus = "";
+            } catch (InterruptedException e) {
+                test.stop();
+                mLoadedLatencyStatus = "Interrupted";
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Loaded latency test failed for "+mHostName, e);
+                mLoadedLatencyStatus = e.getMessage();
+            }
+            loadedLatencyTestRunning = false;
+            notifyLoadedLatencyProgress();
+            CloudletListHolder.notifyCloudletUpdated(Cloudlet.this);
+        }
+    }
+
+    private void notifyLoadedLatencyProgress() {
+        if (mSpeedTestResultsInterface != null) {
+            mSpeedTestResultsInterface.onLoadedLatencyProgress();
+        }
+    }
+
+    /**
+     * Runs a multi-stream throughput test, and blocks until it is finished. Progress and
+     * results are reported the same way as for the single-stream tests.
+     */
+    private void runThroughputTest(final ThroughputTest.Direction direction, String url) {
+        final boolean download = direction == ThroughputTest.Direction.DOWNLOAD;
+        int streams = CloudletListHolder.getThroughputStreams();
+        Log.i(TAG, direction+" throughput test with "+streams+" streams. url="+url);
+        ThroughputTest test = new ThroughputTest.Builder()
+                .setUrl(url)
+                .setDirection(direction)
+                .setStreams(streams)
+                .setWarmupMs(THROUGHPUT_WARMUP_MS)
+                .setDurationMs(THROUGHPUT_DURATION_MS)
+                .setUploadBytesPerRequest(CloudletListHolder.getNumBytesUpload())
+                .setProgressListener(new ThroughputTest.ProgressListener() {
+                    @Override
+                    public void onProgress(int percent, double aggregateMbps) {
+                        if (download) {
+                            downloadMbps = BigDecimal.valueOf(aggregateMbps);
+                            mSpeedTestDownloadProgress = percent;
+                        } else {
+                            uploadMbps = BigDecimal.valueOf(aggregateMbps);
+                            mSpeedTestUploadProgress = percent;
+                        }
+                        notifySpeedTestProgress(download);
+                    }
+                })
+                .build();
+        try {
+            ThroughputTest.Result result = test.run();
+            Log.i(TAG, direction+" throughput for "+mHostName+": "+result);
+            String error = result.failedStreams == streams ? result.firstError : "";
+            if (download) {
+                mDownloadThroughput = result;
+                downloadMbps = BigDecimal.valueOf(result.aggregateMbps);
+                speedTestDownloadErrorMessage = error;
+            } else {
+                mUploadThroughput = result;
+                uploadMbps = BigDecimal.valueOf(result.aggregateMbps);
+                speedTestUploadErrorMessage = error;
+            }
+        } catch (InterruptedException e) {
+            test.stop();
+            Thread.currentThread().interrupt();
+        }
+        notifySpeedTestProgress(download);
+    }
+
+    private void notifySpeedTestProgress(boolean download) {
+        if (mSpeedTestResultsInterface == null) {
+            return;
+        }
+        if (download) {
+            mSpeedTestResultsInterface.onSpeedtestDownloadProgress();
+        } else {
+            mSpeedTestResultsInterface.onSpeedtestUploadProgress();
+        }
+    }
+
+    /**
+     * Waits for a bandwidth test to finish, and stops it if it takes too long.
+     *
+     * @return  true if the test finished, or false if it was stopped before finishing.
+     */
+    private boolean awaitSpeedTest(CountDownLatch done, SpeedTestSocket speedTestSocket, String name) {
+        try {
+            if (done.await(SPEED_TEST_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+            Log.w(TAG, name+" speed test timed out for "+mHostName);
+            speedTestSocket.forceStopTask();
+        } catch (InterruptedException e) {
+            speedTestSocket.forceStopTask();
+            Thread.currentThread().interrupt();
+        }
+        return false;
     }
 
     private static boolean isReachable(String addr, int openPort, int timeOutMillis) {
@@ -268,57 +484,21 @@ public class Cloudlet implements Serializable {
         return mRemoved;
     }
 
-    public class LatencyTestTaskSocket extends AsyncTask<Void, Integer, String> {
+    public class LatencyTestTaskSocket extends AsyncTask<Void, Void, String> {
 
         @Override
         protected String doInBackground(Void... voids) {
             latencyTestTaskRunning = true;
             pingFailed = false;
-            double sumSquare = 0;
-            int countFail = 0;
-            int countSuccess = 0;
-            boolean reachable;
             //First time may be slower because of DNS lookup. Run once before it counts.
             isReachable(mHostName, mOpenPort, socketTimeout);
-            for(int i = 0; i < mNumPackets; i++) {
-                startTime = System.nanoTime();
-                reachable = isReachable(mHostName, mOpenPort, socketTimeout);
-                if(reachable) {
-                    long endTime = System.nanoTime();
-                    timeDifference = (endTime - startTime)/1000000.0;
-                    Log.d(TAG, mHostName +" reachable="+reachable+" Latency=" + timeDifference + " ms.");
-                    latencyTotal += timeDifference;
-                    latencyAvg = latencyTotal/(i+1);
-                    if(timeDifference < latencyMin) { latencyMin = timeDifference; }
-                    if(timeDifference > latencyMax) { latencyMax = timeDifference; }
-                    sumSquare += Math.pow((timeDifference - latencyAvg),2);
-                    latencyStddev = Math.sqrt( sumSquare/(i+1) );
-                    countSuccess++;
-                } else {
-                    countFail++;
-                }
-                publishProgress((int)((i+1.0f)/mNumPackets*100));
-                try {
-                    Thread.sleep(500);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
-
-            }
-            if(countFail == mNumPackets) {
-                Log.w(TAG, "ping failed");
-                pingFailed = true;
+            LatencyProbe.Result result = null;
+            try {
+                result = runLatencyProbe(LatencyProbe.Method.TCP, mOpenPort);
+            } catch (IOException e) {
+                Log.e(TAG, "Socket test failed for "+mHostName+": "+e);
             }
-
-            // Summary logs to match ping output
-            // 10 packets transmitted, 10 packets received, 0.0% packet loss
-            // round-trip min/avg/max/stddev = 202.167/219.318/335.734/38.879 ms
-            String percent = String.format("%.1f", (countFail/(float)mNumPackets*100));
-            String avg = String.format("%.3f", (latencyAvg));
-            String stddev = String.format("%.3f", (latencyStddev));
-            Log.i(TAG, mHostName +" "+mNumPackets+" packets transmitted, "+countSuccess+" packets received, "+percent+"% packet loss");
-            Log.i(TAG, mHostName +" round-trip min/avg/max/stddev = "+latencyMin+"/"+avg+"/"+latencyMax+"/"+stddev+" ms");
-
+            finishLatencyProbe(result);
             return null;
         }
 
@@ -330,88 +510,40 @@ public class Cloudlet implements Serializable {
             if(mSpeedTestResultsInterface != null) {
                 mSpeedTestResultsInterface.onLatencyProgress();
             }
-        }
-
-        @Override
-        protected void onProgressUpdate(Integer... progress) {
-            latencyTestProgress = progress[0];
-            if(mSpeedTestResultsInterface != null) {
-                mSpeedTestResultsInterface.onLatencyProgress();
-            }
+            CloudletListHolder.notifyCloudletUpdated(Cloudlet.this);
         }
 
     }
 
-    public class LatencyTestTaskPing extends AsyncTask<Void, Integer, String> {
+    public class LatencyTestTaskPing extends AsyncTask<Void, Void, String> {
 
         @Override
         protected String doInBackground(Void... voids) {
             pingFailed = false;
-            String pingCommand = "/system/bin/ping -c "+ mNumPackets +" " + mHostName;
-            String inputLine = "";
-
-            String regex = "time=(\\d+.\\d+) ms";
-            Pattern pattern = Pattern.compile(regex);
-            Matcher matcher;
-
             latencyTestTaskRunning = true;
 
-            Log.d(TAG, mCloudletName+ " executing "+pingCommand);
+            LatencyProbe.Result result = null;
             try {
-                // execute the command on the environment interface
-                Process process = Runtime.getRuntime().exec(pingCommand);
-                // gets the input stream to get the output of the executed command
-                BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-
-                double linesTotal = mNumPackets;
-                double linesRead = 0;
-                inputLine = bufferedReader.readLine();
-                while ((inputLine != null)) {
-                    Log.i(TAG, "inputLine="+inputLine);
-                    if (inputLine.length() > 0 && inputLine.contains("time=")) {
-                        linesRead++;
-                        matcher = pattern.matcher(inputLine);
-                        if(matcher.find()) {
-                            double val = Double.parseDouble(matcher.group(1));
-                            latencyTotal += val;
-                            latencyAvg = latencyTotal/linesRead;
-                            if(val < latencyMin) { latencyMin = val; }
-                            if(val > latencyMax) { latencyMax = val; }
-                        }
-                        Log.d(TAG, "linesRead="+linesRead+" linesTotal="+linesTotal+" "+(linesRead/linesTotal*100)+" "+(int)(linesRead/linesTotal*100));
-                        publishProgress((int)(linesRead/linesTotal*100));
-                    }
-                    if (inputLine.length() > 0 && inputLine.contains("avg")) {  // when we get to the last line of executed ping command
-                        break;
-                    }
-                    if (inputLine.length() > 0 && inputLine.contains("100% packet loss")) {  // when we get to the last line of executed ping command (all packets lost)
-                        break;
-                    }
-                    inputLine = bufferedReader.readLine();
-                }
-            }
-            catch (IOException e){
-                Log.e(TAG, "getLatency: EXCEPTION");
-                e.printStackTrace();
-            }
-
-            if(inputLine == null || inputLine.contains("100% packet loss")) {
-                Log.w(TAG, "ping failed");
-                pingFailed = true;
-            } else {
-                // Extract the average round trip time from the inputLine string
-                regex = "(\\d+\\.\\d+)\\/(\\d+\\.\\d+)\\/(\\d+\\.\\d+)\\/(\\d+\\.\\d+) ms";
-                pattern = Pattern.compile(regex);
-                matcher = pattern.matcher(inputLine);
-                if (matcher.find()) {
-                    Log.i(TAG, "output=" + matcher.group(0));
-                    latencyMin = Double.parseDouble(matcher.group(1));
-                    latencyAvg = Double.parseDouble(matcher.group(2));
-                    latencyMax = Double.parseDouble(matcher.group(3));
-                    latencyStddev = Double.parseDouble(matcher.group(4));
+                result = runLatencyProbe(LatencyProbe.Method.ICMP, 0);
+            } catch (UnknownHostException e) {
+                Log.e(TAG, "Can't resolve "+mHostName+": "+e);
+            } catch (IcmpNotPermittedException e) {
+                // Unprivileged ICMP sockets aren't permitted on every device.
+                Log.w(TAG, "ICMP not available. Using socket test instead. "+e);
+                mLatencyTestMethod = CloudletListHolder.LatencyTestMethod.socket;
+                mLatencyTestMethodForced = true;
+                // Don't mix ICMP and TCP samples in the same statistics.
+                mLatencyStats = new LatencyStats();
+                try {
+                    result = runLatencyProbe(LatencyProbe.Method.TCP, mOpenPort);
+                } catch (IOException e2) {
+                    Log.e(TAG, "Socket test failed for "+mHostName+": "+e2);
                 }
+            } catch (IOException e) {
+                // May be transient, so keep using ping for the next test.
+                Log.e(TAG, "Ping test failed for "+mHostName+": "+e);
             }
-
+            finishLatencyProbe(result);
             return null;
         }
 
@@ -423,25 +555,129 @@ public class Cloudlet implements Serializable {
             if(mSpeedTestResultsInterface != null) {
                 mSpeedTestResultsInterface.onLatencyProgress();
             }
+            CloudletListHolder.notifyCloudletUpdated(Cloudlet.this);
         }
 
-        @Override
-        protected void onProgressUpdate(Integer... progress) {
-            latencyTestProgress = progress[0];
-            if(mSpeedTestResultsInterface != null) {
-                mSpeedTestResultsInterface.onLatencyProgress();
-            }
+    }
+
+    /**
+     * Runs a latency probe, and blocks until it is finished. The statistics and progress are
+     * updated, and the listener notified, after every sample.
+     */
+    private LatencyProbe.Result runLatencyProbe(LatencyProbe.Method method, int port) throws IOException {
+        final int[] completed = new int[1];
+        LatencyProbe probe = new LatencyProbe.Builder()
+                .setHost(mHostName)
+                .setMethod(method)
+                .setPort(port)
+                .setCount(mNumPackets)
+                .setIntervalMs(mLatencyIntervalMs)
+                .setTimeoutMs(socketTimeout)
+                .setStats(mLatencyStats)
+                .setListener(new LatencyProbe.Listener() {
+                    @Override
+                    public void onSample(int seq, double rttMs) {
+                        completed[0]++;
+                        updateLatencyFromStats((int)(completed[0]*100.0f/mNumPackets));
+                    }
+                })
+                .build();
+        Log.d(TAG, mCloudletName+" probing "+mHostName+" with "+method+" every "+mLatencyIntervalMs+" ms");
+        try {
+            return probe.run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private void finishLatencyProbe(LatencyProbe.Result result) {
+        if(result == null || result.received == 0) {
+            Log.w(TAG, "ping failed");
+            pingFailed = true;
+        } else {
+            Log.i(TAG, mHostName+" "+result);
+            recordLatencyHistory(result.stats.getPercentile(95), result.stats.getLossPercent());
         }
+    }
 
+    /**
+     * Records the current latency results in the history store.
+     */
+    private void recordLatencyHistory(double p95, double lossPercent) {
+        SpeedTestHistory.Entry entry = newHistoryEntry(SpeedTestHistory.TYPE_LATENCY);
+        entry.value = latencyAvg;
+        entry.min = latencyMin;
+        entry.max = latencyMax;
+        entry.stddev = latencyStddev;
+        entry.p95 = p95;
+        entry.lossPercent = lossPercent;
+        recordHistory(entry);
     }
 
-    public class SpeedTestDownloadTask extends AsyncTask<Void, Void, String> {
+    /**
+     * Records the result of a download or upload test in the history store, if it succeeded.
+     */
+    private void recordBandwidthHistory(boolean download) {
+        String error = download ? speedTestDownloadErrorMessage : speedTestUploadErrorMessage;
+        BigDecimal mbps = download ? downloadMbps : uploadMbps;
+        if (!error.isEmpty() || mbps.signum() <= 0) {
+            return;
+        }
+        SpeedTestHistory.Entry entry = newHistoryEntry(download
+                ? SpeedTestHistory.TYPE_DOWNLOAD : SpeedTestHistory.TYPE_UPLOAD);
+        entry.value = mbps.doubleValue();
+        recordHistory(entry);
+    }
+
+    private SpeedTestHistory.Entry newHistoryEntry(String type) {
+        SpeedTestHistory.Entry entry = new SpeedTestHistory.Entry();
+        entry.cloudletName = mCloudletName;
+        entry.hostName = mHostName;
+        entry.type = type;
+        return entry;
+    }
+
+    private void recordHistory(SpeedTestHistory.Entry entry) {
+        if (mContext == null) {
+            return;
+        }
+        SpeedTestHistory.getInstance(mContext).record(entry, CloudletListHolder.getDeviceLocation());
+    }
+
+    private void updateLatencyFromStats(int progress) {
+        LatencyStats stats = mLatencyStats;
+        if (stats.getCount() > 0) {
+            latencyMin = stats.getMin();
+            latencyAvg = stats.getMean();
+            latencyMax = stats.getMax();
+            latencyStddev = stats.getStddev();
+        }
+        latencyTestProgress = progress;
+        if(mSpeedTestResultsInterface != null) {
+            mSpeedTestResultsInterface.onLatencyProgress();
+        }
+    }
+
+    /**
+     * Runs a download test, and blocks until it is finished.
+     */
+    public class SpeedTestDownloadTask implements Runnable {
 
         @Override
-        protected String doInBackground(Void... params) {
+        public void run() {
 
             speedTestDownloadTaskRunning = true;
             speedTestDownloadErrorMessage = "";
+            mDownloadThroughput = null;
+            if (CloudletListHolder.getThroughputStreams() > 1) {
+                runThroughputTest(ThroughputTest.Direction.DOWNLOAD, getDownloadUri());
+                recordBandwidthHistory(true);
+                speedTestDownloadTaskRunning = false;
+                CloudletListHolder.notifyCloudletUpdated(Cloudlet.this);
+                return;
+            }
+            final CountDownLatch done = new CountDownLatch(1);
             SpeedTestSocket speedTestSocket = new SpeedTestSocket();
 
             // add a listener to wait for speedtest completion and progress
@@ -454,7 +690,10 @@ public class Cloudlet implements Serializable {
                     BigDecimal divisor = new BigDecimal(BITS_TO_MBITS);
                     downloadMbps = report.getTransferRateBit().divide(divisor);
                     speedTestDownloadTaskRunning = false;
-                    mSpeedTestResultsInterface.onSpeedtestDownloadProgress();
+                    done.countDown();
+                    if(mSpeedTestResultsInterface != null) {
+                        mSpeedTestResultsInterface.onSpeedtestDownloadProgress();
+                    }
                 }
 
                 @Override
@@ -463,6 +702,7 @@ public class Cloudlet implements Serializable {
                     Log.e(TAG, "Download speedTestError="+speedTestError+" errorMessage="+errorMessage);
                     speedTestDownloadErrorMessage = speedTestError.toString();
                     speedTestDownloadTaskRunning = false;
+                    done.countDown();
                     downloadMbps = BigDecimal.valueOf(0);
                     if(mSpeedTestResultsInterface != null) {
                         mSpeedTestResultsInterface.onSpeedtestUploadProgress();
@@ -483,70 +723,80 @@ public class Cloudlet implements Serializable {
             });
 
             speedTestSocket.startDownload(getDownloadUri());
-
-            return null;
+            if (!awaitSpeedTest(done, speedTestSocket, "Download") && speedTestDownloadErrorMessage.isEmpty()) {
+                // A partial download isn't a valid result, so it's shown as a failure and not recorded.
+                speedTestDownloadErrorMessage = "Download timed out";
+            }
+            recordBandwidthHistory(true);
+            speedTestDownloadTaskRunning = false;
+            CloudletListHolder.notifyCloudletUpdated(Cloudlet.this);
         }
     }
 
-    public class SpeedTestUploadTask extends AsyncTask<Void, Void, String> {
+    /**
+     * Runs an upload test, and blocks until it is finished.
+     */
+    public class SpeedTestUploadTask implements Runnable {
 
         @Override
-        protected String doInBackground(Void... params) {
+        public void run() {
 
             speedTestUploadTaskRunning = true;
             speedTestUploadErrorMessage = "";
             uploadMbps = BigDecimal.valueOf(0);
-            SpeedTestSocket speedTestSocket = new SpeedTestSocket();
-
-            // add a listener to wait for speedtest completion and progress
-            speedTestSocket.addSpeedTestListener(new ISpeedTestListener() {
-
-                @Override
-                public void onCompletion(final SpeedTestReport report) {
-                    // called when upload is finished
-                    speedTestUploadTaskRunning = false;
-                    Log.v(TAG, "[UPLOAD COMPLETED] rate in bit/s   : " + report.getTransferRateBit());
-                    // Do not update the transfer rate here because the POST response can take long
-                    // enough to receive that it can skew the results, possibly dropping by more than 50 %.
-                }
-
+            mUploadThroughput = null;
+            if (CloudletListHolder.getThroughputStreams() > 1) {
+                runThroughputTest(ThroughputTest.Direction.UPLOAD, getUploadUri());
+                recordBandwidthHistory(false);
+                speedTestUploadTaskRunning = false;
+                CloudletListHolder.notifyCloudletUpdated(Cloudlet.this);
+                return;
+            }
+            final StreamingUpload upload = new StreamingUpload.Builder()
+                    .setUrl(getUploadUri())
+                    .setBytes(CloudletListHolder.getNumBytesUpload())
+                    .setTimeoutMs(SPEED_TEST_TIMEOUT_MS)
+                    .setProgressListener(new StreamingUpload.ProgressListener() {
+                        @Override
+                        public void onProgress(int percent, long bytesSent, double mbps) {
+                            Log.v(TAG, "[UPLOAD PROGRESS] "+percent+"% - "+bytesSent+" bytes, "+mbps+" Mbits/sec");
+                            // When first started, the upload value may spike to an unrealistic value.
+                            // Don't show anything until it's had time to settle.
+                            if (percent > 25) {
+                                uploadMbps = BigDecimal.valueOf(mbps);
+                            }
+                            mSpeedTestUploadProgress = percent;
+                            notifySpeedTestProgress(false);
+                        }
+                    })
+                    .build();
+            ScheduledFuture<?> watchdog = sSpeedTestWatchdog.schedule(new Runnable() {
                 @Override
-                public void onError(SpeedTestError speedTestError, String errorMessage) {
-                    // called when a upload error occurs
-                    Log.e(TAG, "Upload speedTestError="+speedTestError+" errorMessage="+errorMessage);
-                    // A second error may occur as SOCKET_TIMEOUT, which would overwrite a more useful
-                    // INVALID_HTTP_RESPONSE error, so only keep the first error per run.
-                    if (speedTestUploadErrorMessage.isEmpty()) {
-                        speedTestUploadErrorMessage = speedTestError.toString();
-                    }
-                    speedTestUploadTaskRunning = false;
-                    uploadMbps = BigDecimal.valueOf(0);
-                    if(mSpeedTestResultsInterface != null) {
-                        mSpeedTestResultsInterface.onSpeedtestUploadProgress();
-                    }
+                public void run() {
+                    Log.w(TAG, "Stopping upload speed test for "+mHostName);
+                    upload.stop();
                 }
-
-                @Override
-                public void onProgress(final float percent, final SpeedTestReport report) {
-                    // called to notify upload progress
-                    Log.v(TAG, "[UPLOAD PROGRESS] "+percent + "% - rate in bit/s   : " + report.getTransferRateBit());
-                    // When first started, the upload value may spike to an unrealistic value.
-                    // Don't show anything until it's had time to settle.
-                    if (percent > 25) {
-                        BigDecimal divisor = new BigDecimal(BITS_TO_MBITS);
-                        uploadMbps = report.getTransferRateBit().divide(divisor);
-                    }
-                    mSpeedTestUploadProgress = (int) percent;
-                    if(mSpeedTestResultsInterface != null) {
-                        mSpeedTestResultsInterface.onSpeedtestUploadProgress();
-                    }
+            }, SPEED_TEST_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            try {
+                StreamingUpload.Result result = upload.run();
+                Log.i(TAG, "Upload to "+mHostName+": "+result);
+                if (!result.complete) {
+                    // A partial upload isn't a valid result, so it's shown as a failure and not recorded.
+                    Log.w(TAG, "Upload speed test timed out for "+mHostName);
+                    speedTestUploadErrorMessage = "Upload timed out";
                 }
-            });
-
-            mNumBytes = CloudletListHolder.getNumBytesUpload();
-            speedTestSocket.startUpload(getUploadUri(), mNumBytes);
-
-            return null;
+                uploadMbps = BigDecimal.valueOf(result.mbps);
+            } catch (IOException e) {
+                Log.e(TAG, "Upload failed for "+mHostName+": "+e);
+                speedTestUploadErrorMessage = e.toString();
+                uploadMbps = BigDecimal.valueOf(0);
+            } finally {
+                watchdog.cancel(false);
+            }
+            notifySpeedTestProgress(false);
+            recordBandwidthHistory(false);
+            speedTestUploadTaskRunning = false;
+            CloudletListHolder.notifyCloudletUpdated(Cloudlet.this);
         }
     }
 
@@ -582,6 +832,10 @@ public class Cloudlet implements Serializable {
             latencyAvg = site.average;
             latencyMax = site.max();
             latencyStddev = site.stddev;
+            if (latencyAvg > 0) {
+                // NetTest only reports aggregates, so there is no p95 or loss.
+                recordLatencyHistory(0, 0);
+            }
 
             return null;
         }
@@ -592,6 +846,7 @@ public class Cloudlet implements Serializable {
             if(mSpeedTestResultsInterface != null) {
                 mSpeedTestResultsInterface.onLatencyProgress();
             }
+            CloudletListHolder.notifyCloudletUpdated(Cloudlet.this);
         }
     }
 
@@ -659,9 +914,17 @@ public class Cloudlet implements Serializable {
         return latencyStddev;
     }
 
+    /**
+     * @return  All samples of the current or last latency test. Empty if none has run.
+     * Not available for the NetTest method, which only reports aggregates.
+     */
+    public LatencyStats getLatencyStats() {
+        return mLatencyStats;
+    }
+
     public String getSpeedTestDownloadResult() {
         if (speedTestDownloadErrorMessage.isEmpty()) {
-            return String.format("%.2f", downloadMbps) + " Mbits/sec";
+            return String.format("%.2f", downloadMbps) + " Mbits/sec" + formatThroughputDetails(mDownloadThroughput);
         } else {
             return speedTestDownloadErrorMessage;
         }
@@ -669,12 +932,52 @@ public class Cloudlet implements Serializable {
 
     public String getSpeedTestUploadResult() {
         if (speedTestUploadErrorMessage.isEmpty()) {
-            return String.format("%.2f", uploadMbps) + " Mbits/sec";
+            return String.format("%.2f", uploadMbps) + " Mbits/sec" + formatThroughputDetails(mUploadThroughput);
         } else {
             return speedTestUploadErrorMessage;
         }
     }
 
+    /**
+     * @return  The stream count and variation of a multi-stream result, or "" for a
+     * single-stream result.
+     */
+    private static String formatThroughputDetails(ThroughputTest.Result result) {
+        if (result == null) {
+            return "";
+        }
+        return String.format(" (%d streams, \u00B1%.0f%%)", result.streamMbps.length, result.stabilityCv * 100);
+    }
+
+    public ThroughputTest.Result getDownloadThroughput() {
+        return mDownloadThroughput;
+    }
+
+    public ThroughputTest.Result getUploadThroughput() {
+        return mUploadThroughput;
+    }
+
+    /**
+     * @return  Idle and loaded latency, with the inflation under load, or the test status if
+     * there is no result yet.
+     */
+    public String getLoadedLatencyResult() {
+        LoadedLatencyTest.Result result = mLoadedLatency;
+        if (result == null) {
+            return mLoadedLatencyStatus;
+        }
+        if (result.idleSamples == 0 || result.loadedSamples == 0) {
+            return "No latency samples. Failed probes: "+result.failedProbes;
+        }
+        return String.format("Idle %.1f ms, loaded %.1f ms (+%.1f ms, x%.1f) at %.2f Mbits/sec",
+                result.idleMedianMs, result.loadedMedianMs, result.getInflationMs(),
+                result.getInflationRatio(), result.throughput.aggregateMbps);
+    }
+
+    public LoadedLatencyTest.Result getLoadedLatency() {
+        return mLoadedLatency;
+    }
+
     public int getLatencyTestProgress() {
         return latencyTestProgress;
     }
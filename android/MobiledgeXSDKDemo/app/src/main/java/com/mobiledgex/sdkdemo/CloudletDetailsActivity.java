@@ -21,6 +21,7 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import android.util.Log;
 import android.view.Menu;
@@ -30,17 +31,23 @@ import android.widget.Button;
 import android.widget.ProgressBar;
 import android.widget.TextView;
 
+import com.mobiledgex.computervision.LatencyStats;
+
+import java.util.List;
+
 import static com.mobiledgex.sdkdemo.SettingsActivity.EXTRA_SHOW_FRAGMENT;
 
 public class CloudletDetailsActivity extends AppCompatActivity implements SpeedTestResultsInterface {
 
     private static final String TAG = "CloudletDetailsActivity";
+    private static final long HISTORY_PERIOD_MS = 7L * 24 * 60 * 60 * 1000;
     private Intent intent;
     private Cloudlet cloudlet;
     private TextView cloudletNameTv;
     private TextView appNameTv;
     private TextView speedtestDownloadResultsTv;
     private TextView speedtestUploadResultsTv;
+    private TextView loadedLatencyResultsTv;
     private TextView latencyMinTv;
     private TextView latencyAvgTv;
     private TextView latencyMaxTv;
@@ -54,6 +61,7 @@ public class CloudletDetailsActivity extends AppCompatActivity implements SpeedT
     private Button buttonSpeedTestDownload;
     private Button buttonSpeedTestUpload;
     private Button buttonLatencyTest;
+    private Button buttonLoadedLatencyTest;
     private ProgressBar progressBarDownload;
     private ProgressBar progressBarUpload;
     private ProgressBar progressBarLatency;
@@ -68,13 +76,14 @@ public class CloudletDetailsActivity extends AppCompatActivity implements SpeedT
         intent = getIntent();
 
         String cloudletName = intent.getStringExtra("CloudletName");
-        cloudlet = CloudletListHolder.getCloudletList().get(cloudletName);
+        cloudlet = CloudletListHolder.getCloudlet(cloudletName);
         if(cloudlet == null) {
             Log.e(TAG, "cloudlet "+cloudletName+" not found in list. Aborting.");
             return;
         }
         Log.i(TAG, "cloudlet="+cloudlet+" "+cloudlet.getCloudletName());
         cloudlet.setSpeedTestResultsListener(this);
+        CloudletListHolder.addCloudletListListener(mCloudletListListener);
 
         cloudletNameTv = findViewById(R.id.cloudletName);
         appNameTv = findViewById(R.id.appName);
@@ -85,6 +94,7 @@ public class CloudletDetailsActivity extends AppCompatActivity implements SpeedT
         longitudeTv = findViewById(R.id.longitude);
         speedtestDownloadResultsTv = findViewById(R.id.speedtestDownloadResults);
         speedtestUploadResultsTv = findViewById(R.id.speedtestUploadResults);
+        loadedLatencyResultsTv = findViewById(R.id.loadedLatencyResults);
         latencyMinTv = findViewById(R.id.latencyMin);
         latencyAvgTv = findViewById(R.id.latencyAvg);
         latencyMaxTv = findViewById(R.id.latencyMax);
@@ -124,10 +134,61 @@ public class CloudletDetailsActivity extends AppCompatActivity implements SpeedT
                 cloudlet.startLatencyTest();
             }
         });
+        buttonLoadedLatencyTest = findViewById(R.id.buttonLoadedLatencyTest);
+        buttonLoadedLatencyTest.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                cloudlet.startLoadedLatencyTest();
+            }
+        });
 
         updateUi();
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        CloudletListHolder.removeCloudletListListener(mCloudletListListener);
+    }
+
+    /**
+     * Refreshes the results when this cloudlet is tested from elsewhere, e.g. by "Test All",
+     * and disables testing if the cloudlet is removed while being shown.
+     */
+    private final CloudletListHolder.CloudletListListener mCloudletListListener = new CloudletListHolder.CloudletListListener() {
+        @Override
+        public void onCloudletAdded(Cloudlet added) {
+        }
+
+        @Override
+        public void onCloudletRemoved(Cloudlet removed) {
+            if (removed == cloudlet) {
+                onCloudletGone();
+            }
+        }
+
+        @Override
+        public void onCloudletUpdated(Cloudlet updated) {
+            if (updated == cloudlet) {
+                updateUi();
+            }
+        }
+    };
+
+    private void onCloudletGone() {
+        Log.i(TAG, cloudlet.getCloudletName()+" has been removed");
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                setTitle("Cloudlet Details (removed)");
+                buttonSpeedTestDownload.setEnabled(false);
+                buttonSpeedTestUpload.setEnabled(false);
+                buttonLatencyTest.setEnabled(false);
+                buttonLoadedLatencyTest.setEnabled(false);
+            }
+        });
+    }
+
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         // Inflate the menu; this adds items to the action bar if it is present.
@@ -161,6 +222,10 @@ public class CloudletDetailsActivity extends AppCompatActivity implements SpeedT
             prefs.edit().putBoolean(prefKeyHostEdgeOverride, true).apply();
             return true;
         }
+        if (id == R.id.action_show_history) {
+            showHistory();
+            return true;
+        }
         if (id == R.id.action_speedtest_settings) {
             Intent intent = new Intent(this, SettingsActivity.class);
             intent.putExtra(EXTRA_SHOW_FRAGMENT, SettingsActivity.SpeedTestSettingsFragment.class.getName() );
@@ -191,6 +256,11 @@ public class CloudletDetailsActivity extends AppCompatActivity implements SpeedT
         updateUi();
     }
 
+    @Override
+    public void onLoadedLatencyProgress() {
+        updateUi();
+    }
+
     private void updateUi() {
         runOnUiThread(new Runnable() {
             @Override
@@ -219,17 +289,61 @@ public class CloudletDetailsActivity extends AppCompatActivity implements SpeedT
                 latencyAvgTv.setText(formatValue(cloudlet.getLatencyAvg())+" ms");
                 latencyMaxTv.setText(formatValue(cloudlet.getLatencyMax())+" ms");
                 latencyStddevTv.setText(formatValue(cloudlet.getLatencyStddev())+" ms");
+                LatencyStats stats = cloudlet.getLatencyStats();
+                if (stats != null && stats.getCount() > 0 && !cloudlet.isPingFailed()) {
+                    latencyMessageTv.append(String.format(", p50/p95: %.1f/%.1f ms, jitter: %.1f ms, loss: %.0f%%",
+                            stats.getPercentile(50), stats.getPercentile(95), stats.getJitter(),
+                            stats.getLossPercent()));
+                }
                 progressBarLatency.setProgress(cloudlet.getLatencyTestProgress());
                 progressBarDownload.setProgress(cloudlet.getSpeedTestDownloadProgress());
                 progressBarUpload.setProgress(cloudlet.getSpeedTestUploadProgress());
                 speedtestDownloadResultsTv.setText(cloudlet.getSpeedTestDownloadResult());
                 speedtestUploadResultsTv.setText(cloudlet.getSpeedTestUploadResult());
+                loadedLatencyResultsTv.setText(cloudlet.getLoadedLatencyResult());
                 distanceTv.setText(String.format("%.4f", cloudlet.getDistance()));
                 ipAddressTv.setText(cloudlet.getIpAddress());
             }
         });
     }
 
+    /**
+     * Shows a summary of this cloudlet's test results over the last week.
+     */
+    private void showHistory() {
+        final SpeedTestHistory history = SpeedTestHistory.getInstance(this);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long since = System.currentTimeMillis() - HISTORY_PERIOD_MS;
+                final String message = summarizeHistory(history, SpeedTestHistory.TYPE_LATENCY, "Latency", "ms", since)
+                        + summarizeHistory(history, SpeedTestHistory.TYPE_DOWNLOAD, "Download", "Mbits/sec", since)
+                        + summarizeHistory(history, SpeedTestHistory.TYPE_UPLOAD, "Upload", "Mbits/sec", since);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        new AlertDialog.Builder(CloudletDetailsActivity.this)
+                                .setTitle("Test History (7 days)")
+                                .setMessage(message)
+                                .setPositiveButton("OK", null)
+                                .show();
+                    }
+                });
+            }
+        }).start();
+    }
+
+    private String summarizeHistory(SpeedTestHistory history, String type, String label, String units, long since) {
+        List<SpeedTestHistory.Entry> entries = history.query(cloudlet.getCloudletName(), type, since, Long.MAX_VALUE);
+        if (entries.isEmpty()) {
+            return label + ": no results\n\n";
+        }
+        double median = SpeedTestHistory.getMedianValue(entries);
+        SpeedTestHistory.Entry last = entries.get(entries.size() - 1);
+        return String.format("%s: %d results\nMedian: %.2f %s\nLast: %.2f %s on %s\n\n", label,
+                entries.size(), median, units, last.value, units, last.networkType);
+    }
+
     private String formatValue(double value) {
         return String.format("%.3f", value);
     }
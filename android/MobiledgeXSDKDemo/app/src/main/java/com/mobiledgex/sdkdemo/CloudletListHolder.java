@@ -17,18 +17,37 @@
 
 package com.mobiledgex.sdkdemo;
 
-import android.util.ArrayMap;
+import android.location.Location;
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * This class holds static variables to allow access throughout the app.
+ *
+ * The cloudlet list is an immutable snapshot, replaced on each change, so it can be read and
+ * iterated from any thread without locking. Changes are reported to registered listeners.
  */
 public class CloudletListHolder {
-    private static ArrayMap<String, Cloudlet> mCloudletList = new ArrayMap<>();
+    private static final String TAG = "CloudletListHolder";
+    private static volatile Map<String, Cloudlet> mCloudletList = Collections.emptyMap();
+    private static final List<CloudletListListener> mListeners = new CopyOnWriteArrayList<>();
     private static LatencyTestMethod latencyTestMethod = LatencyTestMethod.ping;
     private static boolean latencyTestAutoStart;
     private static int numBytesDownload;
-    private static int numBytesUpload;
+    private static long numBytesUpload;
     private static int numPackets;
+    private static int throughputStreams = 1;
+    public static final long DEFAULT_LATENCY_INTERVAL_MS = 500;
+    public static final long MIN_LATENCY_INTERVAL_MS = 10;
+    private static long latencyIntervalMs = DEFAULT_LATENCY_INTERVAL_MS;
+    private static volatile Location deviceLocation;
+    private static final SpeedTestScheduler speedTestScheduler =
+            new SpeedTestScheduler(SpeedTestScheduler.DEFAULT_LATENCY_PARALLELISM);
 
     public static int getNumBytesDownload() {
         return numBytesDownload;
@@ -38,11 +57,14 @@ public class CloudletListHolder {
         numBytesDownload = numBytes;
     }
 
-    public static int getNumBytesUpload() {
+    /**
+     * @return  Size of the upload test. The body is streamed, so this may be several gigabytes.
+     */
+    public static long getNumBytesUpload() {
         return numBytesUpload;
     }
 
-    public static void setNumBytesUpload(int numBytes) {
+    public static void setNumBytesUpload(long numBytes) {
         numBytesUpload = numBytes;
     }
 
@@ -54,6 +76,49 @@ public class CloudletListHolder {
         numPackets = count;
     }
 
+    /**
+     * @return  Time between the start of consecutive latency test probes.
+     */
+    public static long getLatencyIntervalMs() {
+        return latencyIntervalMs;
+    }
+
+    public static void setLatencyIntervalMs(long intervalMs) {
+        latencyIntervalMs = Math.max(MIN_LATENCY_INTERVAL_MS, intervalMs);
+    }
+
+    /**
+     * @return  The device location the cloudlet list was last requested for, or null. Test
+     * results are recorded in the history with this location.
+     */
+    public static Location getDeviceLocation() {
+        return deviceLocation;
+    }
+
+    public static void setDeviceLocation(Location location) {
+        deviceLocation = location;
+    }
+
+    /**
+     * @return  Number of parallel connections for download and upload tests. With 1, the
+     * single-stream jspeedtest test is used.
+     */
+    public static int getThroughputStreams() {
+        return throughputStreams;
+    }
+
+    public static void setThroughputStreams(int streams) {
+        throughputStreams = streams;
+    }
+
+    public static SpeedTestScheduler getSpeedTestScheduler() {
+        return speedTestScheduler;
+    }
+
+    public static void setLatencyTestParallelism(int parallelism) {
+        speedTestScheduler.setLatencyParallelism(parallelism);
+    }
+
     public enum LatencyTestMethod {
         ping,
         socket,
@@ -63,12 +128,95 @@ public class CloudletListHolder {
     private CloudletListHolder() {
     }
 
-    public static ArrayMap<String, Cloudlet> getCloudletList() {
+    /**
+     * Listener for changes to the cloudlet list. Methods are called on the thread that made the
+     * change, so listeners that update views must post to the UI thread.
+     */
+    public interface CloudletListListener {
+        void onCloudletAdded(Cloudlet cloudlet);
+
+        /**
+         * Called after the cloudlet is removed from the list and marked as removed.
+         */
+        void onCloudletRemoved(Cloudlet cloudlet);
+
+        /**
+         * Called when the cloudlet's test results have changed.
+         */
+        void onCloudletUpdated(Cloudlet cloudlet);
+    }
+
+    public static void addCloudletListListener(CloudletListListener listener) {
+        mListeners.add(listener);
+    }
+
+    public static void removeCloudletListListener(CloudletListListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * @return  An unmodifiable snapshot of the cloudlets, keyed by cloudlet name. Later changes
+     * to the list are not reflected in it.
+     */
+    public static Map<String, Cloudlet> getCloudletList() {
         return mCloudletList;
     }
 
-    public static void setCloudlets(ArrayMap<String, Cloudlet> mCloudlets) {
-        mCloudletList = mCloudlets;
+    public static Cloudlet getCloudlet(String cloudletName) {
+        return mCloudletList.get(cloudletName);
+    }
+
+    /**
+     * Replaces the list. Listeners are told about each cloudlet that was added or removed.
+     * Cloudlets that are in both lists are unchanged.
+     *
+     * @param cloudlets  The new cloudlets, keyed by cloudlet name.
+     */
+    public static void setCloudlets(Map<String, Cloudlet> cloudlets) {
+        Map<String, Cloudlet> previous;
+        Map<String, Cloudlet> current = Collections.unmodifiableMap(new LinkedHashMap<>(cloudlets));
+        synchronized (CloudletListHolder.class) {
+            previous = mCloudletList;
+            mCloudletList = current;
+        }
+        for (Cloudlet cloudlet : previous.values()) {
+            if (current.get(cloudlet.getCloudletName()) != cloudlet) {
+                notifyRemoved(cloudlet);
+            }
+        }
+        for (Cloudlet cloudlet : current.values()) {
+            if (previous.get(cloudlet.getCloudletName()) != cloudlet) {
+                notifyAdded(cloudlet);
+            }
+        }
+    }
+
+    /**
+     * Tells listeners that the cloudlet's test results have changed. Does nothing if the
+     * cloudlet is no longer in the list.
+     */
+    public static void notifyCloudletUpdated(Cloudlet cloudlet) {
+        if (mCloudletList.get(cloudlet.getCloudletName()) != cloudlet) {
+            return;
+        }
+        for (CloudletListListener listener : mListeners) {
+            listener.onCloudletUpdated(cloudlet);
+        }
+    }
+
+    private static void notifyAdded(Cloudlet cloudlet) {
+        Log.d(TAG, "Added " + cloudlet.getCloudletName());
+        for (CloudletListListener listener : mListeners) {
+            listener.onCloudletAdded(cloudlet);
+        }
+    }
+
+    private static void notifyRemoved(Cloudlet cloudlet) {
+        Log.d(TAG, "Removed " + cloudlet.getCloudletName());
+        cloudlet.setRemoved(true);
+        for (CloudletListListener listener : mListeners) {
+            listener.onCloudletRemoved(cloudlet);
+        }
     }
 
     public static boolean getLatencyTestAutoStart() {
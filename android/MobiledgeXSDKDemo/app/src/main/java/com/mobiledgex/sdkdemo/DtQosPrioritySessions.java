@@ -68,8 +68,10 @@ public class DtQosPrioritySessions {
 
         Button buttonDelSession = content.findViewById(R.id.button_delete);
         buttonDelSession.setOnClickListener(view -> {
-            meHelper.qosPrioritySessionDeleteInBackground();
-            alertDialog.cancel();
+            // If the request can't be queued, keep the dialog open so it can be retried.
+            if (meHelper.qosPrioritySessionDeleteInBackground()) {
+                alertDialog.cancel();
+            }
         });
 
         Button buttonSesDetails = content.findViewById(R.id.button_details);
@@ -93,8 +95,9 @@ public class DtQosPrioritySessions {
             String selectedItemText = items.get(which);
             String requestBody = "";
             int duration = Integer.parseInt(textDuration.getText().toString());
-            meHelper.qosPrioritySessionCreateInBackground(selectedItemText, duration);
-            alertDialog.dismiss();
+            if (meHelper.qosPrioritySessionCreateInBackground(selectedItemText, duration)) {
+                alertDialog.dismiss();
+            }
         });
     }
 }
@@ -0,0 +1,238 @@
+/**
+ * Copyright 2018-2021 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.sdkdemo;
+
+import com.mobiledgex.computervision.LatencyStats;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures latency while the link is idle and again while a throughput test saturates it.
+ *
+ * A link with deep buffers (bufferbloat) can have a low idle latency that grows by hundreds
+ * of milliseconds as soon as it carries traffic. Streaming applications like computer vision
+ * see the loaded latency, so the difference predicts their performance better than an idle
+ * ping does.
+ *
+ * Latency is the TCP connect time to the server, so the probes share the bottleneck queue with
+ * the throughput test's traffic.
+ */
+public class LoadedLatencyTest {
+    private final String mHost;
+    private final int mPort;
+    private final long mIdleMs;
+    private final long mProbeIntervalMs;
+    private final int mProbeTimeoutMs;
+    private final ThroughputTest mThroughputTest;
+    private final ProgressListener mProgressListener;
+    private volatile boolean mStopped;
+
+    public interface ProgressListener {
+        /**
+         * Called from the test thread after each probe.
+         *
+         * @param loaded  True if the sample was taken under load.
+         * @param rttMs  The sample, or -1 if the probe failed.
+         */
+        void onSample(boolean loaded, double rttMs);
+    }
+
+    /**
+     * Result of a run. Latencies are in milliseconds, and are 0 if no probe succeeded.
+     */
+    public static class Result {
+        public final double idleMedianMs;
+        public final double idleP95Ms;
+        public final double loadedMedianMs;
+        public final double loadedP95Ms;
+        public final int idleSamples;
+        public final int loadedSamples;
+        public final int failedProbes;
+        public final ThroughputTest.Result throughput;
+
+        Result(LatencyStats idle, LatencyStats loaded, ThroughputTest.Result throughput) {
+            this.idleMedianMs = idle.getPercentile(50);
+            this.idleP95Ms = idle.getPercentile(95);
+            this.loadedMedianMs = loaded.getPercentile(50);
+            this.loadedP95Ms = loaded.getPercentile(95);
+            this.idleSamples = idle.getCount();
+            this.loadedSamples = loaded.getCount();
+            this.failedProbes = idle.getLost() + loaded.getLost();
+            this.throughput = throughput;
+        }
+
+        /**
+         * @return  How much the median latency grew under load, in milliseconds.
+         */
+        public double getInflationMs() {
+            return loadedMedianMs - idleMedianMs;
+        }
+
+        /**
+         * @return  Loaded median latency divided by idle median latency, or 0 if unknown.
+         */
+        public double getInflationRatio() {
+            return idleMedianMs > 0 ? loadedMedianMs / idleMedianMs : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "idle p50=%.1fms p95=%.1fms, loaded p50=%.1fms p95=%.1fms, "
+                            + "inflation=+%.1fms (x%.1f), samples=%d/%d failed=%d, throughput=%s",
+                    idleMedianMs, idleP95Ms, loadedMedianMs, loadedP95Ms, getInflationMs(),
+                    getInflationRatio(), idleSamples, loadedSamples, failedProbes, throughput);
+        }
+    }
+
+    private LoadedLatencyTest(Builder builder) {
+        mHost = builder.host;
+        mPort = builder.port;
+        mIdleMs = builder.idleMs;
+        mProbeIntervalMs = builder.probeIntervalMs;
+        mProbeTimeoutMs = builder.probeTimeoutMs;
+        mThroughputTest = builder.throughputTest;
+        mProgressListener = builder.progressListener;
+    }
+
+    /**
+     * Runs the test, and blocks until it is finished.
+     */
+    public Result run() throws InterruptedException {
+        // Resolve once up front, so DNS lookup time isn't included in the samples.
+        InetSocketAddress address = new InetSocketAddress(mHost, mPort);
+        LatencyStats idle = new LatencyStats();
+        LatencyStats loaded = new LatencyStats();
+
+        long idleEnd = System.nanoTime() + mIdleMs * 1000000;
+        while (!mStopped && System.nanoTime() < idleEnd) {
+            probe(address, false, idle);
+        }
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        ThroughputTest.Result throughput = null;
+        try {
+            Future<ThroughputTest.Result> future = executor.submit(mThroughputTest::run);
+            while (!mStopped && !future.isDone()) {
+                probe(address, true, loaded);
+            }
+            if (mStopped) {
+                mThroughputTest.stop();
+            }
+            throughput = future.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Throughput test failed", e.getCause());
+        } finally {
+            mThroughputTest.stop();
+            executor.shutdownNow();
+        }
+        return new Result(idle, loaded, throughput);
+    }
+
+    public void stop() {
+        mStopped = true;
+        mThroughputTest.stop();
+    }
+
+    private void probe(InetSocketAddress address, boolean loaded, LatencyStats stats)
+            throws InterruptedException {
+        double rttMs = -1;
+        if (!address.isUnresolved()) {
+            long start = System.nanoTime();
+            try (Socket socket = new Socket()) {
+                socket.connect(address, mProbeTimeoutMs);
+                rttMs = (System.nanoTime() - start) / 1e6;
+            } catch (IOException e) {
+                // Counted below.
+            }
+        }
+        if (rttMs >= 0) {
+            stats.add(rttMs);
+        } else {
+            stats.addLost();
+        }
+        if (mProgressListener != null) {
+            mProgressListener.onSample(loaded, rttMs);
+        }
+        Thread.sleep(mProbeIntervalMs);
+    }
+
+    public static class Builder {
+        private String host;
+        private int port;
+        private long idleMs = 3000;
+        private long probeIntervalMs = 100;
+        private int probeTimeoutMs = 3000;
+        private ThroughputTest throughputTest;
+        private ProgressListener progressListener;
+
+        public Builder setHost(String host) {
+            this.host = host;
+            return this;
+        }
+
+        public Builder setPort(int port) {
+            this.port = port;
+            return this;
+        }
+
+        /**
+         * @param idleMs  Time to measure idle latency for, before the load starts.
+         */
+        public Builder setIdleMs(long idleMs) {
+            this.idleMs = idleMs;
+            return this;
+        }
+
+        public Builder setProbeIntervalMs(long probeIntervalMs) {
+            this.probeIntervalMs = probeIntervalMs;
+            return this;
+        }
+
+        public Builder setProbeTimeoutMs(int probeTimeoutMs) {
+            this.probeTimeoutMs = probeTimeoutMs;
+            return this;
+        }
+
+        /**
+         * @param throughputTest  Provides the load. Latency is measured under load until it finishes.
+         */
+        public Builder setThroughputTest(ThroughputTest throughputTest) {
+            this.throughputTest = throughputTest;
+            return this;
+        }
+
+        public Builder setProgressListener(ProgressListener progressListener) {
+            this.progressListener = progressListener;
+            return this;
+        }
+
+        public LoadedLatencyTest build() {
+            if (host == null || throughputTest == null) {
+                throw new IllegalArgumentException("host and throughputTest are required");
+            }
+            return new LoadedLatencyTest(this);
+        }
+    }
+}
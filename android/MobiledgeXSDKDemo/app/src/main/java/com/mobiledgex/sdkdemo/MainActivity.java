@@ -50,6 +50,7 @@ import android.preference.PreferenceManager;
 import android.util.ArrayMap;
 import android.util.Base64;
 import android.util.Log;
+import android.util.LruCache;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
@@ -131,6 +132,7 @@ import java.nio.charset.StandardCharsets;
 import java.text.DateFormat;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -212,15 +214,27 @@ public class MainActivity extends AppCompatActivity
     private static final int DEF_DRIVING_DURATION = 20; //Seconds
     private static final int DEF_FLYING_DURATION = 15; //Seconds
     private static final int DEF_ROUTE_POINT_REDUCTION = 10;
+    // While a route plays, findCloudlet is run ahead of time for where the device will be.
+    private static final long[] ROUTE_LOOKAHEAD_MS = {5000, 10000, 20000};
 
     private String mApiKey = BuildConfig.GOOGLE_DIRECTIONS_API_KEY;
     private Polyline mRoutePolyLine;
     private List<LatLng> mCloudletLatLngs = new ArrayList<>();
+    // Rendered marker icons, keyed by resource, color, and badge text.
+    private static final int MARKER_ICON_CACHE_SIZE = 32;
+    private final LruCache<String, BitmapDescriptor> mMarkerIconCache = new LruCache<>(MARKER_ICON_CACHE_SIZE);
+    // The icon key each cloudlet marker currently shows, so unchanged icons aren't set again.
+    private final Map<Marker, String> mMarkerIconKeys = new HashMap<>();
+    // Cloudlets that dropped out of the list, whose markers are still shown as removed.
+    private final Map<String, Cloudlet> mRemovedCloudlets = new HashMap<>();
+    // Set when the next cloudlet list replaces the current one, rather than updating it.
+    private volatile boolean mReplaceCloudlets;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         Log.i(TAG, "onCreate()");
+        CloudletListHolder.addCloudletListListener(mCloudletListListener);
 
         /**
          * MatchingEngine APIs require special user approved permissions to READ_PHONE_STATE and
@@ -329,7 +343,10 @@ public class MainActivity extends AppCompatActivity
         // Reuse the onSharedPreferenceChanged code to initialize anything dependent on these prefs:
         onSharedPreferenceChanged(prefs, getResources().getString(R.string.download_size));
         onSharedPreferenceChanged(prefs, getResources().getString(R.string.upload_size));
+        onSharedPreferenceChanged(prefs, getResources().getString(R.string.throughput_streams));
         onSharedPreferenceChanged(prefs, getResources().getString(R.string.latency_packets));
+        onSharedPreferenceChanged(prefs, getResources().getString(R.string.latency_interval));
+        onSharedPreferenceChanged(prefs, getResources().getString(R.string.latency_parallelism));
         onSharedPreferenceChanged(prefs, getResources().getString(R.string.pref_cv_latency_method));
         onSharedPreferenceChanged(prefs, getResources().getString(R.string.pref_latency_autostart));
         onSharedPreferenceChanged(prefs, getResources().getString(R.string.pref_driving_time_seekbar));
@@ -390,6 +407,9 @@ public class MainActivity extends AppCompatActivity
 
         final long[] lastLocationUpdateTime = {0};
         LatLng startPosition = marker.getPosition();
+        List<LatLng> route = (routeMode == RouteMode.DRIVING && mRoutePolyLine != null)
+                ? mRoutePolyLine.getPoints() : Arrays.asList(startPosition, endPosition);
+        RoutePredictor routePredictor = new RoutePredictor(route);
 
         LatLngInterpolator latLngInterpolator = new LatLngInterpolator.LinearFixed();
         mValueAnimator = ValueAnimator.ofFloat(0, 1);
@@ -437,6 +457,7 @@ public class MainActivity extends AppCompatActivity
                 long now = SystemClock.uptimeMillis();
                 if (now - lastLocationUpdateTime[0] > 1000) { // Send every second.
                     meHelper.setSpoofedLocation(newPosition.latitude, newPosition.longitude);
+                    prefetchAlongRoute(routePredictor, newPosition, now);
                     lastLocationUpdateTime[0] = now;
                 }
             }
@@ -453,6 +474,22 @@ public class MainActivity extends AppCompatActivity
         mValueAnimator.start();
     }
 
+    /**
+     * Pre-runs findCloudlet for the positions the device is predicted to reach along the route,
+     * so the next app instance is known and its hostname resolved before the handover.
+     */
+    private void prefetchAlongRoute(RoutePredictor routePredictor, LatLng position, long timeMs) {
+        routePredictor.update(position, timeMs);
+        List<Location> locations = new ArrayList<>();
+        for (LatLng predicted : routePredictor.predict(ROUTE_LOOKAHEAD_MS)) {
+            Location location = new Location("MobiledgeX");
+            location.setLatitude(predicted.latitude);
+            location.setLongitude(predicted.longitude);
+            locations.add(location);
+        }
+        meHelper.prefetchFindCloudletsInBackground(locations);
+    }
+
     protected void drawClosestCloudletLine() {
         Log.i(TAG, "drawClosestCloudletLine. getClosestCloudletPosition()="+getClosestCloudletPosition());
         runOnUiThread(new Runnable() {
@@ -693,6 +730,10 @@ public class MainActivity extends AppCompatActivity
         if (id == R.id.action_find_cloudlet) {
             meHelper.findCloudletInBackground();
         }
+        if (id == R.id.action_speed_test_all) {
+            showMessage("Testing "+CloudletListHolder.getCloudletList().size()+" cloudlets. Latency tests run in parallel, bandwidth tests one at a time.");
+            CloudletListHolder.getSpeedTestScheduler().testAll(CloudletListHolder.getCloudletList().values(), true, true);
+        }
         if (id == R.id.action_update_qos_session) {
             DtQosPrioritySessions.createPrioritySession(this, meHelper);
         }
@@ -1055,23 +1096,18 @@ public class MainActivity extends AppCompatActivity
             return;
         }
         Log.i(TAG, "getCloudlets() mLastKnownLocation="+meHelper.mLastKnownLocation);
-        if(meHelper.mLastKnownLocation == null) {
+        // Before the first GPS fix, a provisional location may be available.
+        if(meHelper.getLocationForMatching() == null) {
             startLocationUpdates();
             showGpsWarning();
             return;
         }
+        CloudletListHolder.setDeviceLocation(meHelper.getLocationForMatching());
 
         if (clearExisting) {
-            runOnUiThread(new Runnable() {
-                @Override
-                public void run() {
-                    //First, remove all cloudlet markers.
-                    mGoogleMap.clear();
-                    mUserLocationMarker = null; // Will be recreated.
-                    //Then clear the list.
-                    CloudletListHolder.getCloudletList().clear();
-                }
-            });
+            // Markers of cloudlets that aren't in the new list will be removed, rather than
+            // shown as removed. Cloudlets that are still there keep their markers.
+            mReplaceCloudlets = true;
         }
 
         showMessage("Performing getAppInstList");
@@ -1113,9 +1149,43 @@ public class MainActivity extends AppCompatActivity
 
     @NonNull
     private BitmapDescriptor makeMarker(int resourceId, int color, String badgeText) {
-        Drawable iconDrawable = getResources().getDrawable(resourceId);
-        iconDrawable.setColorFilter(color, PorterDuff.Mode.MULTIPLY );
-        return getMarkerIconFromDrawable(iconDrawable, color, badgeText);
+        String key = getMarkerIconKey(resourceId, color, badgeText);
+        BitmapDescriptor icon = mMarkerIconCache.get(key);
+        if (icon == null) {
+            Drawable iconDrawable = getResources().getDrawable(resourceId);
+            iconDrawable.setColorFilter(color, PorterDuff.Mode.MULTIPLY );
+            icon = getMarkerIconFromDrawable(iconDrawable, color, badgeText);
+            mMarkerIconCache.put(key, icon);
+        }
+        return icon;
+    }
+
+    private String getMarkerIconKey(int resourceId, int color, String badgeText) {
+        return resourceId + ":" + Integer.toHexString(color) + ":" + badgeText;
+    }
+
+    /**
+     * Sets the cloudlet marker's icon, unless it already shows that icon. Must be called on
+     * the UI thread.
+     */
+    private void setCloudletMarkerIcon(Cloudlet cloudlet, int color) {
+        Marker marker = cloudlet.getMarker();
+        String badgeText = getBadgeText(cloudlet);
+        String key = getMarkerIconKey(R.mipmap.ic_marker_cloudlet, color, badgeText);
+        if (key.equals(mMarkerIconKeys.get(marker))) {
+            return;
+        }
+        mMarkerIconKeys.put(marker, key);
+        marker.setIcon(makeMarker(R.mipmap.ic_marker_cloudlet, color, badgeText));
+    }
+
+    /**
+     * Removes the cloudlet's marker from the map. Must be called on the UI thread.
+     */
+    private void removeCloudletMarker(Cloudlet cloudlet) {
+        Marker marker = cloudlet.getMarker();
+        mMarkerIconKeys.remove(marker);
+        marker.remove();
     }
 
     /**
@@ -1275,8 +1345,8 @@ public class MainActivity extends AppCompatActivity
      * Reset all existing cloudlet markers to default state.
      */
     private void initAllCloudletMarkers() {
-        for (int i = 0; i < CloudletListHolder.getCloudletList().size(); i++) {
-            initCloudletMarker(CloudletListHolder.getCloudletList().valueAt(i));
+        for (Cloudlet cloudlet : CloudletListHolder.getCloudletList().values()) {
+            initCloudletMarker(cloudlet);
         }
     }
 
@@ -1292,11 +1362,7 @@ public class MainActivity extends AppCompatActivity
                 Marker marker = cloudlet.getMarker();
                 String cloudletName = cloudlet.getCloudletName();
                 marker.setTitle(cloudletName);
-                if (cloudlet.isRemoved()) {
-                    marker.setSnippet("Has been removed");
-                } else {
-                    marker.setSnippet("Click for details");
-                }
+                marker.setSnippet(getMarkerSnippet(cloudlet));
                 marker.setTag(cloudletName); // This is used by automation testing.
                 int color = mDefaultCloudletColor;
                 if (meHelper.mClosestCloudlet != null &&
@@ -1304,11 +1370,79 @@ public class MainActivity extends AppCompatActivity
                     cloudlet.setBestMatch(true);
                     color = COLOR_VERIFIED;
                 }
-                marker.setIcon(makeMarker(R.mipmap.ic_marker_cloudlet, color, getBadgeText(cloudlet)));
+                setCloudletMarkerIcon(cloudlet, color);
             }
         });
     }
 
+    /**
+     * @return  Info window text for the cloudlet's marker, with the latest latency if tested.
+     */
+    private String getMarkerSnippet(Cloudlet cloudlet) {
+        if (cloudlet.isRemoved()) {
+            return "Has been removed";
+        }
+        if (cloudlet.getLatencyAvg() > 0) {
+            return String.format(Locale.getDefault(), "Latency %.1f ms. Click for details", cloudlet.getLatencyAvg());
+        }
+        return "Click for details";
+    }
+
+    /**
+     * Keeps cloudlet markers up to date as cloudlets are tested or removed.
+     */
+    private final CloudletListHolder.CloudletListListener mCloudletListListener = new CloudletListHolder.CloudletListListener() {
+        @Override
+        public void onCloudletAdded(Cloudlet cloudlet) {
+            // The marker was created by makeCloudlet().
+        }
+
+        @Override
+        public void onCloudletRemoved(final Cloudlet cloudlet) {
+            Log.i(TAG, cloudlet.getCloudletName() + " has been removed");
+            // A cloudlet whose app instance changed is replaced by one with the same name.
+            final boolean replacing = mReplaceCloudlets
+                    || CloudletListHolder.getCloudlet(cloudlet.getCloudletName()) != null;
+            if (!replacing) {
+                showMessage(cloudlet.getCloudletName() + " has been removed");
+            }
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    if (replacing) {
+                        removeCloudletMarker(cloudlet);
+                        return;
+                    }
+                    // Keep showing the marker as removed, in case the cloudlet comes back.
+                    Cloudlet previous = mRemovedCloudlets.put(cloudlet.getCloudletName(), cloudlet);
+                    if (previous != null && previous != cloudlet) {
+                        removeCloudletMarker(previous);
+                    }
+                    Marker marker = cloudlet.getMarker();
+                    marker.hideInfoWindow();
+                    marker.setSnippet(getMarkerSnippet(cloudlet));
+                    setCloudletMarkerIcon(cloudlet, COLOR_FAILURE);
+                    marker.setAlpha((float) 0.33);
+                }
+            });
+        }
+
+        @Override
+        public void onCloudletUpdated(final Cloudlet cloudlet) {
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    Marker marker = cloudlet.getMarker();
+                    marker.setSnippet(getMarkerSnippet(cloudlet));
+                    if (marker.isInfoWindowShown()) {
+                        // Redraw with the new snippet.
+                        marker.showInfoWindow();
+                    }
+                }
+            });
+        }
+    };
+
     @Override
     public void onRegister() {
         showMessage("Successfully registered client.");
@@ -1397,20 +1531,16 @@ public class MainActivity extends AppCompatActivity
         // Get full list of cloudlets again in case any have been added or removed.
         getCloudlets(false, false);
         initAllCloudletMarkers();
-        Cloudlet cloudlet = null;
         meHelper.mClosestCloudlet = null;
         Log.d(TAG, "Existing CloudletList: "+CloudletListHolder.getCloudletList());
-        for (int i = 0; i < CloudletListHolder.getCloudletList().size(); i++) {
-            cloudlet = CloudletListHolder.getCloudletList().valueAt(i);
+        for (Cloudlet cloudlet : CloudletListHolder.getCloudletList().values()) {
             Log.i(TAG, "Checking: "+closestCloudlet.getFqdn()+" "+cloudlet.getFqdn());
             if(cloudlet.getFqdn().equals(closestCloudlet.getFqdn()) ) {
                 Log.i(TAG, "Got a match! "+cloudlet.getCloudletName());
-                Marker marker = cloudlet.getMarker();
-                String badgeText = getBadgeText(cloudlet);
                 runOnUiThread(new Runnable() {
                     @Override
                     public void run() {
-                        marker.setIcon(makeMarker(R.mipmap.ic_marker_cloudlet, COLOR_VERIFIED, badgeText));
+                        setCloudletMarkerIcon(cloudlet, COLOR_VERIFIED);
                     }
                 });
                 meHelper.mClosestCloudlet = closestCloudlet;
@@ -1450,6 +1580,13 @@ public class MainActivity extends AppCompatActivity
                 ArrayMap<String, Cloudlet> tempCloudlets = new ArrayMap<>();
                 LatLngBounds.Builder builder = new LatLngBounds.Builder();
                 mCloudletLatLngs.clear();
+                if (mReplaceCloudlets) {
+                    // Markers of earlier removed cloudlets go too.
+                    for (Cloudlet removed : mRemovedCloudlets.values()) {
+                        removeCloudletMarker(removed);
+                    }
+                    mRemovedCloudlets.clear();
+                }
 
                 // If you get an empty list because you have changed Region, but not yet Operator
                 // (or vice versa), and then you set a proper combination that does return a list,
@@ -1491,22 +1628,10 @@ public class MainActivity extends AppCompatActivity
                 // Reset all cloudlet markers to default state.
                 initAllCloudletMarkers();
 
-                //Now see if all cloudlets still exist. If removed, show as semi-transparent.
-                for (int i = 0; i < CloudletListHolder.getCloudletList().size(); i++) {
-                    Cloudlet cloudlet = CloudletListHolder.getCloudletList().valueAt(i);
-                    if (!tempCloudlets.containsKey(cloudlet.getCloudletName())) {
-                        Log.i(TAG, cloudlet.getCloudletName() + " has been removed");
-                        showMessage(cloudlet.getCloudletName() + " has been removed");
-                        Marker marker = cloudlet.getMarker();
-                        cloudlet.setRemoved(true);
-                        marker.hideInfoWindow();
-                        marker.setSnippet("Has been removed");
-                        marker.setIcon(makeMarker(R.mipmap.ic_marker_cloudlet, COLOR_FAILURE, getBadgeText(cloudlet)));
-                        marker.setAlpha((float) 0.33);
-                    }
-                }
+                //Cloudlets that no longer exist are removed, or shown as semi-transparent, by mCloudletListListener.
                 Log.i(TAG, "tempCloudlets="+tempCloudlets);
                 CloudletListHolder.setCloudlets(tempCloudlets);
+                mReplaceCloudlets = false;
 
                 // Erase "closest cloudlet" line if it exists.
                 if (mClosestCloudletPolyLine != null) {
@@ -1605,9 +1730,28 @@ public class MainActivity extends AppCompatActivity
         double distance = cloudletLocation.getDistance();
         LatLng latLng = new LatLng(cloudletLocation.getGpsLocation().getLatitude(), cloudletLocation.getGpsLocation().getLongitude());
         Cloudlet cloudlet;
-        if(CloudletListHolder.getCloudletList().containsKey(cloudletName)){
+        // Markers are matched on cloudlet name and FQDN, so only cloudlets that are new, or
+        // whose app instance has changed, get a new marker.
+        Cloudlet existing = CloudletListHolder.getCloudlet(cloudletName);
+        Cloudlet removed = mRemovedCloudlets.remove(cloudletName);
+        if (removed != null) {
+            if (existing == null && removed.getFqdn().equals(fqdn)) {
+                Log.i(TAG, cloudletName+" is back. Restoring its marker.");
+                removed.setRemoved(false);
+                removed.getMarker().setAlpha(1);
+                initCloudletMarker(removed);
+                existing = removed;
+            } else {
+                removeCloudletMarker(removed);
+            }
+        }
+        if(existing != null && existing.getFqdn().equals(fqdn)){
             Log.i(TAG, "Reusing existing marker for "+cloudletName);
-            cloudlet = CloudletListHolder.getCloudletList().get(cloudletName);
+            cloudlet = existing;
+            cloudlet.setDistance(distance);
+            if (!cloudlet.getMarker().getPosition().equals(latLng)) {
+                cloudlet.getMarker().setPosition(latLng);
+            }
         } else {
             Log.i(TAG, "addMarker for "+cloudletName);
             Marker marker = mGoogleMap.addMarker(new MarkerOptions().position(latLng));
@@ -1649,7 +1793,7 @@ public class MainActivity extends AppCompatActivity
         }
 
         String cloudletName = (String) marker.getTag();
-        Cloudlet cloudlet = CloudletListHolder.getCloudletList().get(cloudletName);
+        Cloudlet cloudlet = CloudletListHolder.getCloudlet(cloudletName);
         if (cloudlet == null) {
             Log.d(TAG, "skipping removed cloudlet "+cloudletName);
             return;
@@ -1798,7 +1942,10 @@ public class MainActivity extends AppCompatActivity
         Log.d(TAG, "onSharedPreferenceChanged("+key+")");
         String prefKeyDownloadSize = getResources().getString(R.string.download_size);
         String prefKeyUploadSize = getResources().getString(R.string.upload_size);
+        String prefKeyThroughputStreams = getResources().getString(R.string.throughput_streams);
         String prefKeyNumPackets = getResources().getString(R.string.latency_packets);
+        String prefKeyLatencyInterval = getResources().getString(R.string.latency_interval);
+        String prefKeyLatencyParallelism = getResources().getString(R.string.latency_parallelism);
         String prefKeyLatencyMethod = getResources().getString(R.string.pref_cv_latency_method);
         String prefKeyLatencyAutoStart = getResources().getString(R.string.pref_latency_autostart);
         String prefKeyDrivingAnimDuration = getResources().getString(R.string.pref_driving_time_seekbar);
@@ -1825,7 +1972,7 @@ public class MainActivity extends AppCompatActivity
         }
 
         if (key.equals(prefKeyUploadSize)) {
-            int numBytes = Integer.parseInt(sharedPreferences.getString(key, "5242880"));
+            long numBytes = Long.parseLong(sharedPreferences.getString(key, "5242880"));
             Log.i(TAG, "onSharedPreferenceChanged("+key+")="+numBytes);
             CloudletListHolder.setNumBytesUpload(numBytes);
         }
@@ -1836,6 +1983,24 @@ public class MainActivity extends AppCompatActivity
             CloudletListHolder.setNumPackets(numPackets);
         }
 
+        if (key.equals(prefKeyLatencyInterval)) {
+            long intervalMs = Long.parseLong(sharedPreferences.getString(key, ""+CloudletListHolder.DEFAULT_LATENCY_INTERVAL_MS));
+            Log.i(TAG, "onSharedPreferenceChanged("+key+")="+intervalMs);
+            CloudletListHolder.setLatencyIntervalMs(intervalMs);
+        }
+
+        if (key.equals(prefKeyThroughputStreams)) {
+            int streams = Integer.parseInt(sharedPreferences.getString(key, "1"));
+            Log.i(TAG, "onSharedPreferenceChanged("+key+")="+streams);
+            CloudletListHolder.setThroughputStreams(streams);
+        }
+
+        if (key.equals(prefKeyLatencyParallelism)) {
+            int parallelism = Integer.parseInt(sharedPreferences.getString(key, ""+SpeedTestScheduler.DEFAULT_LATENCY_PARALLELISM));
+            Log.i(TAG, "onSharedPreferenceChanged("+key+")="+parallelism);
+            CloudletListHolder.setLatencyTestParallelism(parallelism);
+        }
+
         if (key.equals(prefKeyDrivingAnimDuration)) {
             mDrivingAnimDuration = 1000 * sharedPreferences.getInt(key, DEF_DRIVING_DURATION);
             Log.i(TAG, "onSharedPreferenceChanged("+key+")="+mDrivingAnimDuration);
@@ -1884,7 +2049,10 @@ public class MainActivity extends AppCompatActivity
                     .setView(mMapFragment.getView())
                     .setTestPort(DEFAULT_SPEED_TEST_PORT)
                     .build();
+            // Register while the location is still being acquired.
+            meHelper.registerClientInBackground();
         }
+        meHelper.onResume();
 
         Log.i(TAG, "onResume() mEdgeEventsConfigUpdated="+mEdgeEventsConfigUpdated+" mAppDefinitionUpdated="+mAppDefinitionUpdated);
         if (mEdgeEventsEnabled && mEdgeEventsConfigUpdated) {
@@ -1905,6 +2073,7 @@ public class MainActivity extends AppCompatActivity
         super.onPause();
         if (meHelper != null) {
             meHelper.stopLocationUpdates();
+            meHelper.onPause();
         }
     }
 
@@ -1926,6 +2095,7 @@ public class MainActivity extends AppCompatActivity
     public void onDestroy() {
         Log.d(TAG, "onDestroy()");
         super.onDestroy();
+        CloudletListHolder.removeCloudletListListener(mCloudletListListener);
         meHelper.onDestroy();
     }
 
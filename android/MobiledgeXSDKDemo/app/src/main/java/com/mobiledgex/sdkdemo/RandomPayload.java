@@ -0,0 +1,76 @@
+/**
+ * Copyright 2018-2021 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.sdkdemo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Generates an upload body of pseudo-random bytes on the fly.
+ *
+ * One buffer is reused for the whole body, so memory use doesn't depend on the body size.
+ * The bytes are random so compression along the path can't shrink them, but they don't need
+ * to be secure, so a xorshift generator is used instead of SecureRandom.
+ */
+class RandomPayload {
+    private final byte[] mBuffer;
+    private long mState;
+
+    /**
+     * @param bufferSize  Size of the reused buffer, and of each write.
+     * @param seed  Seed of the generator. The same seed gives the same bytes.
+     */
+    RandomPayload(int bufferSize, long seed) {
+        mBuffer = new byte[bufferSize];
+        mState = seed == 0 ? 0x9E3779B97F4A7C15L : seed;
+    }
+
+    /**
+     * Refills the buffer with new bytes.
+     *
+     * @return  The buffer. Its contents are only valid until the next call.
+     */
+    byte[] next() {
+        int i = 0;
+        while (i < mBuffer.length) {
+            mState ^= mState << 13;
+            mState ^= mState >>> 7;
+            mState ^= mState << 17;
+            long value = mState;
+            for (int b = 0; b < 8 && i < mBuffer.length; b++) {
+                mBuffer[i++] = (byte) value;
+                value >>>= 8;
+            }
+        }
+        return mBuffer;
+    }
+
+    /**
+     * Writes bytes to the stream one buffer at a time.
+     *
+     * @param out  The stream.
+     * @param bytes  Number of bytes to write. Must fit in the buffer.
+     */
+    void write(OutputStream out, int bytes) throws IOException {
+        out.write(next(), 0, bytes);
+    }
+
+    int getBufferSize() {
+        return mBuffer.length;
+    }
+}
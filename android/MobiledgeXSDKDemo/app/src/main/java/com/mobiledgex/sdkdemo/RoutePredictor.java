@@ -0,0 +1,129 @@
+/**
+ * Copyright 2018-2021 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.sdkdemo;
+
+import com.google.android.gms.maps.model.LatLng;
+import com.google.maps.android.SphericalUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Predicts where the device will be along a route, from its current position and speed.
+ */
+public class RoutePredictor {
+    private static final double SPEED_SMOOTHING = 0.3;
+
+    private final List<LatLng> mRoute;
+    private final double[] mDistanceAlong;
+    private LatLng mLastPosition;
+    private long mLastTime;
+    private double mSpeedMps;
+
+    /**
+     * @param route  The points of the route, in order. For a straight flight, just the start and end.
+     */
+    public RoutePredictor(List<LatLng> route) {
+        mRoute = new ArrayList<>(route);
+        mDistanceAlong = new double[mRoute.size()];
+        for (int i = 1; i < mRoute.size(); i++) {
+            mDistanceAlong[i] = mDistanceAlong[i - 1]
+                    + SphericalUtil.computeDistanceBetween(mRoute.get(i - 1), mRoute.get(i));
+        }
+    }
+
+    /**
+     * Records the current position, and updates the speed estimate from the previous one.
+     *
+     * @param position  The current position.
+     * @param timeMs  The time of the position.
+     */
+    public void update(LatLng position, long timeMs) {
+        if (mLastPosition != null && timeMs > mLastTime) {
+            double speed = SphericalUtil.computeDistanceBetween(mLastPosition, position) * 1000 / (timeMs - mLastTime);
+            mSpeedMps = mSpeedMps == 0 ? speed : mSpeedMps + SPEED_SMOOTHING * (speed - mSpeedMps);
+        }
+        mLastPosition = position;
+        mLastTime = timeMs;
+    }
+
+    public double getSpeedMps() {
+        return mSpeedMps;
+    }
+
+    /**
+     * @param lookaheadMs  How far ahead to predict, e.g. {15000, 30000}.
+     * @return  The predicted positions, one per lookahead time. Positions past the end of the
+     * route are the end of the route. Empty if there is no position or speed yet.
+     */
+    public List<LatLng> predict(long[] lookaheadMs) {
+        List<LatLng> positions = new ArrayList<>();
+        if (mLastPosition == null || mSpeedMps <= 0 || mRoute.size() < 2) {
+            return positions;
+        }
+        double along = getDistanceAlong(mLastPosition);
+        for (long lookahead : lookaheadMs) {
+            positions.add(getPositionAt(along + mSpeedMps * lookahead / 1000));
+        }
+        return positions;
+    }
+
+    /**
+     * Projects the position onto the closest segment of the route. Segments are treated as
+     * straight lines on a local flat projection, which is accurate enough over route distances.
+     *
+     * @return  Distance along the route of the projected point.
+     */
+    private double getDistanceAlong(LatLng position) {
+        double closestAlong = 0;
+        double closestDistance = Double.MAX_VALUE;
+        double cosLat = Math.cos(Math.toRadians(position.latitude));
+        for (int i = 1; i < mRoute.size(); i++) {
+            LatLng start = mRoute.get(i - 1);
+            LatLng end = mRoute.get(i);
+            double dx = (end.longitude - start.longitude) * cosLat;
+            double dy = end.latitude - start.latitude;
+            double px = (position.longitude - start.longitude) * cosLat;
+            double py = position.latitude - start.latitude;
+            double lengthSquared = dx * dx + dy * dy;
+            double fraction = lengthSquared == 0 ? 0
+                    : Math.max(0, Math.min(1, (px * dx + py * dy) / lengthSquared));
+            LatLng projected = SphericalUtil.interpolate(start, end, fraction);
+            double distance = SphericalUtil.computeDistanceBetween(position, projected);
+            if (distance < closestDistance) {
+                closestDistance = distance;
+                closestAlong = mDistanceAlong[i - 1] + fraction * (mDistanceAlong[i] - mDistanceAlong[i - 1]);
+            }
+        }
+        return closestAlong;
+    }
+
+    private LatLng getPositionAt(double distanceAlong) {
+        int last = mRoute.size() - 1;
+        if (distanceAlong >= mDistanceAlong[last]) {
+            return mRoute.get(last);
+        }
+        int i = 1;
+        while (mDistanceAlong[i] < distanceAlong) {
+            i++;
+        }
+        double segment = mDistanceAlong[i] - mDistanceAlong[i - 1];
+        double fraction = segment == 0 ? 0 : (distanceAlong - mDistanceAlong[i - 1]) / segment;
+        return SphericalUtil.interpolate(mRoute.get(i - 1), mRoute.get(i), fraction);
+    }
+}
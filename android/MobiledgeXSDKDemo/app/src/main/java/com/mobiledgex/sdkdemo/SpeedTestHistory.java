@@ -0,0 +1,321 @@
+/**
+ * Copyright 2018-2021 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.sdkdemo;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.location.Location;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Stores the result of every latency, download and upload test on the device, so results
+ * survive refreshes of the cloudlet list and app restarts.
+ *
+ * Each result is recorded with the time, the device location and the network type. Results
+ * are indexed by cloudlet, test type and time, for range queries. Writes are done on a
+ * background thread. Old results are compacted away by age and by total count, when the store
+ * is opened and then every few hundred inserts.
+ */
+public class SpeedTestHistory extends SQLiteOpenHelper {
+    private static final String TAG = "SpeedTestHistory";
+    private static final String DATABASE_NAME = "speed_test_history.db";
+    private static final int DATABASE_VERSION = 1;
+    private static final String TABLE = "results";
+    public static final long MAX_AGE_MS = 30L * 24 * 60 * 60 * 1000;
+    public static final int MAX_ROWS = 50000;
+    // Compact after this many inserts.
+    private static final int COMPACT_INTERVAL = 500;
+
+    public static final String TYPE_LATENCY = "latency";
+    public static final String TYPE_DOWNLOAD = "download";
+    public static final String TYPE_UPLOAD = "upload";
+
+    private static SpeedTestHistory sInstance;
+
+    private final Context mContext;
+    private final ExecutorService mWriteExecutor = Executors.newSingleThreadExecutor();
+    private int mInsertsSinceCompact;
+
+    /**
+     * One test result. For latency, the value is the average in milliseconds. For download and
+     * upload, it is the rate in Mbits/sec, and the statistics fields are 0.
+     */
+    public static class Entry {
+        public String cloudletName;
+        public String hostName;
+        public String type;
+        public long timeMs;
+        public double latitude;
+        public double longitude;
+        public String networkType;
+        public double value;
+        public double min;
+        public double max;
+        public double stddev;
+        public double p95;
+        public double lossPercent;
+
+        @Override
+        public String toString() {
+            return "Entry{" + cloudletName + " " + type + " time=" + timeMs + " value=" + value
+                    + " network=" + networkType + " location=" + latitude + "," + longitude + "}";
+        }
+    }
+
+    public static synchronized SpeedTestHistory getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SpeedTestHistory(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private SpeedTestHistory(Context context) {
+        this(context, DATABASE_NAME);
+    }
+
+    /**
+     * @param databaseName  The database file name, or null for an in-memory database.
+     */
+    SpeedTestHistory(Context context, String databaseName) {
+        super(context, databaseName, null, DATABASE_VERSION);
+        mContext = context;
+        // A light user may never reach COMPACT_INTERVAL inserts in one run.
+        mWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    compact(MAX_AGE_MS, MAX_ROWS);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Failed to compact", e);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE + " ("
+                + "id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "cloudlet_name TEXT NOT NULL, "
+                + "host_name TEXT, "
+                + "type TEXT NOT NULL, "
+                + "time_ms INTEGER NOT NULL, "
+                + "latitude REAL, "
+                + "longitude REAL, "
+                + "network_type TEXT, "
+                + "value REAL, "
+                + "min REAL, "
+                + "max REAL, "
+                + "stddev REAL, "
+                + "p95 REAL, "
+                + "loss_percent REAL)");
+        db.execSQL("CREATE INDEX results_cloudlet_type_time ON " + TABLE + " (cloudlet_name, type, time_ms)");
+        db.execSQL("CREATE INDEX results_time ON " + TABLE + " (time_ms)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        Log.i(TAG, "Upgrading from version " + oldVersion + " to " + newVersion + ". Dropping history.");
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE);
+        onCreate(db);
+    }
+
+    /**
+     * Queues a result to be written. The time, location and network type are filled in here
+     * if they aren't set.
+     *
+     * @param entry  The result.
+     * @param location  The device location, or null if unknown.
+     */
+    public void record(final Entry entry, Location location) {
+        if (entry.timeMs == 0) {
+            entry.timeMs = System.currentTimeMillis();
+        }
+        if (location != null) {
+            entry.latitude = location.getLatitude();
+            entry.longitude = location.getLongitude();
+        }
+        if (entry.networkType == null) {
+            entry.networkType = getNetworkType(mContext);
+        }
+        mWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                insert(entry);
+            }
+        });
+    }
+
+    /**
+     * Returns results in a time range, oldest first. Runs on the calling thread, so don't call
+     * it from the UI thread.
+     *
+     * @param cloudletName  The cloudlet, or null for all cloudlets.
+     * @param type  One of the TYPE_ values, or null for all types.
+     * @param fromMs  Start of the range, inclusive.
+     * @param toMs  End of the range, exclusive.
+     */
+    public List<Entry> query(String cloudletName, String type, long fromMs, long toMs) {
+        StringBuilder selection = new StringBuilder("time_ms >= ? AND time_ms < ?");
+        List<String> args = new ArrayList<>(Arrays.asList(Long.toString(fromMs), Long.toString(toMs)));
+        if (cloudletName != null) {
+            selection.append(" AND cloudlet_name = ?");
+            args.add(cloudletName);
+        }
+        if (type != null) {
+            selection.append(" AND type = ?");
+            args.add(type);
+        }
+        List<Entry> entries = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().query(TABLE, null, selection.toString(),
+                args.toArray(new String[0]), null, null, "time_ms ASC")) {
+            while (cursor.moveToNext()) {
+                entries.add(fromCursor(cursor));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Returns the median value of a cloudlet's results since a given time, e.g. to prefer
+     * cloudlets that have performed well here before.
+     *
+     * @return  The median, or -1 if there are no results.
+     */
+    public double getMedianValue(String cloudletName, String type, long sinceMs) {
+        return getMedianValue(query(cloudletName, type, sinceMs, Long.MAX_VALUE));
+    }
+
+    /**
+     * @return  The median value of the given results, or -1 if there are none.
+     */
+    public static double getMedianValue(List<Entry> entries) {
+        if (entries.isEmpty()) {
+            return -1;
+        }
+        double[] values = new double[entries.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = entries.get(i).value;
+        }
+        Arrays.sort(values);
+        return values[values.length / 2];
+    }
+
+    /**
+     * Deletes results older than the maximum age, then the oldest results beyond the maximum
+     * count.
+     *
+     * @return  The number of results deleted.
+     */
+    public int compact(long maxAgeMs, int maxRows) {
+        SQLiteDatabase db = getWritableDatabase();
+        int deleted = db.delete(TABLE, "time_ms < ?",
+                new String[] {Long.toString(System.currentTimeMillis() - maxAgeMs)});
+        deleted += db.delete(TABLE, "id NOT IN (SELECT id FROM " + TABLE
+                + " ORDER BY time_ms DESC LIMIT " + maxRows + ")", null);
+        Log.i(TAG, "Compacted " + deleted + " results");
+        return deleted;
+    }
+
+    /**
+     * Deletes all results.
+     */
+    public void clear() {
+        mWriteExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                getWritableDatabase().delete(TABLE, null, null);
+            }
+        });
+    }
+
+    /**
+     * @return  "wifi", "cellular", "ethernet", "other", or "none".
+     */
+    public static String getNetworkType(Context context) {
+        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        Network network = cm == null ? null : cm.getActiveNetwork();
+        NetworkCapabilities caps = network == null ? null : cm.getNetworkCapabilities(network);
+        if (caps == null) {
+            return "none";
+        } else if (caps.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)) {
+            return "wifi";
+        } else if (caps.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR)) {
+            return "cellular";
+        } else if (caps.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET)) {
+            return "ethernet";
+        }
+        return "other";
+    }
+
+    void insert(Entry entry) {
+        ContentValues values = new ContentValues();
+        values.put("cloudlet_name", entry.cloudletName);
+        values.put("host_name", entry.hostName);
+        values.put("type", entry.type);
+        values.put("time_ms", entry.timeMs);
+        values.put("latitude", entry.latitude);
+        values.put("longitude", entry.longitude);
+        values.put("network_type", entry.networkType);
+        values.put("value", entry.value);
+        values.put("min", entry.min);
+        values.put("max", entry.max);
+        values.put("stddev", entry.stddev);
+        values.put("p95", entry.p95);
+        values.put("loss_percent", entry.lossPercent);
+        try {
+            getWritableDatabase().insert(TABLE, null, values);
+            if (++mInsertsSinceCompact >= COMPACT_INTERVAL) {
+                mInsertsSinceCompact = 0;
+                compact(MAX_AGE_MS, MAX_ROWS);
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to record " + entry, e);
+        }
+    }
+
+    private static Entry fromCursor(Cursor cursor) {
+        Entry entry = new Entry();
+        entry.cloudletName = cursor.getString(cursor.getColumnIndexOrThrow("cloudlet_name"));
+        entry.hostName = cursor.getString(cursor.getColumnIndexOrThrow("host_name"));
+        entry.type = cursor.getString(cursor.getColumnIndexOrThrow("type"));
+        entry.timeMs = cursor.getLong(cursor.getColumnIndexOrThrow("time_ms"));
+        entry.latitude = cursor.getDouble(cursor.getColumnIndexOrThrow("latitude"));
+        entry.longitude = cursor.getDouble(cursor.getColumnIndexOrThrow("longitude"));
+        entry.networkType = cursor.getString(cursor.getColumnIndexOrThrow("network_type"));
+        entry.value = cursor.getDouble(cursor.getColumnIndexOrThrow("value"));
+        entry.min = cursor.getDouble(cursor.getColumnIndexOrThrow("min"));
+        entry.max = cursor.getDouble(cursor.getColumnIndexOrThrow("max"));
+        entry.stddev = cursor.getDouble(cursor.getColumnIndexOrThrow("stddev"));
+        entry.p95 = cursor.getDouble(cursor.getColumnIndexOrThrow("p95"));
+        entry.lossPercent = cursor.getDouble(cursor.getColumnIndexOrThrow("loss_percent"));
+        return entry;
+    }
+}
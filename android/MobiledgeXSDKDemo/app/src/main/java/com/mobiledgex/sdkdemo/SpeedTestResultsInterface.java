@@ -22,4 +22,5 @@ public interface SpeedTestResultsInterface {
     void onSpeedtestDownloadProgress();
     void onSpeedtestUploadProgress();
     void onIpAddressResolved();
+    void onLoadedLatencyProgress();
 }
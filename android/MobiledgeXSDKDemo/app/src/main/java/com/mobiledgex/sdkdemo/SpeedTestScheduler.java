@@ -0,0 +1,183 @@
+/**
+ * Copyright 2018-2021 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.sdkdemo;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the speed tests of all cloudlets.
+ *
+ * <ul>
+ *     <li>Latency tests of different cloudlets run concurrently, up to a parallelism limit.</li>
+ *     <li>Download and upload tests run one at a time, so they don't compete for bandwidth and
+ *     skew each other. Tests the user started for a selected cloudlet go first, then tests of
+ *     the closest cloudlet, then the rest in the order they were queued.</li>
+ * </ul>
+ *
+ * Each cloudlet reports its own results to its SpeedTestResultsInterface as its tests progress.
+ */
+public class SpeedTestScheduler {
+    private static final String TAG = "SpeedTestScheduler";
+    public static final int DEFAULT_LATENCY_PARALLELISM = 4;
+
+    public static final int PRIORITY_SELECTED = 0;
+    public static final int PRIORITY_CLOSEST = 1;
+    public static final int PRIORITY_OTHER = 2;
+
+    private final ThreadPoolExecutor mLatencyExecutor;
+    private final ThreadPoolExecutor mBandwidthExecutor;
+    private final AtomicLong mSequence = new AtomicLong();
+
+    /**
+     * A queued bandwidth test. Lower priority values run first, and equal priorities run in
+     * the order they were queued.
+     */
+    private static class BandwidthJob implements Runnable, Comparable<BandwidthJob> {
+        final int priority;
+        final long sequence;
+        final String name;
+        final Runnable test;
+
+        BandwidthJob(int priority, long sequence, String name, Runnable test) {
+            this.priority = priority;
+            this.sequence = sequence;
+            this.name = name;
+            this.test = test;
+        }
+
+        @Override
+        public void run() {
+            Log.i(TAG, "Starting bandwidth test " + name);
+            try {
+                test.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Bandwidth test " + name + " failed: " + e);
+            }
+        }
+
+        @Override
+        public int compareTo(BandwidthJob other) {
+            if (priority != other.priority) {
+                return Integer.compare(priority, other.priority);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+
+    public SpeedTestScheduler(int latencyParallelism) {
+        mLatencyExecutor = new ThreadPoolExecutor(latencyParallelism, latencyParallelism,
+                0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), makeThreadFactory("Latency"));
+        // Runnables are passed to execute() directly, so the queue can order the BandwidthJobs.
+        mBandwidthExecutor = new ThreadPoolExecutor(1, 1,
+                0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(), makeThreadFactory("Bandwidth"));
+    }
+
+    /**
+     * @return  Executor for latency tests. Use with AsyncTask.executeOnExecutor().
+     */
+    public Executor getLatencyExecutor() {
+        return mLatencyExecutor;
+    }
+
+    /**
+     * Changes the number of latency tests that may run at the same time. Tests already running
+     * are not affected.
+     */
+    public void setLatencyParallelism(int parallelism) {
+        if (parallelism < 1 || parallelism == mLatencyExecutor.getCorePoolSize()) {
+            return;
+        }
+        Log.i(TAG, "setLatencyParallelism " + parallelism);
+        // The core size may never exceed the maximum size, so the order of these matters.
+        if (parallelism > mLatencyExecutor.getMaximumPoolSize()) {
+            mLatencyExecutor.setMaximumPoolSize(parallelism);
+            mLatencyExecutor.setCorePoolSize(parallelism);
+        } else {
+            mLatencyExecutor.setCorePoolSize(parallelism);
+            mLatencyExecutor.setMaximumPoolSize(parallelism);
+        }
+    }
+
+    /**
+     * Queues a bandwidth test.
+     *
+     * @param name  Name of the test, for logs.
+     * @param priority  One of the PRIORITY_ values.
+     * @param test  Runs the test, and blocks until it is finished.
+     */
+    public void queueBandwidthTest(String name, int priority, Runnable test) {
+        Log.i(TAG, "Queueing bandwidth test " + name + " priority=" + priority
+                + " queued=" + mBandwidthExecutor.getQueue().size());
+        mBandwidthExecutor.execute(new BandwidthJob(priority, mSequence.getAndIncrement(), name, test));
+    }
+
+    /**
+     * Tests all of the given cloudlets, closest first.
+     *
+     * @param cloudlets  The cloudlets to test.
+     * @param latency  Whether to run latency tests.
+     * @param bandwidth  Whether to run download and upload tests.
+     */
+    public void testAll(Collection<Cloudlet> cloudlets, boolean latency, boolean bandwidth) {
+        List<Cloudlet> sorted = new ArrayList<>(cloudlets);
+        Collections.sort(sorted, new Comparator<Cloudlet>() {
+            @Override
+            public int compare(Cloudlet a, Cloudlet b) {
+                return Double.compare(a.getDistance(), b.getDistance());
+            }
+        });
+        for (Cloudlet cloudlet : sorted) {
+            if (cloudlet.isRemoved()) {
+                continue;
+            }
+            if (latency) {
+                cloudlet.startLatencyTest();
+            }
+            if (bandwidth) {
+                int priority = cloudlet.isBestMatch() ? PRIORITY_CLOSEST : PRIORITY_OTHER;
+                cloudlet.startSpeedTestDownload(priority);
+                cloudlet.startSpeedTestUpload(priority);
+            }
+        }
+    }
+
+    private static ThreadFactory makeThreadFactory(final String kind) {
+        return new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, TAG + "-" + kind + "-" + mCount.getAndIncrement());
+            }
+        };
+    }
+}
@@ -0,0 +1,249 @@
+/**
+ * Copyright 2018-2021 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.sdkdemo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Locale;
+
+/**
+ * Uploads a body of any size to the speed test server in a single streamed POST request.
+ *
+ * The body is generated while it is sent, from a reused buffer, so a multi-gigabyte upload
+ * uses no more memory than a small one. Progress is reported at a fixed time interval rather
+ * than per write, so fast links don't flood the listener.
+ *
+ * The rate is measured while the body is written, and doesn't include waiting for the
+ * response, which can take long enough to skew the result.
+ */
+public class StreamingUpload {
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+    private static final int READ_TIMEOUT_MS = 30000;
+
+    private final String mUrl;
+    private final long mBytes;
+    private final int mBufferSize;
+    private final long mProgressIntervalMs;
+    private final long mTimeoutMs;
+    private final ProgressListener mProgressListener;
+    private volatile HttpURLConnection mConnection;
+    private volatile boolean mStopped;
+
+    public interface ProgressListener {
+        /**
+         * Called from the upload thread at each progress interval.
+         *
+         * @param percent  Percent of the body sent.
+         * @param bytesSent  Bytes sent so far.
+         * @param mbps  Average rate so far.
+         */
+        void onProgress(int percent, long bytesSent, double mbps);
+    }
+
+    /**
+     * Result of an upload.
+     */
+    public static class Result {
+        public final long bytesSent;
+        public final long elapsedNanos;
+        public final double mbps;
+        public final boolean complete;
+
+        Result(long bytesSent, long elapsedNanos, double mbps, boolean complete) {
+            this.bytesSent = bytesSent;
+            this.elapsedNanos = elapsedNanos;
+            this.mbps = mbps;
+            this.complete = complete;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%.2f Mbits/sec, %d bytes in %d ms%s",
+                    mbps, bytesSent, elapsedNanos / 1000000, complete ? "" : " (incomplete)");
+        }
+    }
+
+    private StreamingUpload(Builder builder) {
+        mUrl = builder.url;
+        mBytes = builder.bytes;
+        mBufferSize = builder.bufferSize;
+        mProgressIntervalMs = builder.progressIntervalMs;
+        mTimeoutMs = builder.timeoutMs;
+        mProgressListener = builder.progressListener;
+    }
+
+    /**
+     * Runs the upload, and blocks until it is finished, timed out, or stopped. An upload that
+     * times out or is stopped is abandoned, and returns the rate measured so far.
+     *
+     * @throws IOException  If the connection fails, or the server returns an error.
+     */
+    public Result run() throws IOException {
+        RandomPayload payload = new RandomPayload(mBufferSize, System.nanoTime());
+        HttpURLConnection connection = (HttpURLConnection) new URL(mUrl).openConnection();
+        mConnection = connection;
+        long start = System.nanoTime();
+        long sent = 0;
+        boolean timedOut = false;
+        try {
+            connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            connection.setReadTimeout(READ_TIMEOUT_MS);
+            connection.setUseCaches(false);
+            connection.setDoOutput(true);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", "application/octet-stream");
+            connection.setFixedLengthStreamingMode(mBytes);
+
+            long intervalNanos = mProgressIntervalMs * 1000000;
+            long timeoutNanos = mTimeoutMs * 1000000;
+            long nextProgress = start + intervalNanos;
+            try (OutputStream out = connection.getOutputStream()) {
+                while (sent < mBytes && !mStopped) {
+                    int n = (int) Math.min(payload.getBufferSize(), mBytes - sent);
+                    payload.write(out, n);
+                    sent += n;
+                    long now = System.nanoTime();
+                    if (now >= nextProgress) {
+                        reportProgress(sent, now - start);
+                        nextProgress = now + intervalNanos;
+                    }
+                    if (timeoutNanos > 0 && now - start >= timeoutNanos) {
+                        timedOut = true;
+                        break;
+                    }
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            boolean complete = sent == mBytes;
+            if (complete) {
+                reportProgress(sent, elapsed);
+                // Wait for the server to take the whole body before the next test starts.
+                int code = connection.getResponseCode();
+                if (code >= 400) {
+                    throw new IOException("HTTP " + code + " " + connection.getResponseMessage());
+                }
+                try (InputStream in = connection.getInputStream()) {
+                    byte[] discard = new byte[1024];
+                    while (in.read(discard) != -1) {
+                        // Discard.
+                    }
+                }
+            }
+            return new Result(sent, elapsed, toMbps(sent, elapsed), complete);
+        } catch (IOException | RuntimeException e) {
+            // Closing an incomplete body throws, as does disconnecting from stop().
+            if (mStopped || timedOut) {
+                long elapsed = System.nanoTime() - start;
+                return new Result(sent, elapsed, toMbps(sent, elapsed), false);
+            }
+            throw e;
+        } finally {
+            connection.disconnect();
+            mConnection = null;
+        }
+    }
+
+    /**
+     * Stops an upload in progress.
+     */
+    public void stop() {
+        mStopped = true;
+        HttpURLConnection connection = mConnection;
+        if (connection != null) {
+            connection.disconnect();
+        }
+    }
+
+    private void reportProgress(long sent, long elapsedNanos) {
+        if (mProgressListener != null) {
+            mProgressListener.onProgress((int) (sent * 100 / mBytes), sent, toMbps(sent, elapsedNanos));
+        }
+    }
+
+    private static double toMbps(long bytes, long nanos) {
+        if (nanos <= 0) {
+            return 0;
+        }
+        return bytes * 8.0 / Cloudlet.BITS_TO_MBITS / (nanos / 1e9);
+    }
+
+    public static class Builder {
+        private String url;
+        private long bytes = 5 * 1024 * 1024;
+        private int bufferSize = 64 * 1024;
+        private long progressIntervalMs = 250;
+        private long timeoutMs;
+        private ProgressListener progressListener;
+
+        /**
+         * @param url  A URL that accepts a POST of any size, e.g. /uploaddata/.
+         */
+        public Builder setUrl(String url) {
+            this.url = url;
+            return this;
+        }
+
+        /**
+         * @param bytes  Size of the body. May be larger than 2 GB.
+         */
+        public Builder setBytes(long bytes) {
+            this.bytes = bytes;
+            return this;
+        }
+
+        /**
+         * @param bufferSize  Size of the reused buffer, and of each write.
+         */
+        public Builder setBufferSize(int bufferSize) {
+            this.bufferSize = bufferSize;
+            return this;
+        }
+
+        public Builder setProgressIntervalMs(long progressIntervalMs) {
+            this.progressIntervalMs = progressIntervalMs;
+            return this;
+        }
+
+        /**
+         * @param timeoutMs  Maximum time to spend sending the body, or 0 for no limit. The rate
+         *                   is measured over what was sent by then.
+         */
+        public Builder setTimeoutMs(long timeoutMs) {
+            this.timeoutMs = timeoutMs;
+            return this;
+        }
+
+        public Builder setProgressListener(ProgressListener progressListener) {
+            this.progressListener = progressListener;
+            return this;
+        }
+
+        public StreamingUpload build() {
+            if (url == null) {
+                throw new IllegalArgumentException("url is required");
+            }
+            if (bytes <= 0) {
+                throw new IllegalArgumentException("bytes must be positive");
+            }
+            return new StreamingUpload(this);
+        }
+    }
+}
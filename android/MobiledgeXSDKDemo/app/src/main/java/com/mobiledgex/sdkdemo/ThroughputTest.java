@@ -0,0 +1,410 @@
+/**
+ * Copyright 2018-2021 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.sdkdemo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures throughput to a server over several parallel HTTP connections.
+ *
+ * A single TCP stream can't fill a link with a high bandwidth-delay product, so each stream
+ * repeatedly downloads (or uploads) for a fixed time, and the rates of all streams are added.
+ * Bytes transferred during the warmup, while TCP is still ramping up, are not counted.
+ *
+ * The aggregate rate is sampled at intervals during the run. The coefficient of variation of
+ * those samples tells how stable the rate was.
+ */
+public class ThroughputTest {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int CONNECT_TIMEOUT_MS = 5000;
+
+    public enum Direction {
+        DOWNLOAD,
+        UPLOAD
+    }
+
+    public interface ProgressListener {
+        /**
+         * Called from the test thread after each sample interval.
+         *
+         * @param percent  Percent of the measurement period completed.
+         * @param aggregateMbps  Aggregate rate so far.
+         */
+        void onProgress(int percent, double aggregateMbps);
+    }
+
+    private final String mUrl;
+    private final Direction mDirection;
+    private final int mStreams;
+    private final long mWarmupMs;
+    private final long mDurationMs;
+    private final long mSampleIntervalMs;
+    private final long mUploadBytesPerRequest;
+    private final ProgressListener mProgressListener;
+
+    private final AtomicLong[] mStreamBytes;
+    private final HttpURLConnection[] mConnections;
+    private final String[] mStreamErrors;
+    private volatile boolean mStopped;
+
+    /**
+     * Result of a run.
+     */
+    public static class Result {
+        public final double aggregateMbps;
+        public final double[] streamMbps;
+        public final double stabilityCv;
+        public final int failedStreams;
+        public final String firstError;
+
+        Result(double aggregateMbps, double[] streamMbps, double stabilityCv, int failedStreams,
+               String firstError) {
+            this.aggregateMbps = aggregateMbps;
+            this.streamMbps = streamMbps;
+            this.stabilityCv = stabilityCv;
+            this.failedStreams = failedStreams;
+            this.firstError = firstError;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(String.format(Locale.US,
+                    "%.2f Mbits/sec over %d streams, variation %.0f%%",
+                    aggregateMbps, streamMbps.length, stabilityCv * 100));
+            sb.append(" [");
+            for (int i = 0; i < streamMbps.length; i++) {
+                sb.append(i == 0 ? "" : ", ").append(String.format(Locale.US, "%.2f", streamMbps[i]));
+            }
+            sb.append("]");
+            if (failedStreams > 0) {
+                sb.append(" failedStreams=").append(failedStreams).append(" error=").append(firstError);
+            }
+            return sb.toString();
+        }
+    }
+
+    private ThroughputTest(Builder builder) {
+        mUrl = builder.url;
+        mDirection = builder.direction;
+        mStreams = builder.streams;
+        mWarmupMs = builder.warmupMs;
+        mDurationMs = builder.durationMs;
+        mSampleIntervalMs = builder.sampleIntervalMs;
+        mUploadBytesPerRequest = builder.uploadBytesPerRequest;
+        mProgressListener = builder.progressListener;
+        mStreamBytes = new AtomicLong[mStreams];
+        for (int i = 0; i < mStreams; i++) {
+            mStreamBytes[i] = new AtomicLong();
+        }
+        mConnections = new HttpURLConnection[mStreams];
+        mStreamErrors = new String[mStreams];
+    }
+
+    /**
+     * Runs the test, and blocks until it is finished.
+     */
+    public Result run() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(mStreams);
+        for (int i = 0; i < mStreams; i++) {
+            final int stream = i;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    runStream(stream);
+                }
+            });
+        }
+
+        List<Double> samples = new ArrayList<>();
+        long[] startBytes;
+        long startTime;
+        long endTime;
+        long[] endBytes;
+        try {
+            Thread.sleep(mWarmupMs);
+            startBytes = snapshot();
+            startTime = System.nanoTime();
+            long deadline = startTime + TimeUnit.MILLISECONDS.toNanos(mDurationMs);
+            long lastTime = startTime;
+            long lastTotal = sum(startBytes);
+            while (true) {
+                long now = System.nanoTime();
+                if (now >= deadline) {
+                    break;
+                }
+                Thread.sleep(Math.min(mSampleIntervalMs, TimeUnit.NANOSECONDS.toMillis(deadline - now) + 1));
+                now = System.nanoTime();
+                long total = sum(snapshot());
+                samples.add(toMbps(total - lastTotal, now - lastTime));
+                if (mProgressListener != null) {
+                    int percent = (int) Math.min(100, (now - startTime) * 100 / (deadline - startTime));
+                    mProgressListener.onProgress(percent, toMbps(total - sum(startBytes), now - startTime));
+                }
+                lastTime = now;
+                lastTotal = total;
+            }
+            endBytes = snapshot();
+            endTime = System.nanoTime();
+        } finally {
+            stop();
+            executor.shutdownNow();
+        }
+        executor.awaitTermination(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+        double[] streamMbps = new double[mStreams];
+        double aggregate = 0;
+        int failed = 0;
+        String firstError = null;
+        for (int i = 0; i < mStreams; i++) {
+            streamMbps[i] = toMbps(endBytes[i] - startBytes[i], endTime - startTime);
+            aggregate += streamMbps[i];
+            if (mStreamErrors[i] != null) {
+                failed++;
+                if (firstError == null) {
+                    firstError = mStreamErrors[i];
+                }
+            }
+        }
+        return new Result(aggregate, streamMbps, coefficientOfVariation(samples), failed, firstError);
+    }
+
+    /**
+     * Stops a run in progress. The run returns the results measured so far.
+     */
+    public void stop() {
+        mStopped = true;
+        synchronized (mConnections) {
+            for (HttpURLConnection connection : mConnections) {
+                if (connection != null) {
+                    connection.disconnect();
+                }
+            }
+        }
+    }
+
+    private void runStream(int stream) {
+        byte[] buffer = mDirection == Direction.DOWNLOAD ? new byte[BUFFER_SIZE] : null;
+        RandomPayload payload = mDirection == Direction.UPLOAD
+                ? new RandomPayload(BUFFER_SIZE, System.nanoTime() + stream) : null;
+        while (!mStopped) {
+            HttpURLConnection connection = null;
+            try {
+                connection = (HttpURLConnection) new URL(mUrl).openConnection();
+                connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+                connection.setUseCaches(false);
+                synchronized (mConnections) {
+                    if (mStopped) {
+                        return;
+                    }
+                    mConnections[stream] = connection;
+                }
+                if (mDirection == Direction.DOWNLOAD) {
+                    download(connection, stream, buffer);
+                } else {
+                    upload(connection, stream, payload);
+                }
+            } catch (IOException | RuntimeException e) {
+                // Disconnecting from stop() can make a connection in use throw almost anything.
+                if (!mStopped) {
+                    // Keep the stream going. A stream that never transfers anything shows as 0.
+                    mStreamErrors[stream] = e.toString();
+                    sleepQuietly(mSampleIntervalMs);
+                }
+            } finally {
+                if (connection != null) {
+                    connection.disconnect();
+                }
+            }
+        }
+    }
+
+    private void download(HttpURLConnection connection, int stream, byte[] buffer) throws IOException {
+        try (InputStream in = connection.getInputStream()) {
+            int n;
+            while (!mStopped && (n = in.read(buffer)) != -1) {
+                mStreamBytes[stream].addAndGet(n);
+            }
+        }
+    }
+
+    private void upload(HttpURLConnection connection, int stream, RandomPayload payload)
+            throws IOException {
+        connection.setDoOutput(true);
+        connection.setRequestMethod("POST");
+        connection.setRequestProperty("Content-Type", "application/octet-stream");
+        connection.setFixedLengthStreamingMode(mUploadBytesPerRequest);
+        try (OutputStream out = connection.getOutputStream()) {
+            long remaining = mUploadBytesPerRequest;
+            while (!mStopped && remaining > 0) {
+                int n = (int) Math.min(payload.getBufferSize(), remaining);
+                payload.write(out, n);
+                remaining -= n;
+                mStreamBytes[stream].addAndGet(n);
+            }
+        }
+        if (!mStopped) {
+            // Wait for the response before sending the next request.
+            try (InputStream in = connection.getInputStream()) {
+                byte[] discard = new byte[1024];
+                while (in.read(discard) != -1) {
+                    // Discard.
+                }
+            }
+        }
+    }
+
+    private long[] snapshot() {
+        long[] bytes = new long[mStreams];
+        for (int i = 0; i < mStreams; i++) {
+            bytes[i] = mStreamBytes[i].get();
+        }
+        return bytes;
+    }
+
+    private static long sum(long[] values) {
+        long total = 0;
+        for (long value : values) {
+            total += value;
+        }
+        return total;
+    }
+
+    private static double toMbps(long bytes, long nanos) {
+        if (nanos <= 0) {
+            return 0;
+        }
+        return bytes * 8.0 / Cloudlet.BITS_TO_MBITS / (nanos / 1e9);
+    }
+
+    /**
+     * @return  Standard deviation of the samples divided by their mean, or 0 if there are too
+     * few samples or the mean is 0.
+     */
+    static double coefficientOfVariation(List<Double> samples) {
+        if (samples.size() < 2) {
+            return 0;
+        }
+        double sum = 0;
+        for (double sample : samples) {
+            sum += sample;
+        }
+        double mean = sum / samples.size();
+        if (mean == 0) {
+            return 0;
+        }
+        double sumSquares = 0;
+        for (double sample : samples) {
+            sumSquares += (sample - mean) * (sample - mean);
+        }
+        return Math.sqrt(sumSquares / (samples.size() - 1)) / mean;
+    }
+
+    private static void sleepQuietly(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static class Builder {
+        private String url;
+        private Direction direction = Direction.DOWNLOAD;
+        private int streams = 4;
+        private long warmupMs = 2000;
+        private long durationMs = 10000;
+        private long sampleIntervalMs = 250;
+        private long uploadBytesPerRequest = 5 * 1024 * 1024;
+        private ProgressListener progressListener;
+
+        /**
+         * @param url  For downloads, a URL that returns a large body. For uploads, a URL that
+         *             accepts a POST.
+         */
+        public Builder setUrl(String url) {
+            this.url = url;
+            return this;
+        }
+
+        public Builder setDirection(Direction direction) {
+            this.direction = direction;
+            return this;
+        }
+
+        public Builder setStreams(int streams) {
+            this.streams = streams;
+            return this;
+        }
+
+        /**
+         * @param warmupMs  Time to run before measuring. Bytes transferred in this time are discarded.
+         */
+        public Builder setWarmupMs(long warmupMs) {
+            this.warmupMs = warmupMs;
+            return this;
+        }
+
+        /**
+         * @param durationMs  Time to measure for, after the warmup.
+         */
+        public Builder setDurationMs(long durationMs) {
+            this.durationMs = durationMs;
+            return this;
+        }
+
+        public Builder setSampleIntervalMs(long sampleIntervalMs) {
+            this.sampleIntervalMs = sampleIntervalMs;
+            return this;
+        }
+
+        /**
+         * @param bytes  Size of each upload request. Each stream sends requests back to back
+         *               until the time is up.
+         */
+        public Builder setUploadBytesPerRequest(long bytes) {
+            this.uploadBytesPerRequest = bytes;
+            return this;
+        }
+
+        public Builder setProgressListener(ProgressListener progressListener) {
+            this.progressListener = progressListener;
+            return this;
+        }
+
+        public ThroughputTest build() {
+            if (url == null) {
+                throw new IllegalArgumentException("url is required");
+            }
+            if (streams < 1) {
+                throw new IllegalArgumentException("streams must be at least 1");
+            }
+            return new ThroughputTest(this);
+        }
+    }
+}
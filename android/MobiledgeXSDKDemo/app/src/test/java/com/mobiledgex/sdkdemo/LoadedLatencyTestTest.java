@@ -0,0 +1,57 @@
+/**
+ * Copyright 2018-2021 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.sdkdemo;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs a short loaded latency test against a local stand-in for the speed test server.
+ */
+public class LoadedLatencyTestTest {
+    @Rule
+    public final LocalSpeedTestServer mServer = new LocalSpeedTestServer();
+
+    @Test
+    public void measuresIdleAndLoadedLatency() throws Exception {
+        int port = mServer.getPort();
+        ThroughputTest load = new ThroughputTest.Builder()
+                .setUrl(mServer.getUrl("/getdata/"))
+                .setStreams(2)
+                .setWarmupMs(200)
+                .setDurationMs(800)
+                .build();
+        LoadedLatencyTest.Result result = new LoadedLatencyTest.Builder()
+                .setHost("127.0.0.1")
+                .setPort(port)
+                .setIdleMs(300)
+                .setProbeIntervalMs(20)
+                .setThroughputTest(load)
+                .build().run();
+
+        assertTrue(result.idleSamples > 0);
+        assertTrue(result.loadedSamples > 0);
+        assertEquals(0, result.failedProbes);
+        assertTrue(result.idleP95Ms >= result.idleMedianMs);
+        assertTrue(result.loadedP95Ms >= result.loadedMedianMs);
+        assertEquals(result.loadedMedianMs - result.idleMedianMs, result.getInflationMs(), 1e-9);
+        assertTrue(result.throughput.aggregateMbps > 0);
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright 2018-2021 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.sdkdemo;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.rules.ExternalResource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local stand-in for the speed test server, started before each test and stopped after it.
+ *
+ * /getdata/?numbytes=N sends N bytes, or an endless body without numbytes. /uploaddata/
+ * accepts a POST of any size. /error/ reads the body and returns HTTP 500.
+ */
+public class LocalSpeedTestServer extends ExternalResource {
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private final AtomicLong mBytesReceived = new AtomicLong();
+    private HttpServer mServer;
+    private boolean mStopped;
+
+    @Override
+    protected void before() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/getdata/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                long bytes = getNumBytes(exchange.getRequestURI().getQuery());
+                byte[] chunk = new byte[CHUNK_SIZE];
+                // A length of 0 means a chunked body, and -1 means no body.
+                exchange.sendResponseHeaders(200, bytes < 0 ? 0 : bytes == 0 ? -1 : bytes);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    for (long sent = 0; bytes < 0 || sent < bytes; sent += chunk.length) {
+                        out.write(chunk, 0, (int) (bytes < 0 ? chunk.length : Math.min(chunk.length, bytes - sent)));
+                    }
+                } catch (IOException e) {
+                    // The client disconnects when the test time is up.
+                }
+            }
+        });
+        mServer.createContext("/uploaddata/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] buffer = new byte[CHUNK_SIZE];
+                try (InputStream in = exchange.getRequestBody()) {
+                    int n;
+                    while ((n = in.read(buffer)) != -1) {
+                        mBytesReceived.addAndGet(n);
+                    }
+                    byte[] response = "OK".getBytes();
+                    exchange.sendResponseHeaders(200, response.length);
+                    exchange.getResponseBody().write(response);
+                } catch (IOException e) {
+                    // The client gave up on the upload.
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        mServer.createContext("/error/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] buffer = new byte[CHUNK_SIZE];
+                try (InputStream in = exchange.getRequestBody()) {
+                    while (in.read(buffer) != -1) {
+                        // Discard.
+                    }
+                    exchange.sendResponseHeaders(500, -1);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        mServer.setExecutor(Executors.newCachedThreadPool());
+        mServer.start();
+    }
+
+    @Override
+    protected void after() {
+        stop();
+    }
+
+    /**
+     * Stops the server early, e.g. to test an unreachable server.
+     */
+    public void stop() {
+        if (!mStopped) {
+            mStopped = true;
+            mServer.stop(0);
+        }
+    }
+
+    public int getPort() {
+        return mServer.getAddress().getPort();
+    }
+
+    public String getUrl(String path) {
+        return "http://127.0.0.1:" + getPort() + path;
+    }
+
+    /**
+     * @return  Total bytes of upload bodies received.
+     */
+    public long getBytesReceived() {
+        return mBytesReceived.get();
+    }
+
+    private static long getNumBytes(String query) {
+        if (query != null) {
+            for (String param : query.split("&")) {
+                if (param.startsWith("numbytes=")) {
+                    return Long.parseLong(param.substring("numbytes=".length()));
+                }
+            }
+        }
+        return -1;
+    }
+}
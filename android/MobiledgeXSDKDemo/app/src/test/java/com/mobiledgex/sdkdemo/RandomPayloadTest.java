@@ -0,0 +1,63 @@
+/**
+ * Copyright 2018-2021 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.mobiledgex.sdkdemo;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class RandomPayloadTest {
+    @Test
+    public void sameSeedGivesSameBytes() {
+        byte[] first = new RandomPayload(4096, 42).next().clone();
+        assertArrayEquals(first, new RandomPayload(4096, 42).next());
+        assertFalse(Arrays.equals(first, new RandomPayload(4096, 43).next()));
+    }
+
+    @Test
+    public void eachBufferIsNew() {
+        RandomPayload payload = new RandomPayload(4096, 42);
+        byte[] first = payload.next().clone();
+        assertFalse(Arrays.equals(first, payload.next()));
+    }
+
+    @Test
+    public void bytesAreNotCompressible() {
+        // A zero seed would leave xorshift stuck at zero, so it is replaced.
+        byte[] bytes = new RandomPayload(4096, 0).next();
+        int zeros = 0;
+        for (byte b : bytes) {
+            zeros += b == 0 ? 1 : 0;
+        }
+        // About 16 are expected.
+        assertTrue("zeros=" + zeros, zeros < 100);
+    }
+
+    @Test
+    public void writesPartialBuffer() throws Exception {
+        RandomPayload payload = new RandomPayload(4096, 42);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        payload.write(out, 100);
+        assertEquals(100, out.size());
+        assertEquals(4096, payload.getBufferSize());
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright 2018-2021 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.sdkdemo;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs streamed uploads against a local stand-in for the speed test server.
+ */
+public class StreamingUploadTest {
+    @Rule
+    public final LocalSpeedTestServer mServer = new LocalSpeedTestServer();
+
+    private StreamingUpload.Builder builder(String path) {
+        return new StreamingUpload.Builder()
+                .setUrl(mServer.getUrl(path));
+    }
+
+    @Test
+    public void sendsWholeBody() throws Exception {
+        // Not a multiple of the buffer size, so the last write is partial.
+        long bytes = 3 * 1024 * 1024 + 123;
+        final List<Integer> percents = new ArrayList<>();
+        StreamingUpload.Result result = builder("/uploaddata/")
+                .setBytes(bytes)
+                .setBufferSize(16 * 1024)
+                .setProgressIntervalMs(0)
+                .setProgressListener(new StreamingUpload.ProgressListener() {
+                    @Override
+                    public void onProgress(int percent, long bytesSent, double mbps) {
+                        percents.add(percent);
+                    }
+                })
+                .build().run();
+
+        assertTrue(result.complete);
+        assertEquals(bytes, result.bytesSent);
+        assertEquals(bytes, mServer.getBytesReceived());
+        assertTrue(result.mbps > 0);
+        assertFalse(percents.isEmpty());
+        assertEquals(100, (int) percents.get(percents.size() - 1));
+    }
+
+    @Test
+    public void timeoutReturnsPartialResult() throws Exception {
+        StreamingUpload.Result result = builder("/uploaddata/")
+                .setBytes(Long.MAX_VALUE / 2)
+                .setTimeoutMs(300)
+                .build().run();
+
+        assertFalse(result.complete);
+        assertTrue(result.bytesSent > 0);
+        assertTrue(result.mbps > 0);
+    }
+
+    @Test(expected = IOException.class)
+    public void serverErrorThrows() throws Exception {
+        builder("/error/").setBytes(1024).build().run();
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright 2018-2021 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.sdkdemo;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs short throughput tests against a local stand-in for the speed test server.
+ */
+public class ThroughputTestTest {
+    private static final int DOWNLOAD_BYTES = 1024 * 1024;
+
+    @Rule
+    public final LocalSpeedTestServer mServer = new LocalSpeedTestServer();
+
+    private ThroughputTest.Builder builder(String path) {
+        return new ThroughputTest.Builder()
+                .setUrl(mServer.getUrl(path))
+                .setStreams(3)
+                .setWarmupMs(200)
+                .setDurationMs(1000)
+                .setSampleIntervalMs(100);
+    }
+
+    @Test
+    public void downloadReportsEveryStream() throws Exception {
+        ThroughputTest.Result result = builder("/getdata/?numbytes=" + DOWNLOAD_BYTES)
+                .setDirection(ThroughputTest.Direction.DOWNLOAD)
+                .build().run();
+
+        assertEquals(3, result.streamMbps.length);
+        double sum = 0;
+        for (double mbps : result.streamMbps) {
+            assertTrue(Arrays.toString(result.streamMbps), mbps > 0);
+            sum += mbps;
+        }
+        assertEquals(sum, result.aggregateMbps, 1e-6);
+        assertEquals(0, result.failedStreams);
+        assertTrue(result.stabilityCv >= 0);
+    }
+
+    @Test
+    public void uploadReportsEveryStream() throws Exception {
+        ThroughputTest.Result result = builder("/uploaddata/")
+                .setDirection(ThroughputTest.Direction.UPLOAD)
+                .setUploadBytesPerRequest(256 * 1024)
+                .build().run();
+
+        assertEquals(3, result.streamMbps.length);
+        for (double mbps : result.streamMbps) {
+            assertTrue(Arrays.toString(result.streamMbps), mbps > 0);
+        }
+        assertTrue(result.aggregateMbps > 0);
+    }
+
+    @Test
+    public void unreachableServerFailsEveryStream() throws Exception {
+        mServer.stop();
+        ThroughputTest.Result result = builder("/getdata/")
+                .setDurationMs(300)
+                .build().run();
+
+        assertEquals(0, result.aggregateMbps, 0);
+        assertEquals(3, result.failedStreams);
+        assertNotNull(result.firstError);
+    }
+
+    @Test
+    public void coefficientOfVariation() {
+        assertEquals(0, ThroughputTest.coefficientOfVariation(Arrays.asList(5.0, 5.0, 5.0)), 1e-9);
+        assertEquals(0, ThroughputTest.coefficientOfVariation(Arrays.asList(5.0)), 1e-9);
+        // Mean 10, sample standard deviation 10.
+        assertEquals(1.0, ThroughputTest.coefficientOfVariation(Arrays.asList(0.0, 10.0, 20.0)), 1e-9);
+    }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright 2018-2021 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.computervision;
+
+/**
+ * Endpoints and request details of the ComputerVisionServer API, shared by
+ * {@link ImageSender} and the cvloadgen load generator.
+ */
+public class ComputerVisionApi {
+    public static final String CONTENT_TYPE_JPEG = "image/jpeg";
+    public static final String WEBSOCKET_PREFIX = "/ws";
+
+    public enum Endpoint {
+        FACE_DETECTION("/detector/detect/", 1),
+        FACE_RECOGNITION("/recognizer/predict/", 2),
+        FACE_TRAINING("/trainer/add/", 0),
+        FACE_UPDATING_SERVER("/trainer/predict/", 0),
+        POSE_DETECTION("/openpose/detect/", 3),
+        OBJECT_DETECTION("/object/detect/", 4);
+
+        private static final Endpoint[] VALUES = values();
+
+        public final String path;
+        public final int opcode;
+
+        Endpoint(String path, int opcode) {
+            this.path = path;
+            this.opcode = opcode;
+        }
+
+        /**
+         * Finds the endpoint for a camera mode.
+         *
+         * @param cameraModeName  The name of an {@link ImageSender.CameraMode} value.
+         * @return  The endpoint, or null if the mode doesn't send images.
+         */
+        public static Endpoint forCameraMode(String cameraModeName) {
+            for (Endpoint endpoint : VALUES) {
+                if (endpoint.name().equals(cameraModeName)) {
+                    return endpoint;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Builds the URL to POST images to.
+     *
+     * @param tls  Whether to use https.
+     * @param host  The server hostname or IP address.
+     * @param port  The server port.
+     * @param path  The endpoint path, e.g. {@link Endpoint#path}.
+     * @return  The URL.
+     */
+    public static String restUrl(boolean tls, String host, int port, String path) {
+        return (tls ? "https" : "http")+"://"+host+":"+port+path;
+    }
+
+    /**
+     * Builds the URL of the WebSocket variant of an endpoint.
+     *
+     * @param tls  Whether to use wss.
+     * @param host  The server hostname or IP address.
+     * @param port  The server port.
+     * @param path  The endpoint path, e.g. {@link Endpoint#path}.
+     * @return  The URL.
+     */
+    public static String webSocketUrl(boolean tls, String host, int port, String path) {
+        return (tls ? "wss" : "ws")+"://"+host+":"+port+WEBSOCKET_PREFIX+path;
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright 2018-2021 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.computervision;
+
+/**
+ * Transforms coordinates in the image sent to the server into coordinates on the display,
+ * for the renderers that draw the results over the preview image.
+ */
+public class DisplayTransform {
+    private int mWidth;
+    private int mWidthOff;
+    private int mHeightOff;
+    private float mServerToDisplayRatioX;
+    private float mServerToDisplayRatioY;
+    private boolean mMirrored;
+
+    /**
+     * Sets display parameters used to determine ratios and offsets.
+     * @param left  The left coordinate of the view that is showing the preview image.
+     * @param top  The top coordinate of the view that is showing the preview image.
+     * @param width  The width of the view that is showing the preview image.
+     * @param serverToDisplayRatioX  The ratio of the width of the image sent to the server vs.
+     *                               the width of the preview image being displayed.
+     * @param serverToDisplayRatioY  The ratio of the height of the image sent to the server vs.
+     *                               the height of the preview image being displayed.
+     * @param mirrored  Whether the preview image is being mirrored.
+     */
+    public void set(int left, int top, int width, float serverToDisplayRatioX, float serverToDisplayRatioY,
+                    boolean mirrored) {
+        mWidth = width;
+        mWidthOff = left;
+        mHeightOff = top;
+        mServerToDisplayRatioX = serverToDisplayRatioX;
+        mServerToDisplayRatioY = serverToDisplayRatioY;
+        mMirrored = mirrored;
+    }
+
+    /**
+     * Transforms a rectangle in place.
+     * @param rect  Array of {left, top, right, bottom}.
+     */
+    public void transformRect(int[] rect) {
+        int left = (int) (rect[0] * mServerToDisplayRatioX);
+        int top = (int) (rect[1] * mServerToDisplayRatioY);
+        int right = (int) (rect[2] * mServerToDisplayRatioX);
+        int bottom = (int) (rect[3] * mServerToDisplayRatioY);
+
+        if (mMirrored) {
+            // The image that was processed is what the camera sees, but the image we want to
+            // overlay the rectangle onto is mirrored. So not only do we have to scale it,
+            // but we have to flip it horizontally.
+            int tmp = left;
+            left = mWidth - right;
+            right = mWidth - tmp;
+        }
+
+        rect[0] = left + mWidthOff;
+        rect[1] = top + mHeightOff;
+        rect[2] = right + mWidthOff;
+        rect[3] = bottom + mHeightOff;
+    }
+
+    /**
+     * @param x  X coordinate of a point in the server image.
+     * @return  X coordinate of the point on the display.
+     */
+    public float transformX(double x) {
+        float displayX = (float) x * mServerToDisplayRatioX;
+        if (mMirrored) {
+            displayX = mWidth - displayX;
+        }
+        // Only add the offsets after everything else has been calculated.
+        return displayX + mWidthOff;
+    }
+
+    /**
+     * @param y  Y coordinate of a point in the server image.
+     * @return  Y coordinate of the point on the display.
+     */
+    public float transformY(double y) {
+        return (float) y * mServerToDisplayRatioY + mHeightOff;
+    }
+}
@@ -39,14 +39,12 @@ public class FaceBoxRenderer extends View {
     private static final String TAG = "FaceBoxRender";
     public static final int DEFAULT_STROKE_WIDTH = 10;
     private int mStrokeWidth = DEFAULT_STROKE_WIDTH;
-    private boolean mMirrored;
     private boolean mMultiFace;
     private int mWidth;
     private int mHeight;
-    private int mWidthOff;
-    private int mHeightOff;
-    private float mServerToDisplayRatioX;
-    private float mServerToDisplayRatioY;
+    private final DisplayTransform mTransform = new DisplayTransform();
+    private final int[] mCoords = new int[4];
+    private final Rect mRect = new Rect();
 
     private ImageServerInterface.CloudletType mCloudletType;
     private JSONArray rectJsonArray;
@@ -123,11 +121,7 @@ public class FaceBoxRenderer extends View {
                                 boolean mirrored, boolean multiFace) {
         mWidth = imageRect.width();
         mHeight = imageRect.height();
-        mWidthOff = imageRect.left;;
-        mHeightOff = imageRect.top;
-        mServerToDisplayRatioX = serverToDisplayRatioX;
-        mServerToDisplayRatioY = serverToDisplayRatioY;
-        mMirrored = mirrored;
+        mTransform.set(imageRect.left, imageRect.top, mWidth, serverToDisplayRatioX, serverToDisplayRatioY, mirrored);
         mMultiFace = multiFace;
     }
 
@@ -177,13 +171,13 @@ public class FaceBoxRenderer extends View {
         for(i = 0; i < totalFaces; i++) {
             try {
                 jsonRect = rectJsonArray.getJSONArray(i);
-                Rect rect = new Rect();
-                rect.left = jsonRect.getInt(0);
-                rect.top = jsonRect.getInt(1);
-                rect.right = jsonRect.getInt(2);
-                rect.bottom = jsonRect.getInt(3);
-                Log.d(TAG, "received rect=" + rect.toShortString());
-                if (rect.top == 0 && rect.left == 0 && rect.right == 0 && rect.bottom == 0) {
+                int[] coords = mCoords;
+                coords[0] = jsonRect.getInt(0);
+                coords[1] = jsonRect.getInt(1);
+                coords[2] = jsonRect.getInt(2);
+                coords[3] = jsonRect.getInt(3);
+                Log.d(TAG, "received rect=" + jsonRect);
+                if (coords[0] == 0 && coords[1] == 0 && coords[2] == 0 && coords[3] == 0) {
                     Log.d(TAG, "Discarding empty rectangle");
                     continue;
                 }
@@ -191,31 +185,16 @@ public class FaceBoxRenderer extends View {
                 //In case we received the exact same coordinates from both Edge and Cloud,
                 //offset only one of the rectangles so they will be distinct.
                 if (mCloudletType == ImageServerInterface.CloudletType.EDGE) {
-                    rect.left -= 1;
-                    rect.right += 1;
-                    rect.top -= 1;
-                    rect.bottom += 1;
-                }
-
-                rect.left *= mServerToDisplayRatioX;
-                rect.right *= mServerToDisplayRatioX;
-                rect.top *= mServerToDisplayRatioY;
-                rect.bottom *= mServerToDisplayRatioY;
-
-                if (mMirrored) {
-                    Log.d(TAG, "Mirroring!");
-                    // The image that was processed is what the camera sees, but the image we want to
-                    // overlay the rectangle onto is mirrored. So not only do we have to scale it,
-                    // but we have to flip it horizontally.
-                    rect.left = mWidth - rect.left;
-                    rect.right = mWidth - rect.right;
-                    int tmp = rect.left;
-                    rect.left = rect.right;
-                    rect.right = tmp;
+                    coords[0] -= 1;
+                    coords[2] += 1;
+                    coords[1] -= 1;
+                    coords[3] += 1;
                 }
 
+                mTransform.transformRect(coords);
+                Rect rect = mRect;
+                rect.set(coords[0], coords[1], coords[2], coords[3]);
                 Log.d(TAG, "jsonRect=" + jsonRect + " scaled rect=" + rect.toShortString());
-                rect.offset(mWidthOff, mHeightOff);
 
                 if(mShapeType == ShapeType.RECT) {
                     canvas.drawRect(rect, mPaint);
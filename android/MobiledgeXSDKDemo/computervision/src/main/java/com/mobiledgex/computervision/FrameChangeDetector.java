@@ -0,0 +1,124 @@
+/**
+ * Copyright 2018-2021 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.computervision;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Cheap change detector used to skip uploading frames when the scene hasn't changed.
+ * Each frame is downsampled to a small luma grid and compared with the last frame that
+ * was accepted for upload. If the mean absolute difference is under the threshold, the
+ * frame is considered unchanged.
+ */
+public class FrameChangeDetector {
+    private static final String TAG = "FrameChangeDetector";
+    public static final int GRID_SIZE = 32;
+    public static final float DEFAULT_THRESHOLD = 6.0f; // Mean luma difference, 0-255.
+    public static final long DEFAULT_MAX_SKIP_MS = 2000;
+
+    private final float mThreshold;
+    private final long mMaxSkipMs;
+    private final Bitmap mGridBitmap;
+    private final Canvas mCanvas;
+    private final Matrix mMatrix = new Matrix();
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final int[] mPixels = new int[GRID_SIZE * GRID_SIZE];
+    private int[] mReference = new int[GRID_SIZE * GRID_SIZE];
+    private int[] mCurrent = new int[GRID_SIZE * GRID_SIZE];
+    private boolean mHasReference;
+    private long mLastAcceptedTime;
+    private int mSkippedCount;
+
+    public FrameChangeDetector() {
+        this(DEFAULT_THRESHOLD, DEFAULT_MAX_SKIP_MS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param threshold  Mean luma difference above which a frame is considered changed.
+     * @param maxSkipMs  A frame is always accepted if this much time has passed since the
+     *                   last accepted frame, so results never get too stale.
+     */
+    public FrameChangeDetector(float threshold, long maxSkipMs) {
+        mThreshold = threshold;
+        mMaxSkipMs = maxSkipMs;
+        mGridBitmap = Bitmap.createBitmap(GRID_SIZE, GRID_SIZE, Bitmap.Config.ARGB_8888);
+        mCanvas = new Canvas(mGridBitmap);
+    }
+
+    /**
+     * Compares the bitmap to the last accepted frame. If it has changed, it becomes the
+     * new reference frame.
+     *
+     * @param bitmap  The frame that is about to be uploaded.
+     * @return  True if the frame should be uploaded.
+     */
+    public synchronized boolean hasChanged(Bitmap bitmap) {
+        mMatrix.setScale((float) GRID_SIZE / bitmap.getWidth(), (float) GRID_SIZE / bitmap.getHeight());
+        mCanvas.drawBitmap(bitmap, mMatrix, mPaint);
+        mGridBitmap.getPixels(mPixels, 0, GRID_SIZE, 0, 0, GRID_SIZE, GRID_SIZE);
+        for (int i = 0; i < mPixels.length; i++) {
+            int pixel = mPixels[i];
+            int r = (pixel >> 16) & 0xff;
+            int g = (pixel >> 8) & 0xff;
+            int b = pixel & 0xff;
+            mCurrent[i] = (r * 77 + g * 150 + b * 29) >> 8;
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        if (mHasReference && now - mLastAcceptedTime < mMaxSkipMs) {
+            long diff = 0;
+            for (int i = 0; i < mCurrent.length; i++) {
+                diff += Math.abs(mCurrent[i] - mReference[i]);
+            }
+            float meanDiff = (float) diff / mCurrent.length;
+            if (meanDiff < mThreshold) {
+                mSkippedCount++;
+                return false;
+            }
+            Log.d(TAG, "meanDiff="+meanDiff);
+        }
+
+        int[] tmp = mReference;
+        mReference = mCurrent;
+        mCurrent = tmp;
+        mHasReference = true;
+        mLastAcceptedTime = now;
+        return true;
+    }
+
+    /**
+     * Forget the reference frame, so the next frame is always accepted.
+     */
+    public synchronized void reset() {
+        mHasReference = false;
+    }
+
+    /**
+     * @return  The number of frames skipped because they had not changed.
+     */
+    public int getSkippedCount() {
+        return mSkippedCount;
+    }
+}
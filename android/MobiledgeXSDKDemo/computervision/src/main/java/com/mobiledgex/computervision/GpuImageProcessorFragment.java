@@ -75,6 +75,9 @@ public abstract class GpuImageProcessorFragment extends ImageProcessorFragment i
         } else {
             Log.d(TAG, "Waiting for mImageSenderEdge to be initialized.");
         }
+        if (mEdgeMigration != null) {
+            mEdgeMigration.sendImage(bitmap);
+        }
     }
 
     /**
@@ -0,0 +1,133 @@
+/**
+ * Copyright 2018-2021 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.computervision;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructPollfd;
+
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+
+/**
+ * Sends ICMP echo requests over a datagram ICMP socket, which doesn't need root. The kernel
+ * fills in the identifier, and only delivers the replies to this socket's requests.
+ *
+ * Creating the socket throws {@link IcmpNotPermittedException} if the device doesn't permit
+ * unprivileged ICMP.
+ */
+class IcmpTransport implements LatencyProbe.Transport {
+    private static final int ICMP_HEADER_LENGTH = 8;
+    private static final int ICMP_ECHO_REQUEST = 8;
+    private static final int ICMP_ECHO_REPLY = 0;
+    private static final int ICMPV6_ECHO_REQUEST = 128;
+    private static final int ICMPV6_ECHO_REPLY = 129;
+
+    private final FileDescriptor mFd;
+    private final InetAddress mAddress;
+    private final boolean mIpv6;
+    private final byte[] mReceiveBuffer = new byte[1500];
+    private int mSeq;
+
+    IcmpTransport(InetAddress address) throws IOException {
+        mAddress = address;
+        mIpv6 = address instanceof Inet6Address;
+        try {
+            mFd = mIpv6
+                    ? Os.socket(OsConstants.AF_INET6, OsConstants.SOCK_DGRAM, OsConstants.IPPROTO_ICMPV6)
+                    : Os.socket(OsConstants.AF_INET, OsConstants.SOCK_DGRAM, OsConstants.IPPROTO_ICMP);
+        } catch (ErrnoException e) {
+            throw new IcmpNotPermittedException("ICMP socket not permitted: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void send(byte[] payload) throws IOException {
+        byte[] packet = new byte[ICMP_HEADER_LENGTH + payload.length];
+        packet[0] = (byte) (mIpv6 ? ICMPV6_ECHO_REQUEST : ICMP_ECHO_REQUEST);
+        int seq = mSeq++ & 0xffff;
+        packet[6] = (byte) (seq >> 8);
+        packet[7] = (byte) seq;
+        System.arraycopy(payload, 0, packet, ICMP_HEADER_LENGTH, payload.length);
+        if (!mIpv6) {
+            // The kernel computes the ICMPv6 checksum, which covers the IP pseudo-header.
+            int checksum = checksum(packet);
+            packet[2] = (byte) (checksum >> 8);
+            packet[3] = (byte) checksum;
+        }
+        try {
+            Os.sendto(mFd, packet, 0, packet.length, 0, mAddress, 0);
+        } catch (ErrnoException e) {
+            throw e.rethrowAsIOException();
+        }
+    }
+
+    @Override
+    public int receive(byte[] buffer, int timeoutMs) throws IOException {
+        StructPollfd pollfd = new StructPollfd();
+        pollfd.fd = mFd;
+        pollfd.events = (short) OsConstants.POLLIN;
+        try {
+            if (Os.poll(new StructPollfd[] {pollfd}, timeoutMs) <= 0) {
+                return -1;
+            }
+            int length = Os.recvfrom(mFd, mReceiveBuffer, 0, mReceiveBuffer.length, 0, null);
+            int type = mReceiveBuffer[0] & 0xff;
+            if (length <= ICMP_HEADER_LENGTH
+                    || type != (mIpv6 ? ICMPV6_ECHO_REPLY : ICMP_ECHO_REPLY)) {
+                return -1;
+            }
+            int payloadLength = Math.min(length - ICMP_HEADER_LENGTH, buffer.length);
+            System.arraycopy(mReceiveBuffer, ICMP_HEADER_LENGTH, buffer, 0, payloadLength);
+            return payloadLength;
+        } catch (ErrnoException e) {
+            if (e.errno == OsConstants.EINTR || e.errno == OsConstants.EAGAIN) {
+                return -1;
+            }
+            throw e.rethrowAsIOException();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            Os.close(mFd);
+        } catch (ErrnoException e) {
+            throw e.rethrowAsIOException();
+        }
+    }
+
+    /**
+     * @return  The Internet checksum (RFC 1071) of the packet.
+     */
+    static int checksum(byte[] packet) {
+        int sum = 0;
+        for (int i = 0; i < packet.length; i += 2) {
+            int high = (packet[i] & 0xff) << 8;
+            int low = i + 1 < packet.length ? packet[i + 1] & 0xff : 0;
+            sum += high | low;
+        }
+        while ((sum >> 16) != 0) {
+            sum = (sum & 0xffff) + (sum >> 16);
+        }
+        return ~sum & 0xffff;
+    }
+}
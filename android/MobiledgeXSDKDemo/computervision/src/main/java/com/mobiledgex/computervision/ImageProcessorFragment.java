@@ -21,6 +21,7 @@ import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
+import android.content.res.Configuration;
 import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.graphics.Rect;
@@ -146,6 +147,9 @@ public class ImageProcessorFragment extends Fragment implements MatchingEngineHe
     private String mDefaultHostEdge;
 
     protected ImageSender mImageSenderEdge;
+    // Set while a new edge host is being probed before switching to it.
+    protected ImageSenderMigration mEdgeMigration;
+    protected boolean mMakeBeforeBreak = true;
     private ImageSender mImageSenderCloud;
     private ImageSender mImageSenderTraining;
 
@@ -166,6 +170,7 @@ public class ImageProcessorFragment extends Fragment implements MatchingEngineHe
     public static final String EXTRA_LONGITUDE = "EXTRA_LONGITUDE";
     private Location mSpoofedLocation;
     protected String mVideoFilename;
+    protected OfflineBenchmark mOfflineBenchmark;
     protected boolean mAttached;
     protected EventLogViewer mEventLogViewer;
     protected int fullLatencyEdgeLabel;
@@ -209,7 +214,7 @@ public class ImageProcessorFragment extends Fragment implements MatchingEngineHe
         mHostDetectionEdge = meHelper.mAppInstHostname;
         mEdgeHostList.add(mHostDetectionEdge);
 
-        restartImageSenderEdge();
+        migrateImageSenderEdge();
     }
 
     @Override
@@ -344,11 +349,79 @@ public class ImageProcessorFragment extends Fragment implements MatchingEngineHe
         }
         Log.i(TAG, message);
         showMessage(message);
+        if (mEdgeMigration != null) {
+            mEdgeMigration.cancel();
+            mEdgeMigration = null;
+        }
+        mImageSenderEdge = buildImageSenderEdge();
+    }
+
+    /**
+     * Switches to a new edge host without a gap in results. A sender for the new host is brought
+     * up alongside the current one and sent probe frames. Traffic is switched only if the new host
+     * is faster, and then the old sender is drained. See {@link ImageSenderMigration}.
+     *
+     * Falls back to {@link #restartImageSenderEdge()} if there's no working sender to keep using
+     * while the new one is probed.
+     */
+    public void migrateImageSenderEdge() {
+        if (!mMakeBeforeBreak || mImageSenderEdge == null || mImageSenderEdge.isInactive()
+                || mOfflineBenchmark != null) {
+            restartImageSenderEdge();
+            return;
+        }
+        if (!mAttached) {
+            Log.w(TAG, "Fragment is detached. Aborting migrateImageSenderEdge()");
+            return;
+        }
+        if (mHostDetectionEdge.equals(mImageSenderEdge.getHost())) {
+            Log.i(TAG, "Already using EDGE host " + mHostDetectionEdge);
+            return;
+        }
+        if (mEdgeMigration != null) {
+            mEdgeMigration.cancel();
+        }
+        String message = "Probing " + mCameraToolbar.getTitle() + " on new EDGE host " + mHostDetectionEdge;
+        Log.i(TAG, message);
+        showMessage(message);
+        mEdgeMigration = new ImageSenderMigration(mImageSenderEdge, buildImageSenderEdge(),
+                ImageSenderMigration.DEFAULT_PROBE_FRAMES, ImageSenderMigration.DEFAULT_TIMEOUT_MS,
+                new ImageSenderMigration.Listener() {
+                    @Override
+                    public void onMigrationComplete(final ImageSenderMigration migration,
+                                                    final boolean switched, final String reason) {
+                        if (getActivity() == null) {
+                            return;
+                        }
+                        getActivity().runOnUiThread(new Runnable() {
+                            @Override
+                            public void run() {
+                                if (migration != mEdgeMigration) {
+                                    return;
+                                }
+                                mEdgeMigration = null;
+                                if (switched) {
+                                    mImageSenderEdge = migration.getCandidate();
+                                } else {
+                                    mHostDetectionEdge = migration.getCurrent().getHost();
+                                }
+                                showMessage(reason);
+                            }
+                        });
+                    }
+                });
+    }
+
+    /**
+     * Builds the sender for the current Edge host. Subclasses that use a different sender type
+     * or port override this, so both restarts and migrations use it.
+     */
+    protected ImageSender buildImageSenderEdge() {
         boolean tls = meHelper.mAppInstTls;
         if (mEdgeHostNameOverride) {
             tls = mEdgeHostNameTls;
         }
-        mImageSenderEdge = new ImageSender.Builder()
+        return new ImageSender.Builder()
                 .setActivity(getActivity())
                 .setImageServerInterface(this)
                 .setCloudLetType(CloudletType.EDGE)
@@ -393,6 +466,9 @@ public class ImageProcessorFragment extends Fragment implements MatchingEngineHe
             } else {
                 Log.w(TAG, "mImageSenderEdge not yet initialized");
             }
+            if (mEdgeMigration != null) {
+                mEdgeMigration.sendImage(bitmap);
+            }
             if (mImageSenderCloud != null) {
                 mImageSenderCloud.sendImage(bitmap);
             } else {
@@ -773,6 +849,11 @@ public class ImageProcessorFragment extends Fragment implements MatchingEngineHe
             return true;
         }
 
+        if (id == R.id.action_benchmark_offline) {
+            runOfflineBenchmark();
+            return true;
+        }
+
         if (id == R.id.action_benchmark_cloud) {
             mCameraToolbar.setVisibility(View.GONE);
             if (mImageSenderEdge != null) {
@@ -790,6 +871,74 @@ public class ImageProcessorFragment extends Fragment implements MatchingEngineHe
         return false;
     }
 
+    /**
+     * Runs a deterministic benchmark against the Edge server, using frames decoded from a
+     * video or image directory instead of the camera. The source and frame rate may be given
+     * as Intent extras, so runs can be scripted with "adb shell am start". See
+     * {@link OfflineBenchmark} for the extra names.
+     */
+    protected void runOfflineBenchmark() {
+        if (mImageSenderEdge == null) {
+            showError("Edge server not yet initialized. Can't run offline benchmark.");
+            return;
+        }
+        if (mOfflineBenchmark != null) {
+            showMessage("Offline benchmark already running.");
+            return;
+        }
+        Intent intent = getActivity().getIntent();
+        String source = intent.getStringExtra(OfflineBenchmark.EXTRA_SOURCE);
+        if (source == null) {
+            // Default to the standard video for this activity.
+            String orientation = getResources().getConfiguration().orientation
+                    == Configuration.ORIENTATION_LANDSCAPE ? "landscape/" : "portrait/";
+            source = "http://opencv.facetraining.mobiledgex.net/videos/"+orientation+mVideoFilename;
+        }
+        float fps = intent.getFloatExtra(OfflineBenchmark.EXTRA_FPS, 0);
+        int frameCount = intent.getIntExtra(OfflineBenchmark.EXTRA_FRAME_COUNT, OfflineBenchmark.DEFAULT_FRAME_COUNT);
+        int warmupFrames = intent.getIntExtra(OfflineBenchmark.EXTRA_WARMUP_FRAMES, OfflineBenchmark.DEFAULT_WARMUP_FRAMES);
+
+        mCameraToolbar.setVisibility(View.GONE);
+        if (mImageSenderCloud != null) {
+            mImageSenderCloud.setInactiveBenchmark(true);
+        }
+        // Stop camera frames from being processed while the benchmark is feeding frames.
+        mCamera2BasicFragment.setImageProviderInterface(null);
+        View cameraView = mCamera2BasicFragment.getView();
+        Rect imageRect = new Rect(0, 0, cameraView.getWidth(), cameraView.getHeight());
+
+        showMessage("Starting offline benchmark. source="+source+" fps="+fps+" frames="+frameCount);
+        mOfflineBenchmark = new OfflineBenchmark.Builder()
+                .setContext(getContext())
+                .setImageProviderInterface(this)
+                .setImageSender(mImageSenderEdge)
+                .setSource(source)
+                .setFps(fps)
+                .setFrameCount(frameCount)
+                .setWarmupFrames(warmupFrames)
+                .setImageRect(imageRect)
+                .setOnComplete(new Runnable() {
+                    @Override
+                    public void run() {
+                        String resultFileBase = mOfflineBenchmark.getResultFileBase();
+                        mOfflineBenchmark = null;
+                        if (!mAttached) {
+                            return;
+                        }
+                        showMessage("Offline benchmark complete. Results: "+resultFileBase);
+                        mCameraToolbar.setVisibility(View.VISIBLE);
+                        if (mImageSenderCloud != null) {
+                            mImageSenderCloud.setInactiveBenchmark(false);
+                        }
+                        if (mCamera2BasicFragment != null) {
+                            mCamera2BasicFragment.setImageProviderInterface(ImageProcessorFragment.this);
+                        }
+                    }
+                })
+                .build();
+        mOfflineBenchmark.start();
+    }
+
     protected void setAppNameForGpu() {
         String appName = getResources().getString(R.string.dme_app_name);
         if (meHelper.mAppName.equals(appName)) {
@@ -842,6 +991,18 @@ public class ImageProcessorFragment extends Fragment implements MatchingEngineHe
     public void onResume() {
         Log.d(TAG, "onResume()");
         super.onResume();
+        if (meHelper != null) {
+            meHelper.onResume();
+        }
+    }
+
+    @Override
+    public void onPause() {
+        Log.d(TAG, "onPause()");
+        super.onPause();
+        if (meHelper != null) {
+            meHelper.onPause();
+        }
     }
 
     @Override
@@ -877,6 +1038,8 @@ public class ImageProcessorFragment extends Fragment implements MatchingEngineHe
         String prefKeyHostEdge = getResources().getString(R.string.pref_cv_host_edge);
         String prefKeyHostEdgeTls = getResources().getString(R.string.pref_cv_host_edge_tls);
         String prefKeyHostTraining = getResources().getString(R.string.pref_cv_host_training);
+        String prefKeyMotionGating = getResources().getString(R.string.pref_cv_motion_gating);
+        String prefKeyRoiUploads = getResources().getString(R.string.pref_cv_roi_uploads);
 
         // Cloud Hostname handling
         if (key.equals(prefKeyHostCloudOverride) || key.equals(ALL_PREFS)) {
@@ -948,6 +1111,11 @@ public class ImageProcessorFragment extends Fragment implements MatchingEngineHe
             Log.i(TAG, "connectionMode=" + connectionModeString+" mImageSenderEdge="+mImageSenderEdge+" mImageSenderCloud="+mImageSenderCloud);
             ImageSender.setPreferencesConnectionMode(ImageSender.ConnectionMode.valueOf(connectionModeString), mImageSenderEdge, mImageSenderCloud);
         }
+        if (key.equals(prefKeyMotionGating) || key.equals(prefKeyRoiUploads) || key.equals(ALL_PREFS)) {
+            boolean motionGating = sharedPreferences.getBoolean(prefKeyMotionGating, false);
+            boolean roiUploads = sharedPreferences.getBoolean(prefKeyRoiUploads, false);
+            ImageSender.setPreferencesFrameGating(motionGating, roiUploads);
+        }
         if (key.equals(prefKeyMultiFace) || key.equals(ALL_PREFS)) {
             prefMultiFace = sharedPreferences.getBoolean(prefKeyMultiFace, true);
         }
@@ -1342,6 +1510,13 @@ public class ImageProcessorFragment extends Fragment implements MatchingEngineHe
         super.onDetach();
         mAttached = false;
         mCamera2BasicFragment = null;
+        if (mOfflineBenchmark != null) {
+            mOfflineBenchmark.stop();
+        }
+        if (mEdgeMigration != null) {
+            mEdgeMigration.cancel();
+            mEdgeMigration = null;
+        }
         if (mImageSenderEdge != null) {
             mImageSenderEdge.closeConnection();
         }
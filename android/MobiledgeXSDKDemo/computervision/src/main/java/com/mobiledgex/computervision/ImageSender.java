@@ -20,9 +20,11 @@ package com.mobiledgex.computervision;
 import android.app.Activity;
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.Rect;
 import android.os.AsyncTask;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.android.volley.DefaultRetryPolicy;
@@ -37,19 +39,14 @@ import com.google.android.gms.auth.api.signin.GoogleSignInAccount;
 
 import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import okhttp3.OkHttpClient;
 import okhttp3.WebSocket;
@@ -77,6 +74,12 @@ public class ImageSender {
     protected boolean mInactive;
     protected boolean mInactiveBenchmark;
     protected boolean mInactiveFailure;
+    // Quiet senders keep their own stats but don't update the UI or report connection errors.
+    // Used for a candidate sender during a migration, and for an old one while it drains.
+    protected volatile boolean mQuiet;
+    private volatile boolean mDraining;
+    // Probe frames of a migration candidate are timed, so they are never skipped.
+    private volatile boolean mMotionGatingExempt;
     protected long mLatency = 0;
     protected boolean mDoNetLatency = true;
     private final int mRollingAvgSize = 100;
@@ -95,6 +98,22 @@ public class ImageSender {
     private static ConnectionMode preferencesConnectionMode = ConnectionMode.REST;
     protected ConnectionMode mConnectionMode;
 
+    //Variables for motion gating and region of interest uploads
+    private static boolean preferencesMotionGating = false;
+    private static boolean preferencesRoiUploads = false;
+    private static final float ROI_MARGIN = 0.25f;
+    private static final int ROI_FULL_FRAME_INTERVAL = 10;
+    private FrameChangeDetector mFrameChangeDetector;
+    private volatile Rect mLastDetectionRect;
+    private Rect mRequestRoi;
+    private int mRoiUploadCount;
+    private JSONArray mLastOverlay;
+    private String mLastSubject;
+
+    //Variables for per-frame stage timings
+    private FrameTimingListener mFrameTimingListener;
+    protected long mEncodeTime;
+
     protected long mStartTime;
     private int mOpcode;
 
@@ -124,6 +143,34 @@ public class ImageSender {
         OBJECT_DETECTION
     }
 
+    /**
+     * Receives the timings of each stage of processing a frame. Used for benchmarking.
+     * Callbacks may come from any thread.
+     */
+    public interface FrameTimingListener {
+        /**
+         * Called after the response for a frame has been handled.
+         *
+         * @param encodeNanos  Time spent compressing the image.
+         * @param roundTripNanos  Time from sending the request until the response was received.
+         *                        Includes upload, server processing and download.
+         * @param handleNanos  Time spent parsing the response and updating the overlay.
+         */
+        void onFrameComplete(long encodeNanos, long roundTripNanos, long handleNanos);
+
+        /**
+         * Called when a frame was not uploaded because it hadn't changed.
+         */
+        void onFrameSkipped();
+
+        /**
+         * Called when the request for a frame failed.
+         *
+         * @param error  The error message.
+         */
+        void onFrameError(String error);
+    }
+
     public static class Builder {
         private Activity activity;
         private ImageServerInterface imageServerInterface;
@@ -244,7 +291,7 @@ public class ImageSender {
             mBusy = false;
             long endTime = System.nanoTime();
             mLatency = endTime - mStartTime;
-            handleResponse(text, mLatency);
+            handleResponseTimed(text, mLatency);
         }
         @Override
         public void onMessage(WebSocket webSocket, ByteString bytes) {
@@ -265,7 +312,10 @@ public class ImageSender {
                 mImageServerInterface.showError("WebSockets support not yet deployed to "+mCloudLetType+" server.");
                 mInactiveFailure = true;
             } else {
-                mImageServerInterface.reportConnectionError("WebSocket connection error: "+message, ImageSender.this);
+                reportFrameError(message);
+                if (!mQuiet) {
+                    mImageServerInterface.reportConnectionError("WebSocket connection error: "+message, ImageSender.this);
+                }
             }
         }
     }
@@ -277,7 +327,7 @@ public class ImageSender {
         }
 
         mScheme =  mTls ? "wss" : "ws";
-        String url = mScheme+"://"+mHost+":"+mPort+"/ws"+mDjangoUrl;
+        String url = ComputerVisionApi.webSocketUrl(mTls, mHost, mPort, mDjangoUrl);
         Log.i(TAG, mCloudLetType+" attempting to start WebSocket client. url: " + url);
         okhttp3.Request request = new okhttp3.Request.Builder().url(url).build();
         ResultWebSocketListener listener = new ResultWebSocketListener();
@@ -306,25 +356,18 @@ public class ImageSender {
 
     public void setCameraMode(CameraMode mode) {
         mCameraMode = mode;
-        if(mode == CameraMode.FACE_DETECTION) {
-            mOpcode = 1;
-            mDjangoUrl = "/detector/detect/";
-        } else if (mode == CameraMode.FACE_RECOGNITION){
-            mOpcode = 2;
-            mDjangoUrl = "/recognizer/predict/";
-        } else if (mode == CameraMode.FACE_TRAINING) {
-            mOpcode = 0;
-            mDjangoUrl = "/trainer/add/";
-            mTrainingCount = 0;
-        } else if (mode == CameraMode.FACE_UPDATING_SERVER) {
-            mOpcode = 0;
-            mDjangoUrl = "/trainer/predict/";
-        } else if (mode == CameraMode.POSE_DETECTION){
-            mOpcode = 3;
-            mDjangoUrl = "/openpose/detect/";
-        } else if (mode == CameraMode.OBJECT_DETECTION){
-            mOpcode = 4;
-            mDjangoUrl = "/object/detect/";
+        mLastDetectionRect = null;
+        mLastOverlay = null;
+        if (mFrameChangeDetector != null) {
+            mFrameChangeDetector.reset();
+        }
+        ComputerVisionApi.Endpoint endpoint = mode == null ? null : ComputerVisionApi.Endpoint.forCameraMode(mode.name());
+        if (endpoint != null) {
+            mOpcode = endpoint.opcode;
+            mDjangoUrl = endpoint.path;
+            if (mode == CameraMode.FACE_TRAINING) {
+                mTrainingCount = 0;
+            }
         } else {
             Log.e(TAG, "Invalid CameraMode: "+mode);
         }
@@ -371,9 +414,16 @@ public class ImageSender {
      */
     public void sendImage(Bitmap bitmap) {
         Log.d(TAG, mCloudLetType+"sendImage()");
-        if(mBusy || mInactive || mInactiveBenchmark || mInactiveFailure) {
+        if(mBusy || mInactive || mInactiveBenchmark || mInactiveFailure || mDraining) {
             return;
         }
+        if (skipUnchangedFrame(bitmap)) {
+            if (mFrameTimingListener != null) {
+                mFrameTimingListener.onFrameSkipped();
+            }
+            return;
+        }
+        bitmap = cropToRoi(bitmap);
 
         // Get a lock for the busy
         mBusy = true;
@@ -386,6 +436,7 @@ public class ImageSender {
             });
         }
 
+        long encodeStartTime = System.nanoTime();
         ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
         bitmap.compress(Bitmap.CompressFormat.JPEG, 67, byteStream);
         //TODO: Add preferences for quality and to allow lossless Bitmap.CompressFormat.PNG
@@ -394,12 +445,13 @@ public class ImageSender {
         Log.d(TAG, mCloudLetType+" bytes.length="+bytes.length);
 
         mStartTime = System.nanoTime();
+        mEncodeTime = mStartTime - encodeStartTime;
 
         // Depending on the connection mode, choose the appropriate way to send the image
         // data to the server.
         if(mConnectionMode == ConnectionMode.REST) {
             mScheme =  mTls ? "https" : "http";
-            String url = mScheme+"://"+ mHost +":"+mPort + mDjangoUrl;
+            String url = ComputerVisionApi.restUrl(mTls, mHost, mPort, mDjangoUrl);
             Log.i(TAG, "url="+url+" length: "+bytes.length);
 
             // Request a byte response from the provided URL.
@@ -411,7 +463,7 @@ public class ImageSender {
                             long endTime = System.nanoTime();
                             mBusy = false;
                             mLatency = endTime - mStartTime;
-                            handleResponse(response, mLatency);
+                            handleResponseTimed(response, mLatency);
                         }
                     }, new Response.ErrorListener() {
                 @Override
@@ -419,7 +471,10 @@ public class ImageSender {
                     mBusy = false;
                     String message = "sendImage received error=" + error;
                     Log.e(TAG, message);
-                    mImageServerInterface.reportConnectionError(error.toString(), ImageSender.this);
+                    reportFrameError(error.toString());
+                    if (!mQuiet) {
+                        mImageServerInterface.reportConnectionError(error.toString(), ImageSender.this);
+                    }
                 }
             }) {
 
@@ -432,7 +487,7 @@ public class ImageSender {
                 @Override
                 public Map getHeaders() {
                     Map headers = new HashMap();
-                    headers.put("Content-Type", "image/jpeg");
+                    headers.put("Content-Type", ComputerVisionApi.CONTENT_TYPE_JPEG);
                     return headers;
                 }
 
@@ -452,6 +507,123 @@ public class ImageSender {
         }
     }
 
+    private boolean isGatingSupported() {
+        return mCameraMode == CameraMode.FACE_DETECTION || mCameraMode == CameraMode.FACE_RECOGNITION
+                || mCameraMode == CameraMode.POSE_DETECTION || mCameraMode == CameraMode.OBJECT_DETECTION;
+    }
+
+    /**
+     * If motion gating is enabled, check whether the frame has changed since the last one
+     * uploaded. For an unchanged frame, the last results are sent to the overlay again so
+     * they stay visible.
+     *
+     * @param bitmap  The image about to be sent.
+     * @return  True if the frame should not be uploaded.
+     */
+    private boolean skipUnchangedFrame(Bitmap bitmap) {
+        if (!preferencesMotionGating || mMotionGatingExempt || !isGatingSupported()) {
+            return false;
+        }
+        if (mFrameChangeDetector == null) {
+            mFrameChangeDetector = new FrameChangeDetector();
+        }
+        if (mFrameChangeDetector.hasChanged(bitmap)) {
+            return false;
+        }
+        JSONArray lastOverlay = mLastOverlay;
+        if (lastOverlay != null) {
+            mImageServerInterface.updateOverlay(mCloudLetType, lastOverlay, mLastSubject);
+        }
+        return true;
+    }
+
+    /**
+     * If region of interest uploads are enabled and the previous response had detections,
+     * crop the bitmap to the area around them. A full frame is still sent periodically so
+     * that new faces or objects entering the scene are found.
+     *
+     * @param bitmap  The image about to be sent.
+     * @return  The cropped bitmap, or the original one if no cropping is done.
+     */
+    private Bitmap cropToRoi(Bitmap bitmap) {
+        mRequestRoi = null;
+        Rect lastRect = mLastDetectionRect;
+        if (!preferencesRoiUploads || lastRect == null
+                || (mCameraMode != CameraMode.FACE_DETECTION && mCameraMode != CameraMode.OBJECT_DETECTION)
+                || mRoiUploadCount >= ROI_FULL_FRAME_INTERVAL) {
+            mRoiUploadCount = 0;
+            return bitmap;
+        }
+        int marginX = (int) (lastRect.width() * ROI_MARGIN);
+        int marginY = (int) (lastRect.height() * ROI_MARGIN);
+        Rect roi = new Rect(lastRect.left - marginX, lastRect.top - marginY,
+                lastRect.right + marginX, lastRect.bottom + marginY);
+        if (!roi.intersect(0, 0, bitmap.getWidth(), bitmap.getHeight()) || roi.isEmpty()) {
+            mRoiUploadCount = 0;
+            return bitmap;
+        }
+        if (roi.width() * roi.height() > bitmap.getWidth() * bitmap.getHeight() * 3 / 4) {
+            // Not worth cropping.
+            return bitmap;
+        }
+        mRoiUploadCount++;
+        mRequestRoi = roi;
+        Log.d(TAG, mCloudLetType+" cropping to roi="+roi.toShortString());
+        return Bitmap.createBitmap(bitmap, roi.left, roi.top, roi.width(), roi.height());
+    }
+
+    /**
+     * Offsets rectangles received for a cropped image back to full frame coordinates, and
+     * remembers the area covered by all of them for the next region of interest upload.
+     *
+     * @param rects  Array of [left, top, right, bottom] arrays. Modified in place.
+     */
+    private void updateDetectionRects(JSONArray rects) throws JSONException {
+        Rect roi = mRequestRoi;
+        Rect union = null;
+        for (int i = 0; i < rects.length(); i++) {
+            JSONArray jsonRect = rects.getJSONArray(i);
+            Rect rect = new Rect(jsonRect.getInt(0), jsonRect.getInt(1), jsonRect.getInt(2), jsonRect.getInt(3));
+            if (roi != null) {
+                rect.offset(roi.left, roi.top);
+                jsonRect.put(0, rect.left);
+                jsonRect.put(1, rect.top);
+                jsonRect.put(2, rect.right);
+                jsonRect.put(3, rect.bottom);
+            }
+            if (union == null) {
+                union = new Rect(rect);
+            } else {
+                union.union(rect);
+            }
+        }
+        mLastDetectionRect = union;
+    }
+
+    private void handleResponseTimed(String response, long latency) {
+        long handleStartTime = System.nanoTime();
+        handleResponse(response, latency);
+        reportFrameTiming(latency, System.nanoTime() - handleStartTime);
+    }
+
+    /**
+     * Passes the stage timings for the current frame to the {@link FrameTimingListener}, if any.
+     *
+     * @param roundTripNanos  Time from sending the request until the response was received.
+     * @param handleNanos  Time spent handling the response.
+     */
+    protected void reportFrameTiming(long roundTripNanos, long handleNanos) {
+        if (mFrameTimingListener != null) {
+            mFrameTimingListener.onFrameComplete(mEncodeTime, roundTripNanos, handleNanos);
+        }
+    }
+
+    protected void reportFrameError(String error) {
+        if (mFrameTimingListener != null) {
+            mFrameTimingListener.onFrameError(error);
+        }
+    }
+
     /**
      * Both the WebSocket server and the REST server will return results in the same JSON
      * format. This method parses the results and updates the UI with the returned values.
@@ -464,34 +636,25 @@ public class ImageSender {
             Log.i(TAG, "Inactive, aborting update.");
             return;
         }
+        if (mQuiet) {
+            mLatencyFullProcessRollingAvg.add(latency / 1000000); //ns->ms
+            return;
+        }
         try {
-            JSONObject jsonObject = new JSONObject(response);
-            JSONArray rects;
-            String subject = null;
-            if (jsonObject.getBoolean("success")) {
-                if (mCameraMode == CameraMode.POSE_DETECTION) {
-                    JSONArray poses = jsonObject.getJSONArray("poses");
-                    mImageServerInterface.updateOverlay(mCloudLetType, poses, null);
-                } else if (mCameraMode == CameraMode.OBJECT_DETECTION) {
-                    JSONArray objects = jsonObject.getJSONArray("objects");
-                    mImageServerInterface.updateOverlay(mCloudLetType, objects, null);
-                } else {
-                    if (jsonObject.has("subject")) {
-                        //This means it was from recognition mode
-                        subject = jsonObject.getString("subject");
-                        double confidence = jsonObject.getDouble("confidence");
-                        if (confidence > RECOGNITION_CONFIDENCE_THRESHOLD) {
-                            subject = subject+"\n[DOUBTFUL]";
-                        }
-                        JSONArray rect = jsonObject.getJSONArray("rect");
-                        rects = new JSONArray();
-                        rects.put(rect);
-                    } else {
-                        //Default is from face detection mode
-                        rects = jsonObject.getJSONArray("rects");
-                    }
-                    mImageServerInterface.updateOverlay(mCloudLetType, rects, subject);
+            ComputerVisionApi.Endpoint endpoint = mCameraMode == null ? null
+                    : ComputerVisionApi.Endpoint.forCameraMode(mCameraMode.name());
+            ServerResponse result = ServerResponse.parse(endpoint, response);
+            if (result.success) {
+                String subject = result.subject;
+                if (subject != null && result.confidence > RECOGNITION_CONFIDENCE_THRESHOLD) {
+                    subject = subject+"\n[DOUBTFUL]";
                 }
+                if (result.detectionRects != null) {
+                    updateDetectionRects(result.detectionRects);
+                }
+                mImageServerInterface.updateOverlay(mCloudLetType, result.overlay, subject);
+                mLastOverlay = result.overlay;
+                mLastSubject = subject;
 
                 if (mCameraMode == CameraMode.FACE_TRAINING) {
                     mTrainingCount++;
@@ -500,6 +663,8 @@ public class ImageSender {
                 }
             } else {
                 Log.i(TAG, "None found in image");
+                mLastDetectionRect = null;
+                mLastOverlay = null;
             }
         } catch (JSONException e) {
             e.printStackTrace();
@@ -612,44 +777,32 @@ public class ImageSender {
         Log.d(TAG, "doSinglePing mLatencyTestMethod="+mLatencyTestMethod+" cloudletType="+cloudletType);
 
         if(mLatencyTestMethod.equals(LatencyTestMethod.ping)) {
+            LatencyProbe probe = new LatencyProbe.Builder()
+                    .setHost(host)
+                    .setMethod(LatencyProbe.Method.ICMP)
+                    .setCount(1)
+                    .setTimeoutMs(mSocketTimeout)
+                    .build();
             try {
-                String pingCommand = "/system/bin/ping -c 1 " + host;
-                String inputLine = "";
-
-                String regex = "(\\d+\\.\\d+)\\/(\\d+\\.\\d+)\\/(\\d+\\.\\d+)\\/(\\d+\\.\\d+) ms";
-                Pattern pattern = Pattern.compile(regex);
-                Matcher matcher;
-
-                // execute the command on the environment interface
-                Log.d(TAG, "ping command: "+pingCommand);
-                Process process = Runtime.getRuntime().exec(pingCommand);
-                // gets the input stream to get the output of the executed command
-                BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-
-                inputLine = bufferedReader.readLine();
-                while ((inputLine != null)) {
-                    Log.d(TAG, "ping inputLine=" + inputLine);
-                    if (inputLine.contains("rtt min")) {
-                        // Extract the average round trip time from the inputLine string
-                        matcher = pattern.matcher(inputLine);
-                        if (matcher.find()) {
-                            Log.d(TAG, "ping output=" + matcher.group(0));
-                            latency = (long) (Double.parseDouble(matcher.group(1)));
-                            rollingAverage.add(latency);
-                        }
-                        break;
-
-                    } else if (inputLine.contains("100% packet loss")) {  // when we get to the last line of executed ping command (all packets lost)
-                        mLatencyTestMethod = LatencyTestMethod.socket;
-                        mImageServerInterface.showMessage("Ping failed. Switching to socket latency test mode.");
-                        break;
-                    }
-                    inputLine = bufferedReader.readLine();
+                LatencyProbe.Result result = probe.run();
+                Log.d(TAG, host + " " + result);
+                if (result.received > 0) {
+                    latency = (long) result.min;
+                    rollingAverage.add(latency);
                 }
-            }
-            catch (IOException e){
-                Log.e(TAG, "doSinglePing: EXCEPTION");
-                e.printStackTrace();
+            } catch (UnknownHostException e) {
+                Log.e(TAG, "doSinglePing: " + e);
+            } catch (IcmpNotPermittedException e) {
+                // The device doesn't permit ICMP sockets, so ping can never work.
+                Log.e(TAG, "doSinglePing: " + e);
+                mLatencyTestMethod = LatencyTestMethod.socket;
+                mImageServerInterface.showMessage("Ping not permitted. Switching to socket latency test mode.");
+            } catch (IOException e) {
+                // May be transient, e.g. the network is briefly unreachable. Try again next time.
+                Log.e(TAG, "doSinglePing: " + e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
             }
 
         } else {
@@ -665,7 +818,7 @@ public class ImageSender {
             }
         }
 
-        if (mInactive) {
+        if (mInactive || mQuiet) {
             Log.i(TAG, "Inactive, aborting update.");
             return;
         }
@@ -704,6 +857,19 @@ public class ImageSender {
         }
     }
 
+    /**
+     * Sets the static motion gating and region of interest preferences for the class. These are
+     * checked for each frame, so they take effect immediately on any existing instances.
+     *
+     * @param motionGating  Whether to skip uploading frames that haven't changed.
+     * @param roiUploads  Whether to upload only the area around previous detections.
+     */
+    public static void setPreferencesFrameGating(boolean motionGating, boolean roiUploads) {
+        Log.i(TAG, "setPreferencesFrameGating("+motionGating+", "+roiUploads+")");
+        ImageSender.preferencesMotionGating = motionGating;
+        ImageSender.preferencesRoiUploads = roiUploads;
+    }
+
     /**
      * Return statistics information to be displayed in dialog after activity.
      * @return  The statistics text.
@@ -715,7 +881,8 @@ public class ImageSender {
         }
         String statsText = mCloudLetType +" hostname: "+mHost+ "\n" +
                 "Connection mode="+mConnectionMode + "\n" +
-                "Latency test method="+mLatencyTestMethod+"\n\n" +
+                "Latency test method="+mLatencyTestMethod+"\n" +
+                "Unchanged frames skipped="+(mFrameChangeDetector == null ? 0 : mFrameChangeDetector.getSkippedCount())+"\n\n" +
                 mLatencyFullProcessRollingAvg.getStatsText() + "\n\n" +
                 mLatencyNetOnlyRollingAvg.getStatsText();
         Log.i(TAG, "getStatsText\n"+statsText);
@@ -738,6 +905,17 @@ public class ImageSender {
         mHost = host;
     }
 
+    public void setFrameTimingListener(FrameTimingListener frameTimingListener) {
+        mFrameTimingListener = frameTimingListener;
+    }
+
+    /**
+     * @return  True if a request is in progress and new frames will be dropped.
+     */
+    public boolean isBusy() {
+        return mBusy;
+    }
+
     public boolean isInactiveBenchmark() {
         return mInactiveBenchmark;
     }
@@ -746,6 +924,49 @@ public class ImageSender {
         this.mInactiveBenchmark = inactiveBenchmark;
     }
 
+    public boolean isInactive() {
+        return mInactive || mInactiveFailure;
+    }
+
+    public void setQuiet(boolean quiet) {
+        mQuiet = quiet;
+    }
+
+    public void setMotionGatingExempt(boolean exempt) {
+        mMotionGatingExempt = exempt;
+    }
+
+    /**
+     * @return  Rolling average of the full process latency in ms, or 0 if no frames have completed.
+     */
+    public long getFullProcessLatencyAverage() {
+        return mLatencyFullProcessRollingAvg.getAverage();
+    }
+
+    /**
+     * Stops sending new frames, waits for any request in progress to finish, then closes the
+     * connection. The response to that request doesn't update the UI.
+     *
+     * @param timeoutMs  Maximum time to wait for the request in progress.
+     */
+    public void drainAndClose(final long timeoutMs) {
+        Log.i(TAG, "drainAndClose for "+mCloudLetType+" "+mHost);
+        mQuiet = true;
+        mDraining = true;
+        final long deadline = SystemClock.uptimeMillis() + timeoutMs;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mBusy && SystemClock.uptimeMillis() < deadline) {
+                    mHandler.postDelayed(this, 50);
+                    return;
+                }
+                closeConnection();
+                mHandler.getLooper().quitSafely();
+            }
+        });
+    }
+
     public void setInactive(boolean inactive) {
         this.mInactive = inactive;
         this.mBusy = inactive;
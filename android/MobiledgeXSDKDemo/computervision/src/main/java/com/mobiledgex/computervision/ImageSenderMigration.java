@@ -0,0 +1,183 @@
+/**
+ * Copyright 2018-2021 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.computervision;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * Make-before-break migration from one ImageSender to another.
+ *
+ * The candidate sender is sent a copy of the camera frames while the current sender keeps
+ * handling the UI. The candidate is quiet, so its results aren't shown. Once it has completed
+ * enough probe frames, traffic is switched to it only if its median latency beats the current
+ * sender's average, and the current sender is drained. Otherwise the candidate is closed.
+ */
+public class ImageSenderMigration implements ImageSender.FrameTimingListener {
+    private static final String TAG = "ImageSenderMigration";
+    public static final int DEFAULT_PROBE_FRAMES = 5;
+    public static final long DEFAULT_TIMEOUT_MS = 10000;
+    private static final long DRAIN_TIMEOUT_MS = 5000;
+
+    private final ImageSender mCurrent;
+    private final ImageSender mCandidate;
+    private final Listener mListener;
+    private final long[] mLatenciesMs;
+    private final long mDeadline;
+    private int mCompleted;
+    private boolean mDone;
+
+    public interface Listener {
+        /**
+         * Called once when the migration is decided. May be called from any thread.
+         *
+         * @param migration  The migration.
+         * @param switched  True if traffic was switched to the candidate.
+         * @param reason  Description of the decision, for display.
+         */
+        void onMigrationComplete(ImageSenderMigration migration, boolean switched, String reason);
+    }
+
+    /**
+     * @param current  The sender in use.
+     * @param candidate  The sender for the new host. It is made quiet, and its frames
+     *                   bypass motion gating, until the migration is decided.
+     * @param probeFrames  Number of frames the candidate must complete before deciding.
+     * @param timeoutMs  Maximum time to wait for the probe frames.
+     * @param listener  Notified when the migration is decided.
+     */
+    public ImageSenderMigration(ImageSender current, ImageSender candidate, int probeFrames,
+                                long timeoutMs, Listener listener) {
+        mCurrent = current;
+        mCandidate = candidate;
+        mListener = listener;
+        mLatenciesMs = new long[probeFrames];
+        mDeadline = SystemClock.uptimeMillis() + timeoutMs;
+        mCandidate.setQuiet(true);
+        mCandidate.setMotionGatingExempt(true);
+        mCandidate.setFrameTimingListener(this);
+    }
+
+    public ImageSender getCurrent() {
+        return mCurrent;
+    }
+
+    public ImageSender getCandidate() {
+        return mCandidate;
+    }
+
+    /**
+     * Sends a frame to the candidate. Call this for each frame also sent to the current sender.
+     */
+    public void sendImage(Bitmap bitmap) {
+        synchronized (this) {
+            if (mDone) {
+                return;
+            }
+        }
+        if (SystemClock.uptimeMillis() > mDeadline) {
+            decide("timed out");
+            return;
+        }
+        mCandidate.sendImage(bitmap);
+    }
+
+    /**
+     * Abandons the migration without notifying the listener, and closes the candidate.
+     */
+    public void cancel() {
+        synchronized (this) {
+            if (mDone) {
+                return;
+            }
+            mDone = true;
+        }
+        mCandidate.setFrameTimingListener(null);
+        mCandidate.drainAndClose(0);
+    }
+
+    @Override
+    public void onFrameComplete(long encodeNanos, long roundTripNanos, long handleNanos) {
+        boolean enough;
+        synchronized (this) {
+            if (mDone || mCompleted == mLatenciesMs.length) {
+                return;
+            }
+            mLatenciesMs[mCompleted++] = roundTripNanos / 1000000;
+            enough = mCompleted == mLatenciesMs.length;
+        }
+        if (enough) {
+            decide("probe complete");
+        }
+    }
+
+    @Override
+    public void onFrameSkipped() {
+    }
+
+    @Override
+    public void onFrameError(String error) {
+        finish(false, "New host failed: " + error);
+    }
+
+    private void decide(String event) {
+        long candidateMs;
+        synchronized (this) {
+            if (mCompleted == 0) {
+                candidateMs = -1;
+            } else {
+                long[] sorted = Arrays.copyOf(mLatenciesMs, mCompleted);
+                Arrays.sort(sorted);
+                candidateMs = sorted[mCompleted / 2];
+            }
+        }
+        if (candidateMs < 0) {
+            finish(false, "New host " + event + " with no completed frames");
+            return;
+        }
+        long currentMs = mCurrent.getFullProcessLatencyAverage();
+        String comparison = "new host " + candidateMs + " ms vs current host " + currentMs + " ms";
+        if (mCurrent.isInactive() || currentMs == 0 || candidateMs < currentMs) {
+            finish(true, "Switched: " + comparison);
+        } else {
+            finish(false, "Kept current host: " + comparison);
+        }
+    }
+
+    private void finish(boolean switchToCandidate, String reason) {
+        synchronized (this) {
+            if (mDone) {
+                return;
+            }
+            mDone = true;
+        }
+        Log.i(TAG, reason);
+        mCandidate.setFrameTimingListener(null);
+        mCandidate.setMotionGatingExempt(false);
+        if (switchToCandidate) {
+            mCandidate.setQuiet(false);
+            mCurrent.drainAndClose(DRAIN_TIMEOUT_MS);
+        } else {
+            mCandidate.drainAndClose(0);
+        }
+        mListener.onMigrationComplete(this, switchToCandidate, reason);
+    }
+}
@@ -47,23 +47,8 @@ public final class ImageUtil {
     }
 
     private static byte[] YUV_420_888toNV21(Image image) {
-        byte[] nv21;
-        ByteBuffer yBuffer = image.getPlanes()[0].getBuffer();
-        ByteBuffer uBuffer = image.getPlanes()[1].getBuffer();
-        ByteBuffer vBuffer = image.getPlanes()[2].getBuffer();
-
-        int ySize = yBuffer.remaining();
-        int uSize = uBuffer.remaining();
-        int vSize = vBuffer.remaining();
-
-        nv21 = new byte[ySize + uSize + vSize];
-
-        //U and V are swapped
-        yBuffer.get(nv21, 0, ySize);
-        vBuffer.get(nv21, ySize, vSize);
-        uBuffer.get(nv21, ySize + vSize, uSize);
-
-        return nv21;
+        Image.Plane[] planes = image.getPlanes();
+        return YuvUtil.planesToNV21(planes[0].getBuffer(), planes[1].getBuffer(), planes[2].getBuffer());
     }
 
     private static byte[] NV21toJPEG(byte[] nv21, int width, int height) {
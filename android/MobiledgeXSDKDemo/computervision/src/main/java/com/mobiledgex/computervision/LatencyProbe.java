@@ -0,0 +1,386 @@
+/**
+ * Copyright 2018-2021 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.computervision;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Measures round trip time in-process, without running the ping command.
+ *
+ * Probes are sent at a fixed interval. Each datagram probe carries its sequence number and
+ * send time, and the RTT is taken from the echoed copy, so replies may arrive late or out of
+ * order without blocking the next probe.
+ *
+ * <ul>
+ *     <li>ICMP sends echo requests over an unprivileged datagram ICMP socket. Not every device
+ *     permits these.</li>
+ *     <li>UDP sends datagrams to an echo responder, which must send each one back unchanged.</li>
+ *     <li>TCP measures the time to complete a connection to an open port.</li>
+ * </ul>
+ *
+ * The ICMP socket is in {@link IcmpTransport}, so this class can be tested with its own
+ * transports.
+ */
+public class LatencyProbe {
+    // Session ID, sequence number, and send time.
+    static final int PAYLOAD_LENGTH = 16;
+
+    public enum Method {
+        ICMP,
+        UDP,
+        TCP
+    }
+
+    /**
+     * Sends and receives datagram probes.
+     */
+    public interface Transport extends Closeable {
+        void send(byte[] payload) throws IOException;
+
+        /**
+         * Waits for a reply, and copies its payload to the start of the buffer.
+         *
+         * @return  The payload length, or -1 if no reply arrived before the timeout.
+         */
+        int receive(byte[] buffer, int timeoutMs) throws IOException;
+    }
+
+    public interface Listener {
+        /**
+         * Called from the probing thread as each probe completes.
+         *
+         * @param seq  Sequence number of the probe, from 0.
+         * @param rttMs  The round trip time, or -1 if the probe was lost.
+         */
+        void onSample(int seq, double rttMs);
+    }
+
+    /**
+     * Result of a run. Times are in milliseconds, and are 0 if no probe succeeded.
+     */
+    public static class Result {
+        public final Method method;
+        public final int sent;
+        public final int received;
+        public final double min;
+        public final double avg;
+        public final double max;
+        public final double stddev;
+        public final double jitter;
+        public final LatencyStats stats;
+
+        Result(Method method, int sent, int received, LatencyStats stats) {
+            this.method = method;
+            this.sent = sent;
+            this.received = received;
+            this.min = stats.getMin();
+            this.avg = stats.getMean();
+            this.max = stats.getMax();
+            this.stddev = stats.getStddev();
+            this.jitter = stats.getJitter();
+            this.stats = stats;
+        }
+
+        public double getLossPercent() {
+            return sent == 0 ? 0 : (sent - received) * 100.0 / sent;
+        }
+
+        @Override
+        public String toString() {
+            return method + ": " + stats;
+        }
+    }
+
+    private final String mHost;
+    private final Method mMethod;
+    private final int mPort;
+    private final int mCount;
+    private final long mIntervalMs;
+    private final int mTimeoutMs;
+    private final Listener mListener;
+    private final LatencyStats mStats;
+    private final int mSessionId = new Random().nextInt();
+    private volatile boolean mStopped;
+
+    private LatencyProbe(Builder builder) {
+        mHost = builder.host;
+        mMethod = builder.method;
+        mPort = builder.port;
+        mCount = builder.count;
+        mIntervalMs = builder.intervalMs;
+        mTimeoutMs = builder.timeoutMs;
+        mListener = builder.listener;
+        mStats = builder.stats == null ? new LatencyStats() : builder.stats;
+    }
+
+    /**
+     * Sends the probes, and blocks until the last one is answered or times out.
+     *
+     * @throws IOException  If the host can't be resolved, or the probe socket can't be opened.
+     * {@link IcmpNotPermittedException} if the device doesn't permit ICMP sockets.
+     */
+    public Result run() throws IOException, InterruptedException {
+        InetAddress address = InetAddress.getByName(mHost);
+        if (mMethod == Method.TCP) {
+            return runTcp(new InetSocketAddress(address, mPort));
+        }
+        try (Transport transport = mMethod == Method.ICMP
+                ? new IcmpTransport(address) : new UdpTransport(address, mPort)) {
+            return runDatagram(transport);
+        }
+    }
+
+    /**
+     * Stops sending probes. The run returns what it has measured so far.
+     */
+    public void stop() {
+        mStopped = true;
+    }
+
+    public Method getMethod() {
+        return mMethod;
+    }
+
+    /**
+     * Runs with the given transport. Lets tests substitute their own.
+     */
+    Result runDatagram(Transport transport) throws IOException, InterruptedException {
+        long[] sendTimes = new long[mCount];
+        // Probes that have been answered or counted as lost.
+        BitSet done = new BitSet(mCount);
+        int[] received = new int[1];
+        byte[] buffer = new byte[1500];
+        long start = System.nanoTime();
+        int sent = 0;
+
+        while (!mStopped && sent < mCount) {
+            long now = System.nanoTime();
+            long nextSend = start + sent * mIntervalMs * 1000000;
+            if (now >= nextSend) {
+                sendTimes[sent] = now;
+                transport.send(makePayload(sent, now));
+                sent++;
+            } else {
+                receiveOne(transport, buffer, (int) Math.max(1, (nextSend - now) / 1000000),
+                        sent, done, received);
+            }
+            expire(sendTimes, sent, done, System.nanoTime() - mTimeoutMs * 1000000L);
+        }
+        // Wait for the replies to the last probes.
+        long deadline = System.nanoTime() + mTimeoutMs * 1000000L;
+        while (!mStopped && done.cardinality() < sent) {
+            long remainingMs = (deadline - System.nanoTime()) / 1000000;
+            if (remainingMs <= 0) {
+                break;
+            }
+            receiveOne(transport, buffer, (int) remainingMs, sent, done, received);
+        }
+        expire(sendTimes, sent, done, Long.MAX_VALUE);
+        return new Result(mMethod, sent, received[0], mStats);
+    }
+
+    private void receiveOne(Transport transport, byte[] buffer, int timeoutMs, int sent,
+                            BitSet done, int[] received) throws IOException {
+        int length = transport.receive(buffer, timeoutMs);
+        long now = System.nanoTime();
+        if (length < PAYLOAD_LENGTH) {
+            return;
+        }
+        ByteBuffer payload = ByteBuffer.wrap(buffer, 0, length);
+        int sessionId = payload.getInt();
+        int seq = payload.getInt();
+        long sendTime = payload.getLong();
+        // Ignore replies to other probes, duplicates, and replies to probes already counted as lost.
+        if (sessionId != mSessionId || seq < 0 || seq >= sent || done.get(seq)) {
+            return;
+        }
+        done.set(seq);
+        double rttMs = (now - sendTime) / 1e6;
+        received[0]++;
+        mStats.add(rttMs);
+        if (mListener != null) {
+            mListener.onSample(seq, rttMs);
+        }
+    }
+
+    /**
+     * Counts unanswered probes sent before the given time as lost.
+     */
+    private void expire(long[] sendTimes, int sent, BitSet done, long sentBefore) {
+        for (int seq = done.nextClearBit(0); seq < sent; seq = done.nextClearBit(seq + 1)) {
+            if (sendTimes[seq] >= sentBefore) {
+                continue;
+            }
+            done.set(seq);
+            mStats.addLost();
+            if (mListener != null) {
+                mListener.onSample(seq, -1);
+            }
+        }
+    }
+
+    private Result runTcp(InetSocketAddress address) throws InterruptedException {
+        int received = 0;
+        long start = System.nanoTime();
+        int sent = 0;
+        while (!mStopped && sent < mCount) {
+            long waitMs = (start + sent * mIntervalMs * 1000000 - System.nanoTime()) / 1000000;
+            if (waitMs > 0) {
+                Thread.sleep(waitMs);
+            }
+            double rttMs = -1;
+            long sendTime = System.nanoTime();
+            try (Socket socket = new Socket()) {
+                socket.connect(address, mTimeoutMs);
+                rttMs = (System.nanoTime() - sendTime) / 1e6;
+                received++;
+                mStats.add(rttMs);
+            } catch (IOException e) {
+                mStats.addLost();
+            }
+            if (mListener != null) {
+                mListener.onSample(sent, rttMs);
+            }
+            sent++;
+        }
+        return new Result(mMethod, sent, received, mStats);
+    }
+
+    private byte[] makePayload(int seq, long sendTime) {
+        return ByteBuffer.allocate(PAYLOAD_LENGTH).putInt(mSessionId).putInt(seq).putLong(sendTime).array();
+    }
+
+    /**
+     * Sends probes to a UDP echo responder.
+     */
+    static class UdpTransport implements Transport {
+        private final DatagramSocket mSocket;
+
+        UdpTransport(InetAddress address, int port) throws IOException {
+            mSocket = new DatagramSocket();
+            // Connecting filters out datagrams from anywhere else.
+            mSocket.connect(address, port);
+        }
+
+        @Override
+        public void send(byte[] payload) throws IOException {
+            mSocket.send(new DatagramPacket(payload, payload.length));
+        }
+
+        @Override
+        public int receive(byte[] buffer, int timeoutMs) throws IOException {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            mSocket.setSoTimeout(timeoutMs);
+            try {
+                mSocket.receive(packet);
+            } catch (SocketTimeoutException e) {
+                return -1;
+            }
+            return packet.getLength();
+        }
+
+        @Override
+        public void close() {
+            mSocket.close();
+        }
+    }
+
+    public static class Builder {
+        private String host;
+        private Method method = Method.ICMP;
+        private int port;
+        private int count = 4;
+        private long intervalMs = 1000;
+        private int timeoutMs = 3000;
+        private Listener listener;
+        private LatencyStats stats;
+
+        public Builder setHost(String host) {
+            this.host = host;
+            return this;
+        }
+
+        public Builder setMethod(Method method) {
+            this.method = method;
+            return this;
+        }
+
+        /**
+         * @param port  The echo responder port for UDP, or an open port for TCP. Not used for ICMP.
+         */
+        public Builder setPort(int port) {
+            this.port = port;
+            return this;
+        }
+
+        public Builder setCount(int count) {
+            this.count = count;
+            return this;
+        }
+
+        /**
+         * @param intervalMs  Time between the start of consecutive probes.
+         */
+        public Builder setIntervalMs(long intervalMs) {
+            this.intervalMs = intervalMs;
+            return this;
+        }
+
+        /**
+         * @param timeoutMs  Time after which an unanswered probe is counted as lost.
+         */
+        public Builder setTimeoutMs(int timeoutMs) {
+            this.timeoutMs = timeoutMs;
+            return this;
+        }
+
+        public Builder setListener(Listener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        /**
+         * @param stats  Accumulates the samples, so they can be read while the probe runs.
+         *               A new one is used if not set.
+         */
+        public Builder setStats(LatencyStats stats) {
+            this.stats = stats;
+            return this;
+        }
+
+        public LatencyProbe build() {
+            if (host == null) {
+                throw new IllegalArgumentException("host is required");
+            }
+            if (method != Method.ICMP && port <= 0) {
+                throw new IllegalArgumentException("port is required for " + method);
+            }
+            return new LatencyProbe(this);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright 2018-2021 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.computervision;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Accumulates latency samples one at a time. Mean and standard deviation are updated with
+ * Welford's method, so they are exact after every sample without a second pass. All samples
+ * are kept for the percentiles. Lost probes are counted separately.
+ *
+ * Samples may be added from a test thread while the UI thread reads the values.
+ */
+public class LatencyStats {
+    private double[] mSamples = new double[16];
+    private int mCount;
+    private int mLost;
+    private double mMean;
+    // Sum of squared differences from the mean.
+    private double mM2;
+    private double mMin;
+    private double mMax;
+    private double mJitterTotal;
+    private double[] mSorted;
+
+    public synchronized void add(double latencyMs) {
+        if (mCount == mSamples.length) {
+            mSamples = Arrays.copyOf(mSamples, mCount * 2);
+        }
+        if (mCount == 0) {
+            mMin = latencyMs;
+            mMax = latencyMs;
+        } else {
+            mMin = Math.min(mMin, latencyMs);
+            mMax = Math.max(mMax, latencyMs);
+            mJitterTotal += Math.abs(latencyMs - mSamples[mCount - 1]);
+        }
+        mSamples[mCount++] = latencyMs;
+        double delta = latencyMs - mMean;
+        mMean += delta / mCount;
+        mM2 += delta * (latencyMs - mMean);
+        mSorted = null;
+    }
+
+    /**
+     * Counts a probe that got no reply.
+     */
+    public synchronized void addLost() {
+        mLost++;
+    }
+
+    public synchronized void clear() {
+        mCount = 0;
+        mLost = 0;
+        mMean = 0;
+        mM2 = 0;
+        mMin = 0;
+        mMax = 0;
+        mJitterTotal = 0;
+        mSorted = null;
+    }
+
+    /**
+     * @return  Number of successful samples.
+     */
+    public synchronized int getCount() {
+        return mCount;
+    }
+
+    public synchronized int getLost() {
+        return mLost;
+    }
+
+    public synchronized double getLossPercent() {
+        int total = mCount + mLost;
+        return total == 0 ? 0 : mLost * 100.0 / total;
+    }
+
+    /**
+     * The min, mean, max, standard deviation, jitter and percentile getters return 0 if there
+     * are no samples.
+     */
+    public synchronized double getMin() {
+        return mMin;
+    }
+
+    public synchronized double getMax() {
+        return mMax;
+    }
+
+    public synchronized double getMean() {
+        return mMean;
+    }
+
+    /**
+     * @return  The population standard deviation, as reported by ping.
+     */
+    public synchronized double getStddev() {
+        return mCount == 0 ? 0 : Math.sqrt(mM2 / mCount);
+    }
+
+    /**
+     * @return  Mean absolute difference between consecutive samples.
+     */
+    public synchronized double getJitter() {
+        return mCount < 2 ? 0 : mJitterTotal / (mCount - 1);
+    }
+
+    /**
+     * @param percent  From 0 to 100.
+     * @return  The nearest-rank percentile.
+     */
+    public synchronized double getPercentile(double percent) {
+        if (mCount == 0) {
+            return 0;
+        }
+        if (mSorted == null) {
+            mSorted = Arrays.copyOf(mSamples, mCount);
+            Arrays.sort(mSorted);
+        }
+        int rank = (int) Math.ceil(percent / 100 * mCount);
+        return mSorted[Math.max(0, Math.min(mCount, rank) - 1)];
+    }
+
+    /**
+     * @return  A copy of the samples, in the order they were added.
+     */
+    public synchronized double[] getSamples() {
+        return Arrays.copyOf(mSamples, mCount);
+    }
+
+    @Override
+    public synchronized String toString() {
+        // Matches the summary lines of the ping command, plus jitter and percentiles.
+        return String.format(Locale.US, "%d packets transmitted, %d packets received, %.1f%% packet loss, "
+                        + "round-trip min/avg/max/stddev = %.3f/%.3f/%.3f/%.3f ms, "
+                        + "p50/p95/p99 = %.3f/%.3f/%.3f ms, jitter %.3f ms",
+                mCount + mLost, mCount, getLossPercent(), mMin, mMean, mMax, getStddev(),
+                getPercentile(50), getPercentile(95), getPercentile(99), getJitter());
+    }
+}
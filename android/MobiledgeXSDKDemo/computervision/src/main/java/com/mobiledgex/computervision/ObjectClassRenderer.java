@@ -46,11 +46,9 @@ public class ObjectClassRenderer extends View {
     private JSONArray mObjects;
     private int mWidth;
     private int mHeight;
-    private int mWidthOff;
-    private int mHeightOff;
-    private float mServerToDisplayRatioX;
-    private float mServerToDisplayRatioY;
-    private boolean mMirrored;
+    private final DisplayTransform mTransform = new DisplayTransform();
+    private final int[] mCoords = new int[4];
+    private final Rect mRect = new Rect();
     private Animation mAlphaAnim;
 
     /**
@@ -122,11 +120,7 @@ public class ObjectClassRenderer extends View {
                                 float serverToDisplayRatioX, float serverToDisplayRatioY, boolean mirrored) {
         mWidth = imageRect.width();
         mHeight = imageRect.height();
-        mWidthOff = imageRect.left;;
-        mHeightOff = imageRect.top;
-        mServerToDisplayRatioX = serverToDisplayRatioX;
-        mServerToDisplayRatioY = serverToDisplayRatioY;
-        mMirrored = mirrored;
+        mTransform.set(imageRect.left, imageRect.top, mWidth, serverToDisplayRatioX, serverToDisplayRatioY, mirrored);
     }
 
     /**
@@ -159,32 +153,17 @@ public class ObjectClassRenderer extends View {
                 JSONObject object = mObjects.getJSONObject(i);
                 Log.d(TAG, i + " object=" + object);
                 JSONArray jsonRect = object.getJSONArray("rect");
-                Rect rect = new Rect();
-                rect.left = jsonRect.getInt(0);
-                rect.top = jsonRect.getInt(1);
-                rect.right = jsonRect.getInt(2);
-                rect.bottom = jsonRect.getInt(3);
-                Log.d(TAG, "received rect=" + rect.toShortString());
-
-                rect.left *= mServerToDisplayRatioX;
-                rect.right *= mServerToDisplayRatioX;
-                rect.top *= mServerToDisplayRatioY;
-                rect.bottom *= mServerToDisplayRatioY;
-
-                if (mMirrored) {
-                    Log.d(TAG, "Mirroring!");
-                    // The image that was processed is what the camera sees, but the image we want to
-                    // overlay the rectangle onto is mirrored. So not only do we have to scale it,
-                    // but we have to flip it horizontally.
-                    rect.left = mWidth - rect.left;
-                    rect.right = mWidth - rect.right;
-                    int tmp = rect.left;
-                    rect.left = rect.right;
-                    rect.right = tmp;
-                }
-
+                int[] coords = mCoords;
+                coords[0] = jsonRect.getInt(0);
+                coords[1] = jsonRect.getInt(1);
+                coords[2] = jsonRect.getInt(2);
+                coords[3] = jsonRect.getInt(3);
+                Log.d(TAG, "received rect=" + jsonRect);
+
+                mTransform.transformRect(coords);
+                Rect rect = mRect;
+                rect.set(coords[0], coords[1], coords[2], coords[3]);
                 Log.d(TAG, "jsonRect=" + jsonRect + " scaled rect=" + rect.toShortString());
-                rect.offset(mWidthOff, mHeightOff);
                 canvas.drawRect(rect, mFillPaints.get(i));
                 canvas.drawRect(rect, mPaints.get(i));
 
@@ -0,0 +1,628 @@
+/**
+ * Copyright 2018-2021 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.computervision;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Rect;
+import android.media.MediaMetadataRetriever;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Deterministic benchmark that feeds frames decoded from a video file or a directory of
+ * images directly to an {@link ImageProviderInterface}, bypassing the camera and MediaPlayer.
+ *
+ * Video frames are taken at fixed timestamps and images are read in name order, so every run
+ * sends the same frames. Frames are either fed at a fixed rate, or unthrottled, where the next
+ * frame is fed as soon as the result for the previous one has been received. Per-frame stage
+ * timings are written to a CSV file, and a JSON summary with percentiles computed over the
+ * frames after the warmup period is written next to it.
+ */
+public class OfflineBenchmark implements ImageSender.FrameTimingListener {
+    private static final String TAG = "OfflineBenchmark";
+    public static final String EXTRA_SOURCE = "offline_benchmark_source";
+    public static final String EXTRA_FPS = "offline_benchmark_fps";
+    public static final String EXTRA_FRAME_COUNT = "offline_benchmark_frame_count";
+    public static final String EXTRA_WARMUP_FRAMES = "offline_benchmark_warmup_frames";
+    public static final float DEFAULT_SOURCE_FPS = 15f;
+    public static final int DEFAULT_FRAME_COUNT = 300;
+    public static final int DEFAULT_WARMUP_FRAMES = 30;
+    public static final long FRAME_TIMEOUT_MS = 10000;
+    private static final String[] STAGES = {"decode", "prepare", "encode", "round_trip", "handle", "total"};
+
+    private final Context mContext;
+    private final ImageProviderInterface mImageProviderInterface;
+    private final ImageSender mImageSender;
+    private final String mSource;
+    private final float mFps;
+    private final int mFrameCount;
+    private final int mWarmupFrames;
+    private final int mFrameWidth;
+    private final Rect mImageRect;
+    private final Runnable mOnComplete;
+
+    private HandlerThread mHandlerThread;
+    private Handler mHandler;
+    private Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private FrameSource mFrameSource;
+    private List<FrameRecord> mRecords = new ArrayList<>();
+    private FrameRecord mPending;
+    private long mStartUptime;
+    private int mNextFrame;
+    private boolean mRunning;
+    private String mResultFileBase;
+
+    public static class Builder {
+        private Context context;
+        private ImageProviderInterface imageProviderInterface;
+        private ImageSender imageSender;
+        private String source;
+        private float fps = 0;
+        private int frameCount = DEFAULT_FRAME_COUNT;
+        private int warmupFrames = DEFAULT_WARMUP_FRAMES;
+        private int frameWidth = 240;
+        private Rect imageRect;
+        private Runnable onComplete;
+
+        public Builder setContext(Context context) {
+            this.context = context;
+            return this;
+        }
+
+        public Builder setImageProviderInterface(ImageProviderInterface imageProviderInterface) {
+            this.imageProviderInterface = imageProviderInterface;
+            return this;
+        }
+
+        public Builder setImageSender(ImageSender imageSender) {
+            this.imageSender = imageSender;
+            return this;
+        }
+
+        /**
+         * @param source  Path or URL of a video file, or path of a directory of JPEG/PNG images.
+         */
+        public Builder setSource(String source) {
+            this.source = source;
+            return this;
+        }
+
+        /**
+         * @param fps  Rate to feed frames at. 0 means unthrottled.
+         */
+        public Builder setFps(float fps) {
+            this.fps = fps;
+            return this;
+        }
+
+        public Builder setFrameCount(int frameCount) {
+            this.frameCount = frameCount;
+            return this;
+        }
+
+        public Builder setWarmupFrames(int warmupFrames) {
+            this.warmupFrames = warmupFrames;
+            return this;
+        }
+
+        /**
+         * @param frameWidth  Width to scale frames to before feeding them. Aspect ratio is kept.
+         */
+        public Builder setFrameWidth(int frameWidth) {
+            this.frameWidth = frameWidth;
+            return this;
+        }
+
+        public Builder setImageRect(Rect imageRect) {
+            this.imageRect = imageRect;
+            return this;
+        }
+
+        /**
+         * @param onComplete  Run on the main thread when the benchmark has finished.
+         */
+        public Builder setOnComplete(Runnable onComplete) {
+            this.onComplete = onComplete;
+            return this;
+        }
+
+        public OfflineBenchmark build() {
+            return new OfflineBenchmark(this);
+        }
+    }
+
+    private OfflineBenchmark(Builder builder) {
+        mContext = builder.context;
+        mImageProviderInterface = builder.imageProviderInterface;
+        mImageSender = builder.imageSender;
+        mSource = builder.source;
+        mFps = builder.fps;
+        mFrameCount = builder.frameCount;
+        mWarmupFrames = builder.warmupFrames;
+        mFrameWidth = builder.frameWidth;
+        mImageRect = builder.imageRect;
+        mOnComplete = builder.onComplete;
+    }
+
+    /**
+     * Timings for a single frame. All values are in nanoseconds. A value of -1 means the
+     * stage was not reached.
+     */
+    private static class FrameRecord {
+        int index;
+        long sourceTimeMs;
+        String status = "pending";
+        long decode = -1;
+        long prepare = -1;
+        long encode = -1;
+        long roundTrip = -1;
+        long handle = -1;
+        long total = -1;
+        long submitTime;
+
+        long getStage(String stage) {
+            switch (stage) {
+                case "decode": return decode;
+                case "prepare": return prepare;
+                case "encode": return encode;
+                case "round_trip": return roundTrip;
+                case "handle": return handle;
+                default: return total;
+            }
+        }
+    }
+
+    public void start() {
+        Log.i(TAG, "start mSource="+mSource+" mFps="+mFps+" mFrameCount="+mFrameCount+" mWarmupFrames="+mWarmupFrames);
+        mHandlerThread = new HandlerThread("OfflineBenchmark");
+        mHandlerThread.start();
+        mHandler = new Handler(mHandlerThread.getLooper());
+        mImageSender.setFrameTimingListener(this);
+        mRunning = true;
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    File file = new File(mSource);
+                    if (file.isDirectory()) {
+                        mFrameSource = new ImageDirectoryFrameSource(file);
+                    } else {
+                        mFrameSource = new VideoFrameSource(mSource);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    Log.e(TAG, "Unable to open source "+mSource, e);
+                    setStatus("Unable to open benchmark source: "+e.getMessage());
+                    finish();
+                    return;
+                }
+                mStartUptime = SystemClock.uptimeMillis();
+                feedFrame();
+            }
+        });
+    }
+
+    /**
+     * Stops the benchmark early. Results collected so far are still written.
+     */
+    public void stop() {
+        if (mHandler != null) {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    finish();
+                }
+            });
+        }
+    }
+
+    private void feedFrame() {
+        if (!mRunning) {
+            return;
+        }
+        if (mNextFrame >= mFrameCount) {
+            if (mPending == null) {
+                finish();
+            }
+            return;
+        }
+        FrameRecord record = new FrameRecord();
+        record.index = mNextFrame++;
+        mRecords.add(record);
+        if (record.index % 10 == 0) {
+            setStatus("Offline benchmark: frame "+record.index+"/"+mFrameCount);
+        }
+
+        if (mPending != null || mImageSender.isBusy()) {
+            // Only possible at a fixed frame rate. The real camera pipeline would drop this frame too.
+            record.status = "dropped";
+            scheduleNextFrame();
+            return;
+        }
+
+        long start = System.nanoTime();
+        Bitmap bitmap = mFrameSource.getFrame(record.index);
+        long decoded = System.nanoTime();
+        record.decode = decoded - start;
+        record.sourceTimeMs = mFrameSource.getSourceTimeMs(record.index);
+        if (bitmap == null) {
+            record.status = "error";
+            scheduleNextFrame();
+            return;
+        }
+        int height = Math.round((float) mFrameWidth * bitmap.getHeight() / bitmap.getWidth());
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, mFrameWidth, height, true);
+        record.prepare = System.nanoTime() - decoded;
+
+        Rect imageRect = mImageRect != null ? mImageRect : new Rect(0, 0, scaled.getWidth(), scaled.getHeight());
+        mPending = record;
+        record.submitTime = System.nanoTime();
+        mImageProviderInterface.onBitmapAvailable(scaled, imageRect);
+
+        final FrameRecord timedOut = record;
+        mHandler.postAtTime(new Runnable() {
+            @Override
+            public void run() {
+                if (mPending == timedOut) {
+                    completeFrame("timeout");
+                }
+            }
+        }, timedOut, SystemClock.uptimeMillis() + FRAME_TIMEOUT_MS);
+        if (mFps > 0) {
+            scheduleNextFrame();
+        }
+    }
+
+    private void scheduleNextFrame() {
+        if (mFps > 0) {
+            long nextTime = mStartUptime + (long) (mNextFrame * 1000 / mFps);
+            mHandler.postAtTime(new Runnable() {
+                @Override
+                public void run() {
+                    feedFrame();
+                }
+            }, nextTime);
+        } else {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    feedFrame();
+                }
+            });
+        }
+    }
+
+    private void completeFrame(String status) {
+        FrameRecord record = mPending;
+        if (record == null) {
+            return;
+        }
+        mPending = null;
+        mHandler.removeCallbacksAndMessages(record);
+        record.status = status;
+        record.total = System.nanoTime() - record.submitTime;
+        if (mFps <= 0) {
+            feedFrame();
+        } else if (mNextFrame >= mFrameCount) {
+            finish();
+        }
+    }
+
+    @Override
+    public void onFrameComplete(final long encodeNanos, final long roundTripNanos, final long handleNanos) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mPending != null) {
+                    mPending.encode = encodeNanos;
+                    mPending.roundTrip = roundTripNanos;
+                    mPending.handle = handleNanos;
+                    completeFrame("ok");
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onFrameSkipped() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                completeFrame("skipped");
+            }
+        });
+    }
+
+    @Override
+    public void onFrameError(String error) {
+        Log.w(TAG, "onFrameError "+error);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                completeFrame("error");
+            }
+        });
+    }
+
+    private void finish() {
+        if (!mRunning) {
+            return;
+        }
+        mRunning = false;
+        mHandler.removeCallbacksAndMessages(null);
+        mImageSender.setFrameTimingListener(null);
+        if (mFrameSource != null) {
+            mFrameSource.release();
+        }
+        if (!mRecords.isEmpty()) {
+            writeResults();
+        }
+        mHandlerThread.quitSafely();
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mOnComplete != null) {
+                    mOnComplete.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return  The path of the results files without extension, or null if they haven't been written.
+     */
+    public String getResultFileBase() {
+        return mResultFileBase;
+    }
+
+    private void writeResults() {
+        DateFormat df = new SimpleDateFormat("yyyyMMddhhmmss");
+        String baseName = df.format(new Date())+"_offline_benchmark";
+        File dir = mContext.getExternalFilesDir(null);
+        mResultFileBase = new File(dir, baseName).getAbsolutePath();
+
+        StringBuilder csv = new StringBuilder();
+        csv.append("frame,source_time_ms,status,warmup");
+        for (String stage : STAGES) {
+            csv.append(",").append(stage).append("_ms");
+        }
+        csv.append("\n");
+        for (FrameRecord record : mRecords) {
+            csv.append(record.index).append(",").append(record.sourceTimeMs).append(",")
+                    .append(record.status).append(",").append(record.index < mWarmupFrames);
+            for (String stage : STAGES) {
+                long value = record.getStage(stage);
+                csv.append(",").append(value < 0 ? "" : String.format("%.3f", value / 1000000.0));
+            }
+            csv.append("\n");
+        }
+
+        String summary;
+        try {
+            summary = buildSummary().toString(2);
+        } catch (JSONException e) {
+            Log.e(TAG, "Unable to build summary", e);
+            summary = "{}";
+        }
+
+        writeFile(new File(dir, baseName+".csv"), csv.toString());
+        writeFile(new File(dir, baseName+".json"), summary);
+        setStatus("Offline benchmark results written to "+baseName+".csv/.json");
+        Log.i(TAG, "Summary:\n"+summary);
+    }
+
+    private JSONObject buildSummary() throws JSONException {
+        JSONObject summary = new JSONObject();
+        summary.put("source", mSource);
+        summary.put("fps", mFps);
+        summary.put("frame_count", mFrameCount);
+        summary.put("warmup_frames", mWarmupFrames);
+        summary.put("frame_width", mFrameWidth);
+        summary.put("host", mImageSender.getHost());
+        summary.put("device", Build.MANUFACTURER+" "+Build.MODEL);
+        summary.put("sdk_int", Build.VERSION.SDK_INT);
+
+        HashMap<String, Integer> statusCounts = new HashMap<>();
+        for (int i = mWarmupFrames; i < mRecords.size(); i++) {
+            String status = mRecords.get(i).status;
+            Integer count = statusCounts.get(status);
+            statusCounts.put(status, count == null ? 1 : count + 1);
+        }
+        summary.put("status_counts", new JSONObject(statusCounts));
+
+        JSONObject stages = new JSONObject();
+        for (String stage : STAGES) {
+            long[] values = new long[mRecords.size()];
+            int count = 0;
+            for (int i = mWarmupFrames; i < mRecords.size(); i++) {
+                FrameRecord record = mRecords.get(i);
+                if (record.status.equals("ok") && record.getStage(stage) >= 0) {
+                    values[count++] = record.getStage(stage);
+                }
+            }
+            stages.put(stage, stageStats(Arrays.copyOf(values, count)));
+        }
+        summary.put("stages_ms", stages);
+        return summary;
+    }
+
+    private JSONObject stageStats(long[] values) throws JSONException {
+        JSONObject stats = new JSONObject();
+        stats.put("count", values.length);
+        if (values.length == 0) {
+            return stats;
+        }
+        Arrays.sort(values);
+        double sum = 0;
+        for (long value : values) {
+            sum += value;
+        }
+        stats.put("min", values[0] / 1000000.0);
+        stats.put("mean", sum / values.length / 1000000.0);
+        stats.put("p50", percentile(values, 50) / 1000000.0);
+        stats.put("p90", percentile(values, 90) / 1000000.0);
+        stats.put("p95", percentile(values, 95) / 1000000.0);
+        stats.put("p99", percentile(values, 99) / 1000000.0);
+        stats.put("max", values[values.length - 1] / 1000000.0);
+        return stats;
+    }
+
+    /**
+     * Nearest-rank percentile.
+     *
+     * @param sorted  Values sorted in ascending order. Must not be empty.
+     * @param percentile  Percentile between 0 and 100.
+     * @return  The percentile value.
+     */
+    static long percentile(long[] sorted, double percentile) {
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+
+    private void writeFile(File file, String data) {
+        Log.i(TAG, "Writing benchmark results to "+file.getAbsolutePath());
+        try {
+            file.createNewFile();
+            FileOutputStream fOut = new FileOutputStream(file);
+            OutputStreamWriter myOutWriter = new OutputStreamWriter(fOut);
+            myOutWriter.append(data);
+            myOutWriter.close();
+            fOut.flush();
+            fOut.close();
+        }
+        catch (IOException e) {
+            Log.e(TAG, "File write failed: " + e.toString());
+        }
+    }
+
+    private void setStatus(final String status) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mImageProviderInterface.setStatus(status);
+            }
+        });
+    }
+
+    private interface FrameSource {
+        Bitmap getFrame(int index);
+        long getSourceTimeMs(int index);
+        void release();
+    }
+
+    /**
+     * Decodes video frames at fixed timestamps, looping if more frames are requested than
+     * the video contains.
+     */
+    private static class VideoFrameSource implements FrameSource {
+        private final MediaMetadataRetriever mRetriever = new MediaMetadataRetriever();
+        private final long mDurationMs;
+
+        VideoFrameSource(String source) {
+            if (source.startsWith("http://") || source.startsWith("https://")) {
+                mRetriever.setDataSource(source, new HashMap<String, String>());
+            } else {
+                mRetriever.setDataSource(source);
+            }
+            String duration = mRetriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+            mDurationMs = duration == null ? 0 : Long.parseLong(duration);
+            if (mDurationMs <= 0) {
+                throw new IllegalArgumentException("Video has no duration: "+source);
+            }
+        }
+
+        @Override
+        public long getSourceTimeMs(int index) {
+            return (long) (index * 1000 / DEFAULT_SOURCE_FPS) % mDurationMs;
+        }
+
+        @Override
+        public Bitmap getFrame(int index) {
+            return mRetriever.getFrameAtTime(getSourceTimeMs(index) * 1000, MediaMetadataRetriever.OPTION_CLOSEST);
+        }
+
+        @Override
+        public void release() {
+            try {
+                mRetriever.release();
+            } catch (IOException e) {
+                Log.e(TAG, "Error releasing retriever", e);
+            }
+        }
+    }
+
+    /**
+     * Reads JPEG and PNG images from a directory in name order, looping if more frames are
+     * requested than there are images.
+     */
+    private static class ImageDirectoryFrameSource implements FrameSource {
+        private final File[] mFiles;
+
+        ImageDirectoryFrameSource(File dir) throws IOException {
+            File[] files = dir.listFiles();
+            List<File> images = new ArrayList<>();
+            if (files != null) {
+                for (File file : files) {
+                    String name = file.getName().toLowerCase();
+                    if (name.endsWith(".jpg") || name.endsWith(".jpeg") || name.endsWith(".png")) {
+                        images.add(file);
+                    }
+                }
+            }
+            if (images.isEmpty()) {
+                throw new IOException("No images found in "+dir);
+            }
+            mFiles = images.toArray(new File[0]);
+            Arrays.sort(mFiles);
+        }
+
+        @Override
+        public Bitmap getFrame(int index) {
+            return BitmapFactory.decodeFile(mFiles[index % mFiles.length].getAbsolutePath());
+        }
+
+        @Override
+        public long getSourceTimeMs(int index) {
+            return 0;
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+}
@@ -44,11 +44,7 @@ public class PoseRenderer extends View {
     private JSONArray mPoses;
     private int mWidth;
     private int mHeight;
-    private int mWidthOff;
-    private int mHeightOff;
-    private float mServerToDisplayRatioX;
-    private float mServerToDisplayRatioY;
-    private boolean mMirrored;
+    private final DisplayTransform mTransform = new DisplayTransform();
 
     /**
      * The pairs array is a 2D list of the body parts that should be connected together.
@@ -116,11 +112,7 @@ public class PoseRenderer extends View {
                                 float serverToDisplayRatioX, float serverToDisplayRatioY, boolean mirrored) {
         mWidth = imageRect.width();
         mHeight = imageRect.height();
-        mWidthOff = imageRect.left;;
-        mHeightOff = imageRect.top;
-        mServerToDisplayRatioX = serverToDisplayRatioX;
-        mServerToDisplayRatioY = serverToDisplayRatioY;
-        mMirrored = mirrored;
+        mTransform.set(imageRect.left, imageRect.top, mWidth, serverToDisplayRatioX, serverToDisplayRatioY, mirrored);
     }
 
     @Override
@@ -147,30 +139,20 @@ public class PoseRenderer extends View {
 //                    Log.d(TAG, "indexStart="+indexStart+" indexEnd="+indexEnd);
 
                     JSONArray keypoint1 = pose.getJSONArray(indexStart);
-                    float x1 = (float) keypoint1.getDouble(0) * mServerToDisplayRatioX;
-                    float y1 = (float) keypoint1.getDouble(1) * mServerToDisplayRatioY;
                     float score1 = (float) keypoint1.getDouble(2);
 
                     JSONArray keypoint2 = pose.getJSONArray(indexEnd);
-                    float x2 = (float) keypoint2.getDouble(0) * mServerToDisplayRatioX;
-                    float y2 = (float) keypoint2.getDouble(1) * mServerToDisplayRatioY;
                     float score2 = (float) keypoint2.getDouble(2);
 
                     if(score1 == 0 || score2 == 0) {
                         continue;
                     }
 
+                    float x1 = mTransform.transformX(keypoint1.getDouble(0));
+                    float y1 = mTransform.transformY(keypoint1.getDouble(1));
+                    float x2 = mTransform.transformX(keypoint2.getDouble(0));
+                    float y2 = mTransform.transformY(keypoint2.getDouble(1));
 //                    Log.d(TAG, "Drawing indexStart="+indexStart+" indexEnd="+indexEnd+" ("+x1+","+y1+","+x2+","+y2+")");
-                    if(mMirrored) {
-                        x1 = mWidth - x1;
-                        x2 = mWidth - x2;
-                    }
-
-                    // Only add the offsets after everything else has been calculated.
-                    x1 += mWidthOff;
-                    x2 += mWidthOff;
-                    y1 += mHeightOff;
-                    y2 += mHeightOff;
 
                     canvas.drawLine(x1, y1, x2, y2, paints.get(j));
                     canvas.drawCircle(x1, y1, mJointRadius, paints.get(j));
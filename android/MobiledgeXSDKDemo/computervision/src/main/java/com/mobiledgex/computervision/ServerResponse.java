@@ -0,0 +1,84 @@
+/**
+ * Copyright 2018-2021 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.computervision;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Parsed result of an image sent to the ComputerVisionServer. Both the WebSocket server and
+ * the REST server return results in the same JSON format.
+ */
+public class ServerResponse {
+    public final boolean success;
+    /** Data for the overlay: rects for face modes, poses, or objects. Null if not successful. */
+    public final JSONArray overlay;
+    /** Name of the recognized subject, or null if not from recognition mode. */
+    public final String subject;
+    public final double confidence;
+    /**
+     * Array of [left, top, right, bottom] arrays of detected faces or objects. The arrays are
+     * shared with {@link #overlay}, so modifying them modifies the overlay. Null if not available.
+     */
+    public final JSONArray detectionRects;
+
+    private ServerResponse(boolean success, JSONArray overlay, String subject, double confidence,
+                           JSONArray detectionRects) {
+        this.success = success;
+        this.overlay = overlay;
+        this.subject = subject;
+        this.confidence = confidence;
+        this.detectionRects = detectionRects;
+    }
+
+    /**
+     * Parses a server response.
+     *
+     * @param endpoint  The endpoint the image was sent to. Null is treated like face detection.
+     * @param response  The JSON response text.
+     * @return  The parsed response.
+     * @throws JSONException  If the response is not in the expected format.
+     */
+    public static ServerResponse parse(ComputerVisionApi.Endpoint endpoint, String response) throws JSONException {
+        JSONObject jsonObject = new JSONObject(response);
+        if (!jsonObject.getBoolean("success")) {
+            return new ServerResponse(false, null, null, 0, null);
+        }
+        if (endpoint == ComputerVisionApi.Endpoint.POSE_DETECTION) {
+            return new ServerResponse(true, jsonObject.getJSONArray("poses"), null, 0, null);
+        } else if (endpoint == ComputerVisionApi.Endpoint.OBJECT_DETECTION) {
+            JSONArray objects = jsonObject.getJSONArray("objects");
+            JSONArray rects = new JSONArray();
+            for (int i = 0; i < objects.length(); i++) {
+                rects.put(objects.getJSONObject(i).getJSONArray("rect"));
+            }
+            return new ServerResponse(true, objects, null, 0, rects);
+        } else if (jsonObject.has("subject")) {
+            //This means it was from recognition mode
+            JSONArray rects = new JSONArray();
+            rects.put(jsonObject.getJSONArray("rect"));
+            return new ServerResponse(true, rects, jsonObject.getString("subject"),
+                    jsonObject.getDouble("confidence"), null);
+        } else {
+            //Default is from face detection mode
+            JSONArray rects = jsonObject.getJSONArray("rects");
+            return new ServerResponse(true, rects, null, 0, rects);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright 2018-2021 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.computervision;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the UDP and TCP probes against local responders.
+ */
+public class LatencyProbeTest {
+    private DatagramSocket mEchoSocket;
+    private ServerSocket mServerSocket;
+    // Every Nth datagram is dropped instead of echoed, if nonzero.
+    private volatile int mDropEvery;
+
+    @Before
+    public void setUp() throws Exception {
+        mEchoSocket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        Thread echo = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[1500];
+                int count = 0;
+                try {
+                    while (true) {
+                        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                        mEchoSocket.receive(packet);
+                        count++;
+                        if (mDropEvery == 0 || count % mDropEvery != 0) {
+                            mEchoSocket.send(packet);
+                        }
+                    }
+                } catch (IOException e) {
+                    // Closed.
+                }
+            }
+        });
+        echo.start();
+
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread accept = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (true) {
+                        mServerSocket.accept().close();
+                    }
+                } catch (IOException e) {
+                    // Closed.
+                }
+            }
+        });
+        accept.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mEchoSocket.close();
+        mServerSocket.close();
+    }
+
+    private LatencyProbe.Builder builder(LatencyProbe.Method method, int port) {
+        return new LatencyProbe.Builder()
+                .setHost("127.0.0.1")
+                .setMethod(method)
+                .setPort(port)
+                .setCount(10)
+                .setIntervalMs(10)
+                .setTimeoutMs(500);
+    }
+
+    @Test
+    public void udpEcho() throws Exception {
+        final List<Integer> seqs = new ArrayList<>();
+        LatencyProbe.Result result = builder(LatencyProbe.Method.UDP, mEchoSocket.getLocalPort())
+                .setListener(new LatencyProbe.Listener() {
+                    @Override
+                    public void onSample(int seq, double rttMs) {
+                        assertTrue(rttMs >= 0);
+                        seqs.add(seq);
+                    }
+                })
+                .build().run();
+
+        assertEquals(10, result.sent);
+        assertEquals(10, result.received);
+        assertEquals(0, result.getLossPercent(), 0);
+        assertEquals(10, seqs.size());
+        assertTrue(result.min <= result.avg && result.avg <= result.max);
+        assertTrue(result.jitter >= 0);
+    }
+
+    @Test
+    public void udpLoss() throws Exception {
+        mDropEvery = 2;
+        final int[] lost = new int[1];
+        LatencyProbe.Result result = builder(LatencyProbe.Method.UDP, mEchoSocket.getLocalPort())
+                .setTimeoutMs(100)
+                .setListener(new LatencyProbe.Listener() {
+                    @Override
+                    public void onSample(int seq, double rttMs) {
+                        if (rttMs < 0) {
+                            lost[0]++;
+                        }
+                    }
+                })
+                .build().run();
+
+        assertEquals(10, result.sent);
+        assertEquals(5, result.received);
+        assertEquals(5, lost[0]);
+        assertEquals(50, result.getLossPercent(), 0);
+    }
+
+    @Test
+    public void tcpConnect() throws Exception {
+        LatencyProbe.Result result = builder(LatencyProbe.Method.TCP, mServerSocket.getLocalPort())
+                .build().run();
+
+        assertEquals(10, result.received);
+        assertEquals(result.received, result.stats.getCount());
+    }
+
+    @Test
+    public void tcpRefused() throws Exception {
+        int port = mServerSocket.getLocalPort();
+        mServerSocket.close();
+        LatencyProbe.Result result = builder(LatencyProbe.Method.TCP, port).build().run();
+
+        assertEquals(10, result.sent);
+        assertEquals(0, result.received);
+        assertEquals(0, result.avg, 0);
+    }
+}
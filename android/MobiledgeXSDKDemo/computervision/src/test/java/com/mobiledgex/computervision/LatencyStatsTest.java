@@ -0,0 +1,95 @@
+/**
+ * Copyright 2018-2021 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.computervision;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the incremental statistics against values computed directly.
+ */
+public class LatencyStatsTest {
+    @Test
+    public void matchesTwoPassStatistics() {
+        Random random = new Random(1);
+        double[] samples = new double[1000];
+        LatencyStats stats = new LatencyStats();
+        for (int i = 0; i < samples.length; i++) {
+            // Large offset, small spread, where a naive sum of squares loses precision.
+            samples[i] = 1e6 + random.nextDouble();
+            stats.add(samples[i]);
+        }
+        double mean = 0;
+        for (double sample : samples) {
+            mean += sample / samples.length;
+        }
+        double sumSquare = 0;
+        for (double sample : samples) {
+            sumSquare += (sample - mean) * (sample - mean);
+        }
+        assertEquals(samples.length, stats.getCount());
+        assertEquals(mean, stats.getMean(), 1e-6);
+        assertEquals(Math.sqrt(sumSquare / samples.length), stats.getStddev(), 1e-6);
+    }
+
+    @Test
+    public void minMaxJitterAndLoss() {
+        LatencyStats stats = new LatencyStats();
+        stats.add(10);
+        stats.add(30);
+        stats.add(20);
+        stats.addLost();
+
+        assertEquals(10, stats.getMin(), 0);
+        assertEquals(30, stats.getMax(), 0);
+        assertEquals(20, stats.getMean(), 1e-9);
+        // (|30-10| + |20-30|) / 2
+        assertEquals(15, stats.getJitter(), 1e-9);
+        assertEquals(25, stats.getLossPercent(), 1e-9);
+    }
+
+    @Test
+    public void percentiles() {
+        LatencyStats stats = new LatencyStats();
+        assertEquals(0, stats.getPercentile(50), 0);
+        for (double sample : new double[] {5, 1, 4, 2, 3}) {
+            stats.add(sample);
+        }
+        assertEquals(3, stats.getPercentile(50), 0);
+        assertEquals(5, stats.getPercentile(95), 0);
+        assertEquals(1, stats.getPercentile(0), 0);
+        // The sorted copy is refreshed after more samples are added.
+        stats.add(0);
+        assertEquals(0, stats.getPercentile(0), 0);
+    }
+
+    @Test
+    public void clear() {
+        LatencyStats stats = new LatencyStats();
+        stats.add(10);
+        stats.addLost();
+        stats.clear();
+        assertEquals(0, stats.getCount());
+        assertEquals(0, stats.getLost());
+        assertEquals(0, stats.getMean(), 0);
+        assertEquals(0, stats.getPercentile(50), 0);
+    }
+}
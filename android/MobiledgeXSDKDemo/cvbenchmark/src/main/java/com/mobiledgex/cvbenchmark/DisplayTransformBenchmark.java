@@ -0,0 +1,112 @@
+/**
+ * Copyright 2018-2021 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.cvbenchmark;
+
+import com.mobiledgex.computervision.ComputerVisionApi;
+import com.mobiledgex.computervision.DisplayTransform;
+import com.mobiledgex.computervision.ServerResponse;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the coordinate transforms the renderers do in onDraw(), including reading the
+ * coordinates from the parsed JSON.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DisplayTransformBenchmark {
+    @Param({"false", "true"})
+    public boolean mirrored;
+
+    private final DisplayTransform mTransform = new DisplayTransform();
+    private final int[] mCoords = new int[4];
+    private JSONArray mFaceRects;
+    private JSONArray mObjects;
+    private JSONArray mPoses;
+
+    @Setup
+    public void setUp() throws IOException, JSONException {
+        // A 240 pixel wide image shown on a 1080x1440 preview.
+        mTransform.set(0, 240, 1080, 4.5f, 4.5f, mirrored);
+        mFaceRects = ServerResponse.parse(ComputerVisionApi.Endpoint.FACE_DETECTION,
+                Fixtures.load("face_detection.json")).overlay;
+        mObjects = ServerResponse.parse(ComputerVisionApi.Endpoint.OBJECT_DETECTION,
+                Fixtures.load("object_detection.json")).overlay;
+        mPoses = ServerResponse.parse(ComputerVisionApi.Endpoint.POSE_DETECTION,
+                Fixtures.load("pose_detection.json")).overlay;
+    }
+
+    private void transformRect(JSONArray jsonRect, Blackhole blackhole) throws JSONException {
+        int[] coords = mCoords;
+        coords[0] = jsonRect.getInt(0);
+        coords[1] = jsonRect.getInt(1);
+        coords[2] = jsonRect.getInt(2);
+        coords[3] = jsonRect.getInt(3);
+        mTransform.transformRect(coords);
+        blackhole.consume(coords);
+    }
+
+    @Benchmark
+    public void faceRects(Blackhole blackhole) throws JSONException {
+        for (int i = 0; i < mFaceRects.length(); i++) {
+            transformRect(mFaceRects.getJSONArray(i), blackhole);
+        }
+    }
+
+    @Benchmark
+    public void objectRects(Blackhole blackhole) throws JSONException {
+        for (int i = 0; i < mObjects.length(); i++) {
+            transformRect(mObjects.getJSONObject(i).getJSONArray("rect"), blackhole);
+        }
+    }
+
+    @Benchmark
+    public void poseKeypoints(Blackhole blackhole) throws JSONException {
+        for (int i = 0; i < mPoses.length(); i++) {
+            JSONArray pose = mPoses.getJSONArray(i);
+            for (int j = 0; j < pose.length(); j++) {
+                JSONArray keypoint = pose.getJSONArray(j);
+                if (keypoint.getDouble(2) == 0) {
+                    continue;
+                }
+                blackhole.consume(mTransform.transformX(keypoint.getDouble(0)));
+                blackhole.consume(mTransform.transformY(keypoint.getDouble(1)));
+            }
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright 2018-2021 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.cvbenchmark;
+
+import com.mobiledgex.computervision.RollingStats;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the latency statistics that are updated and displayed for every frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RollingStatsBenchmark {
+    // Same size ImageSender uses.
+    private static final int WINDOW_SIZE = 100;
+
+    @Param({"false", "true"})
+    public boolean detailedStats;
+
+    private RollingStats mStats;
+    private long[] mSamples;
+    private int mIndex;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        mSamples = new long[1024];
+        for (int i = 0; i < mSamples.length; i++) {
+            mSamples[i] = 20 + random.nextInt(80);
+        }
+        mStats = new RollingStats("EDGE", "Full Process", WINDOW_SIZE);
+        mStats.setDetailedStats(detailedStats);
+        for (int i = 0; i < WINDOW_SIZE; i++) {
+            mStats.add(mSamples[i]);
+        }
+    }
+
+    @Benchmark
+    public RollingStats add() {
+        mStats.add(mSamples[mIndex++ & (mSamples.length - 1)]);
+        return mStats;
+    }
+
+    @Benchmark
+    public long getStdDev() {
+        return mStats.getStdDev();
+    }
+
+    @Benchmark
+    public String getStatsText() {
+        return mStats.getStatsText();
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright 2018-2021 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.cvbenchmark;
+
+import com.mobiledgex.computervision.ComputerVisionApi;
+import com.mobiledgex.computervision.ServerResponse;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks parsing of recorded server responses, as done by ImageSender.handleResponse().
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServerResponseBenchmark {
+    @Param({"FACE_DETECTION", "FACE_RECOGNITION", "POSE_DETECTION", "OBJECT_DETECTION"})
+    public String endpointName;
+
+    private ComputerVisionApi.Endpoint mEndpoint;
+    private String mResponse;
+    private String mNotFoundResponse;
+
+    @Setup
+    public void setUp() throws IOException {
+        mEndpoint = ComputerVisionApi.Endpoint.valueOf(endpointName);
+        mResponse = Fixtures.load(Fixtures.forEndpoint(endpointName));
+        mNotFoundResponse = Fixtures.load("not_found.json");
+    }
+
+    @Benchmark
+    public ServerResponse parse() throws JSONException {
+        return ServerResponse.parse(mEndpoint, mResponse);
+    }
+
+    @Benchmark
+    public ServerResponse parseNotFound() throws JSONException {
+        return ServerResponse.parse(mEndpoint, mNotFoundResponse);
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright 2018-2021 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.cvbenchmark;
+
+import com.mobiledgex.computervision.YuvUtil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks repacking synthetic YUV_420_888 camera frames into NV21, the first step of
+ * ImageUtil.imageToByteArray(). The JPEG compression that follows is done natively by
+ * android.graphics.YuvImage, so it can only be measured on a device.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class YuvBenchmark {
+    @Param({"640x480", "1280x720", "1920x1080"})
+    public String size;
+
+    private ByteBuffer mY;
+    private ByteBuffer mU;
+    private ByteBuffer mV;
+
+    /**
+     * Creates planes laid out the way most Camera2 devices deliver YUV_420_888: a Y plane, and
+     * U and V planes with a pixel stride of 2 that are views into one interleaved VU buffer.
+     */
+    @Setup
+    public void setUp() {
+        String[] dimensions = size.split("x");
+        int width = Integer.parseInt(dimensions[0]);
+        int height = Integer.parseInt(dimensions[1]);
+        Random random = new Random(42);
+
+        byte[] y = new byte[width * height];
+        random.nextBytes(y);
+        mY = ByteBuffer.allocateDirect(y.length);
+        mY.put(y);
+
+        byte[] vu = new byte[width * height / 2];
+        random.nextBytes(vu);
+        ByteBuffer vuBuffer = ByteBuffer.allocateDirect(vu.length);
+        vuBuffer.put(vu);
+        ((Buffer) vuBuffer).position(0);
+        ((Buffer) vuBuffer).limit(vu.length - 1);
+        mV = vuBuffer.slice();
+        ((Buffer) vuBuffer).position(1);
+        ((Buffer) vuBuffer).limit(vu.length);
+        mU = vuBuffer.slice();
+    }
+
+    @Benchmark
+    public byte[] planesToNV21() {
+        ((Buffer) mY).rewind();
+        ((Buffer) mU).rewind();
+        ((Buffer) mV).rewind();
+        return YuvUtil.planesToNV21(mY, mU, mV);
+    }
+}
@@ -0,0 +1,310 @@
+/**
+ * Copyright 2018-2021 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.cvloadgen;
+
+import com.mobiledgex.computervision.ComputerVisionApi;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.imageio.ImageIO;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okio.ByteString;
+
+/**
+ * Headless load generator for the ComputerVisionServer REST and WebSocket APIs. Simulates
+ * many devices, each sending frames the same way ImageSender does, and reports throughput,
+ * latency percentiles and error rates.
+ *
+ * Usage:
+ *   gradlew :cvloadgen:run --args="--host=myserver.example.com --clients=200 --fps=5 --mode=OBJECT_DETECTION"
+ */
+public class LoadGenerator {
+    private static final int NORMAL_CLOSURE_STATUS = 1000;
+    private final LoadGeneratorConfig mConfig;
+    private final OkHttpClient mHttpClient;
+    private final MediaType mMediaType = MediaType.get(ComputerVisionApi.CONTENT_TYPE_JPEG);
+    private volatile LoadReport mReport = new LoadReport();
+
+    public LoadGenerator(LoadGeneratorConfig config) {
+        mConfig = config;
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(config.clients);
+        dispatcher.setMaxRequestsPerHost(config.clients);
+        mHttpClient = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(config.clients, 5, TimeUnit.MINUTES))
+                .callTimeout(config.requestTimeoutMs, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * Runs the load test. Blocks until the warmup and the test duration have passed.
+     *
+     * @return  The results recorded after the warmup period.
+     */
+    public LoadReport run() throws InterruptedException {
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(
+                Math.max(1, Math.min(mConfig.clients, Runtime.getRuntime().availableProcessors() * 2)));
+        long periodNanos = (long) (1e9 / mConfig.fps);
+        List<SimulatedClient> clients = new ArrayList<>();
+        List<ScheduledFuture<?>> futures = new ArrayList<>();
+        for (int i = 0; i < mConfig.clients; i++) {
+            SimulatedClient client = new SimulatedClient();
+            clients.add(client);
+            // Stagger the clients so they don't all send at the same instant.
+            long initialDelay = periodNanos * i / mConfig.clients;
+            futures.add(scheduler.scheduleAtFixedRate(client, initialDelay, periodNanos, TimeUnit.NANOSECONDS));
+        }
+
+        Thread.sleep(mConfig.warmupMs);
+        LoadReport report = new LoadReport();
+        mReport = report;
+        long start = System.nanoTime();
+        Thread.sleep(mConfig.durationMs);
+        // Stop recording before shutting down, so cancelled requests aren't counted as errors.
+        mReport = new LoadReport();
+        report.setElapsedNanos(System.nanoTime() - start);
+
+        for (ScheduledFuture<?> future : futures) {
+            future.cancel(false);
+        }
+        scheduler.shutdownNow();
+        for (SimulatedClient client : clients) {
+            client.close();
+        }
+        mHttpClient.dispatcher().cancelAll();
+        mHttpClient.dispatcher().executorService().shutdown();
+        mHttpClient.connectionPool().evictAll();
+        return report;
+    }
+
+    /**
+     * A single simulated device. Like ImageSender, it never has more than one frame outstanding.
+     */
+    private class SimulatedClient implements Runnable {
+        private final AtomicBoolean mBusy = new AtomicBoolean(false);
+        private WebSocket mWebSocket;
+        private boolean mWebSocketOpen;
+        private long mStartTime;
+        private LoadReport mRequestReport;
+
+        @Override
+        public void run() {
+            if (!mBusy.compareAndSet(false, true)) {
+                mReport.recordDropped();
+                return;
+            }
+            mRequestReport = mReport;
+            mStartTime = System.nanoTime();
+            if (mConfig.webSocket) {
+                sendWebSocket();
+            } else {
+                sendRest();
+            }
+        }
+
+        private void complete(String error) {
+            long latency = System.nanoTime() - mStartTime;
+            if (mRequestReport != mReport) {
+                // Started during warmup, or finished after the end of the test.
+            } else if (error == null) {
+                mRequestReport.recordSuccess(latency);
+            } else {
+                mRequestReport.recordError(error);
+            }
+            mBusy.set(false);
+        }
+
+        private void sendRest() {
+            Request request = new Request.Builder()
+                    .url(mConfig.getUrl())
+                    .post(RequestBody.create(mConfig.image, mMediaType))
+                    .build();
+            mHttpClient.newCall(request).enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    complete(e.getClass().getSimpleName());
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) {
+                    try (ResponseBody body = response.body()) {
+                        if (!response.isSuccessful()) {
+                            complete("http_" + response.code());
+                            return;
+                        }
+                        // Read the whole body, so latency includes the download.
+                        String text = body == null ? "" : body.string();
+                        complete(text.contains("\"success\"") ? null : "bad_response");
+                    } catch (IOException e) {
+                        complete(e.getClass().getSimpleName());
+                    }
+                }
+            });
+        }
+
+        private synchronized void sendWebSocket() {
+            if (mWebSocket == null) {
+                Request request = new Request.Builder().url(mConfig.getUrl()).build();
+                mWebSocket = mHttpClient.newWebSocket(request, new ResultWebSocketListener());
+            }
+            if (!mWebSocketOpen) {
+                // Wait for the connection to open before sending. Don't count this as a frame.
+                mBusy.set(false);
+                return;
+            }
+            mWebSocket.send(ByteString.of(mConfig.image));
+        }
+
+        synchronized void close() {
+            if (mWebSocket != null) {
+                mWebSocket.close(NORMAL_CLOSURE_STATUS, null);
+            }
+        }
+
+        private final class ResultWebSocketListener extends WebSocketListener {
+            @Override
+            public void onOpen(WebSocket webSocket, Response response) {
+                synchronized (SimulatedClient.this) {
+                    mWebSocketOpen = true;
+                }
+            }
+
+            @Override
+            public void onMessage(WebSocket webSocket, String text) {
+                if (!mBusy.get()) {
+                    return;
+                }
+                complete(text.contains("\"success\"") ? null : "bad_response");
+            }
+
+            @Override
+            public void onFailure(WebSocket webSocket, Throwable t, Response response) {
+                synchronized (SimulatedClient.this) {
+                    mWebSocket = null;
+                    mWebSocketOpen = false;
+                }
+                if (mBusy.get()) {
+                    complete("websocket_" + t.getClass().getSimpleName());
+                } else {
+                    mReport.recordError("websocket_connect_" + t.getClass().getSimpleName());
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a JPEG test image of the same size ImageSender sends by default.
+     *
+     * @return  The JPEG bytes.
+     */
+    public static byte[] createTestImage() throws IOException {
+        BufferedImage image = new BufferedImage(240, 180, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.DARK_GRAY);
+        graphics.fillRect(0, 0, 240, 180);
+        graphics.setColor(Color.LIGHT_GRAY);
+        graphics.fillOval(80, 40, 80, 100);
+        graphics.dispose();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", out);
+        return out.toByteArray();
+    }
+
+    private static void usage() {
+        System.err.println("Options (all --name=value):\n" +
+                "  --host       Server hostname or IP (required)\n" +
+                "  --port       Server port (default 8008)\n" +
+                "  --tls        true to use https/wss (default false)\n" +
+                "  --mode       FACE_DETECTION, FACE_RECOGNITION, POSE_DETECTION or OBJECT_DETECTION\n" +
+                "  --transport  rest or websocket (default rest)\n" +
+                "  --clients    Number of simulated devices (default 10)\n" +
+                "  --fps        Frames per second per device (default 5)\n" +
+                "  --duration   Test duration in seconds (default 30)\n" +
+                "  --warmup     Warmup seconds not included in results (default 5)\n" +
+                "  --image      JPEG file to send (default is a generated 240x180 image)");
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadGeneratorConfig.Builder builder = new LoadGeneratorConfig.Builder();
+        String imagePath = null;
+        for (String arg : args) {
+            int index = arg.indexOf('=');
+            if (!arg.startsWith("--") || index < 0) {
+                usage();
+                System.exit(1);
+            }
+            String name = arg.substring(2, index);
+            String value = arg.substring(index + 1);
+            switch (name) {
+                case "host": builder.setHost(value); break;
+                case "port": builder.setPort(Integer.parseInt(value)); break;
+                case "tls": builder.setTls(Boolean.parseBoolean(value)); break;
+                case "mode": builder.setEndpoint(ComputerVisionApi.Endpoint.valueOf(value)); break;
+                case "transport": builder.setWebSocket(value.equalsIgnoreCase("websocket")); break;
+                case "clients": builder.setClients(Integer.parseInt(value)); break;
+                case "fps": builder.setFps(Double.parseDouble(value)); break;
+                case "duration": builder.setDurationMs((long) (Double.parseDouble(value) * 1000)); break;
+                case "warmup": builder.setWarmupMs((long) (Double.parseDouble(value) * 1000)); break;
+                case "image": imagePath = value; break;
+                default:
+                    usage();
+                    System.exit(1);
+            }
+        }
+        builder.setImage(imagePath == null ? createTestImage() : Files.readAllBytes(Paths.get(imagePath)));
+
+        LoadGeneratorConfig config;
+        try {
+            config = builder.build();
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            usage();
+            System.exit(1);
+            return;
+        }
+        System.out.println("Starting load test: " + config);
+        LoadReport report = new LoadGenerator(config).run();
+        System.out.println(report);
+    }
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright 2018-2021 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.cvloadgen;
+
+import com.mobiledgex.computervision.ComputerVisionApi;
+
+/**
+ * Settings for a {@link LoadGenerator} run.
+ */
+public class LoadGeneratorConfig {
+    public final String host;
+    public final int port;
+    public final boolean tls;
+    public final ComputerVisionApi.Endpoint endpoint;
+    public final boolean webSocket;
+    public final int clients;
+    public final double fps;
+    public final long durationMs;
+    public final long warmupMs;
+    public final long requestTimeoutMs;
+    public final byte[] image;
+
+    public static class Builder {
+        private String host;
+        private int port = 8008;
+        private boolean tls = false;
+        private ComputerVisionApi.Endpoint endpoint = ComputerVisionApi.Endpoint.FACE_DETECTION;
+        private boolean webSocket = false;
+        private int clients = 10;
+        private double fps = 5;
+        private long durationMs = 30000;
+        private long warmupMs = 5000;
+        private long requestTimeoutMs = 10000;
+        private byte[] image;
+
+        public Builder setHost(String host) {
+            this.host = host;
+            return this;
+        }
+
+        public Builder setPort(int port) {
+            this.port = port;
+            return this;
+        }
+
+        public Builder setTls(boolean tls) {
+            this.tls = tls;
+            return this;
+        }
+
+        public Builder setEndpoint(ComputerVisionApi.Endpoint endpoint) {
+            this.endpoint = endpoint;
+            return this;
+        }
+
+        /**
+         * @param webSocket  True to use the /ws variant of the endpoint, with one WebSocket per
+         *                   client. False to POST each frame.
+         */
+        public Builder setWebSocket(boolean webSocket) {
+            this.webSocket = webSocket;
+            return this;
+        }
+
+        /**
+         * @param clients  Number of simulated devices.
+         */
+        public Builder setClients(int clients) {
+            this.clients = clients;
+            return this;
+        }
+
+        /**
+         * @param fps  Frames per second each client tries to send. Like ImageSender, a client
+         *             never has more than one request outstanding, so frames are dropped when
+         *             the server can't keep up.
+         */
+        public Builder setFps(double fps) {
+            this.fps = fps;
+            return this;
+        }
+
+        public Builder setDurationMs(long durationMs) {
+            this.durationMs = durationMs;
+            return this;
+        }
+
+        /**
+         * @param warmupMs  Results in this period at the start of the run are not recorded.
+         */
+        public Builder setWarmupMs(long warmupMs) {
+            this.warmupMs = warmupMs;
+            return this;
+        }
+
+        public Builder setRequestTimeoutMs(long requestTimeoutMs) {
+            this.requestTimeoutMs = requestTimeoutMs;
+            return this;
+        }
+
+        /**
+         * @param image  JPEG bytes to send as every frame.
+         */
+        public Builder setImage(byte[] image) {
+            this.image = image;
+            return this;
+        }
+
+        public LoadGeneratorConfig build() {
+            if (host == null) {
+                throw new IllegalArgumentException("host is required");
+            }
+            if (image == null) {
+                throw new IllegalArgumentException("image is required");
+            }
+            if (clients <= 0 || fps <= 0) {
+                throw new IllegalArgumentException("clients and fps must be greater than 0");
+            }
+            return new LoadGeneratorConfig(this);
+        }
+    }
+
+    private LoadGeneratorConfig(Builder builder) {
+        host = builder.host;
+        port = builder.port;
+        tls = builder.tls;
+        endpoint = builder.endpoint;
+        webSocket = builder.webSocket;
+        clients = builder.clients;
+        fps = builder.fps;
+        durationMs = builder.durationMs;
+        warmupMs = builder.warmupMs;
+        requestTimeoutMs = builder.requestTimeoutMs;
+        image = builder.image;
+    }
+
+    /**
+     * @return  The URL each frame is sent to.
+     */
+    public String getUrl() {
+        if (webSocket) {
+            return ComputerVisionApi.webSocketUrl(tls, host, port, endpoint.path);
+        } else {
+            return ComputerVisionApi.restUrl(tls, host, port, endpoint.path);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "url=" + getUrl() + " clients=" + clients + " fps=" + fps
+                + " durationMs=" + durationMs + " warmupMs=" + warmupMs + " imageBytes=" + image.length;
+    }
+}
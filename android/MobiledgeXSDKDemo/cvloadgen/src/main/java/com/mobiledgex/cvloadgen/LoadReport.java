@@ -0,0 +1,130 @@
+/**
+ * Copyright 2018-2021 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.cvloadgen;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Records the results of a load test, and summarizes them as throughput, latency percentiles
+ * and error rates. Recording methods may be called from any thread.
+ */
+public class LoadReport {
+    private long[] mLatencies = new long[1024];
+    private int mCompleted;
+    private int mDropped;
+    private final Map<String, Integer> mErrors = new HashMap<>();
+    private long mElapsedNanos;
+
+    /**
+     * @param latencyNanos  Time from sending the frame until the result was received.
+     */
+    public synchronized void recordSuccess(long latencyNanos) {
+        if (mCompleted == mLatencies.length) {
+            mLatencies = Arrays.copyOf(mLatencies, mLatencies.length * 2);
+        }
+        mLatencies[mCompleted++] = latencyNanos;
+    }
+
+    /**
+     * Records a frame that was not sent because the client's previous request was still outstanding.
+     */
+    public synchronized void recordDropped() {
+        mDropped++;
+    }
+
+    /**
+     * @param type  A short description of the error, e.g. "http_500". Errors are counted by type.
+     */
+    public synchronized void recordError(String type) {
+        Integer count = mErrors.get(type);
+        mErrors.put(type, count == null ? 1 : count + 1);
+    }
+
+    synchronized void setElapsedNanos(long elapsedNanos) {
+        mElapsedNanos = elapsedNanos;
+    }
+
+    public synchronized int getCompleted() {
+        return mCompleted;
+    }
+
+    public synchronized int getDropped() {
+        return mDropped;
+    }
+
+    public synchronized int getErrorCount() {
+        int total = 0;
+        for (int count : mErrors.values()) {
+            total += count;
+        }
+        return total;
+    }
+
+    public synchronized Map<String, Integer> getErrors() {
+        return new HashMap<>(mErrors);
+    }
+
+    /**
+     * @return  Successful frames per second.
+     */
+    public synchronized double getThroughput() {
+        if (mElapsedNanos <= 0) {
+            return 0;
+        }
+        return mCompleted / (mElapsedNanos / 1e9);
+    }
+
+    /**
+     * @return  Fraction of sent frames that failed.
+     */
+    public synchronized double getErrorRate() {
+        int errors = getErrorCount();
+        if (errors + mCompleted == 0) {
+            return 0;
+        }
+        return (double) errors / (errors + mCompleted);
+    }
+
+    /**
+     * Nearest-rank percentile of the successful latencies.
+     *
+     * @param percentile  Percentile between 0 and 100.
+     * @return  The latency in milliseconds, or 0 if there were no successful frames.
+     */
+    public synchronized double getLatencyPercentileMs(double percentile) {
+        if (mCompleted == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(mLatencies, mCompleted);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100.0 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))] / 1e6;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("completed=%d dropped=%d errors=%d error_rate=%.4f throughput=%.2f fps\n" +
+                        "latency ms: p50=%.2f p90=%.2f p95=%.2f p99=%.2f max=%.2f\n" +
+                        "errors by type: %s",
+                mCompleted, mDropped, getErrorCount(), getErrorRate(), getThroughput(),
+                getLatencyPercentileMs(50), getLatencyPercentileMs(90), getLatencyPercentileMs(95),
+                getLatencyPercentileMs(99), getLatencyPercentileMs(100), mErrors);
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright 2018-2021 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.cvloadgen;
+
+import com.mobiledgex.computervision.ComputerVisionApi;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.ByteString;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs short load tests against a local mock ComputerVisionServer.
+ */
+public class LoadGeneratorTest {
+    private MockWebServer mServer;
+
+    @Before
+    public void setUp() throws Exception {
+        mServer = new MockWebServer();
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mServer.shutdown();
+    }
+
+    private LoadGeneratorConfig.Builder configBuilder() throws Exception {
+        return new LoadGeneratorConfig.Builder()
+                .setHost(mServer.getHostName())
+                .setPort(mServer.getPort())
+                .setClients(4)
+                .setFps(20)
+                .setWarmupMs(200)
+                .setDurationMs(1000)
+                .setImage(LoadGenerator.createTestImage());
+    }
+
+    @Test
+    public void restRequestsMatchImageSender() throws Exception {
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setBody("{\"success\": \"true\", \"rects\": []}");
+            }
+        });
+        LoadReport report = new LoadGenerator(configBuilder()
+                .setEndpoint(ComputerVisionApi.Endpoint.FACE_DETECTION)
+                .build()).run();
+
+        assertTrue(report.getCompleted() > 0);
+        assertEquals(0, report.getErrorCount());
+        assertTrue(report.getThroughput() > 0);
+        assertTrue(report.getLatencyPercentileMs(50) <= report.getLatencyPercentileMs(99));
+
+        RecordedRequest request = mServer.takeRequest();
+        assertEquals("POST", request.getMethod());
+        assertEquals("/detector/detect/", request.getPath());
+        assertEquals(ComputerVisionApi.CONTENT_TYPE_JPEG, request.getHeader("Content-Type"));
+    }
+
+    @Test
+    public void webSocketRequests() throws Exception {
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                if (!"/ws/object/detect/".equals(request.getPath())) {
+                    return new MockResponse().setResponseCode(404);
+                }
+                return new MockResponse().withWebSocketUpgrade(new WebSocketListener() {
+                    @Override
+                    public void onMessage(WebSocket webSocket, ByteString bytes) {
+                        webSocket.send("{\"success\": \"true\", \"objects\": []}");
+                    }
+                });
+            }
+        });
+        LoadReport report = new LoadGenerator(configBuilder()
+                .setEndpoint(ComputerVisionApi.Endpoint.OBJECT_DETECTION)
+                .setWebSocket(true)
+                .build()).run();
+
+        assertTrue(report.getCompleted() > 0);
+        assertEquals(0, report.getErrorCount());
+    }
+
+    @Test
+    public void serverErrorsAreCounted() throws Exception {
+        mServer.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().setResponseCode(500);
+            }
+        });
+        LoadReport report = new LoadGenerator(configBuilder().build()).run();
+
+        assertEquals(0, report.getCompleted());
+        assertTrue(report.getErrorCount() > 0);
+        assertEquals(1.0, report.getErrorRate(), 0.0);
+        assertTrue(report.getErrors().containsKey("http_500"));
+    }
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright 2018-2022 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.matchingenginehelper;
+
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs background work on a bounded pool of named threads.
+ *
+ * Work submitted with {@link #executeLatest(String, Runnable)} is serialized per operation:
+ * only one task for an operation runs at a time, and if more are submitted while it runs, only
+ * the newest one is kept and run next. This is for operations like findCloudlet, where an
+ * older request that hasn't started yet is out of date by the time it would run.
+ */
+public class BackgroundExecutor {
+    private static final String TAG = "BackgroundExecutor";
+    private static final int MAX_QUEUED_TASKS = 32;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final ThreadPoolExecutor mExecutor;
+    private final Map<String, Operation> mOperations = new HashMap<>();
+    private boolean mShutdown;
+
+    private static class Operation {
+        boolean running;
+        Runnable pending;
+    }
+
+    /**
+     * @param name  Prefix for the thread names.
+     * @param threads  Maximum number of threads.
+     */
+    public BackgroundExecutor(final String name, int threads) {
+        ThreadFactory threadFactory = new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, name + "-" + mCount.getAndIncrement());
+            }
+        };
+        mExecutor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(MAX_QUEUED_TASKS), threadFactory);
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Runs a task with no ordering guarantees relative to other tasks.
+     *
+     * @param task  The task to run.
+     * @return  False if the task was rejected because the executor is shut down or its queue is full.
+     */
+    public boolean execute(Runnable task) {
+        try {
+            mExecutor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Task rejected. shutdown=" + mExecutor.isShutdown() + " queued=" + mExecutor.getQueue().size());
+            return false;
+        }
+    }
+
+    /**
+     * Runs a task for the given operation. If a task for the same operation is already running,
+     * this one replaces any task still waiting for it to finish.
+     *
+     * @param operation  Name of the operation.
+     * @param task  The task to run.
+     */
+    public synchronized void executeLatest(String operation, Runnable task) {
+        if (mShutdown) {
+            Log.w(TAG, "Executor is shut down. Ignoring " + operation);
+            return;
+        }
+        Operation op = mOperations.get(operation);
+        if (op == null) {
+            op = new Operation();
+            mOperations.put(operation, op);
+        }
+        if (op.running) {
+            if (op.pending != null) {
+                Log.d(TAG, "Replacing pending " + operation + " with newer request");
+            }
+            op.pending = task;
+            return;
+        }
+        op.running = true;
+        submit(operation, op, task);
+    }
+
+    // Must be called while synchronized.
+    private void submit(final String operation, final Operation op, final Runnable task) {
+        boolean accepted = execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } finally {
+                    onOperationComplete(operation, op);
+                }
+            }
+        });
+        if (!accepted) {
+            op.running = false;
+            op.pending = null;
+        }
+    }
+
+    private synchronized void onOperationComplete(String operation, Operation op) {
+        Runnable next = op.pending;
+        op.pending = null;
+        if (next == null || mShutdown) {
+            op.running = false;
+            return;
+        }
+        submit(operation, op, next);
+    }
+
+    /**
+     * Cancels all waiting tasks and interrupts running ones. No new tasks are accepted.
+     */
+    public synchronized void shutdown() {
+        mShutdown = true;
+        mOperations.clear();
+        mExecutor.shutdownNow();
+    }
+}
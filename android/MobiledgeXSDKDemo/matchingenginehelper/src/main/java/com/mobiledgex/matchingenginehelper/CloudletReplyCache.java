@@ -0,0 +1,126 @@
+/**
+ * Copyright 2018-2022 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.matchingenginehelper;
+
+import android.util.Log;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches DME replies by location cell, so that lookups from a location near one that was
+ * already looked up are answered without a round trip to the DME.
+ *
+ * Entries expire after a time to live, and are dropped by {@link #invalidate()} when an edge
+ * event or settings change means they may be out of date.
+ *
+ * @param <V>  The reply type.
+ */
+public class CloudletReplyCache<V> {
+    private static final String TAG = "CloudletReplyCache";
+    private static final int MAX_ENTRIES = 32;
+
+    private final String mName;
+    private final long mTtlMs;
+    private final int mPrecision;
+    private final Map<String, Entry<V>> mEntries = new LinkedHashMap<String, Entry<V>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry<V>> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private static class Entry<V> {
+        final V reply;
+        final long time;
+
+        Entry(V reply, long time) {
+            this.reply = reply;
+            this.time = time;
+        }
+    }
+
+    /**
+     * @param name  Name used in log messages.
+     * @param ttlMs  How long a reply is valid.
+     * @param precision  Geohash precision of the location cells. See {@link Geohash#encode}.
+     */
+    public CloudletReplyCache(String name, long ttlMs, int precision) {
+        mName = name;
+        mTtlMs = ttlMs;
+        mPrecision = precision;
+    }
+
+    /**
+     * @param latitude  Latitude in degrees.
+     * @param longitude  Longitude in degrees.
+     * @return  The cell containing the location.
+     */
+    public String getCell(double latitude, double longitude) {
+        return Geohash.encode(latitude, longitude, mPrecision);
+    }
+
+    /**
+     * @param requestKey  Identifies everything other than the location that the reply depends on.
+     * @param cell  The location cell, from {@link #getCell(double, double)}.
+     * @return  The cached reply, or null if none or expired.
+     */
+    public synchronized V get(String requestKey, String cell) {
+        String key = requestKey + "|" + cell;
+        Entry<V> entry = mEntries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - entry.time >= mTtlMs) {
+            mEntries.remove(key);
+            return null;
+        }
+        Log.i(TAG, mName + " reply served from cache for cell " + cell);
+        return entry.reply;
+    }
+
+    /**
+     * @param requestKey  Identifies everything other than the location that the reply depends on.
+     * @param cell  The location cell, from {@link #getCell(double, double)}.
+     * @return  True if an unexpired reply is cached. Unlike {@link #get(String, String)}, this
+     * is not logged as a cache hit.
+     */
+    public synchronized boolean contains(String requestKey, String cell) {
+        Entry<V> entry = mEntries.get(requestKey + "|" + cell);
+        return entry != null && System.currentTimeMillis() - entry.time < mTtlMs;
+    }
+
+    /**
+     * @param requestKey  Identifies everything other than the location that the reply depends on.
+     * @param cell  The location cell, from {@link #getCell(double, double)}.
+     * @param reply  The reply to cache.
+     */
+    public synchronized void put(String requestKey, String cell, V reply) {
+        mEntries.put(requestKey + "|" + cell, new Entry<>(reply, System.currentTimeMillis()));
+    }
+
+    /**
+     * Drops all cached replies.
+     */
+    public synchronized void invalidate() {
+        if (!mEntries.isEmpty()) {
+            Log.i(TAG, mName + " cache invalidated");
+        }
+        mEntries.clear();
+    }
+}
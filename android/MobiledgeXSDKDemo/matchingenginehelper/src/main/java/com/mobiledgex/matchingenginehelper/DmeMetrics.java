@@ -0,0 +1,271 @@
+/**
+ * Copyright 2018-2022 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.matchingenginehelper;
+
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+
+/**
+ * Latency histograms, error counts and retry counts for calls to the DME, per RPC.
+ *
+ * There is one instance per process, so any screen can show or export the metrics. Snapshots
+ * are available as JSON, as OpenMetrics text, or as a short summary for the EventLogViewer.
+ */
+public class DmeMetrics {
+    private static final String TAG = "DmeMetrics";
+    // Upper bounds of the histogram buckets, in milliseconds. A final +Inf bucket is implied.
+    static final long[] BUCKET_BOUNDS_MS = {10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+    private static final DmeMetrics sInstance = new DmeMetrics();
+
+    private final Map<String, RpcStats> mStats = new TreeMap<>();
+
+    private static class RpcStats {
+        final long[] buckets = new long[BUCKET_BOUNDS_MS.length + 1];
+        long count;
+        double sumMs;
+        long retries;
+        final Map<String, Long> errors = new TreeMap<>();
+
+        /**
+         * @return  Upper bound of the bucket holding the given quantile, or -1 for +Inf, or 0
+         * if there are no samples.
+         */
+        long getQuantileBoundMs(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * count);
+            long cumulative = 0;
+            for (int i = 0; i < BUCKET_BOUNDS_MS.length; i++) {
+                cumulative += buckets[i];
+                if (cumulative >= rank) {
+                    return BUCKET_BOUNDS_MS[i];
+                }
+            }
+            return -1;
+        }
+
+        long getErrorCount() {
+            long total = 0;
+            for (long n : errors.values()) {
+                total += n;
+            }
+            return total;
+        }
+    }
+
+    public static DmeMetrics getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Makes a call to the DME, and records its latency and outcome. The call isn't retried.
+     *
+     * @param rpc  Name of the RPC, e.g. "findCloudlet".
+     * @param call  Makes the call.
+     * @return  The result of the call.
+     * @throws ExecutionException  If the call failed with a checked exception. Checked exceptions
+     * other than ExecutionException and InterruptedException are wrapped.
+     * @throws InterruptedException  If interrupted.
+     */
+    public <T> T call(String rpc, Callable<T> call) throws ExecutionException, InterruptedException {
+        long start = System.nanoTime();
+        try {
+            T result = call.call();
+            record(rpc, getElapsedMs(start), null);
+            return result;
+        } catch (Exception e) {
+            Status.Code code = getStatusCode(e);
+            String errorStatus = code != null ? code.name() : e.getClass().getSimpleName();
+            Log.w(TAG, rpc + " failed: " + errorStatus);
+            record(rpc, getElapsedMs(start), errorStatus);
+            if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            } else if (e instanceof ExecutionException) {
+                throw (ExecutionException) e;
+            } else if (e instanceof InterruptedException) {
+                throw (InterruptedException) e;
+            }
+            throw new ExecutionException(e);
+        }
+    }
+
+    /**
+     * Counts a retry of the RPC. A caller that retries a failed call, and makes each attempt
+     * through {@link #call(String, Callable)}, calls this before each retry.
+     */
+    public synchronized void recordRetry(String rpc) {
+        getStats(rpc).retries++;
+    }
+
+    public synchronized void clear() {
+        mStats.clear();
+    }
+
+    /**
+     * @return  Snapshot of all metrics, in the form
+     * {"findCloudlet": {"count": 3, "sumMs": 312.5, "p50Ms": 100, "p95Ms": 250,
+     * "buckets": {"10": 0, ..., "+Inf": 0}, "errors": {"UNAVAILABLE": 1}, "retries": 1}}.
+     * Quantiles are bucket upper bounds, and -1 means +Inf.
+     */
+    public synchronized JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        for (Map.Entry<String, RpcStats> entry : mStats.entrySet()) {
+            RpcStats stats = entry.getValue();
+            JSONObject rpcJson = new JSONObject();
+            rpcJson.put("count", stats.count);
+            rpcJson.put("sumMs", stats.sumMs);
+            rpcJson.put("p50Ms", stats.getQuantileBoundMs(0.5));
+            rpcJson.put("p95Ms", stats.getQuantileBoundMs(0.95));
+            JSONObject buckets = new JSONObject();
+            for (int i = 0; i < stats.buckets.length; i++) {
+                buckets.put(getBucketLabel(i), stats.buckets[i]);
+            }
+            rpcJson.put("buckets", buckets);
+            rpcJson.put("errors", new JSONObject(stats.errors));
+            rpcJson.put("retries", stats.retries);
+            json.put(entry.getKey(), rpcJson);
+        }
+        return json;
+    }
+
+    /**
+     * @return  Snapshot of all metrics in the OpenMetrics text format. Histogram buckets are
+     * cumulative, as the format requires.
+     */
+    public synchronized String toOpenMetrics() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# TYPE dme_rpc_latency_ms histogram\n");
+        sb.append("# UNIT dme_rpc_latency_ms ms\n");
+        for (Map.Entry<String, RpcStats> entry : mStats.entrySet()) {
+            String rpc = entry.getKey();
+            RpcStats stats = entry.getValue();
+            long cumulative = 0;
+            for (int i = 0; i < stats.buckets.length; i++) {
+                cumulative += stats.buckets[i];
+                sb.append("dme_rpc_latency_ms_bucket{rpc=\"").append(rpc).append("\",le=\"")
+                        .append(getBucketLabel(i)).append("\"} ").append(cumulative).append('\n');
+            }
+            sb.append("dme_rpc_latency_ms_sum{rpc=\"").append(rpc).append("\"} ")
+                    .append(String.format(Locale.US, "%.3f", stats.sumMs)).append('\n');
+            sb.append("dme_rpc_latency_ms_count{rpc=\"").append(rpc).append("\"} ")
+                    .append(stats.count).append('\n');
+        }
+        sb.append("# TYPE dme_rpc_errors counter\n");
+        for (Map.Entry<String, RpcStats> entry : mStats.entrySet()) {
+            for (Map.Entry<String, Long> error : entry.getValue().errors.entrySet()) {
+                sb.append("dme_rpc_errors_total{rpc=\"").append(entry.getKey()).append("\",status=\"")
+                        .append(error.getKey()).append("\"} ").append(error.getValue()).append('\n');
+            }
+        }
+        sb.append("# TYPE dme_rpc_retries counter\n");
+        for (Map.Entry<String, RpcStats> entry : mStats.entrySet()) {
+            sb.append("dme_rpc_retries_total{rpc=\"").append(entry.getKey()).append("\"} ")
+                    .append(entry.getValue().retries).append('\n');
+        }
+        sb.append("# EOF\n");
+        return sb.toString();
+    }
+
+    /**
+     * @return  One line per RPC, for display.
+     */
+    @Override
+    public synchronized String toString() {
+        if (mStats.isEmpty()) {
+            return "No DME calls recorded.";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, RpcStats> entry : mStats.entrySet()) {
+            RpcStats stats = entry.getValue();
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append(String.format(Locale.US, "%s: n=%d avg=%.0fms p50<=%s p95<=%s errors=%d%s retries=%d",
+                    entry.getKey(), stats.count, stats.count == 0 ? 0 : stats.sumMs / stats.count,
+                    formatBound(stats.getQuantileBoundMs(0.5)), formatBound(stats.getQuantileBoundMs(0.95)),
+                    stats.getErrorCount(), stats.errors.isEmpty() ? "" : " " + stats.errors, stats.retries));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Records one call.
+     *
+     * @param errorStatus  The gRPC status code or exception name if the call failed, or null.
+     */
+    synchronized void record(String rpc, double elapsedMs, String errorStatus) {
+        RpcStats stats = getStats(rpc);
+        int i = 0;
+        while (i < BUCKET_BOUNDS_MS.length && elapsedMs > BUCKET_BOUNDS_MS[i]) {
+            i++;
+        }
+        stats.buckets[i]++;
+        stats.count++;
+        stats.sumMs += elapsedMs;
+        if (errorStatus != null) {
+            Long n = stats.errors.get(errorStatus);
+            stats.errors.put(errorStatus, n == null ? 1 : n + 1);
+        }
+    }
+
+    private RpcStats getStats(String rpc) {
+        RpcStats stats = mStats.get(rpc);
+        if (stats == null) {
+            stats = new RpcStats();
+            mStats.put(rpc, stats);
+        }
+        return stats;
+    }
+
+    /**
+     * @return  The gRPC status code of the exception or its cause, or null if it isn't a gRPC error.
+     */
+    private static Status.Code getStatusCode(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof StatusRuntimeException) {
+                return ((StatusRuntimeException) t).getStatus().getCode();
+            }
+        }
+        return null;
+    }
+
+    private static double getElapsedMs(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1e6;
+    }
+
+    private static String getBucketLabel(int i) {
+        return i < BUCKET_BOUNDS_MS.length ? Long.toString(BUCKET_BOUNDS_MS[i]) : "+Inf";
+    }
+
+    private static String formatBound(long boundMs) {
+        return boundMs < 0 ? "+Inf" : boundMs + "ms";
+    }
+}
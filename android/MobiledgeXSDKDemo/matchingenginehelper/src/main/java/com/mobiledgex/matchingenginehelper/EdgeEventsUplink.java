@@ -0,0 +1,305 @@
+/**
+ * Copyright 2018-2022 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.matchingenginehelper;
+
+import android.location.Location;
+import android.util.Log;
+
+import com.mobiledgex.matchingengine.performancemetrics.Site;
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queues location and latency updates for the edge events connection, and posts them in
+ * batches, so a stream of location fixes doesn't wake the radio for each one.
+ *
+ * <ul>
+ *     <li>Batches are posted at most once per batch interval.</li>
+ *     <li>Only the newest location is kept. A location queued while another is waiting
+ *     replaces it.</li>
+ *     <li>Latency updates are all posted, in order, up to a maximum queue size. If the queue
+ *     is full, the oldest update is dropped.</li>
+ *     <li>After an error, the next batch is delayed with exponential backoff. Updates that
+ *     failed are queued again once, unless a newer location replaced them. If the retry also
+ *     fails, they are dropped.</li>
+ * </ul>
+ *
+ * {@link #clear()} must be called when the edge events session changes, so updates queued for
+ * the old session aren't posted to the new one.
+ */
+public class EdgeEventsUplink {
+    private static final String TAG = "EdgeEventsUplink";
+    private static final int MAX_QUEUED_LATENCY_UPDATES = 8;
+
+    /**
+     * Posts updates to the edge events connection.
+     */
+    public interface Sink {
+        /**
+         * @return  True if the update was posted.
+         */
+        boolean postLocation(Location location);
+
+        /**
+         * @return  True if the update was posted.
+         */
+        boolean postLatency(Site site, Location location);
+    }
+
+    private static class LatencyUpdate {
+        final Site site;
+        final Location location;
+        final boolean retry;
+
+        LatencyUpdate(Site site, Location location, boolean retry) {
+            this.site = site;
+            this.location = location;
+            this.retry = retry;
+        }
+    }
+
+    private final Sink mSink;
+    private final long mBatchIntervalMs;
+    private final long mMaxBackoffMs;
+    private final ScheduledExecutorService mScheduler;
+
+    private Location mPendingLocation;
+    private boolean mPendingLocationRetry;
+    private final ArrayDeque<LatencyUpdate> mPendingLatency = new ArrayDeque<>();
+    // Incremented by clear(), so a batch in flight doesn't queue its failures again.
+    private int mGeneration;
+    private boolean mFlushScheduled;
+    private long mLastFlushTime;
+    private long mBackoffMs;
+
+    private int mPostedLocations;
+    private int mSupersededLocations;
+    private int mPostedLatencyUpdates;
+    private int mDroppedLatencyUpdates;
+    private int mErrors;
+    private int mMaxQueueDepth;
+
+    /**
+     * @param sink  Where the updates are posted.
+     * @param batchIntervalMs  Minimum time between batches.
+     * @param maxBackoffMs  Maximum delay between batches after repeated errors.
+     */
+    public EdgeEventsUplink(Sink sink, long batchIntervalMs, long maxBackoffMs) {
+        mSink = sink;
+        mBatchIntervalMs = batchIntervalMs;
+        mMaxBackoffMs = maxBackoffMs;
+        mScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, TAG);
+            }
+        });
+        // Allow the first batch to go out immediately.
+        mLastFlushTime = now() - batchIntervalMs;
+    }
+
+    /**
+     * Queues a location update, replacing any location that hasn't been posted yet.
+     */
+    public synchronized void postLocation(Location location) {
+        if (mPendingLocation != null) {
+            mSupersededLocations++;
+        }
+        mPendingLocation = location;
+        mPendingLocationRetry = false;
+        onQueued();
+    }
+
+    /**
+     * Queues a latency update.
+     */
+    public synchronized void postLatency(Site site, Location location) {
+        mPendingLatency.addLast(new LatencyUpdate(site, location, false));
+        trimLatencyQueue();
+        onQueued();
+    }
+
+    // Must be called while synchronized.
+    private void trimLatencyQueue() {
+        while (mPendingLatency.size() > MAX_QUEUED_LATENCY_UPDATES) {
+            mPendingLatency.removeFirst();
+            mDroppedLatencyUpdates++;
+        }
+    }
+
+    /**
+     * Reports an error from the edge events connection, so the next batch is delayed.
+     */
+    public synchronized void onError() {
+        mErrors++;
+        mBackoffMs = mBackoffMs == 0 ? mBatchIntervalMs : Math.min(mBackoffMs * 2, mMaxBackoffMs);
+        Log.w(TAG, "Edge events error. Backing off " + mBackoffMs + " ms");
+    }
+
+    /**
+     * Drops all queued updates, e.g. when edge events are restarted or stopped.
+     */
+    public synchronized void clear() {
+        mGeneration++;
+        mPendingLocation = null;
+        mPendingLocationRetry = false;
+        mPendingLatency.clear();
+        mBackoffMs = 0;
+    }
+
+    public void shutdown() {
+        mScheduler.shutdownNow();
+    }
+
+    /**
+     * @return  Number of updates waiting to be posted.
+     */
+    public synchronized int getQueueDepth() {
+        return mPendingLatency.size() + (mPendingLocation == null ? 0 : 1);
+    }
+
+    public synchronized int getMaxQueueDepth() {
+        return mMaxQueueDepth;
+    }
+
+    public synchronized int getSupersededLocations() {
+        return mSupersededLocations;
+    }
+
+    public synchronized int getDroppedLatencyUpdates() {
+        return mDroppedLatencyUpdates;
+    }
+
+    public synchronized int getErrors() {
+        return mErrors;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "queueDepth=%d maxQueueDepth=%d postedLocations=%d "
+                        + "supersededLocations=%d postedLatencyUpdates=%d droppedLatencyUpdates=%d "
+                        + "errors=%d backoffMs=%d",
+                getQueueDepth(), mMaxQueueDepth, mPostedLocations, mSupersededLocations,
+                mPostedLatencyUpdates, mDroppedLatencyUpdates, mErrors, mBackoffMs);
+    }
+
+    private void onQueued() {
+        mMaxQueueDepth = Math.max(mMaxQueueDepth, getQueueDepth());
+        if (mFlushScheduled) {
+            return;
+        }
+        long delay = Math.max(0, mLastFlushTime + mBatchIntervalMs + mBackoffMs - now());
+        try {
+            mScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+            mFlushScheduled = true;
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Uplink is shut down. Dropping update.");
+        }
+    }
+
+    private void flush() {
+        Location location;
+        boolean locationRetry;
+        LatencyUpdate[] latencyUpdates;
+        int generation;
+        synchronized (this) {
+            mFlushScheduled = false;
+            mLastFlushTime = now();
+            generation = mGeneration;
+            location = mPendingLocation;
+            locationRetry = mPendingLocationRetry;
+            mPendingLocation = null;
+            mPendingLocationRetry = false;
+            latencyUpdates = mPendingLatency.toArray(new LatencyUpdate[0]);
+            mPendingLatency.clear();
+        }
+
+        // Post outside the lock, so callers never wait for the network.
+        // Anything queued meanwhile is scheduled as the next batch.
+        boolean locationPosted = location != null && post(location, null);
+        ArrayDeque<LatencyUpdate> failed = new ArrayDeque<>();
+        for (LatencyUpdate update : latencyUpdates) {
+            if (!post(update.location, update.site)) {
+                failed.addLast(update);
+            }
+        }
+
+        synchronized (this) {
+            mPostedLocations += locationPosted ? 1 : 0;
+            mPostedLatencyUpdates += latencyUpdates.length - failed.size();
+            boolean locationFailed = location != null && !locationPosted;
+            if (!locationFailed && failed.isEmpty()) {
+                mBackoffMs = 0;
+            } else if (generation == mGeneration) {
+                onError();
+                requeue(locationFailed && !locationRetry ? location : null, failed);
+            }
+            Log.d(TAG, "Posted batch. " + this);
+        }
+    }
+
+    /**
+     * Queues updates from a failed batch again, ahead of newer updates, unless they have already
+     * been retried. Must be called while synchronized.
+     */
+    private void requeue(Location location, ArrayDeque<LatencyUpdate> failed) {
+        if (location != null && mPendingLocation == null) {
+            mPendingLocation = location;
+            mPendingLocationRetry = true;
+        }
+        while (!failed.isEmpty()) {
+            LatencyUpdate update = failed.removeLast();
+            if (update.retry) {
+                mDroppedLatencyUpdates++;
+            } else {
+                mPendingLatency.addFirst(new LatencyUpdate(update.site, update.location, true));
+            }
+        }
+        trimLatencyQueue();
+        if (getQueueDepth() > 0) {
+            onQueued();
+        }
+    }
+
+    private boolean post(Location location, Site site) {
+        try {
+            if (site == null) {
+                return mSink.postLocation(location);
+            } else {
+                return mSink.postLatency(site, location);
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to post update: " + e);
+            return false;
+        }
+    }
+
+    private static long now() {
+        return System.nanoTime() / 1000000;
+    }
+}
@@ -6,6 +6,9 @@ import static com.mobiledgex.matchingenginehelper.EventItem.EventType.INFO;
 import android.animation.Animator;
 import android.animation.ValueAnimator;
 import android.app.Activity;
+import android.content.ClipData;
+import android.content.ClipboardManager;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.SharedPreferences;
 import android.util.Log;
@@ -110,10 +113,25 @@ public class EventLogViewer implements PopupMenu.OnMenuItemClickListener {
             item.setChecked(mAutoExpand);
             SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mActivity);
             prefs.edit().putBoolean(mAutoExpandPrefKey, mAutoExpand).apply();
+        } else if (item.getItemId() == R.id.action_elv_dme_metrics) {
+            showMessage("DME call metrics:\n" + DmeMetrics.getInstance());
+        } else if (item.getItemId() == R.id.action_elv_copy_dme_metrics) {
+            copyDmeMetrics();
         }
         return true;
     }
 
+    /**
+     * Copies the DME call metrics to the clipboard in OpenMetrics text format, so they can be
+     * collected from devices in the field.
+     */
+    private void copyDmeMetrics() {
+        ClipboardManager clipboard = (ClipboardManager) mActivity.getSystemService(Context.CLIPBOARD_SERVICE);
+        ClipData clip = ClipData.newPlainText("DME Metrics", DmeMetrics.getInstance().toOpenMetrics());
+        clipboard.setPrimaryClip(clip);
+        Toast.makeText(mActivity, "DME metrics copied to clipboard.", Toast.LENGTH_SHORT).show();
+    }
+
     private void clearAllLogs() {
         new androidx.appcompat.app.AlertDialog.Builder(mActivity)
                 .setTitle(R.string.verify_clear_logs_title)
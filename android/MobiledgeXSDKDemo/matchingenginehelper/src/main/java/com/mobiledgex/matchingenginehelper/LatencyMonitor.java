@@ -0,0 +1,317 @@
+/**
+ * Copyright 2018-2022 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.matchingenginehelper;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.mobiledgex.matchingengine.performancemetrics.NetTest;
+import com.mobiledgex.matchingengine.performancemetrics.Site;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests latency to the current app instance and to candidate instances in the background, and
+ * reports when the current instance's latency degrades, without waiting for the DME to ask.
+ *
+ * <ul>
+ *     <li>Each round tests the current instance, and one candidate in turn, with a short
+ *     NetTest. Rounds are far apart, so the monitor uses little battery or data.</li>
+ *     <li>The average of each round is kept in a sliding window per instance.</li>
+ *     <li>When the median of the current instance's window goes over the threshold, the
+ *     listener is told, and is told again at most once per report interval while it stays
+ *     over. It must drop below a fraction of the threshold before a new crossing counts.</li>
+ * </ul>
+ */
+public class LatencyMonitor {
+    private static final String TAG = "LatencyMonitor";
+    private static final int MAX_WINDOW_SAMPLES = 64;
+    static final int MIN_SAMPLES_TO_REPORT = 3;
+    static final double REARM_FRACTION = 0.8;
+    static final long REPORT_INTERVAL_MS = 60000;
+
+    /**
+     * An app instance to test.
+     */
+    public static class Target {
+        public final String name;
+        public final String host;
+        public final int port;
+
+        public Target(String name, String host, int port) {
+            this.name = name;
+            this.host = host;
+            this.port = port;
+        }
+
+        String getKey() {
+            return host + ":" + port;
+        }
+
+        @Override
+        public String toString() {
+            return name + " " + getKey();
+        }
+    }
+
+    public interface Listener {
+        /**
+         * Called from the monitor thread when the current instance's latency is over the
+         * threshold.
+         *
+         * @param current  The current instance.
+         * @param site  The latest test of the current instance, which can be posted to the DME.
+         * @param window  The current instance's recent latency.
+         * @param thresholdMs  The threshold that was crossed.
+         */
+        void onLatencyDegraded(Target current, Site site, LatencyWindow window, double thresholdMs);
+    }
+
+    private final Context mContext;
+    private final Listener mListener;
+    private final long mIntervalMs;
+    private final long mWindowMs;
+    private final int mSamplesPerRound;
+    private final ScheduledExecutorService mScheduler;
+    private ScheduledFuture<?> mTask;
+
+    private volatile NetTest.TestType mTestType = NetTest.TestType.CONNECT;
+    private Target mCurrent;
+    private final List<Target> mCandidates = new ArrayList<>();
+    private final Map<String, LatencyWindow> mWindows = new HashMap<>();
+    private int mNextCandidate;
+    private double mThresholdMs;
+    private boolean mDegraded;
+    private long mLastReportTime;
+
+    /**
+     * @param context  Used by NetTest to pick the network.
+     * @param listener  Told when latency degrades.
+     * @param intervalMs  Time between rounds.
+     * @param windowMs  Age after which round results are dropped from the window.
+     * @param samplesPerRound  Number of tests of each instance per round.
+     */
+    public LatencyMonitor(Context context, Listener listener, long intervalMs, long windowMs,
+                          int samplesPerRound) {
+        mContext = context;
+        mListener = listener;
+        mIntervalMs = intervalMs;
+        mWindowMs = windowMs;
+        mSamplesPerRound = samplesPerRound;
+        mScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, TAG);
+            }
+        });
+    }
+
+    /**
+     * Sets the instances to test. Windows of instances that are still in the list are kept.
+     *
+     * @param current  The instance in use, or null if there is none.
+     * @param candidates  Other instances the app could switch to.
+     */
+    public synchronized void setTargets(Target current, List<Target> candidates) {
+        if (current == null || mCurrent == null || !current.getKey().equals(mCurrent.getKey())) {
+            mDegraded = false;
+        }
+        mCurrent = current;
+        mCandidates.clear();
+        mCandidates.addAll(candidates);
+        Map<String, LatencyWindow> windows = new HashMap<>();
+        for (Target target : getTargets()) {
+            LatencyWindow window = mWindows.get(target.getKey());
+            windows.put(target.getKey(), window != null ? window
+                    : new LatencyWindow(mWindowMs, MAX_WINDOW_SAMPLES));
+        }
+        mWindows.clear();
+        mWindows.putAll(windows);
+    }
+
+    /**
+     * @param thresholdMs  Median latency over which the current instance is degraded, or 0
+     *                     to never report.
+     */
+    public synchronized void setThresholdMs(double thresholdMs) {
+        mThresholdMs = thresholdMs;
+    }
+
+    public void setTestType(NetTest.TestType testType) {
+        mTestType = testType;
+    }
+
+    /**
+     * Starts the rounds, if not already started.
+     */
+    public synchronized void start() {
+        if (mTask != null || mScheduler.isShutdown()) {
+            return;
+        }
+        Log.i(TAG, "Starting. intervalMs=" + mIntervalMs + " windowMs=" + mWindowMs);
+        mTask = mScheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                runRound();
+            }
+        }, mIntervalMs, mIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the rounds. A round in progress finishes.
+     */
+    public synchronized void stop() {
+        if (mTask != null) {
+            Log.i(TAG, "Stopping");
+            mTask.cancel(false);
+            mTask = null;
+        }
+    }
+
+    public void shutdown() {
+        stop();
+        mScheduler.shutdownNow();
+    }
+
+    /**
+     * @return  The window of the instance, or null if it isn't monitored.
+     */
+    public synchronized LatencyWindow getWindow(Target target) {
+        return mWindows.get(target.getKey());
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("thresholdMs=").append(mThresholdMs)
+                .append(" degraded=").append(mDegraded);
+        for (Target target : getTargets()) {
+            sb.append(target == mCurrent ? " current " : " candidate ").append(target)
+                    .append(" [").append(mWindows.get(target.getKey())).append("]");
+        }
+        return sb.toString();
+    }
+
+    private List<Target> getTargets() {
+        List<Target> targets = new ArrayList<>();
+        if (mCurrent != null) {
+            targets.add(mCurrent);
+        }
+        targets.addAll(mCandidates);
+        return targets;
+    }
+
+    private void runRound() {
+        Target current;
+        Target candidate = null;
+        synchronized (this) {
+            current = mCurrent;
+            if (!mCandidates.isEmpty()) {
+                mNextCandidate %= mCandidates.size();
+                candidate = mCandidates.get(mNextCandidate++);
+            }
+        }
+        if (current == null) {
+            return;
+        }
+        Site site = test(current);
+        long now = System.currentTimeMillis();
+        record(current, site, now);
+        checkThreshold(current, site, now);
+        if (candidate != null) {
+            record(candidate, test(candidate), System.currentTimeMillis());
+        }
+        Log.d(TAG, "Round complete. " + this);
+    }
+
+    private Site test(Target target) {
+        try {
+            NetTest netTest = new NetTest();
+            Site site = new Site(mContext, mTestType, mSamplesPerRound, target.host, target.port);
+            netTest.addSite(site);
+            netTest.testSites(netTest.TestTimeoutMS);
+            return netTest.getSite(target.host);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Latency test of " + target + " failed: " + e);
+            return null;
+        }
+    }
+
+    private synchronized void record(Target target, Site site, long now) {
+        LatencyWindow window = mWindows.get(target.getKey());
+        if (window == null) {
+            // No longer monitored.
+            return;
+        }
+        window.prune(now);
+        if (site != null && site.average > 0) {
+            window.add(now, site.average);
+        }
+    }
+
+    private void checkThreshold(Target current, Site site, long now) {
+        // If the latest test failed, there is nothing to post. Try again next round.
+        if (!shouldReport(current, site != null, now)) {
+            return;
+        }
+        LatencyWindow window = getWindow(current);
+        double thresholdMs;
+        synchronized (this) {
+            thresholdMs = mThresholdMs;
+        }
+        Log.w(TAG, "Latency degraded on " + current + ": " + window);
+        mListener.onLatencyDegraded(current, site, window, thresholdMs);
+    }
+
+    /**
+     * Updates the degraded state from the current instance's window.
+     *
+     * @param current  The instance that was just tested.
+     * @param canReport  False if there is nothing to report, which leaves the state unchanged
+     *                   until a later round can.
+     * @param now  Time of the test.
+     * @return  True if the listener should be told.
+     */
+    synchronized boolean shouldReport(Target current, boolean canReport, long now) {
+        LatencyWindow window = mWindows.get(current.getKey());
+        if (current != mCurrent || window == null || mThresholdMs <= 0
+                || window.getCount() < MIN_SAMPLES_TO_REPORT) {
+            return false;
+        }
+        double p50 = window.getPercentile(50);
+        if (p50 < mThresholdMs * REARM_FRACTION) {
+            mDegraded = false;
+            return false;
+        }
+        if (p50 <= mThresholdMs
+                || (mDegraded && now - mLastReportTime < REPORT_INTERVAL_MS)
+                || !canReport) {
+            return false;
+        }
+        mDegraded = true;
+        mLastReportTime = now;
+        return true;
+    }
+}
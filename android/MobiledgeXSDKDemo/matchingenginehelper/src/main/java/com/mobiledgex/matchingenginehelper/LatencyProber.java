@@ -0,0 +1,404 @@
+/**
+ * Copyright 2018-2022 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.matchingenginehelper;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import distributed_match_engine.AppClient;
+import distributed_match_engine.Appcommon;
+
+/**
+ * Measures TCP connect latency to every app instance in an AppInstListReply, and ranks the
+ * instances by median latency plus jitter.
+ *
+ * Instances are probed concurrently, but probe starts are spaced at least a minimum interval
+ * apart across all instances, so a long list doesn't produce a burst of connections.
+ *
+ * {@link #probeInBackground} runs on the prober's own threads, so the caller doesn't wait for
+ * a probe that may take several seconds. If a newer list arrives while one is being probed,
+ * only the newest is probed next.
+ */
+public class LatencyProber {
+    private static final String TAG = "LatencyProber";
+
+    private final int mSamples;
+    private final long mMinIntervalMs;
+    private final int mTimeoutMs;
+    private final ExecutorService mExecutor;
+    private final ThreadPoolExecutor mProbeRunner;
+    private final ExecutorService mResolver;
+    private long mNextProbeTime;
+    private volatile List<Result> mRanking = Collections.emptyList();
+    // Incremented by clear(), so a probe started before it doesn't publish stale results.
+    private final AtomicInteger mGeneration = new AtomicInteger();
+
+    /**
+     * Notified on a prober thread when a background probe has finished.
+     */
+    public interface Listener {
+        void onRankingUpdated(List<Result> ranking);
+    }
+
+    /**
+     * Latency measurements of one app instance.
+     */
+    public static class Result {
+        public final AppClient.CloudletLocation cloudletLocation;
+        public final AppClient.Appinstance appInstance;
+        public final String host;
+        public final int port;
+        public final double p50Ms;
+        public final double jitterMs;
+        public final int successes;
+        public final int failures;
+
+        Result(AppClient.CloudletLocation cloudletLocation, AppClient.Appinstance appInstance,
+               String host, int port, double p50Ms, double jitterMs, int successes, int failures) {
+            this.cloudletLocation = cloudletLocation;
+            this.appInstance = appInstance;
+            this.host = host;
+            this.port = port;
+            this.p50Ms = p50Ms;
+            this.jitterMs = jitterMs;
+            this.successes = successes;
+            this.failures = failures;
+        }
+
+        /**
+         * @return  Median latency plus jitter, in milliseconds. Lower is better. Unreachable
+         * instances score {@link Double#MAX_VALUE}.
+         */
+        public double getScore() {
+            return successes == 0 ? Double.MAX_VALUE : p50Ms + jitterMs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s %s:%d p50=%.1fms jitter=%.1fms ok=%d failed=%d",
+                    cloudletLocation.getCloudletName(), host, port, p50Ms, jitterMs, successes, failures);
+        }
+    }
+
+    private static class Target {
+        final AppClient.CloudletLocation cloudletLocation;
+        final AppClient.Appinstance appInstance;
+        final String host;
+        final int port;
+
+        Target(AppClient.CloudletLocation cloudletLocation, AppClient.Appinstance appInstance,
+               String host, int port) {
+            this.cloudletLocation = cloudletLocation;
+            this.appInstance = appInstance;
+            this.host = host;
+            this.port = port;
+        }
+    }
+
+    /**
+     * @param maxConcurrent  Maximum number of instances probed at the same time.
+     * @param samples  Number of connections made to each instance.
+     * @param minIntervalMs  Minimum time between the start of any two probes.
+     * @param timeoutMs  Connect timeout of each probe.
+     */
+    public LatencyProber(int maxConcurrent, int samples, long minIntervalMs, int timeoutMs) {
+        mSamples = samples;
+        mMinIntervalMs = minIntervalMs;
+        mTimeoutMs = timeoutMs;
+        mExecutor = Executors.newFixedThreadPool(maxConcurrent, newThreadFactory(TAG));
+        // One probe at a time. A list waiting to be probed is replaced by a newer one.
+        mProbeRunner = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(1), newThreadFactory(TAG + "-runner"),
+                new ThreadPoolExecutor.DiscardOldestPolicy());
+        // Lookups that outlive their timeout keep a thread until the resolver gives up.
+        mResolver = Executors.newCachedThreadPool(newThreadFactory(TAG + "-dns"));
+    }
+
+    private static ThreadFactory newThreadFactory(final String name) {
+        return new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, name + "-" + mCount.getAndIncrement());
+            }
+        };
+    }
+
+    /**
+     * Probes every app instance in the list without blocking the caller.
+     *
+     * @param appInstList  The reply from getAppInstList.
+     * @param preferredPublicPort  See {@link #probe}.
+     * @param listener  Notified when the probe finishes, unless the results were cleared in the
+     *                  meantime. May be null.
+     */
+    public void probeInBackground(final AppClient.AppInstListReply appInstList,
+                                  final int preferredPublicPort, final Listener listener) {
+        try {
+            mProbeRunner.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        int generation = mGeneration.get();
+                        List<Result> ranking = probe(appInstList, preferredPublicPort);
+                        if (listener != null && generation == mGeneration.get()) {
+                            listener.onRankingUpdated(ranking);
+                        }
+                    } catch (InterruptedException e) {
+                        Log.i(TAG, "Latency probe interrupted");
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.w(TAG, "Latency probe rejected. Shut down?");
+        }
+    }
+
+    /**
+     * Probes every app instance in the list, and blocks until all are done.
+     *
+     * @param appInstList  The reply from getAppInstList.
+     * @param preferredPublicPort  Public port to probe when an instance has more than one TCP
+     *                             port. If no port matches, the first TCP port is used.
+     * @return  The results, best first. Also available from {@link #getRanking()}, unless
+     * {@link #clear()} was called while probing.
+     */
+    public List<Result> probe(AppClient.AppInstListReply appInstList, int preferredPublicPort)
+            throws InterruptedException {
+        int generation = mGeneration.get();
+        List<Callable<Result>> tasks = new ArrayList<>();
+        for (AppClient.CloudletLocation cloudletLocation : appInstList.getCloudletsList()) {
+            for (AppClient.Appinstance appInstance : cloudletLocation.getAppinstancesList()) {
+                final Target target = makeTarget(cloudletLocation, appInstance, preferredPublicPort);
+                if (target == null) {
+                    continue;
+                }
+                tasks.add(new Callable<Result>() {
+                    @Override
+                    public Result call() throws InterruptedException {
+                        return probeTarget(target);
+                    }
+                });
+            }
+        }
+        if (tasks.isEmpty()) {
+            publish(generation, Collections.<Result>emptyList());
+            return Collections.emptyList();
+        }
+
+        // Upper bound on the time taken if every lookup and probe times out and waits for its turn.
+        long deadlineMs = mTimeoutMs + mSamples * (mTimeoutMs + mMinIntervalMs * tasks.size()) + 1000;
+        List<Result> results = new ArrayList<>();
+        for (Future<Result> future : mExecutor.invokeAll(tasks, deadlineMs, TimeUnit.MILLISECONDS)) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException | CancellationException e) {
+                Log.w(TAG, "Latency probe did not complete: " + e);
+            }
+        }
+        Collections.sort(results, new Comparator<Result>() {
+            @Override
+            public int compare(Result a, Result b) {
+                return Double.compare(a.getScore(), b.getScore());
+            }
+        });
+        for (Result result : results) {
+            Log.i(TAG, "Latency probe: " + result);
+        }
+        List<Result> ranking = Collections.unmodifiableList(results);
+        publish(generation, ranking);
+        return ranking;
+    }
+
+    private synchronized void publish(int generation, List<Result> ranking) {
+        if (generation != mGeneration.get()) {
+            Log.i(TAG, "Results were cleared while probing. Discarding.");
+            return;
+        }
+        mRanking = ranking;
+    }
+
+    /**
+     * @return  Results of the last completed probe, best first, or an empty list.
+     */
+    public List<Result> getRanking() {
+        return mRanking;
+    }
+
+    /**
+     * @param fqdn  The FQDN of an app instance, as returned by the DME.
+     * @return  The result for that instance from the last probe, or null if it wasn't probed.
+     */
+    public Result getResult(String fqdn) {
+        for (Result result : mRanking) {
+            if (result.appInstance.getFqdn().equals(fqdn)) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Forgets the last results, e.g. when the app instance list is out of date.
+     */
+    public synchronized void clear() {
+        mGeneration.incrementAndGet();
+        mRanking = Collections.emptyList();
+    }
+
+    public void shutdown() {
+        mProbeRunner.shutdownNow();
+        mExecutor.shutdownNow();
+        mResolver.shutdownNow();
+    }
+
+    private static Target makeTarget(AppClient.CloudletLocation cloudletLocation,
+                                     AppClient.Appinstance appInstance, int preferredPublicPort) {
+        Appcommon.AppPort chosen = null;
+        for (Appcommon.AppPort aPort : appInstance.getPortsList()) {
+            if (aPort.getProto() != Appcommon.LProto.L_PROTO_TCP) {
+                continue;
+            }
+            if (chosen == null || aPort.getPublicPort() == preferredPublicPort) {
+                chosen = aPort;
+            }
+        }
+        if (chosen == null) {
+            Log.w(TAG, "No TCP port to probe on " + appInstance.getFqdn());
+            return null;
+        }
+        return new Target(cloudletLocation, appInstance,
+                chosen.getFqdnPrefix() + appInstance.getFqdn(), chosen.getPublicPort());
+    }
+
+    private Result probeTarget(Target target) throws InterruptedException {
+        // Resolve once up front, so DNS lookup time isn't included in the samples.
+        InetSocketAddress address = resolve(target.host, target.port);
+        if (address == null) {
+            return new Result(target.cloudletLocation, target.appInstance, target.host, target.port,
+                    0, 0, 0, mSamples);
+        }
+        double[] samples = new double[mSamples];
+        int successes = 0;
+        int failures = 0;
+        for (int i = 0; i < mSamples; i++) {
+            waitForTurn();
+            long start = System.nanoTime();
+            try (Socket socket = new Socket()) {
+                socket.connect(address, mTimeoutMs);
+                samples[successes++] = (System.nanoTime() - start) / 1e6;
+            } catch (IOException e) {
+                failures++;
+            }
+        }
+        return new Result(target.cloudletLocation, target.appInstance, target.host, target.port,
+                median(samples, successes), jitter(samples, successes), successes, failures);
+    }
+
+    /**
+     * Resolves the host, waiting no longer than the connect timeout.
+     *
+     * @return  The address, or null if the host couldn't be resolved in time.
+     */
+    private InetSocketAddress resolve(final String host, int port) throws InterruptedException {
+        Future<InetAddress> lookup;
+        try {
+            lookup = mResolver.submit(new Callable<InetAddress>() {
+                @Override
+                public InetAddress call() throws IOException {
+                    return InetAddress.getByName(host);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            return null;
+        }
+        try {
+            return new InetSocketAddress(lookup.get(mTimeoutMs, TimeUnit.MILLISECONDS), port);
+        } catch (ExecutionException e) {
+            Log.w(TAG, "Can't resolve " + host + ": " + e.getCause());
+        } catch (TimeoutException e) {
+            Log.w(TAG, "Timed out resolving " + host);
+            lookup.cancel(true);
+        }
+        return null;
+    }
+
+    /**
+     * Blocks until this thread may start a probe. Reserves the next slot before sleeping, so
+     * concurrent callers are spaced out in the order they arrive.
+     */
+    private void waitForTurn() throws InterruptedException {
+        long waitMs;
+        synchronized (this) {
+            long now = System.nanoTime() / 1000000;
+            long start = Math.max(now, mNextProbeTime);
+            mNextProbeTime = start + mMinIntervalMs;
+            waitMs = start - now;
+        }
+        if (waitMs > 0) {
+            Thread.sleep(waitMs);
+        }
+    }
+
+    private static double median(double[] samples, int count) {
+        if (count == 0) {
+            return 0;
+        }
+        double[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        return count % 2 == 1 ? sorted[count / 2] : (sorted[count / 2 - 1] + sorted[count / 2]) / 2;
+    }
+
+    /**
+     * @return  Mean absolute difference between consecutive samples.
+     */
+    private static double jitter(double[] samples, int count) {
+        if (count < 2) {
+            return 0;
+        }
+        double total = 0;
+        for (int i = 1; i < count; i++) {
+            total += Math.abs(samples[i] - samples[i - 1]);
+        }
+        return total / (count - 1);
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright 2018-2022 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.matchingenginehelper;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Locale;
+
+/**
+ * Latency samples from the last few minutes. Samples older than the window, or beyond the
+ * maximum count, are dropped as new ones are added.
+ */
+public class LatencyWindow {
+    private final long mWindowMs;
+    private final int mMaxSamples;
+    private final ArrayDeque<Sample> mSamples = new ArrayDeque<>();
+
+    private static class Sample {
+        final long timeMs;
+        final double rttMs;
+
+        Sample(long timeMs, double rttMs) {
+            this.timeMs = timeMs;
+            this.rttMs = rttMs;
+        }
+    }
+
+    /**
+     * @param windowMs  Age after which samples are dropped.
+     * @param maxSamples  Maximum number of samples kept.
+     */
+    public LatencyWindow(long windowMs, int maxSamples) {
+        mWindowMs = windowMs;
+        mMaxSamples = maxSamples;
+    }
+
+    /**
+     * @param timeMs  Time the sample was taken.
+     * @param rttMs  The sample.
+     */
+    public synchronized void add(long timeMs, double rttMs) {
+        mSamples.addLast(new Sample(timeMs, rttMs));
+        while (mSamples.size() > mMaxSamples) {
+            mSamples.removeFirst();
+        }
+        prune(timeMs);
+    }
+
+    /**
+     * Drops samples that are older than the window at the given time.
+     */
+    public synchronized void prune(long nowMs) {
+        Iterator<Sample> it = mSamples.iterator();
+        while (it.hasNext() && nowMs - it.next().timeMs > mWindowMs) {
+            it.remove();
+        }
+    }
+
+    public synchronized int getCount() {
+        return mSamples.size();
+    }
+
+    public synchronized void clear() {
+        mSamples.clear();
+    }
+
+    public synchronized double getMean() {
+        if (mSamples.isEmpty()) {
+            return 0;
+        }
+        double total = 0;
+        for (Sample sample : mSamples) {
+            total += sample.rttMs;
+        }
+        return total / mSamples.size();
+    }
+
+    /**
+     * @param percentile  0 to 100.
+     * @return  The nearest-rank percentile, or 0 if there are no samples.
+     */
+    public synchronized double getPercentile(double percentile) {
+        if (mSamples.isEmpty()) {
+            return 0;
+        }
+        double[] sorted = new double[mSamples.size()];
+        int i = 0;
+        for (Sample sample : mSamples) {
+            sorted[i++] = sample.rttMs;
+        }
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "n=%d mean=%.1fms p50=%.1fms p95=%.1fms",
+                getCount(), getMean(), getPercentile(50), getPercentile(95));
+    }
+}
@@ -0,0 +1,195 @@
+/**
+ * Copyright 2018-2022 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.matchingenginehelper;
+
+import android.location.Location;
+
+import com.google.android.gms.location.LocationRequest;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import distributed_match_engine.LocOuterClass;
+
+/**
+ * Chooses the location update interval and priority from how the device is moving relative to
+ * the cloudlets.
+ *
+ * <ul>
+ *     <li>A stationary device polls rarely, at low power.</li>
+ *     <li>A moving device polls often enough to get several fixes before it can reach the
+ *     boundary where another cloudlet becomes closer than the current one. Close to the
+ *     boundary, it uses high accuracy.</li>
+ *     <li>Frequent FindCloudletEvents mean the device is in an area where the best cloudlet
+ *     changes often, so the interval is shortened.</li>
+ *     <li>Until the speed is known, from the fix itself or from two fixes, the initial
+ *     interval and priority are kept.</li>
+ * </ul>
+ */
+public class LocationCadence {
+    public static final long MIN_INTERVAL_MS = 5000;
+    public static final long MOVING_INTERVAL_MS = 60000;
+    public static final long STATIONARY_INTERVAL_MS = 300000;
+    private static final float STATIONARY_SPEED_MPS = 0.5f;
+    private static final int FIXES_BEFORE_BOUNDARY = 4;
+    private static final long HIGH_ACCURACY_TIME_TO_BOUNDARY_MS = 120000;
+    private static final long EVENT_WINDOW_MS = 300000;
+    private static final int FREQUENT_EVENT_COUNT = 2;
+
+    private Location mLastLocation;
+    private float mSpeedMps;
+    private boolean mSpeedKnown;
+    private LocOuterClass.Loc mCurrentCloudlet;
+    private final List<LocOuterClass.Loc> mOtherCloudlets = new ArrayList<>();
+    private final ArrayDeque<Long> mEventTimes = new ArrayDeque<>();
+    private long mIntervalMs = MIN_INTERVAL_MS;
+    private int mPriority = LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY;
+
+    /**
+     * @param current  Location of the cloudlet in use, or null if none.
+     * @param all  Locations of all cloudlets the app has instances on. May include the current one.
+     */
+    public synchronized void setCloudlets(LocOuterClass.Loc current, List<LocOuterClass.Loc> all) {
+        mCurrentCloudlet = current;
+        mOtherCloudlets.clear();
+        for (LocOuterClass.Loc loc : all) {
+            if (current == null || !loc.equals(current)) {
+                mOtherCloudlets.add(loc);
+            }
+        }
+    }
+
+    /**
+     * Records that the server pushed a new cloudlet.
+     */
+    public synchronized void onFindCloudletEvent(long timeMs) {
+        mEventTimes.addLast(timeMs);
+        while (mEventTimes.size() > FREQUENT_EVENT_COUNT * 4) {
+            mEventTimes.removeFirst();
+        }
+    }
+
+    /**
+     * Updates the cadence from a new location fix.
+     *
+     * @param location  The new fix.
+     * @param timeMs  The current time.
+     * @return  True if the interval or priority changed.
+     */
+    public synchronized boolean onLocation(Location location, long timeMs) {
+        if (location.hasSpeed()) {
+            mSpeedMps = location.getSpeed();
+            mSpeedKnown = true;
+        } else if (mLastLocation != null && location.getTime() > mLastLocation.getTime()) {
+            mSpeedMps = mLastLocation.distanceTo(location) * 1000f
+                    / (location.getTime() - mLastLocation.getTime());
+            mSpeedKnown = true;
+        }
+        mLastLocation = location;
+        if (!mSpeedKnown) {
+            // Not known to be stationary, so don't slow down before the next fix.
+            return false;
+        }
+
+        long interval;
+        int priority;
+        double distanceToBoundary = getDistanceToBoundary(location);
+        if (mSpeedMps < STATIONARY_SPEED_MPS) {
+            interval = STATIONARY_INTERVAL_MS;
+            priority = LocationRequest.PRIORITY_LOW_POWER;
+        } else if (distanceToBoundary < 0) {
+            interval = MOVING_INTERVAL_MS;
+            priority = LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY;
+        } else {
+            long timeToBoundaryMs = (long) (distanceToBoundary / mSpeedMps * 1000);
+            interval = timeToBoundaryMs / FIXES_BEFORE_BOUNDARY;
+            priority = timeToBoundaryMs < HIGH_ACCURACY_TIME_TO_BOUNDARY_MS
+                    ? LocationRequest.PRIORITY_HIGH_ACCURACY
+                    : LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY;
+        }
+        if (countRecentEvents(timeMs) >= FREQUENT_EVENT_COUNT) {
+            interval /= 2;
+        }
+        interval = Math.max(MIN_INTERVAL_MS, Math.min(STATIONARY_INTERVAL_MS, interval));
+
+        boolean changed = interval != mIntervalMs || priority != mPriority;
+        mIntervalMs = interval;
+        mPriority = priority;
+        return changed;
+    }
+
+    public synchronized long getIntervalMs() {
+        return mIntervalMs;
+    }
+
+    /**
+     * @return  One of the LocationRequest PRIORITY_ values.
+     */
+    public synchronized int getPriority() {
+        return mPriority;
+    }
+
+    /**
+     * @return  The last speed, or 0 if it isn't known yet.
+     */
+    public synchronized float getSpeedMps() {
+        return mSpeedMps;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "intervalMs=" + mIntervalMs + " priority=" + mPriority + " speedMps="
+                + (mSpeedKnown ? String.valueOf(mSpeedMps) : "unknown");
+    }
+
+    /**
+     * Approximates the distance to the line where the nearest other cloudlet becomes closer
+     * than the current one, as half the difference of the distances to the two.
+     *
+     * @return  The distance in meters, or -1 if there is no current cloudlet or no other one.
+     */
+    private double getDistanceToBoundary(Location location) {
+        if (mCurrentCloudlet == null || mOtherCloudlets.isEmpty()) {
+            return -1;
+        }
+        double current = distanceTo(location, mCurrentCloudlet);
+        double nearestOther = Double.MAX_VALUE;
+        for (LocOuterClass.Loc loc : mOtherCloudlets) {
+            nearestOther = Math.min(nearestOther, distanceTo(location, loc));
+        }
+        return Math.max(0, (nearestOther - current) / 2);
+    }
+
+    private static double distanceTo(Location location, LocOuterClass.Loc loc) {
+        float[] results = new float[1];
+        Location.distanceBetween(location.getLatitude(), location.getLongitude(),
+                loc.getLatitude(), loc.getLongitude(), results);
+        return results[0];
+    }
+
+    private int countRecentEvents(long timeMs) {
+        int count = 0;
+        for (long eventTime : mEventTimes) {
+            if (timeMs - eventTime < EVENT_WINDOW_MS) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
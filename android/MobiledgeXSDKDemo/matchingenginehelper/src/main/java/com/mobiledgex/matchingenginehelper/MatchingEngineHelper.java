@@ -26,7 +26,6 @@ import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.content.res.Resources;
 import android.location.Location;
-import android.os.AsyncTask;
 import android.os.Looper;
 import android.telephony.SubscriptionInfo;
 import android.util.Base64;
@@ -75,7 +74,6 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.TimeZone;
-import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -123,7 +121,9 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
 
     private MatchingEngine me;
     private EdgeEventsConfig mEdgeEventsConfig;
-    private boolean mEdgeEventsRunning;
+    private volatile boolean mEdgeEventsRunning;
+    // While paused, the latency monitor doesn't run.
+    private volatile boolean mPaused;
     private boolean mOverrideDefaultConfig;
     public static boolean mEdgeEventsEnabled = true;
     public String mQosSessionId = "";
@@ -146,9 +146,103 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
     private int mTestPort;
     private boolean mRunConnectionTests = true;
 
+    // Background work. Operations using executeLatest() only ever have one request in flight.
+    private static final String OP_FIND_CLOUDLET = "findCloudlet";
+    private static final String OP_ENHANCED_LOCATION_UPDATE = "enhancedLocationUpdate";
+    private static final String OP_APP_INST_LIST = "getAppInstList";
+    private static final String OP_VERIFY_LOCATION = "verifyLocation";
+    private static final String OP_REGISTER_CLIENT = "registerClient";
+    private static final String OP_QOS_POSITION = "qosPosition";
+    private static final String OP_EDGE_EVENTS = "edgeEvents";
+    private static final String OP_CONNECTION_TEST = "connectionTest";
+    private static final String OP_LATENCY_TEST = "latencyTest";
+    private static final String OP_DME_HOSTNAME = "dmeHostname";
+    private static final String OP_PREFETCH = "prefetchFindCloudlet";
+    private final BackgroundExecutor mBackgroundExecutor = new BackgroundExecutor(TAG, 4);
+
+    // Back-to-back identical findCloudlet and getAppInstList calls share one DME round trip.
+    // Successful replies are then cached by location cell, below, instead of by the coalescers.
+    private static final long DME_REQUEST_DEBOUNCE_MS = 250;
+    // Registration at startup overlaps with the registration done by the first DME request,
+    // so they also share one round trip.
+    private final RequestCoalescer<AppClient.RegisterClientReply> mRegisterClientCoalescer =
+            new RequestCoalescer<>("registerClient", 0);
+    private final RequestCoalescer<AppClient.FindCloudletReply> mFindCloudletCoalescer =
+            new RequestCoalescer<>("findCloudlet", DME_REQUEST_DEBOUNCE_MS);
+    private final RequestCoalescer<AppClient.AppInstListReply> mAppInstListCoalescer =
+            new RequestCoalescer<>("getAppInstList", DME_REQUEST_DEBOUNCE_MS);
+
+    // Replies are reused for lookups in the same ~150m cell until they expire, or until an edge
+    // event or app definition change invalidates them. User-initiated findCloudlet calls skip
+    // the cache, so only background, location-driven lookups are answered from it.
+    private static final long CLOUDLET_CACHE_TTL_MS = 60000;
+    private static final int CLOUDLET_CACHE_PRECISION = 7;
+    private final CloudletReplyCache<AppClient.FindCloudletReply> mFindCloudletCache =
+            new CloudletReplyCache<>("findCloudlet", CLOUDLET_CACHE_TTL_MS, CLOUDLET_CACHE_PRECISION);
+    private final CloudletReplyCache<AppClient.AppInstListReply> mAppInstListCache =
+            new CloudletReplyCache<>("getAppInstList", CLOUDLET_CACHE_TTL_MS, CLOUDLET_CACHE_PRECISION);
+
+    // When enabled, every instance from getAppInstList is probed, and in PROXIMITY mode
+    // findCloudlet switches to the fastest one if it beats the DME's choice by the margin.
+    private volatile boolean mLatencyRankingEnabled = false;
+    private static final int LATENCY_PROBE_CONCURRENCY = 4;
+    private static final int LATENCY_PROBE_SAMPLES = 5;
+    private static final long LATENCY_PROBE_INTERVAL_MS = 20;
+    private static final int LATENCY_PROBE_TIMEOUT_MS = 2000;
+    private static final double LATENCY_SWITCH_MARGIN = 0.2;
+    private final LatencyProber mLatencyProber = new LatencyProber(LATENCY_PROBE_CONCURRENCY,
+            LATENCY_PROBE_SAMPLES, LATENCY_PROBE_INTERVAL_MS, LATENCY_PROBE_TIMEOUT_MS);
+
+    // Latency and error counts of every DME call.
+    private final DmeMetrics mDmeMetrics = DmeMetrics.getInstance();
+
+    // App instance hostnames already resolved by prefetchFindCloudletsInBackground().
+    private final Set<String> mResolvedAppInstHosts = new HashSet<>();
+
+    // Location and latency updates to the edge events connection are batched.
+    private static final long EDGE_EVENTS_BATCH_INTERVAL_MS = 5000;
+    private static final long EDGE_EVENTS_MAX_BACKOFF_MS = 60000;
+    private final EdgeEventsUplink mEdgeEventsUplink = new EdgeEventsUplink(new EdgeEventsUplink.Sink() {
+        @Override
+        public boolean postLocation(Location location) {
+            EdgeEventsConnection connection = me.getEdgeEventsConnection();
+            if (connection == null) {
+                return false;
+            }
+            Log.i(TAG, "Posting location to DME");
+            DecimalFormat decFor = new DecimalFormat("#.#####");
+            meHelperInterface.showMessage("Posting location to DME: "
+                    + decFor.format(location.getLatitude()) + ", "
+                    + decFor.format(location.getLongitude()));
+            return connection.postLocationUpdate(location);
+        }
+
+        @Override
+        public boolean postLatency(Site site, Location location) {
+            EdgeEventsConnection connection = me.getEdgeEventsConnection();
+            if (connection == null) {
+                return false;
+            }
+            meHelperInterface.showMessage("Latency results posted to DME: Avg="+site.average);
+            return connection.postLatencyUpdate(site, location);
+        }
+    }, EDGE_EVENTS_BATCH_INTERVAL_MS, EDGE_EVENTS_MAX_BACKOFF_MS);
+
+    // While edge events are running, latency to the current instance and the best candidates
+    // is tested in the background, and posted to the DME if it goes over the threshold.
+    private static final long LATENCY_MONITOR_INTERVAL_MS = 30000;
+    private static final long LATENCY_MONITOR_WINDOW_MS = 300000;
+    private static final int LATENCY_MONITOR_SAMPLES = 3;
+    private static final int LATENCY_MONITOR_CANDIDATES = 3;
+    private final LatencyMonitor mLatencyMonitor;
+
     private FusedLocationProviderClient mFusedLocationClient;
     private LocationRequest mLocationRequest;
+    private final LocationCadence mLocationCadence = new LocationCadence();
     private boolean mGpsInitialized;
+    // Until the first GPS fix, a last known or network location is used for matching, so
+    // startup doesn't wait for GPS. Results are refined when the fix arrives.
+    private volatile Location mProvisionalLocation;
 
     // Key values for Edge Events.
     private final String prefKeyEnableEdgeEvents;
@@ -177,6 +271,7 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
     private final String prefKeyDefaultOperatorName;
     private final String prefKeyFindCloudletMode;
     private final String prefKeyAppInstancesLimit;
+    private final String prefKeyLatencyRanking;
     private final String prefKeyDefaultAppInfo;
     private final String prefKeyAppName;
     private final String prefKeyAppVersion;
@@ -217,6 +312,13 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
         meHelperInterface = builder.meHelperInterface;
         mTestPort = builder.testPort;
         me = new MatchingEngine(mActivity);
+        mLatencyMonitor = new LatencyMonitor(mActivity, (current, site, window, thresholdMs) -> {
+            String message = "Latency to "+current.name+" is "+Math.round(window.getPercentile(50))
+                    +" ms, over the "+Math.round(thresholdMs)+" ms threshold. Posting to DME.";
+            Log.w(TAG, message);
+            meHelperInterface.showMessage(message);
+            mEdgeEventsUplink.postLatency(site, getLocationForMatching());
+        }, LATENCY_MONITOR_INTERVAL_MS, LATENCY_MONITOR_WINDOW_MS, LATENCY_MONITOR_SAMPLES);
 
         mFusedLocationClient = LocationServices.getFusedLocationProviderClient(mActivity);
 
@@ -233,6 +335,7 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
         prefKeyDefaultOperatorName = resources.getString(R.string.pref_default_operator_name);
         prefKeyFindCloudletMode = resources.getString(R.string.pref_find_cloudlet_mode);
         prefKeyAppInstancesLimit = resources.getString(R.string.pref_app_instances_limit);
+        prefKeyLatencyRanking = resources.getString(R.string.pref_latency_ranking);
         prefKeyDefaultAppInfo = resources.getString(R.string.pref_default_app_definition);
         prefKeyAppName = resources.getString(R.string.pref_app_name);
         prefKeyAppVersion = resources.getString(R.string.pref_app_version);
@@ -260,6 +363,7 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
         onSharedPreferenceChanged(prefs, prefKeyDefaultOperatorName);
         onSharedPreferenceChanged(prefs, prefKeyFindCloudletMode);
         onSharedPreferenceChanged(prefs, prefKeyAppInstancesLimit);
+        onSharedPreferenceChanged(prefs, prefKeyLatencyRanking);
         onSharedPreferenceChanged(prefs, prefKeyAppName);
         onSharedPreferenceChanged(prefs, prefKeyAppVersion);
         onSharedPreferenceChanged(prefs, prefKeyOrgName);
@@ -309,7 +413,7 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
             return;
         }
 
-        new Thread(() -> {
+        mBackgroundExecutor.executeLatest(OP_EDGE_EVENTS, () -> {
             mEdgeEventsConfig = me.createDefaultEdgeEventsConfig();
             String message = "Created Default EdgeEventsConfig=" + mEdgeEventsConfig;
             Log.i(TAG, message);
@@ -329,6 +433,8 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
                 me.getEdgeEventsBus().register(mEdgeEventsSubscriber);
             }
 
+            // Updates queued for the old session must not be posted to the new one.
+            mEdgeEventsUplink.clear();
             if (mEdgeEventsRunning) {
                 message = "Restarting ServerEdgeEvents";
                 me.stopEdgeEvents();
@@ -340,7 +446,13 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
             me.startEdgeEvents(mEdgeEventsConfig);
             mEdgeEventsRunning = true;
             mEdgeEventsConfigUpdated = false;
-        }).start();
+
+            mLatencyMonitor.setThresholdMs(mEdgeEventsConfig.latencyThresholdTrigger);
+            mLatencyMonitor.setTestType(mEdgeEventsConfig.latencyTestType);
+            if (!mPaused) {
+                mLatencyMonitor.start();
+            }
+        });
     }
 
     /**
@@ -353,9 +465,13 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
      *     <li>findCloudlet</li>
      * </ol>
      *
+     * Only the newest request waits while one is in flight. This has its own queue, so a plain
+     * {@link #findCloudletInBackground()} can't replace a pending sequence. The findCloudlet
+     * step is queued with {@link #findCloudletInBackground()}, though, so only one findCloudlet
+     * is in flight and the newest request wins.
      */
     public void doEnhancedLocationUpdateInBackground() {
-        new Thread(() -> {
+        mBackgroundExecutor.executeLatest(OP_ENHANCED_LOCATION_UPDATE, () -> {
             try {
                 if (!validateCookie(mSessionCookie)) {
                     Log.e(TAG, "registerClient failed. aborting doEnhancedLocationUpdateInBackground");
@@ -366,17 +482,14 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
                     Log.e(TAG, "getAppInstList failed. aborting doEnhancedLocationUpdateInBackground");
                     return;
                 }
-                if (VERIFY_LOCATION_ENABLED) {
+                // An approximate location would fail verification, so wait for GPS.
+                if (VERIFY_LOCATION_ENABLED && !isLocationProvisional()) {
                     if (!verifyLocation()) {
                         Log.e(TAG, "verifyLocation failed. aborting doEnhancedLocationUpdateInBackground");
                         return;
                     }
                 }
-                if (!findCloudlet()) {
-                    Log.e(TAG, "findCloudlet failed. aborting doEnhancedLocationUpdateInBackground");
-                    return;
-                }
-
+                findCloudletInBackground();
             } catch (ExecutionException | InterruptedException
                     | PackageManager.NameNotFoundException | IOException e) {
                 Log.e(TAG, "Exception in getAppInstListInBackground() for "+
@@ -384,7 +497,7 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
                 e.printStackTrace();
                 meHelperInterface.showError(e.getLocalizedMessage());
             }
-        }).start();
+        });
     }
 
     private boolean verifyMeRequirements() {
@@ -451,11 +564,13 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
             meHelperInterface.showError(message);
             return false;
         }
-        AppClient.RegisterClientRequest registerClientRequest;
+        final AppClient.RegisterClientRequest registerClientRequest;
         AppClient.RegisterClientReply registerReply;
         registerClientRequest = me.createDefaultRegisterClientRequest(mActivity, mOrgName)
                 .setAppName(mAppName).setAppVers(mAppVersion).setCarrierName(getCarrierName()).build();
-        registerReply = me.registerClient(registerClientRequest, mDmeHostname, mDmePort,10000);
+        final String dmeHostname = mDmeHostname;
+        registerReply = mRegisterClientCoalescer.get(getAppDefinitionKey(), () -> mDmeMetrics.call("registerClient",
+                () -> me.registerClient(registerClientRequest, dmeHostname, mDmePort,10000)));
         Log.i(TAG, "registerClientRequest="+registerClientRequest);
         Log.i(TAG, "registerClientRequest: "
                 + " getAppName()=" + registerClientRequest.getAppName()
@@ -478,7 +593,7 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
     }
 
     public void registerClientInBackground() {
-        CompletableFuture.runAsync(() -> {
+        mBackgroundExecutor.executeLatest(OP_REGISTER_CLIENT, () -> {
             try {
                 registerClient();
             } catch (ExecutionException | InterruptedException | StatusRuntimeException
@@ -518,10 +633,11 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
         builder.setProfile(AppClient.QosSessionProfile.valueOf(qosProfile));
         builder.setSessionDuration(duration);
 
-        AppClient.QosPrioritySessionCreateRequest qosPrioritySessionCreateRequest;
+        final AppClient.QosPrioritySessionCreateRequest qosPrioritySessionCreateRequest;
         AppClient.QosPrioritySessionReply qosPrioritySessionReply;
         qosPrioritySessionCreateRequest = builder.build();
-        mQosPrioritySessionReply = me.qosPrioritySessionCreate(qosPrioritySessionCreateRequest, mDmeHostname, mDmePort,10000);
+        mQosPrioritySessionReply = mDmeMetrics.call("qosPrioritySessionCreate",
+                () -> me.qosPrioritySessionCreate(qosPrioritySessionCreateRequest, mDmeHostname, mDmePort,10000));
         Log.i(TAG, "mQosPrioritySessionReply="+ mQosPrioritySessionReply);
         Log.i(TAG, "mQosPrioritySessionReply.getSessionId()="+ mQosPrioritySessionReply.getSessionId()+" mQosPrioritySessionReply.getHttpStatus()="+ mQosPrioritySessionReply.getHttpStatus());
         if (mQosPrioritySessionReply.getSessionId() == null || mQosPrioritySessionReply.getSessionId().length() == 0) {
@@ -538,8 +654,11 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
         return true;
     }
 
-    public void qosPrioritySessionCreateInBackground(String qosProfile, int duration) {
-        CompletableFuture.runAsync(() -> {
+    /**
+     * @return  False if the request couldn't be queued. An error is also shown.
+     */
+    public boolean qosPrioritySessionCreateInBackground(String qosProfile, int duration) {
+        boolean accepted = mBackgroundExecutor.execute(() -> {
             try {
                 qosPrioritySessionCreate(qosProfile, duration);
             } catch (ExecutionException | InterruptedException
@@ -550,6 +669,10 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
                 meHelperInterface.showError(e.getLocalizedMessage());
             }
         });
+        if (!accepted) {
+            meHelperInterface.showError("Too many requests in progress. QOS priority session not created. Please try again.");
+        }
+        return accepted;
     }
 
     public boolean qosPrioritySessionDelete() throws ExecutionException, InterruptedException,
@@ -571,10 +694,11 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
         builder.setSessionId(mQosPrioritySessionReply.getSessionId());
         builder.setProfile(mQosPrioritySessionReply.getProfile());
 
-        AppClient.QosPrioritySessionDeleteRequest qosPrioritySessionDeleteRequest;
+        final AppClient.QosPrioritySessionDeleteRequest qosPrioritySessionDeleteRequest;
         AppClient.QosPrioritySessionDeleteReply qosPrioritySessionDeleteReply;
         qosPrioritySessionDeleteRequest = builder.build();
-        qosPrioritySessionDeleteReply = me.qosPrioritySessionDelete(qosPrioritySessionDeleteRequest, mDmeHostname, mDmePort,10000);
+        qosPrioritySessionDeleteReply = mDmeMetrics.call("qosPrioritySessionDelete",
+                () -> me.qosPrioritySessionDelete(qosPrioritySessionDeleteRequest, mDmeHostname, mDmePort,10000));
         Log.i(TAG, "qosPrioritySessionDeleteReply="+ qosPrioritySessionDeleteReply);
         Log.i(TAG, "qosPrioritySessionDeleteReply.getStatus()="+qosPrioritySessionDeleteReply.getStatus());
         String msg = "Deleted session "+mQosPrioritySessionReply.getSessionId();
@@ -587,8 +711,11 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
         return true;
     }
 
-    public void qosPrioritySessionDeleteInBackground() {
-        CompletableFuture.runAsync(() -> {
+    /**
+     * @return  False if the request couldn't be queued. An error is also shown.
+     */
+    public boolean qosPrioritySessionDeleteInBackground() {
+        boolean accepted = mBackgroundExecutor.execute(() -> {
             try {
                 qosPrioritySessionDelete();
             } catch (ExecutionException | InterruptedException
@@ -599,6 +726,10 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
                 meHelperInterface.showError(e.getLocalizedMessage());
             }
         });
+        if (!accepted) {
+            meHelperInterface.showError("Too many requests in progress. QOS priority session not deleted. Please try again.");
+        }
+        return accepted;
     }
 
     /**
@@ -629,9 +760,18 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
     }
 
     public void findCloudletInBackground() {
-        CompletableFuture.runAsync(() -> {
+        findCloudletInBackground(false);
+    }
+
+    /**
+     * @param useCache  Whether a cached reply for the same location cell may be used. Only
+     *                  background, location-driven lookups use the cache. A user asking for the
+     *                  closest cloudlet always gets a fresh reply from the DME.
+     */
+    private void findCloudletInBackground(boolean useCache) {
+        mBackgroundExecutor.executeLatest(OP_FIND_CLOUDLET, () -> {
             try {
-                findCloudlet();
+                findCloudlet(useCache);
                 mDeviceIpv4 = me.getLocalIpv4();
             } catch (ExecutionException | InterruptedException
                     | PackageManager.NameNotFoundException | IllegalArgumentException e) {
@@ -647,7 +787,7 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
         Log.i(TAG, "getAppInstListInBackground mAppName="+mAppName+" mAppVersion="+mAppVersion+" mOrgName="+mOrgName);
 
         meHelperInterface.showMessage("Get App Instances for AppName "+mAppName+" Version="+mAppVersion+" Org="+mOrgName+"...");
-        new Thread(() -> {
+        mBackgroundExecutor.executeLatest(OP_APP_INST_LIST, () -> {
             try {
                 getAppInstList();
             } catch (ExecutionException | InterruptedException e) {
@@ -656,11 +796,11 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
                 e.printStackTrace();
                 meHelperInterface.showError(e.getLocalizedMessage());
             }
-        }).start();
+        });
     }
 
     public void verifyLocationInBackground() {
-        new Thread(() -> {
+        mBackgroundExecutor.executeLatest(OP_VERIFY_LOCATION, () -> {
             try {
                 verifyLocation();
             } catch (ExecutionException | InterruptedException
@@ -671,11 +811,11 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
                 e.printStackTrace();
                 meHelperInterface.showError(e.getLocalizedMessage());
             }
-        }).start();
+        });
     }
 
     public void doQosRequestInBackground(ArrayList<AppClient.QosPosition> kpiPositions) {
-        new Thread(() -> {
+        mBackgroundExecutor.executeLatest(OP_QOS_POSITION, () -> {
             try {
                 if (!validateCookie(mSessionCookie)) {
                     return;
@@ -688,19 +828,40 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
                 e.printStackTrace();
                 meHelperInterface.showError(e.getLocalizedMessage());
             }
-        }).start();
+        });
     }
 
     public boolean findCloudlet() throws ExecutionException, InterruptedException,
             IllegalArgumentException, PackageManager.NameNotFoundException {
+        return findCloudlet(false);
+    }
+
+    /**
+     * @param useCache  Whether a cached reply for the same location cell may be used. A fresh
+     *                  reply is cached either way.
+     */
+    public boolean findCloudlet(boolean useCache) throws ExecutionException, InterruptedException,
+            IllegalArgumentException, PackageManager.NameNotFoundException {
         mAppDefinitionUpdated = false;
         if (!validateCookie(mSessionCookie)) {
             return false;
         }
-        AppClient.FindCloudletRequest findCloudletRequest;
-        findCloudletRequest = me.createDefaultFindCloudletRequest(mActivity, getLocationForMatching()).setCarrierName(getCarrierName()).build();
-        mClosestCloudlet = me.findCloudlet(findCloudletRequest,
-                mDmeHostname, mDmePort,10000, mFindCloudletMode);
+        Location location = getLocationForMatching();
+        final AppClient.FindCloudletRequest findCloudletRequest
+                = me.createDefaultFindCloudletRequest(mActivity, location).setCarrierName(getCarrierName()).build();
+        final String dmeHostname = mDmeHostname;
+        final MatchingEngine.FindCloudletMode findCloudletMode = mFindCloudletMode;
+        String requestKey = getAppDefinitionKey()+"|"+findCloudletMode;
+        String cell = getLocationCell(location);
+        AppClient.FindCloudletReply reply = cell == null || !useCache ? null : mFindCloudletCache.get(requestKey, cell);
+        if (reply == null) {
+            reply = mFindCloudletCoalescer.get(requestKey+"|"+cell, () -> mDmeMetrics.call("findCloudlet",
+                    () -> me.findCloudlet(findCloudletRequest, dmeHostname, mDmePort,10000, findCloudletMode)));
+            if (cell != null && reply.getStatus() == AppClient.FindCloudletReply.FindStatus.FIND_FOUND) {
+                mFindCloudletCache.put(requestKey, cell, reply);
+            }
+        }
+        mClosestCloudlet = reply;
 
         Log.i(TAG, "findCloudlet mClosestCloudlet="+mClosestCloudlet);
         if(mClosestCloudlet.getStatus() != AppClient.FindCloudletReply.FindStatus.FIND_FOUND) {
@@ -709,6 +870,9 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
             meHelperInterface.showError(findCloudletStatusText);
             return false;
         }
+        if (mLatencyRankingEnabled && mFindCloudletMode == MatchingEngine.FindCloudletMode.PROXIMITY) {
+            mClosestCloudlet = applyLatencyRanking(mClosestCloudlet);
+        }
         Log.i(TAG, "mClosestCloudlet.getFqdn()=" + mClosestCloudlet.getFqdn());
         Log.i(TAG, "Tags:"+mClosestCloudlet.getTagsMap());
         mQosSessionId = mClosestCloudlet.getTagsMap().get("priority_session_id");
@@ -747,14 +911,190 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
         return true;
     }
 
+    /**
+     * Runs findCloudlet for positions the device is expected to reach soon, e.g. further along
+     * a route. Each reply is cached for its location cell, so findCloudlet is answered without a
+     * DME round trip when the device gets there. If a reply is a different app instance than
+     * the current one, its hostname is resolved ahead of time.
+     *
+     * This does not change the current cloudlet. The positions are fetched in order by one
+     * task, and only the newest pending set is run.
+     *
+     * @param locations  Predicted positions, soonest first.
+     */
+    public void prefetchFindCloudletsInBackground(List<Location> locations) {
+        if (mSessionCookie == null || mClosestCloudlet == null) {
+            // Nothing to hand over from yet.
+            return;
+        }
+        final MatchingEngine.FindCloudletMode findCloudletMode = mFindCloudletMode;
+        final String requestKey = getAppDefinitionKey()+"|"+findCloudletMode;
+        final List<Location> uncached = new ArrayList<>();
+        for (Location location : locations) {
+            String cell = getLocationCell(location);
+            if (!mFindCloudletCache.contains(requestKey, cell)) {
+                uncached.add(location);
+            }
+        }
+        if (uncached.isEmpty()) {
+            return;
+        }
+        mBackgroundExecutor.executeLatest(OP_PREFETCH, () -> {
+            try {
+                if (!validateCookie(mSessionCookie)) {
+                    return;
+                }
+                for (Location location : uncached) {
+                    prefetchFindCloudlet(location, requestKey, findCloudletMode);
+                }
+            } catch (ExecutionException | InterruptedException | PackageManager.NameNotFoundException
+                    | StatusRuntimeException e) {
+                Log.w(TAG, "prefetchFindCloudlet failed: "+e);
+            }
+        });
+    }
+
+    private void prefetchFindCloudlet(Location location, String requestKey,
+                                      MatchingEngine.FindCloudletMode findCloudletMode)
+            throws ExecutionException, InterruptedException {
+        String cell = getLocationCell(location);
+        if (mFindCloudletCache.contains(requestKey, cell)) {
+            return;
+        }
+        final AppClient.FindCloudletRequest findCloudletRequest
+                = me.createDefaultFindCloudletRequest(mActivity, location).setCarrierName(getCarrierName()).build();
+        final String dmeHostname = mDmeHostname;
+        AppClient.FindCloudletReply reply = mFindCloudletCoalescer.get(requestKey+"|"+cell,
+                () -> mDmeMetrics.call("findCloudlet",
+                        () -> me.findCloudlet(findCloudletRequest, dmeHostname, mDmePort, 10000, findCloudletMode)));
+        if (reply.getStatus() != AppClient.FindCloudletReply.FindStatus.FIND_FOUND) {
+            Log.w(TAG, "prefetchFindCloudlet status="+reply.getStatus());
+            return;
+        }
+        mFindCloudletCache.put(requestKey, cell, reply);
+        Log.i(TAG, "prefetchFindCloudlet cell="+cell+" fqdn="+reply.getFqdn());
+        AppClient.FindCloudletReply current = mClosestCloudlet;
+        if (current == null || !reply.getFqdn().equals(current.getFqdn())) {
+            resolveAppInstHost(reply);
+        }
+    }
+
+    /**
+     * DNS pre-resolution: looks up the app instance's hostname, so the resolver's cache already
+     * has it when traffic is switched to the instance. No connection is made.
+     */
+    private void resolveAppInstHost(AppClient.FindCloudletReply reply) {
+        if (reply.getPortsCount() == 0) {
+            return;
+        }
+        String host = reply.getPorts(0).getFqdnPrefix() + reply.getFqdn();
+        synchronized (mResolvedAppInstHosts) {
+            if (!mResolvedAppInstHosts.add(host)) {
+                return;
+            }
+        }
+        long start = System.nanoTime();
+        try {
+            InetAddress.getByName(host);
+            long elapsedMs = (System.nanoTime() - start) / 1000000;
+            meHelperInterface.showMessage("Resolved next app inst "+host+" in "+elapsedMs+" ms");
+        } catch (UnknownHostException e) {
+            Log.w(TAG, "Failed to resolve "+host+": "+e);
+            synchronized (mResolvedAppInstHosts) {
+                mResolvedAppInstHosts.remove(host);
+            }
+        }
+    }
+
+    /**
+     * If latency probing found an app instance clearly faster than the one the DME chose, or
+     * the DME's choice was unreachable, returns a copy of the reply that points to the faster
+     * instance. Otherwise returns the reply unchanged.
+     *
+     * Only the instance's address is replaced. The edge events cookie and tags belong to the
+     * DME's session, so they are kept. A reply with a QOS priority session is never switched,
+     * because the session is for the DME's choice.
+     */
+    private AppClient.FindCloudletReply applyLatencyRanking(AppClient.FindCloudletReply reply) {
+        List<LatencyProber.Result> ranking = mLatencyProber.getRanking();
+        LatencyProber.Result current = mLatencyProber.getResult(reply.getFqdn());
+        if (ranking.isEmpty() || current == null) {
+            return reply;
+        }
+        if (reply.getTagsMap().containsKey("priority_session_id")) {
+            Log.i(TAG, "Keeping the DME's choice, which has a QOS priority session");
+            return reply;
+        }
+        LatencyProber.Result best = ranking.get(0);
+        if (best == current || best.successes == 0) {
+            return reply;
+        }
+        if (current.successes > 0 && best.getScore() > current.getScore() * (1 - LATENCY_SWITCH_MARGIN)) {
+            return reply;
+        }
+        String message = "Using "+best.cloudletLocation.getCloudletName()+" (p50="
+                +Math.round(best.p50Ms)+"ms) instead of "+current.cloudletLocation.getCloudletName()
+                +" (p50="+(current.successes > 0 ? Math.round(current.p50Ms)+"ms" : "unreachable")+")";
+        Log.i(TAG, message);
+        meHelperInterface.showMessage(message);
+        return reply.toBuilder()
+                .setFqdn(best.appInstance.getFqdn())
+                .clearPorts()
+                .addAllPorts(best.appInstance.getPortsList())
+                .setCloudletLocation(best.cloudletLocation.getGpsLocation())
+                .build();
+    }
+
+    private void updateLocationCadenceCloudlets() {
+        List<LocOuterClass.Loc> cloudletLocations = new ArrayList<>();
+        if (mAppInstanceReplyList != null) {
+            for (AppClient.CloudletLocation cloudletLocation : mAppInstanceReplyList.getCloudletsList()) {
+                cloudletLocations.add(cloudletLocation.getGpsLocation());
+            }
+        }
+        mLocationCadence.setCloudlets(mClosestCloudlet == null ? null : mClosestCloudlet.getCloudletLocation(),
+                cloudletLocations);
+    }
+
+    /**
+     * Monitors the current app instance, and the fastest other instances from the latency ranking.
+     */
+    private void updateLatencyMonitorTargets() {
+        LatencyMonitor.Target current = null;
+        if (mClosestCloudlet != null) {
+            HashMap<Integer, Appcommon.AppPort> ports = me.getAppConnectionManager().getTCPMap(mClosestCloudlet);
+            Appcommon.AppPort appPort = ports.get(mTestPort);
+            if (appPort != null) {
+                current = new LatencyMonitor.Target(mClosestCloudlet.getFqdn(),
+                        me.getAppConnectionManager().getHost(mClosestCloudlet, appPort),
+                        appPort.getPublicPort());
+            }
+        }
+        List<LatencyMonitor.Target> candidates = new ArrayList<>();
+        for (LatencyProber.Result result : mLatencyProber.getRanking()) {
+            if (candidates.size() == LATENCY_MONITOR_CANDIDATES) {
+                break;
+            }
+            if (result.successes == 0 || (mClosestCloudlet != null
+                    && result.appInstance.getFqdn().equals(mClosestCloudlet.getFqdn()))) {
+                continue;
+            }
+            candidates.add(new LatencyMonitor.Target(result.cloudletLocation.getCloudletName(),
+                    result.host, result.port));
+        }
+        mLatencyMonitor.setTargets(current, candidates);
+    }
+
     private void onFindCloudlet(AppClient.FindCloudletReply closestCloudlet) {
         if (closestCloudlet.equals(mClosestCloudlet)) {
             Log.i(TAG, "New onFindCloudlet with same closestCloudlet:" +closestCloudlet.getFqdn());
         }
         mClosestCloudlet = closestCloudlet;
+        updateLocationCadenceCloudlets();
+        updateLatencyMonitorTargets();
         meHelperInterface.onFindCloudlet(closestCloudlet);
         if (mRunConnectionTests) {
-            new Thread(() -> {
+            mBackgroundExecutor.executeLatest(OP_CONNECTION_TEST, () -> {
                 ConnectionTester tester = meHelperInterface.makeConnectionTester(mAppInstTls);
                 if (tester == null) {
                     // If the interface returns null, they don't want to do a connection test.
@@ -765,7 +1105,7 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
                 } else {
                     meHelperInterface.showError("Failed to connect to app inst on "+tester.mUrl);
                 }
-            }).start();
+            });
         }
 
         if (mEdgeEventsEnabled) {
@@ -788,11 +1128,23 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
             return false;
         }
 
-        AppClient.AppInstListRequest appInstListRequest
-                = me.createDefaultAppInstListRequest(mActivity, getLocationForMatching()).setCarrierName(getCarrierName()).setLimit(mAppInstancesLimit).build();
+        Location location = getLocationForMatching();
+        final AppClient.AppInstListRequest appInstListRequest
+                = me.createDefaultAppInstListRequest(mActivity, location).setCarrierName(getCarrierName()).setLimit(mAppInstancesLimit).build();
         if(appInstListRequest != null) {
-            AppClient.AppInstListReply cloudletList = me.getAppInstList(appInstListRequest,
-                    mDmeHostname, mDmePort, 10000);
+            final String dmeHostname = mDmeHostname;
+            String requestKey = getAppDefinitionKey()+"|"+mAppInstancesLimit;
+            String cell = getLocationCell(location);
+            AppClient.AppInstListReply cloudletList = cell == null ? null : mAppInstListCache.get(requestKey, cell);
+            boolean fromCache = cloudletList != null;
+            if (cloudletList == null) {
+                cloudletList = mAppInstListCoalescer.get(requestKey+"|"+cell,
+                        () -> mDmeMetrics.call("getAppInstList",
+                                () -> me.getAppInstList(appInstListRequest, dmeHostname, mDmePort, 10000)));
+                if (cell != null && cloudletList.getStatus() == AppClient.AppInstListReply.AIStatus.AI_SUCCESS) {
+                    mAppInstListCache.put(requestKey, cell, cloudletList);
+                }
+            }
             Log.i(TAG, "cloudletList.getStatus()="+cloudletList.getStatus());
             if (cloudletList.getStatus() != AppClient.AppInstListReply.AIStatus.AI_SUCCESS) {
                 String message = "getAppInstList failed. Status="+cloudletList.getStatus();
@@ -800,7 +1152,14 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
                 meHelperInterface.showError(message);
                 return false;
             }
+            mAppInstanceReplyList = cloudletList;
             meHelperInterface.onGetCloudletList(cloudletList);
+            // A cached list was already probed when it was fetched. The probe doesn't hold up
+            // this caller, and its ranking applies from the next findCloudlet.
+            if (mLatencyRankingEnabled && !fromCache) {
+                mLatencyProber.probeInBackground(cloudletList, mTestPort,
+                        ranking -> updateLatencyMonitorTargets());
+            }
             return true;
 
         } else {
@@ -811,18 +1170,59 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
         }
     }
 
+    /**
+     * @return  Key identifying the DME, carrier and app definition that requests are made with.
+     */
+    private String getAppDefinitionKey() {
+        return mDmeHostname+"|"+getCarrierName()+"|"+mOrgName+"|"+mAppName+"|"+mAppVersion;
+    }
+
+    /**
+     * Returns the geohash cell that contains the location. Requests for locations in the same
+     * cell can share results.
+     *
+     * @param location  The location, or null.
+     * @return  The cell identifier, or null if there is no location.
+     */
+    private String getLocationCell(Location location) {
+        if (location == null) {
+            return null;
+        }
+        return mFindCloudletCache.getCell(location.getLatitude(), location.getLongitude());
+    }
+
+    /**
+     * Drops cached findCloudlet and getAppInstList replies. Called when an edge event or a
+     * settings change means they may be out of date.
+     */
+    public void invalidateCloudletCaches() {
+        mFindCloudletCache.invalidate();
+        mAppInstListCache.invalidate();
+        mLatencyProber.clear();
+        synchronized (mResolvedAppInstHosts) {
+            mResolvedAppInstHosts.clear();
+        }
+    }
+
+    private void onAppDefinitionUpdated() {
+        mAppDefinitionUpdated = true;
+        invalidateCloudletCaches();
+        mEdgeEventsUplink.clear();
+    }
+
     private boolean verifyLocation() throws InterruptedException, IOException,
             ExecutionException, PackageManager.NameNotFoundException {
         if (!validateCookie(mSessionCookie)) {
             return false;
         }
         // Location Verification (Blocking, or use verifyLocationFuture):
-        AppClient.VerifyLocationRequest verifyRequest =
+        final AppClient.VerifyLocationRequest verifyRequest =
                 me.createDefaultVerifyLocationRequest(mActivity, getLocationForMatching())
                         .setCarrierName(getCarrierName()).build();
         if (verifyRequest != null) {
             AppClient.VerifyLocationReply verifiedLocation =
-                    me.verifyLocation(verifyRequest, mDmeHostname, mDmePort, 10000);
+                    mDmeMetrics.call("verifyLocation",
+                            () -> me.verifyLocation(verifyRequest, mDmeHostname, mDmePort, 10000));
             someText = "[Location Verified: Tower: " + verifiedLocation.getTowerStatus() +
                     ", GPS LocationStatus: " + verifiedLocation.getGpsLocationStatus() +
                     ", Location Accuracy: " + verifiedLocation.getGpsLocationAccuracyKm() + " ]\n";
@@ -843,18 +1243,22 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
 
     private void getQosPositionKpi(ArrayList<AppClient.QosPosition> positions) throws ExecutionException, InterruptedException {
         Log.i(TAG, "getQosPositionKpi me=" + me);
-        AppClient.QosPositionRequest request = me.createDefaultQosPositionRequest(positions, 0, null).build();
-        ChannelIterator<AppClient.QosPositionKpiReply> responseIterator = me.getQosPositionKpi(request,
-                mDmeHostname, mDmePort, 10000);
-        // A stream of QosPositionKpiReply(s), with a non-stream block of responses.
-        long total = 0;
-        while (responseIterator.hasNext()) {
-            AppClient.QosPositionKpiReply aR = responseIterator.next();
-            for (int i = 0; i < aR.getPositionResultsCount(); i++) {
-                Log.i(TAG, aR.getPositionResults(i).toString());
+        final AppClient.QosPositionRequest request = me.createDefaultQosPositionRequest(positions, 0, null).build();
+        // Timed until the whole stream has been read.
+        long total = mDmeMetrics.call("getQosPositionKpi", () -> {
+            ChannelIterator<AppClient.QosPositionKpiReply> responseIterator = me.getQosPositionKpi(request,
+                    mDmeHostname, mDmePort, 10000);
+            // A stream of QosPositionKpiReply(s), with a non-stream block of responses.
+            long count = 0;
+            while (responseIterator.hasNext()) {
+                AppClient.QosPositionKpiReply aR = responseIterator.next();
+                for (int i = 0; i < aR.getPositionResultsCount(); i++) {
+                    Log.i(TAG, aR.getPositionResults(i).toString());
+                }
+                count += aR.getPositionResultsCount();
             }
-            total += aR.getPositionResultsCount();
-        }
+            return count;
+        });
     }
 
     /**
@@ -908,6 +1312,18 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
         return me;
     }
 
+    /**
+     * Enables probing every app instance after getAppInstList, and switching findCloudlet in
+     * PROXIMITY mode to a clearly faster instance than the DME's choice.
+     */
+    public void setLatencyRankingEnabled(boolean enabled) {
+        Log.i(TAG, "setLatencyRankingEnabled("+enabled+")");
+        mLatencyRankingEnabled = enabled;
+        if (!enabled) {
+            mLatencyProber.clear();
+        }
+    }
+
     public void setTestPort(int testPort) {
         Log.i(TAG, "setTestPort() Old="+mTestPort+" New="+testPort);
         mTestPort = testPort;
@@ -936,7 +1352,31 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
         setSpoofedLocation(location);
     }
 
+    /**
+     * Stops background latency monitoring while the app isn't visible. Call from the activity's
+     * or fragment's onPause().
+     */
+    public void onPause() {
+        mPaused = true;
+        mLatencyMonitor.stop();
+    }
+
+    /**
+     * Restarts background latency monitoring if edge events are running. Call from the
+     * activity's or fragment's onResume().
+     */
+    public void onResume() {
+        mPaused = false;
+        if (mEdgeEventsEnabled && mEdgeEventsRunning) {
+            mLatencyMonitor.start();
+        }
+    }
+
     public void onDestroy() {
+        mBackgroundExecutor.shutdown();
+        mLatencyProber.shutdown();
+        mLatencyMonitor.shutdown();
+        mEdgeEventsUplink.shutdown();
         if (me != null) {
             me.close();
             me = null;
@@ -957,7 +1397,7 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
             boolean matchingEngineLocationAllowed = prefs.getBoolean(prefKeyAllowMatchingEngineLocation, false);
             Log.i(TAG, "onSharedPreferenceChanged("+key+")="+matchingEngineLocationAllowed);
             MatchingEngine.setMatchingEngineLocationAllowed(matchingEngineLocationAllowed);
-            mAppDefinitionUpdated = true;
+            onAppDefinitionUpdated();
         }
 
         if (key.equals(prefKeyAllowNetSwitch)) {
@@ -996,7 +1436,7 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
         if (key.equals(prefKeyDefaultDmeHostname)) {
             boolean useDefault = prefs.getBoolean(prefKeyDefaultDmeHostname, false);
             if (useDefault) {
-                new Thread(() -> {
+                mBackgroundExecutor.executeLatest(OP_DME_HOSTNAME, () -> {
                     try {
                         mDefaultDmeHostname = me.generateDmeHostAddress();
                         String prefKeyValueDefaultDmeHostname = mActivity.getResources().getString(R.string.pref_value_default_dme_hostname);
@@ -1007,7 +1447,7 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
                         me.setUseWifiOnly(true);
                     }
                     Log.i(TAG, "mDefaultCarrierName="+mDefaultCarrierName+" mDefaultDmeHostname="+mDefaultDmeHostname);
-                }).start();
+                });
 
             } else {
                 // Change the key name so the normal DME hostname handling code will be used below.
@@ -1069,7 +1509,11 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
                 mAppInstancesLimit = DEFAULT_APP_INSTANCES_LIMIT;
             }
             Log.i(TAG, "appInstancesLimit="+appInstancesLimit+" mAppInstancesLimit="+mAppInstancesLimit);
-            mAppDefinitionUpdated = true;
+            onAppDefinitionUpdated();
+        }
+
+        if (key.equals(prefKeyLatencyRanking)) {
+            setLatencyRankingEnabled(prefs.getBoolean(key, false));
         }
 
         if (key.equals(prefKeyDefaultAppInfo)) {
@@ -1084,23 +1528,23 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
                 mOrgName = prefs.getString(prefKeyOrgName, mActivity.getResources().getString(R.string.org_name));
                 Log.i(TAG, "onSharedPreferenceChanged("+key+")=false. Custom values: appName="+mAppName+" appVersion="+mAppVersion+" orgName="+mOrgName);
             }
-            mAppDefinitionUpdated = true;
+            onAppDefinitionUpdated();
         }
 
         if (key.equals(prefKeyAppName)) {
             mAppName = prefs.getString(key, mActivity.getResources().getString(R.string.dme_app_name));
             Log.i(TAG, "onSharedPreferenceChanged("+key+")="+mAppName);
-            mAppDefinitionUpdated = true;
+            onAppDefinitionUpdated();
         }
         if (key.equals(prefKeyAppVersion)) {
             mAppVersion = prefs.getString(key, mActivity.getResources().getString(R.string.app_version));
             Log.i(TAG, "onSharedPreferenceChanged("+key+")="+mAppVersion);
-            mAppDefinitionUpdated = true;
+            onAppDefinitionUpdated();
         }
         if (key.equals(prefKeyOrgName)) {
             mOrgName = prefs.getString(key, mActivity.getResources().getString(R.string.org_name));
             Log.i(TAG, "onSharedPreferenceChanged("+key+")="+mOrgName);
-            mAppDefinitionUpdated = true;
+            onAppDefinitionUpdated();
         }
 
         // Separated the Edge Event Settings into their own method.
@@ -1125,6 +1569,8 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
                 message = "Edge Events Enabled";
             } else {
                 message = "Edge Events Disabled";
+                mLatencyMonitor.stop();
+                mEdgeEventsUplink.clear();
             }
             Log.i(TAG, message);
             meHelperInterface.showMessage(message);
@@ -1199,6 +1645,7 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
         if (key.equals(prefKeyLatencyTestType)) {
             String value = prefs.getString(key, "CONNECT");
             mEdgeEventsConfig.latencyTestType = NetTest.TestType.valueOf(value);
+            mLatencyMonitor.setTestType(mEdgeEventsConfig.latencyTestType);
         }
         if (key.equals(prefKeyLatencyTestTriggerMode)) {
             String value = prefs.getString(key, "PROXIMITY");
@@ -1211,6 +1658,7 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
         if (key.equals(prefKeyLatencyThreshold)) {
             int value = Integer.parseInt(prefs.getString(key, "0"));
             mEdgeEventsConfig.latencyThresholdTrigger = value;
+            mLatencyMonitor.setThresholdMs(value);
         }
         if (key.equals(prefKeyPerfMarginSwitch)) {
             int value = prefs.getInt(key, 0);
@@ -1235,7 +1683,7 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
         mSessionCookie = null;
         mCarrierName = carrierName;
         mClosestCloudlet = null;
-        mAppDefinitionUpdated = true;
+        onAppDefinitionUpdated();
     }
 
     public void setDmeHostname(String hostname) {
@@ -1247,7 +1695,7 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
         if (VERIFY_LOCATION_ENABLED) {
             checkForLocSimulator(mDmeHostname);
         }
-        mAppDefinitionUpdated = true;
+        onAppDefinitionUpdated();
     }
 
     public static String parseDmeHost(String hostAndPort) throws HostParseException {
@@ -1305,16 +1753,26 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
 
     /**
      * If GPS spoof has been peformed, return that value, otherwise return the actual GPS location.
+     * Before the first GPS fix, a provisional last known or network location is returned.
      * @return  location to be used for matching.
      */
     public Location getLocationForMatching() {
-        if(mSpoofedLocation == null) {
+        if(mSpoofedLocation != null) {
+            return mSpoofedLocation;
+        } else if (mLastKnownLocation != null) {
             return mLastKnownLocation;
         } else {
-            return mSpoofedLocation;
+            return mProvisionalLocation;
         }
     }
 
+    /**
+     * @return  True if matching uses a provisional location, because there is no GPS fix yet.
+     */
+    public boolean isLocationProvisional() {
+        return mSpoofedLocation == null && mLastKnownLocation == null && mProvisionalLocation != null;
+    }
+
     /**
      * Post location into edgeEvents updater.
      *
@@ -1332,15 +1790,23 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
             return;
         }
 
-        // Don't use shared thread which may have tasks queued. Create our own to post immediately.
-        new Thread(() -> {
-            Log.i(TAG, "Posting location to DME");
-            DecimalFormat decFor = new DecimalFormat("#.#####");
-            meHelperInterface.showMessage("Posting location to DME: "
-                    + decFor.format(location.getLatitude()) + ", "
-                    + decFor.format(location.getLongitude()));
-            me.getEdgeEventsConnection().postLocationUpdate(location);
-        }).start();
+        // Batched with other edge events updates. If locations arrive faster than the batch
+        // interval, only the newest is posted.
+        mEdgeEventsUplink.postLocation(location);
+    }
+
+    /**
+     * @return  The queue of updates to the edge events connection, for its metrics.
+     */
+    public EdgeEventsUplink getEdgeEventsUplink() {
+        return mEdgeEventsUplink;
+    }
+
+    /**
+     * @return  Latency histograms and error counts of the DME calls.
+     */
+    public DmeMetrics getDmeMetrics() {
+        return mDmeMetrics;
     }
 
     public String getClosestCloudletHostname() {
@@ -1364,6 +1830,7 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
             if (error.toString().equals("eventTriggeredButCurrentCloudletIsBest")) {
                 return;
             }
+            mEdgeEventsUplink.onError();
             meHelperInterface.showError(error.toString());
         }
 
@@ -1398,6 +1865,9 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
             meHelperInterface.showMessage("Received: FindCloudletEvent");
 
             // In this demo case, use our existing interface to display the newly selected cloudlet on the map.
+            // Any cached findCloudlet result is now out of date.
+            invalidateCloudletCaches();
+            mLocationCadence.onFindCloudletEvent(System.currentTimeMillis());
             mClosestCloudlet = event.newCloudlet;
             onFindCloudlet(mClosestCloudlet);
         }
@@ -1413,6 +1883,7 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
             switch (event.getHealthCheck()) {
                 case HEALTH_CHECK_ROOTLB_OFFLINE:
                 case HEALTH_CHECK_SERVER_FAIL:
+                    invalidateCloudletCaches();
                     doEnhancedLocationUpdateInBackground();
                     break;
                 case HEALTH_CHECK_OK:
@@ -1439,6 +1910,7 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
                     break;
                 default:
                     Log.i(TAG, "Server maintenance: " + event.getMaintenanceState());
+                    invalidateCloudletCaches();
             }
         }
 
@@ -1464,6 +1936,7 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
                     Log.i(TAG, "Cloudlet is offline");
                 case CLOUDLET_STATE_READY:
                     // Timer Retry or just retry.
+                    invalidateCloudletCaches();
                     doEnhancedLocationUpdateInBackground();
                     break;
                 case CLOUDLET_STATE_NEED_SYNC:
@@ -1485,7 +1958,7 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
 
             meHelperInterface.showMessage("Received: " + event.getEventType());
 
-            AsyncTask.execute(new Runnable() {
+            mBackgroundExecutor.executeLatest(OP_LATENCY_TEST, new Runnable() {
                 @Override
                 public void run() {
                     // NetTest
@@ -1517,9 +1990,7 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
                     netTest.addSite(site);
                     netTest.testSites(netTest.TestTimeoutMS); // Test the one we just added.
 
-                    me.getEdgeEventsConnection().postLatencyUpdate(netTest.getSite(host),
-                            getLocationForMatching());
-                    meHelperInterface.showMessage("Latency results posted to DME: Avg="+site.average);
+                    mEdgeEventsUplink.postLatency(netTest.getSite(host), getLocationForMatching());
                 }
             });
         }
@@ -1534,24 +2005,75 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
         mActivity.runOnUiThread(new Runnable() {
             @Override
             public void run() {
-                try {
-                    int interval = 5000; // Initially, 5 second interval to get the first update quickly
-                    Log.i(TAG, "mFusedLocationClient.getLastLocation()="+mFusedLocationClient.getLastLocation()+" interval="+interval);
-
-                    mLocationRequest = new LocationRequest();
-                    mLocationRequest.setSmallestDisplacement(5);
-                    mLocationRequest.setInterval(interval);
-                    mLocationRequest.setFastestInterval(interval);
-                    mLocationRequest.setPriority(LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY);
+                // Initially, 5 second interval to get the first update quickly. After that,
+                // mLocationCadence adapts it to how the device is moving.
+                Log.i(TAG, "mFusedLocationClient.getLastLocation()="+mFusedLocationClient.getLastLocation());
+                requestLocationUpdates(LocationCadence.MIN_INTERVAL_MS, LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY);
+                requestProvisionalLocation();
+            }
+        });
+    }
 
-                    mFusedLocationClient.requestLocationUpdates(mLocationRequest, mLocationCallback, Looper.myLooper());
-                    Log.i(TAG, "mFusedLocationClient.requestLocationUpdates() called");
+    /**
+     * Gets a location to start matching with while waiting for the first GPS fix: the last
+     * known location if there is one, otherwise a network location, which is usually much
+     * faster than GPS. Must be called on the UI thread.
+     */
+    private void requestProvisionalLocation() {
+        if (mLastKnownLocation != null || mProvisionalLocation != null) {
+            return;
+        }
+        try {
+            mFusedLocationClient.getLastLocation().addOnSuccessListener(mActivity, location -> {
+                if (location != null) {
+                    onProvisionalLocation(location);
+                    return;
+                }
+                try {
+                    mFusedLocationClient.getCurrentLocation(LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY, null)
+                            .addOnSuccessListener(mActivity, this::onProvisionalLocation);
                 } catch (SecurityException se) {
-                    se.printStackTrace();
                     Log.i(TAG, "App should Request location permissions during onResume().");
                 }
-            }
-        });
+            });
+        } catch (SecurityException se) {
+            se.printStackTrace();
+            Log.i(TAG, "App should Request location permissions during onResume().");
+        }
+    }
+
+    /**
+     * Starts cloudlet discovery from the provisional location, unless GPS got there first.
+     */
+    private void onProvisionalLocation(Location location) {
+        if (location == null || mLastKnownLocation != null || mGpsInitialized) {
+            return;
+        }
+        Log.i(TAG, "Provisional location: " + location.getLatitude() + " " + location.getLongitude()
+                + " provider=" + location.getProvider() + " accuracy=" + location.getAccuracy());
+        mProvisionalLocation = location;
+        meHelperInterface.showMessage("Using approximate location until GPS is available.");
+        meHelperInterface.getCloudlets(true, true);
+        findCloudletInBackground(true);
+    }
+
+    /**
+     * Requests location updates, replacing any previous request. Must be called on the UI thread.
+     */
+    private void requestLocationUpdates(long interval, int priority) {
+        try {
+            mLocationRequest = new LocationRequest();
+            mLocationRequest.setSmallestDisplacement(5);
+            mLocationRequest.setInterval(interval);
+            mLocationRequest.setFastestInterval(interval);
+            mLocationRequest.setPriority(priority);
+
+            mFusedLocationClient.requestLocationUpdates(mLocationRequest, mLocationCallback, Looper.myLooper());
+            Log.i(TAG, "mFusedLocationClient.requestLocationUpdates() called. interval="+interval+" priority="+priority);
+        } catch (SecurityException se) {
+            se.printStackTrace();
+            Log.i(TAG, "App should Request location permissions during onResume().");
+        }
     }
 
     public void stopLocationUpdates() {
@@ -1577,15 +2099,22 @@ public class MatchingEngineHelper implements SharedPreferences.OnSharedPreferenc
                 }
 
                 if(!mGpsInitialized) {
-                    meHelperInterface.getCloudlets(true, false);
+                    // This runs on the main looper, so don't wait for the DME here.
+                    meHelperInterface.getCloudlets(true, true);
                     mGpsInitialized = true;
+                    if (mProvisionalLocation != null) {
+                        // Refine the provisional result. If the fix is in the same location cell,
+                        // the cached reply is reused without another DME round trip.
+                        mProvisionalLocation = null;
+                        if (mSpoofedLocation == null) {
+                            findCloudletInBackground(true);
+                        }
+                    }
                 }
 
-                if(mLocationRequest.getInterval() < 60000) {
-                    // Now that we got our first update, make interval longer to save battery.
-                    Log.i(TAG, "Slowing down location request interval");
-                    mLocationRequest.setInterval(60000); // one minute interval
-                    mLocationRequest.setFastestInterval(60000);
+                if (mLocationCadence.onLocation(location, System.currentTimeMillis())) {
+                    Log.i(TAG, "Changing location request cadence: "+mLocationCadence);
+                    requestLocationUpdates(mLocationCadence.getIntervalMs(), mLocationCadence.getPriority());
                 }
             }
         }
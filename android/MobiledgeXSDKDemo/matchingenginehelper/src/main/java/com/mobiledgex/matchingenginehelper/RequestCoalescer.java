@@ -0,0 +1,126 @@
+/**
+ * Copyright 2018-2022 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.matchingenginehelper;
+
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Merges identical blocking requests, so that callers asking for the same thing at the same
+ * time share a single round trip.
+ *
+ * <ul>
+ *     <li>If a request with the same key is already in flight, the caller waits for its result.</li>
+ *     <li>A request that follows another one with the same key within the debounce period
+ *     waits for the debounce period before being sent, so that the rest of a burst joins it.
+ *     An isolated request is sent immediately.</li>
+ * </ul>
+ *
+ * Results are not cached. Callers that want to reuse a result cache it themselves, e.g. in a
+ * {@link CloudletReplyCache}.
+ *
+ * @param <V>  The result type.
+ */
+public class RequestCoalescer<V> {
+    private static final String TAG = "RequestCoalescer";
+
+    private final String mName;
+    private final long mDebounceMs;
+    private final Map<String, CompletableFuture<V>> mInFlight = new HashMap<>();
+    private String mLastKey;
+    private long mLastRequestTime;
+
+    /**
+     * @param name  Name used in log messages.
+     * @param debounceMs  Time to wait before sending a request that is part of a burst.
+     */
+    public RequestCoalescer(String name, long debounceMs) {
+        mName = name;
+        mDebounceMs = debounceMs;
+    }
+
+    /**
+     * Gets the result for the key, either from a request already in flight, or by sending the
+     * given request. Blocks until the result is available.
+     *
+     * @param key  Identifies requests with identical results.
+     * @param request  Sends the request. Only called if no shared result is available.
+     * @return  The result.
+     * @throws ExecutionException  If the request threw an ExecutionException, which is rethrown
+     * as is, or any other checked exception, which is wrapped.
+     * @throws InterruptedException  If interrupted while waiting, or while sending the request.
+     * A caller that joined a request interrupted in another thread gets an ExecutionException.
+     */
+    public V get(String key, Callable<V> request) throws ExecutionException, InterruptedException {
+        CompletableFuture<V> future;
+        boolean leader = false;
+        boolean burst;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            burst = key.equals(mLastKey) && now - mLastRequestTime < mDebounceMs;
+            mLastKey = key;
+            mLastRequestTime = now;
+            future = mInFlight.get(key);
+            if (future == null) {
+                future = new CompletableFuture<>();
+                mInFlight.put(key, future);
+                leader = true;
+            } else {
+                Log.i(TAG, mName + " joining request in flight. key=" + key);
+            }
+        }
+
+        if (leader) {
+            try {
+                if (burst) {
+                    Thread.sleep(mDebounceMs);
+                }
+                future.complete(request.call());
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            } finally {
+                synchronized (this) {
+                    mInFlight.remove(key);
+                }
+            }
+        }
+
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            // Unwrap the exceptions callers already handle without coalescing. Other checked
+            // exceptions stay wrapped.
+            Throwable cause = e.getCause();
+            if (cause instanceof ExecutionException) {
+                throw (ExecutionException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (leader && cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            }
+            throw e;
+        }
+    }
+}
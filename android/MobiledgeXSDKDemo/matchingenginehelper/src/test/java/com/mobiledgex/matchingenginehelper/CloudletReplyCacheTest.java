@@ -0,0 +1,68 @@
+/**
+ * Copyright 2018-2021 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.matchingenginehelper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CloudletReplyCacheTest {
+    @Test
+    public void returnsReplyForSameRequestAndCell() {
+        CloudletReplyCache<String> cache = new CloudletReplyCache<>("test", 60000, 7);
+        String cell = cache.getCell(37.7749, -122.4194);
+        cache.put("app", cell, "reply");
+        assertEquals("reply", cache.get("app", cell));
+        assertTrue(cache.contains("app", cell));
+        assertNull(cache.get("otherApp", cell));
+        assertNull(cache.get("app", cache.getCell(37.7839, -122.4194)));
+    }
+
+    @Test
+    public void expiresAfterTtl() throws InterruptedException {
+        CloudletReplyCache<String> cache = new CloudletReplyCache<>("test", 50, 7);
+        cache.put("app", "cell", "reply");
+        Thread.sleep(100);
+        assertFalse(cache.contains("app", "cell"));
+        assertNull(cache.get("app", "cell"));
+    }
+
+    @Test
+    public void invalidateDropsEverything() {
+        CloudletReplyCache<String> cache = new CloudletReplyCache<>("test", 60000, 7);
+        cache.put("app", "cell1", "reply1");
+        cache.put("app", "cell2", "reply2");
+        cache.invalidate();
+        assertNull(cache.get("app", "cell1"));
+        assertNull(cache.get("app", "cell2"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        CloudletReplyCache<String> cache = new CloudletReplyCache<>("test", 60000, 7);
+        for (int i = 0; i < 32; i++) {
+            cache.put("app", "cell" + i, "reply" + i);
+        }
+        // Touch the oldest entry, so the second oldest is evicted instead.
+        assertEquals("reply0", cache.get("app", "cell0"));
+        cache.put("app", "cell32", "reply32");
+        assertEquals("reply0", cache.get("app", "cell0"));
+        assertNull(cache.get("app", "cell1"));
+        assertEquals("reply32", cache.get("app", "cell32"));
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright 2018-2022 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.matchingenginehelper;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+
+import static org.junit.Assert.*;
+
+public class DmeMetricsTest {
+    @Test
+    public void assignsCallsToBuckets() throws JSONException {
+        DmeMetrics metrics = new DmeMetrics();
+        metrics.record("findCloudlet", 5, null);
+        metrics.record("findCloudlet", 10, null);
+        metrics.record("findCloudlet", 10.5, null);
+        metrics.record("findCloudlet", 300, null);
+        metrics.record("findCloudlet", 20000, null);
+
+        JSONObject buckets = metrics.toJson().getJSONObject("findCloudlet").getJSONObject("buckets");
+        assertEquals(DmeMetrics.BUCKET_BOUNDS_MS.length + 1, buckets.length());
+        // Bounds are inclusive.
+        assertEquals(2, buckets.getLong("10"));
+        assertEquals(1, buckets.getLong("25"));
+        assertEquals(1, buckets.getLong("500"));
+        assertEquals(1, buckets.getLong("+Inf"));
+        assertEquals(0, buckets.getLong("250"));
+    }
+
+    @Test
+    public void countsErrorsPerStatus() throws JSONException {
+        DmeMetrics metrics = new DmeMetrics();
+        metrics.record("getAppInstList", 50, "UNAVAILABLE");
+        metrics.record("getAppInstList", 50, "UNAVAILABLE");
+        metrics.record("getAppInstList", 50, "DEADLINE_EXCEEDED");
+        metrics.record("getAppInstList", 50, null);
+
+        JSONObject rpc = metrics.toJson().getJSONObject("getAppInstList");
+        assertEquals(4, rpc.getLong("count"));
+        JSONObject errors = rpc.getJSONObject("errors");
+        assertEquals(2, errors.length());
+        assertEquals(2, errors.getLong("UNAVAILABLE"));
+        assertEquals(1, errors.getLong("DEADLINE_EXCEEDED"));
+    }
+
+    @Test
+    public void callRecordsFailureWithoutRetrying() throws InterruptedException, JSONException {
+        DmeMetrics metrics = new DmeMetrics();
+        final AtomicInteger attempts = new AtomicInteger();
+        try {
+            metrics.call("findCloudlet", new Callable<Object>() {
+                @Override
+                public Object call() {
+                    attempts.incrementAndGet();
+                    throw new StatusRuntimeException(Status.UNAVAILABLE);
+                }
+            });
+            fail("Expected StatusRuntimeException");
+        } catch (StatusRuntimeException e) {
+            assertEquals(Status.Code.UNAVAILABLE, e.getStatus().getCode());
+        } catch (ExecutionException e) {
+            fail("Unexpected " + e);
+        }
+
+        assertEquals(1, attempts.get());
+        JSONObject rpc = metrics.toJson().getJSONObject("findCloudlet");
+        assertEquals(1, rpc.getLong("count"));
+        assertEquals(1, rpc.getJSONObject("errors").getLong("UNAVAILABLE"));
+        assertEquals(0, rpc.getLong("retries"));
+    }
+
+    @Test
+    public void callWrapsCheckedExceptions() throws InterruptedException, JSONException {
+        DmeMetrics metrics = new DmeMetrics();
+        try {
+            metrics.call("verifyLocation", new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    throw new IOException("No route");
+                }
+            });
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+        assertEquals(1, metrics.toJson().getJSONObject("verifyLocation").getJSONObject("errors").getLong("IOException"));
+    }
+
+    @Test
+    public void jsonSnapshot() throws JSONException {
+        DmeMetrics metrics = new DmeMetrics();
+        metrics.record("registerClient", 40, null);
+        metrics.record("registerClient", 60, null);
+        metrics.record("registerClient", 200, "UNAVAILABLE");
+        metrics.recordRetry("registerClient");
+
+        JSONObject json = metrics.toJson();
+        assertEquals(1, json.length());
+        JSONObject rpc = json.getJSONObject("registerClient");
+        assertEquals(3, rpc.getLong("count"));
+        assertEquals(300, rpc.getDouble("sumMs"), 1e-9);
+        assertEquals(100, rpc.getLong("p50Ms"));
+        assertEquals(250, rpc.getLong("p95Ms"));
+        assertEquals(1, rpc.getLong("retries"));
+
+        metrics.record("registerClient", 60000, null);
+        metrics.record("registerClient", 60000, null);
+        metrics.record("registerClient", 60000, null);
+        assertEquals(-1, metrics.toJson().getJSONObject("registerClient").getLong("p95Ms"));
+
+        metrics.clear();
+        assertEquals(0, metrics.toJson().length());
+    }
+
+    @Test
+    public void openMetricsSnapshot() {
+        DmeMetrics metrics = new DmeMetrics();
+        metrics.record("findCloudlet", 5, null);
+        metrics.record("findCloudlet", 30, "UNAVAILABLE");
+        metrics.recordRetry("findCloudlet");
+
+        String text = metrics.toOpenMetrics();
+        assertTrue(text.startsWith("# TYPE dme_rpc_latency_ms histogram\n# UNIT dme_rpc_latency_ms ms\n"));
+        // Buckets are cumulative.
+        assertTrue(text.contains("dme_rpc_latency_ms_bucket{rpc=\"findCloudlet\",le=\"10\"} 1\n"));
+        assertTrue(text.contains("dme_rpc_latency_ms_bucket{rpc=\"findCloudlet\",le=\"25\"} 1\n"));
+        assertTrue(text.contains("dme_rpc_latency_ms_bucket{rpc=\"findCloudlet\",le=\"50\"} 2\n"));
+        assertTrue(text.contains("dme_rpc_latency_ms_bucket{rpc=\"findCloudlet\",le=\"+Inf\"} 2\n"));
+        assertTrue(text.contains("dme_rpc_latency_ms_sum{rpc=\"findCloudlet\"} 35.000\n"));
+        assertTrue(text.contains("dme_rpc_latency_ms_count{rpc=\"findCloudlet\"} 2\n"));
+        assertTrue(text.contains("dme_rpc_errors_total{rpc=\"findCloudlet\",status=\"UNAVAILABLE\"} 1\n"));
+        assertTrue(text.contains("dme_rpc_retries_total{rpc=\"findCloudlet\"} 1\n"));
+        assertTrue(text.endsWith("# EOF\n"));
+    }
+}
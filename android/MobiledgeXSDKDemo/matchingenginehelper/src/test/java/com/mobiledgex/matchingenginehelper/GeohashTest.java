@@ -0,0 +1,45 @@
+/**
+ * Copyright 2018-2021 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.matchingenginehelper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class GeohashTest {
+    @Test
+    public void encodesKnownLocations() {
+        assertEquals("ezs42", Geohash.encode(42.605, -5.603, 5));
+        assertEquals("u4pruydqqvj", Geohash.encode(57.64911, 10.40744, 11));
+    }
+
+    @Test
+    public void nearbyLocationsShareCell() {
+        // About 10 m apart, well inside one ~150 m cell.
+        assertEquals(Geohash.encode(37.77490, -122.41940, 7), Geohash.encode(37.77499, -122.41945, 7));
+        // About 1 km apart.
+        assertNotEquals(Geohash.encode(37.7749, -122.4194, 7), Geohash.encode(37.7839, -122.4194, 7));
+    }
+
+    @Test
+    public void precisionIsPrefix() {
+        String hash = Geohash.encode(-33.8688, 151.2093, 9);
+        assertEquals(9, hash.length());
+        assertEquals(hash.substring(0, 6), Geohash.encode(-33.8688, 151.2093, 6));
+    }
+}
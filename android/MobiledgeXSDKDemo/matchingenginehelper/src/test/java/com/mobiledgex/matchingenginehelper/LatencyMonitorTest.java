@@ -0,0 +1,132 @@
+/**
+ * Copyright 2018-2021 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.matchingenginehelper;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class LatencyMonitorTest {
+    private static final double THRESHOLD_MS = 100;
+    private final LatencyMonitor.Target mCurrent = new LatencyMonitor.Target("current", "current.example.com", 7777);
+    private LatencyMonitor mMonitor;
+
+    @Before
+    public void setUp() {
+        mMonitor = new LatencyMonitor(null, null, 30000, 600000, 3);
+        mMonitor.setTargets(mCurrent, Collections.<LatencyMonitor.Target>emptyList());
+        mMonitor.setThresholdMs(THRESHOLD_MS);
+    }
+
+    @After
+    public void tearDown() {
+        mMonitor.shutdown();
+    }
+
+    private void setLatency(double rttMs) {
+        LatencyWindow window = mMonitor.getWindow(mCurrent);
+        window.clear();
+        for (int i = 0; i < LatencyMonitor.MIN_SAMPLES_TO_REPORT; i++) {
+            window.add(0, rttMs);
+        }
+    }
+
+    @Test
+    public void needsMinimumSamples() {
+        LatencyWindow window = mMonitor.getWindow(mCurrent);
+        for (int i = 0; i < LatencyMonitor.MIN_SAMPLES_TO_REPORT - 1; i++) {
+            window.add(0, 200);
+        }
+        assertFalse(mMonitor.shouldReport(mCurrent, true, 0));
+        window.add(0, 200);
+        assertTrue(mMonitor.shouldReport(mCurrent, true, 0));
+    }
+
+    @Test
+    public void noReportAtOrBelowThreshold() {
+        setLatency(THRESHOLD_MS);
+        assertFalse(mMonitor.shouldReport(mCurrent, true, 0));
+    }
+
+    @Test
+    public void zeroThresholdNeverReports() {
+        mMonitor.setThresholdMs(0);
+        setLatency(1000);
+        assertFalse(mMonitor.shouldReport(mCurrent, true, 0));
+    }
+
+    @Test
+    public void replacedTargetDoesNotReport() {
+        setLatency(200);
+        // Replaced while its round was running. The window is kept, as the key is the same.
+        mMonitor.setTargets(new LatencyMonitor.Target("current", "current.example.com", 7777),
+                Collections.<LatencyMonitor.Target>emptyList());
+        assertFalse(mMonitor.shouldReport(mCurrent, true, 0));
+    }
+
+    @Test
+    public void repeatsOncePerReportInterval() {
+        setLatency(200);
+        assertTrue(mMonitor.shouldReport(mCurrent, true, 1000));
+        assertFalse(mMonitor.shouldReport(mCurrent, true, 2000));
+        assertFalse(mMonitor.shouldReport(mCurrent, true, 1000 + LatencyMonitor.REPORT_INTERVAL_MS - 1));
+        assertTrue(mMonitor.shouldReport(mCurrent, true, 1000 + LatencyMonitor.REPORT_INTERVAL_MS));
+    }
+
+    @Test
+    public void rearmsOnlyBelowFractionOfThreshold() {
+        setLatency(200);
+        assertTrue(mMonitor.shouldReport(mCurrent, true, 0));
+
+        // Back under the threshold, but not far enough to re-arm.
+        setLatency(THRESHOLD_MS * LatencyMonitor.REARM_FRACTION + 1);
+        assertFalse(mMonitor.shouldReport(mCurrent, true, 1000));
+        setLatency(200);
+        assertFalse(mMonitor.shouldReport(mCurrent, true, 2000));
+
+        setLatency(THRESHOLD_MS * LatencyMonitor.REARM_FRACTION - 1);
+        assertFalse(mMonitor.shouldReport(mCurrent, true, 3000));
+        // A new crossing counts right away.
+        setLatency(200);
+        assertTrue(mMonitor.shouldReport(mCurrent, true, 4000));
+    }
+
+    @Test
+    public void failedTestDefersReport() {
+        setLatency(200);
+        assertFalse(mMonitor.shouldReport(mCurrent, false, 0));
+        assertTrue(mMonitor.shouldReport(mCurrent, true, 1000));
+    }
+
+    @Test
+    public void newCurrentInstanceResetsState() {
+        setLatency(200);
+        assertTrue(mMonitor.shouldReport(mCurrent, true, 0));
+        LatencyMonitor.Target next = new LatencyMonitor.Target("next", "next.example.com", 7777);
+        mMonitor.setTargets(next, Collections.<LatencyMonitor.Target>emptyList());
+        LatencyWindow window = mMonitor.getWindow(next);
+        for (int i = 0; i < LatencyMonitor.MIN_SAMPLES_TO_REPORT; i++) {
+            window.add(0, 200);
+        }
+        assertTrue(mMonitor.shouldReport(next, true, 1000));
+    }
+}
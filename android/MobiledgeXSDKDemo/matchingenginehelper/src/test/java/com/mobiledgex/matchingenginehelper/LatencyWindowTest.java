@@ -0,0 +1,90 @@
+/**
+ * Copyright 2018-2021 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.matchingenginehelper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyWindowTest {
+    @Test
+    public void emptyWindow() {
+        LatencyWindow window = new LatencyWindow(60000, 10);
+        assertEquals(0, window.getCount());
+        assertEquals(0, window.getMean(), 0);
+        assertEquals(0, window.getPercentile(50), 0);
+    }
+
+    @Test
+    public void pruneDropsSamplesOlderThanWindow() {
+        LatencyWindow window = new LatencyWindow(1000, 10);
+        window.add(0, 10);
+        window.add(500, 20);
+        window.add(1000, 30);
+        assertEquals(3, window.getCount());
+        // Exactly the window age is kept.
+        window.prune(1500);
+        assertEquals(2, window.getCount());
+        assertEquals(25, window.getMean(), 1e-9);
+        window.prune(5000);
+        assertEquals(0, window.getCount());
+    }
+
+    @Test
+    public void addPrunesAtSampleTime() {
+        LatencyWindow window = new LatencyWindow(1000, 10);
+        window.add(0, 10);
+        window.add(2000, 20);
+        assertEquals(1, window.getCount());
+        assertEquals(20, window.getMean(), 0);
+    }
+
+    @Test
+    public void maxSamplesDropsOldest() {
+        LatencyWindow window = new LatencyWindow(60000, 3);
+        for (int i = 1; i <= 5; i++) {
+            window.add(i, i * 10);
+        }
+        assertEquals(3, window.getCount());
+        assertEquals(30, window.getPercentile(0), 0);
+        assertEquals(40, window.getMean(), 1e-9);
+    }
+
+    @Test
+    public void nearestRankPercentile() {
+        LatencyWindow window = new LatencyWindow(60000, 100);
+        // Added out of order, to check that they are sorted.
+        for (int value : new int[] {7, 3, 10, 1, 5, 9, 2, 8, 4, 6}) {
+            window.add(0, value);
+        }
+        assertEquals(1, window.getPercentile(0), 0);
+        assertEquals(1, window.getPercentile(10), 0);
+        assertEquals(2, window.getPercentile(11), 0);
+        assertEquals(5, window.getPercentile(50), 0);
+        assertEquals(10, window.getPercentile(95), 0);
+        assertEquals(10, window.getPercentile(100), 0);
+    }
+
+    @Test
+    public void clearDropsEverything() {
+        LatencyWindow window = new LatencyWindow(60000, 10);
+        window.add(0, 10);
+        window.clear();
+        assertEquals(0, window.getCount());
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright 2018-2021 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.matchingenginehelper;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class RequestCoalescerTest {
+    @Test
+    public void concurrentRequestsShareOneCall() throws Exception {
+        final RequestCoalescer<Integer> coalescer = new RequestCoalescer<>("test", 0);
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<Integer> request = new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                started.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                return calls.incrementAndGet();
+            }
+        };
+        final List<Integer> results = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Integer result = coalescer.get("key", request);
+                        synchronized (results) {
+                            results.add(result);
+                        }
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+            if (i == 0) {
+                assertTrue(started.await(5, TimeUnit.SECONDS));
+            }
+        }
+        // Give the other callers time to join the request in flight.
+        Thread.sleep(200);
+        release.countDown();
+        for (Thread thread : threads) {
+            thread.join(5000);
+        }
+        assertEquals(1, calls.get());
+        assertEquals(4, results.size());
+        for (Integer result : results) {
+            assertEquals(1, (int) result);
+        }
+    }
+
+    @Test
+    public void isolatedRequestIsNotDelayed() throws Exception {
+        RequestCoalescer<String> coalescer = new RequestCoalescer<>("test", 2000);
+        long start = System.nanoTime();
+        assertEquals("a", coalescer.get("a", () -> "a"));
+        // A different key isn't part of the same burst either.
+        assertEquals("b", coalescer.get("b", () -> "b"));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+    }
+
+    @Test
+    public void burstIsDebounced() throws Exception {
+        RequestCoalescer<String> coalescer = new RequestCoalescer<>("test", 300);
+        coalescer.get("key", () -> "first");
+        long start = System.nanoTime();
+        coalescer.get("key", () -> "second");
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 300);
+    }
+
+    @Test
+    public void sequentialRequestsAreNotShared() throws Exception {
+        RequestCoalescer<String> coalescer = new RequestCoalescer<>("test", 0);
+        assertEquals("first", coalescer.get("key", () -> "first"));
+        assertEquals("second", coalescer.get("key", () -> "second"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void runtimeExceptionIsRethrown() throws Exception {
+        new RequestCoalescer<String>("test", 0).get("key", () -> {
+            throw new IllegalStateException();
+        });
+    }
+
+    @Test
+    public void executionExceptionIsRethrownAsIs() throws Exception {
+        final ExecutionException thrown = new ExecutionException(new IOException());
+        try {
+            new RequestCoalescer<String>("test", 0).get("key", () -> {
+                throw thrown;
+            });
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(thrown, e);
+        }
+    }
+
+    @Test
+    public void otherCheckedExceptionIsWrapped() throws Exception {
+        try {
+            new RequestCoalescer<String>("test", 0).get("key", () -> {
+                throw new IOException();
+            });
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+}
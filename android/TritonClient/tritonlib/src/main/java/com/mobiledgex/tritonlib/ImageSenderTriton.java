@@ -142,6 +142,7 @@ public class ImageSenderTriton extends ImageSender {
             });
         }
 
+        long encodeStartTime = System.nanoTime();
         ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
         bitmap.compress(Bitmap.CompressFormat.JPEG, 67, byteStream);
         //TODO: Add preferences for quality and to allow lossless Bitmap.CompressFormat.PNG
@@ -150,6 +151,7 @@ public class ImageSenderTriton extends ImageSender {
         Log.d(TAG, mCloudLetType+" bytes.length="+bytes.length);
 
         mStartTime = System.nanoTime();
+        mEncodeTime = mStartTime - encodeStartTime;
 
         // Depending on the connection mode, choose the appropriate way to send the image
         // data to the server.
@@ -189,6 +191,7 @@ public class ImageSenderTriton extends ImageSender {
                             mBusy = false;
                             mLatency = endTime - mStartTime;
                             handleResponse(response, mLatency);
+                            reportFrameTiming(mLatency, System.nanoTime() - endTime);
                         }
                     }, new Response.ErrorListener() {
                 @Override
@@ -196,6 +199,7 @@ public class ImageSenderTriton extends ImageSender {
                     mBusy = false;
                     String message = "sendImage received error=" + error;
                     Log.e(TAG, message);
+                    reportFrameError(error.toString());
                     mImageServerInterface.reportConnectionError(error.toString(), ImageSenderTriton.this);
                 }
             }) {
@@ -65,27 +65,13 @@ public class InceptionProcessorFragment extends GpuImageProcessorFragment implem
         return new InceptionProcessorFragment();
     }
 
-    public void restartImageSenderEdge() {
-        if (!mAttached) {
-            Log.w(TAG, "Fragment is detached. Aborting restartImageSenderEdge()");
-            return;
-        }
-        String message;
-        if (mImageSenderEdge == null) {
-            message = "Starting " + mCameraToolbar.getTitle() + " on EDGE host " + mHostDetectionEdge;
-            mEventLogViewer.collapseAfter(3000);
-        } else {
-            message = "Restarting " + mCameraToolbar.getTitle() + " on EDGE host " + mHostDetectionEdge;
-            mImageSenderEdge.closeConnection();
-        }
-        Log.i(TAG, message);
-        showMessage(message);
-
+    @Override
+    protected ImageSender buildImageSenderEdge() {
         boolean tls = mTlsEdge;
         if (mEdgeHostNameOverride) {
             tls = mEdgeHostNameTls;
         }
-        mImageSenderEdge = new ImageSenderTriton.Builder()
+        return new ImageSenderTriton.Builder()
                 .setActivity(getActivity())
                 .setImageServerInterface(this)
                 .setCloudLetType(CloudletType.EDGE)
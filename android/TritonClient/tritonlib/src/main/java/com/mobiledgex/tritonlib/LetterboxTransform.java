@@ -0,0 +1,143 @@
+/**
+ * Copyright 2018-2021 MobiledgeX, Inc. All rights and licenses reserved.
+ * MobiledgeX, Inc. 156 2nd Street #408, San Francisco, CA 94105
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mobiledgex.tritonlib;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Letterboxes camera frames to the square input geometry of a model before they are
+ * encoded and uploaded, so the server doesn't have to resize them. Also maps bounding
+ * boxes returned in model coordinates back to the coordinates of the original frame.
+ *
+ * The scale and padding are only recomputed when the frame size changes. The output
+ * bitmap is reused between frames, so the result of {@link #apply(Bitmap)} must be
+ * consumed before the next call.
+ */
+public class LetterboxTransform {
+    private static final String TAG = "LetterboxTransform";
+    private final float mModelSize;
+    private final int mTargetSize;
+
+    private int mSrcWidth;
+    private int mSrcHeight;
+    private float mScale;
+    private float mPadX;
+    private float mPadY;
+    private float mModelToSrcScale;
+
+    private Bitmap mOutputBitmap;
+    private Canvas mCanvas;
+    private final Matrix mMatrix = new Matrix();
+    private final Paint mPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    /**
+     * Constructor.
+     *
+     * @param modelSize  The width and height of the model's square input, e.g. 608 for YOLOv4.
+     * @param fraction  The fraction of the model size to send. 1.0 sends a full size image.
+     *                  Smaller values reduce upload size, and the server scales the image up.
+     */
+    public LetterboxTransform(float modelSize, float fraction) {
+        mModelSize = modelSize;
+        mTargetSize = Math.max(1, Math.round(modelSize * fraction));
+        Log.i(TAG, "mModelSize="+mModelSize+" mTargetSize="+mTargetSize);
+    }
+
+    public int getTargetSize() {
+        return mTargetSize;
+    }
+
+    /**
+     * Scales the bitmap to fit the target size while keeping its aspect ratio, and pads
+     * the remaining area with black.
+     *
+     * @param bitmap  The camera or video frame.
+     * @return  A square bitmap of the target size.
+     */
+    public Bitmap apply(Bitmap bitmap) {
+        if (bitmap.getWidth() != mSrcWidth || bitmap.getHeight() != mSrcHeight) {
+            updateGeometry(bitmap.getWidth(), bitmap.getHeight());
+        }
+        mCanvas.drawColor(Color.BLACK);
+        mCanvas.drawBitmap(bitmap, mMatrix, mPaint);
+        return mOutputBitmap;
+    }
+
+    private void updateGeometry(int width, int height) {
+        mSrcWidth = width;
+        mSrcHeight = height;
+        mScale = Math.min((float) mTargetSize / width, (float) mTargetSize / height);
+        mPadX = (mTargetSize - width * mScale) / 2;
+        mPadY = (mTargetSize - height * mScale) / 2;
+        // Boxes come back in model coordinates. Undo the server's resize to our target
+        // size, then remove the padding and our own scaling.
+        mModelToSrcScale = (mTargetSize / mModelSize) / mScale;
+
+        mMatrix.reset();
+        mMatrix.postScale(mScale, mScale);
+        mMatrix.postTranslate(mPadX, mPadY);
+
+        if (mOutputBitmap == null) {
+            mOutputBitmap = Bitmap.createBitmap(mTargetSize, mTargetSize, Bitmap.Config.ARGB_8888);
+            mCanvas = new Canvas(mOutputBitmap);
+        }
+        Log.i(TAG, "updateGeometry "+width+"x"+height+" mScale="+mScale+" mPadX="+mPadX+" mPadY="+mPadY);
+    }
+
+    /**
+     * Converts the "rect" of each object from model coordinates to the coordinates of the
+     * original frame. The array is modified in place.
+     *
+     * @param objectsJsonArray  An array of rectangular coordinates and class names for each object detected.
+     */
+    public void mapObjects(JSONArray objectsJsonArray) {
+        if (mSrcWidth == 0) {
+            return;
+        }
+        float offsetX = mPadX / mScale;
+        float offsetY = mPadY / mScale;
+        try {
+            for (int i = 0; i < objectsJsonArray.length(); i++) {
+                JSONObject object = objectsJsonArray.getJSONObject(i);
+                JSONArray jsonRect = object.getJSONArray("rect");
+                JSONArray mapped = new JSONArray();
+                mapped.put(mapCoordinate(jsonRect.getDouble(0), offsetX, mSrcWidth));
+                mapped.put(mapCoordinate(jsonRect.getDouble(1), offsetY, mSrcHeight));
+                mapped.put(mapCoordinate(jsonRect.getDouble(2), offsetX, mSrcWidth));
+                mapped.put(mapCoordinate(jsonRect.getDouble(3), offsetY, mSrcHeight));
+                object.put("rect", mapped);
+            }
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private int mapCoordinate(double value, float offset, int max) {
+        int mapped = Math.round((float) value * mModelToSrcScale - offset);
+        return Math.max(0, Math.min(max, mapped));
+    }
+}
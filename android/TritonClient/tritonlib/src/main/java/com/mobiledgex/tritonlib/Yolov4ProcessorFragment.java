@@ -66,31 +66,24 @@ public class Yolov4ProcessorFragment extends GpuImageProcessorFragment implement
 
     private String mModelName;
 
+    private boolean mLetterboxEnabled;
+    private float mLetterboxFraction = 1.0f;
+    private LetterboxTransform mLetterboxTransform;
+    private int mLastBitmapWidth;
+    private int mLastBitmapHeight;
+    private Rect mLastImageRect;
+
     public static Yolov4ProcessorFragment newInstance() {
         return new Yolov4ProcessorFragment();
     }
 
-    public void restartImageSenderEdge() {
-        if (!mAttached) {
-            Log.w(TAG, "Fragment is detached. Aborting restartImageSenderEdge()");
-            return;
-        }
-        String message;
-        if (mImageSenderEdge == null) {
-            message = "Starting " + mCameraToolbar.getTitle() + " on EDGE host " + mHostDetectionEdge;
-            mEventLogViewer.collapseAfter(3000);
-        } else {
-            message = "Restarting " + mCameraToolbar.getTitle() + " on EDGE host " + mHostDetectionEdge;
-            mImageSenderEdge.closeConnection();
-        }
-        Log.i(TAG, message);
-        showMessage(message);
-
+    @Override
+    protected ImageSender buildImageSenderEdge() {
         boolean tls = mTlsEdge;
         if (mEdgeHostNameOverride) {
             tls = mEdgeHostNameTls;
         }
-        mImageSenderEdge = new ImageSenderTriton.Builder()
+        return new ImageSenderTriton.Builder()
                 .setActivity(getActivity())
                 .setImageServerInterface(this)
                 .setCloudLetType(CloudletType.EDGE)
@@ -116,23 +109,17 @@ public class Yolov4ProcessorFragment extends GpuImageProcessorFragment implement
         }
         mImageRect = imageRect;
 
-        // YOLOV4 resizes all input images to 608x608 before processing them, and bounding box
-        // coordinates returned are based on that. This means we need to track 2 display ratios
-        // and use them both to calculate where to actually draw the bounding boxes.
-        // Example:
-        // Display is 1080x1440. Resized image sent to Yolov4 is 180x240. Yolov4 resizes to 608x608.
-        // mServerToDisplayRatioX = (1080/180)*(180/608) = 1.78
-        // mServerToDisplayRatioY = (1440/240)*(240/608) = 2.37
-        // For bounding boxes received, multiply x and y by these values for actual screen location.
-        float displayToImageRatioX = (float) mImageRect.width() / bitmap.getWidth();
-        float displayToImageRatioY = (float) mImageRect.height() / bitmap.getHeight();
-        float imageToYolov4RatioX = bitmap.getWidth() / YOLOV4_SIZE;
-        float imageToYolov4RatioY = bitmap.getHeight() / YOLOV4_SIZE;
-
-        mServerToDisplayRatioX = displayToImageRatioX * imageToYolov4RatioX;
-        mServerToDisplayRatioY = displayToImageRatioY * imageToYolov4RatioY;
+        // The ratios only change when the frame size or the preview geometry changes, so
+        // don't recompute them for every frame.
+        if (bitmap.getWidth() != mLastBitmapWidth || bitmap.getHeight() != mLastBitmapHeight
+                || !mImageRect.equals(mLastImageRect)) {
+            updateDisplayRatios(bitmap.getWidth(), bitmap.getHeight());
+        }
 
-        Log.d(TAG, "mImageRect="+mImageRect.toShortString()+" mImageRect.height()="+mImageRect.height()+" bitmap.getWidth()="+bitmap.getWidth()+" bitmap.getHeight()="+bitmap.getHeight()+" mServerToDisplayRatioX=" + mServerToDisplayRatioX +" mServerToDisplayRatioY=" + mServerToDisplayRatioY);
+        LetterboxTransform letterboxTransform = mLetterboxTransform;
+        if (letterboxTransform != null) {
+            bitmap = letterboxTransform.apply(bitmap);
+        }
 
         if (mImageSenderEdge != null) {
             mImageSenderEdge.sendImage(bitmap);
@@ -141,6 +128,36 @@ public class Yolov4ProcessorFragment extends GpuImageProcessorFragment implement
         }
     }
 
+    private void updateDisplayRatios(int bitmapWidth, int bitmapHeight) {
+        mLastBitmapWidth = bitmapWidth;
+        mLastBitmapHeight = bitmapHeight;
+        mLastImageRect = new Rect(mImageRect);
+
+        float displayToImageRatioX = (float) mImageRect.width() / bitmapWidth;
+        float displayToImageRatioY = (float) mImageRect.height() / bitmapHeight;
+        if (mLetterboxTransform != null) {
+            // Bounding boxes are mapped back to the coordinates of the original bitmap by
+            // mLetterboxTransform, so only the display ratio is needed here.
+            mServerToDisplayRatioX = displayToImageRatioX;
+            mServerToDisplayRatioY = displayToImageRatioY;
+        } else {
+            // YOLOV4 resizes all input images to 608x608 before processing them, and bounding box
+            // coordinates returned are based on that. This means we need to track 2 display ratios
+            // and use them both to calculate where to actually draw the bounding boxes.
+            // Example:
+            // Display is 1080x1440. Resized image sent to Yolov4 is 180x240. Yolov4 resizes to 608x608.
+            // mServerToDisplayRatioX = (1080/180)*(180/608) = 1.78
+            // mServerToDisplayRatioY = (1440/240)*(240/608) = 2.37
+            // For bounding boxes received, multiply x and y by these values for actual screen location.
+            float imageToYolov4RatioX = bitmapWidth / YOLOV4_SIZE;
+            float imageToYolov4RatioY = bitmapHeight / YOLOV4_SIZE;
+            mServerToDisplayRatioX = displayToImageRatioX * imageToYolov4RatioX;
+            mServerToDisplayRatioY = displayToImageRatioY * imageToYolov4RatioY;
+        }
+
+        Log.i(TAG, "mImageRect="+mImageRect.toShortString()+" bitmap="+bitmapWidth+"x"+bitmapHeight+" mLetterboxEnabled="+mLetterboxEnabled+" mServerToDisplayRatioX=" + mServerToDisplayRatioX +" mServerToDisplayRatioY=" + mServerToDisplayRatioY);
+    }
+
     /**
      * Update the object coordinates.
      *
@@ -173,6 +190,10 @@ public class Yolov4ProcessorFragment extends GpuImageProcessorFragment implement
                     mirrored = false;
                 }
 
+                if (mLetterboxTransform != null) {
+                    mLetterboxTransform.mapObjects(objectsJsonArray);
+                }
+
                 mObjectClassRenderer.setDisplayParms(mImageRect, mServerToDisplayRatioX, mServerToDisplayRatioY, mirrored);
                 mObjectClassRenderer.setObjects(objectsJsonArray);
                 mObjectClassRenderer.invalidate();
@@ -248,6 +269,31 @@ public class Yolov4ProcessorFragment extends GpuImageProcessorFragment implement
         }
     }
 
+    @Override
+    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        if(getContext() == null) {
+            //Can happen during rapid screen rotations.
+            return;
+        }
+        super.onSharedPreferenceChanged(sharedPreferences, key);
+
+        String prefKeyLetterbox = getResources().getString(R.string.pref_letterbox);
+        String prefKeyLetterboxFraction = getResources().getString(R.string.pref_letterbox_fraction);
+
+        if (key.equals(prefKeyLetterbox) || key.equals(prefKeyLetterboxFraction) || key.equals(ALL_PREFS)) {
+            mLetterboxEnabled = sharedPreferences.getBoolean(prefKeyLetterbox, false);
+            mLetterboxFraction = Float.parseFloat(sharedPreferences.getString(prefKeyLetterboxFraction, "1.0"));
+            Log.i(TAG, "mLetterboxEnabled="+mLetterboxEnabled+" mLetterboxFraction="+mLetterboxFraction);
+            if (mLetterboxEnabled) {
+                mLetterboxTransform = new LetterboxTransform(YOLOV4_SIZE, mLetterboxFraction);
+            } else {
+                mLetterboxTransform = null;
+            }
+            // Force the display ratios to be recalculated on the next frame.
+            mLastImageRect = null;
+        }
+    }
+
     @Override
     public ConnectionTester makeConnectionTester(boolean tls) {
         int testConnectionPort = TRITON_HTTP_PORT;